@@ -3,6 +3,8 @@
  */
 const VIDEO_SIZE_2K = '2K';
 const VIDEO_SIZE_4K = '4K';
+const VIDEO_SIZE_AUTO = 'auto';     // Selected by the camera from the bandwidth probe
+const VIDEO_SIZE_FORMAT_PATTERN = /^\d+x\d+(@\d+)?$/;  // e.g. '1024x512@30' (The closest supported format is used.)
 const VIDEO_SIZE_CURRENT = '';
 const PREVIEW_VIDEO_BITRATE_2K = 6500;
 const PREVIEW_VIDEO_BITRATE_4K = 40000;
@@ -13,6 +15,13 @@ const PREVIEW_VIDEO_BITRATE_4K = 40000;
  */
 const AUDIO_VOLUME_DEFAULT = 0.5;
 
+/**
+ * Wait to connect to signaling server again after disconnection
+ *  (Doubled at each failure up to the max, and a random part is added so that viewers do not connect at once.)
+ */
+const SIGNALING_RECONNECT_BASE_MS = 500;
+const SIGNALING_RECONNECT_MAX_MS = 30000;
+
 /**
  * WebRTC WebAPI prefix
  */
@@ -26,6 +35,18 @@ let videSize = VIDEO_SIZE_2K;
 let remoteVideo = null;
 let peerConnection = null;
 let webSocket = null;
+let cameraPeerId = null;    // Sender of the offer on the signaling server
+let resumeToken = null;     // Resumes the session on the signaling server after reconnection
+let reconnectAttempts = 0;
+
+/**
+ * Status events
+ *  (The same event may arrive on both WebSocket and control channel, so it is ignored by sequence number.)
+ */
+let lastEventSeq = 0;
+let statusEventsAvailable = false;
+let waitingShootComplete = false;
+let shootingEventReceived = false;
 
 /**
  * Initialize preview when page was loaded
@@ -48,26 +69,57 @@ function initPreview() {
     /*
      * Connect WebSocket
      */
-    webSocket = new WebSocket(wsUrl);
+    connectSignaling(wsUrl);
+
+    changeViewSize();
+}
+
+/**
+ * Connect to signaling server
+ */
+function connectSignaling(wsUrl) {
+    webSocket = new WebSocket(resumeToken ? wsUrl + '?resume=' + encodeURIComponent(resumeToken) : wsUrl);
     if (webSocket != null) {
         /*
          * WebSocket callback functions definition
          */
         webSocket.onopen = function(evt) {
             console.log('WebSocket open()');
+            reconnectAttempts = 0;
+            /*
+             * Subscribe status events
+             *  (Events on WebSocket also arrive during still image shooting, while the peer connection is closed.)
+             */
+            webSocket.send(JSON.stringify({ type : 'subscribe', events : [ EVENT_SHOOTING_STATUS, EVENT_OPTIONS, EVENT_CAPTURE ] }));
         };
         webSocket.onerror = function(err) {
             console.error('WebSocket onerror() ERR:', err);
         };
+        webSocket.onclose = function(evt) {
+            /*
+             * Connect again, so that the camera can restart ICE of the running session
+             */
+            console.log('WebSocket onclose()');
+            let ceiling = Math.min(SIGNALING_RECONNECT_MAX_MS, SIGNALING_RECONNECT_BASE_MS * Math.pow(2, Math.min(reconnectAttempts, 20)));
+            reconnectAttempts++;
+            setTimeout(function() { connectSignaling(wsUrl); }, ceiling / 2 + Math.random() * ceiling / 2);
+        };
         webSocket.onmessage = function(evt) {
             console.log('WebSocket onmessage() data:', evt.data);
             let message = JSON.parse(evt.data);
             switch (message.type) {
+            case 'welcome': {
+                // The same peer ID is kept on reconnection, so that the camera does not negotiate again
+                console.log('Signaling session ' + message.peer + (message.resumed ? ' resumed' : ''));
+                resumeToken = message.resume;
+                break;
+            }
             case 'offer': {
                 // --- got offer ---
                 console.log('Received offer ...');
+                cameraPeerId = message.from;
                 let offer = new RTCSessionDescription(message);
-                setOffer(offer);
+                setOffer(offer, message.iceRestart === true);
                 break;
             }
             case 'disconnect': {
@@ -77,13 +129,15 @@ function initPreview() {
                 }
                 break;
             }
+            case 'event': {
+                onStatusEvent(message);
+                break;
+            }
             }
         };
     } else {
         console.log('WebSocket connect error');
     }
-
-    changeViewSize();
 }
 
 //
@@ -142,13 +196,13 @@ function sendSdp(sessionDescription) {
     /*
      * Set bitrate
      */
-    let videoBitRate = (videSize === VIDEO_SIZE_2K) ? PREVIEW_VIDEO_BITRATE_2K : PREVIEW_VIDEO_BITRATE_4K;
+    let videoBitRate = (videSize === VIDEO_SIZE_2K) ? PREVIEW_VIDEO_BITRATE_2K : PREVIEW_VIDEO_BITRATE_4K;   // Ceiling for 'auto'
     sessionDescription.sdp = sessionDescription.sdp.replace(/a=mid:video\r\n/g, 'a=mid:video\r\na=framerate:30.0\r\nb=AS:' + videoBitRate + '\r\n');
 
     /*
      * Send SDP to signaling server
      */
-    let message = JSON.stringify(sessionDescription);
+    let message = JSON.stringify({ to : cameraPeerId, type : sessionDescription.type, sdp : sessionDescription.sdp });
     console.log('sending SDP=' + message);
     webSocket.send(message);
 }
@@ -160,6 +214,11 @@ function prepareNewConnection() {
     let pc_config = { 'iceServers':[] };
     let peer = new RTCPeerConnection(pc_config);
 
+    /*
+     * Control channel (Negotiated with the same ID as the plug-in)
+     */
+    createControlChannel(peer);
+
     /*
      * On get remote stream (Currently unused)
      */
@@ -207,6 +266,7 @@ function prepareNewConnection() {
         console.log('ICE connection Status has changed to ' + peer.iceConnectionState);
         switch (peer.iceConnectionState) {
         case 'connected':
+            waitFirstFrameDecoded(peer, performance.now());
             break;
         case 'closed':
             break;
@@ -224,11 +284,36 @@ function prepareNewConnection() {
     return peer;
 }
 
+/**
+ * Wait for the first decoded video frame, and report the time from the connection to the camera
+ */
+function waitFirstFrameDecoded(peer, connectedTime) {
+    peer.getStats()
+    .then(function(report) {
+        let decoded = false;
+        report.forEach(function(stats) {
+            if ((stats.type === 'inbound-rtp') && (stats.kind === 'video' || stats.mediaType === 'video') && (stats.framesDecoded > 0)) {
+                decoded = true;
+            }
+        });
+        if (!decoded) {
+            if ((peerConnection === peer) && (peer.iceConnectionState === 'connected')) {
+                setTimeout(function() { waitFirstFrameDecoded(peer, connectedTime); }, 50);
+            }
+            return;
+        }
+        let elapsedMs = Math.round(performance.now() - connectedTime);
+        console.log('First frame decoded: ' + elapsedMs + 'ms');
+        reportFirstFrame(elapsedMs);
+    });
+}
+
 /**
  * Start preview
  */
 function startPreview(previewSize) {
-    if ((previewSize === VIDEO_SIZE_2K) || (previewSize === VIDEO_SIZE_4K)) {
+    if ((previewSize === VIDEO_SIZE_2K) || (previewSize === VIDEO_SIZE_4K) || (previewSize === VIDEO_SIZE_AUTO)
+        || VIDEO_SIZE_FORMAT_PATTERN.test(previewSize)) {
         videSize = previewSize;
     } else if (previewSize !== VIDEO_SIZE_CURRENT) {
         videSize = VIDEO_SIZE_2K;   // Default;
@@ -301,18 +386,56 @@ function shoot() {
     stopLivePreview()
     .then(function() {
         /*
-         * Shoot
+         * Shoot (Completion is notified by shooting status event, if available)
          */
+        waitingShootComplete = true;
+        shootingEventReceived = false;
         return takePictureInternal();
     })
     .then(function() {
-        /*
-         * Start check shooting status
-         */
-        checkShootingStatus();
+        if (!statusEventsAvailable) {
+            /*
+             * Start check shooting status
+             */
+            waitingShootComplete = false;
+            checkShootingStatus();
+        }
     });
 }
 
+/**
+ * Status event handling
+ */
+function onStatusEvent(message) {
+    if (message.seq <= lastEventSeq) {
+        return;
+    }
+    lastEventSeq = message.seq;
+    statusEventsAvailable = true;
+
+    switch (message.event) {
+    case EVENT_SHOOTING_STATUS:
+        if (!waitingShootComplete) {
+            break;
+        }
+        if (message.data.status !== 'idle') {
+            shootingEventReceived = true;
+        } else if (shootingEventReceived) {
+            waitingShootComplete = false;
+            shootComplete();
+        }
+        break;
+    case EVENT_OPTIONS:
+        setUIOptions(message.data.options, false);
+        break;
+    case EVENT_STREAM_HEALTH:
+        console.log('Stream health:', message.data);
+        break;
+    default:
+        break;
+    }
+}
+
 /**
  * Shooting status check
  */
@@ -380,11 +503,18 @@ function makeOffer() {
 /**
  * Store SDP of the received offer
  */
-function setOffer(sessionDescription) {
+function setOffer(sessionDescription, iceRestart) {
     if (peerConnection) {
         console.log('PeerConnection alreay exist!');
     }
-    peerConnection = prepareNewConnection();
+    if (iceRestart && peerConnection && (peerConnection.signalingState !== 'closed')) {
+        /*
+         * ICE restart of the running session (Media keeps flowing on the existing connection)
+         */
+        console.log('ICE restart');
+    } else {
+        peerConnection = prepareNewConnection();
+    }
     peerConnection.setRemoteDescription(sessionDescription)
     .then(function() {
         console.log('setRemoteDescription(offer) succsess in promise');
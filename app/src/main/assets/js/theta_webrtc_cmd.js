@@ -8,6 +8,20 @@ const CONTENT_TYPE = 'content-Type';
 const TYPE_JSON = 'application/json';
 const COMMAND = 'webrtc/commands/execute';
 
+/**
+ * Constants definition for control channel (negotiated RTCDataChannel)
+ */
+const CONTROL_CHANNEL_LABEL = 'control';
+const CONTROL_CHANNEL_ID = 0;
+
+/**
+ * Status events pushed by the camera
+ */
+const EVENT_SHOOTING_STATUS = 'shootingStatus';
+const EVENT_OPTIONS = 'options';
+const EVENT_CAPTURE = 'capture';
+const EVENT_STREAM_HEALTH = 'streamHealth';
+
 /**
  * Command name
  */
@@ -21,6 +35,7 @@ const STOP_LIVE_PREVIEW = 'camera.stopLivePreview';
 const SET_SETTINGS = 'camera.setSettings';
 const GET_SETTINGS = 'camera.getSettings';
 const GET_STATUS = 'camera.getStatus';
+const REPORT_FIRST_FRAME = 'camera._reportFirstFrame';
 
 /**
  * Camera option name list definition
@@ -41,12 +56,97 @@ const SETTING_NAME_LIST = [
     'remainingPictures'
 ];
 
+/**
+ * Control channel and the requests waiting for response
+ */
+let controlChannel = null;
+let controlRequestId = 0;
+let controlRequests = {};
+
+/**
+ * Create control channel on the peer connection
+ *  (While the channel is open, commands are sent over it instead of HTTP request.)
+ */
+function createControlChannel(peer) {
+    let channel = peer.createDataChannel(CONTROL_CHANNEL_LABEL, { negotiated : true, id : CONTROL_CHANNEL_ID, ordered : true });
+    channel.onopen = function() {
+        console.log('Control channel open');
+        /*
+         * Subscribe status events (Stream health is available only on the control channel.)
+         */
+        sendControlCommand({ subscribe : [ EVENT_SHOOTING_STATUS, EVENT_OPTIONS, EVENT_CAPTURE, EVENT_STREAM_HEALTH ] });
+    };
+    channel.onclose = function() {
+        console.log('Control channel close');
+        if (controlChannel === channel) {
+            controlChannel = null;
+        }
+        /*
+         * Fail the requests waiting for response
+         */
+        let requests = controlRequests;
+        controlRequests = {};
+        Object.keys(requests).forEach(function(id) {
+            requests[id]('Failed. Control channel closed');
+        });
+    };
+    channel.onmessage = function(evt) {
+        let message = JSON.parse(evt.data);
+        if (message.type === 'event') {
+            onStatusEvent(message);
+            return;
+        }
+        let resolve = controlRequests[message.id];
+        if (resolve) {
+            delete controlRequests[message.id];
+            if (message.code === HTTP_STATUS_OK) {
+                resolve(JSON.stringify(message.response));
+            } else {
+                resolve('Failed. Status: ' + message.code);
+            }
+        }
+    };
+    controlChannel = channel;
+    return channel;
+}
+
+/**
+ * Send command over control channel
+ *  (Returns null if the channel is not open. Requests are pipelined, and matched with responses by ID.)
+ */
+function sendControlCommand(command) {
+    if ((controlChannel === null) || (controlChannel.readyState !== 'open')) {
+        return null;
+    }
+    let id = ++controlRequestId;
+    let request = Object.assign({ id : id }, command);
+    return new Promise(function(resolve) {
+        controlRequests[id] = function(responseText) {
+            console.log(responseText);
+            resolve(responseText);
+        };
+        controlChannel.send(JSON.stringify(request));
+    });
+}
+
+/**
+ * Send '_reportFirstFrame' command over control channel
+ *  (The report is dropped if the channel is not open.)
+ */
+function reportFirstFrame(elapsedMs) {
+    let command = {};
+    command.name = REPORT_FIRST_FRAME;
+    command.parameters = { elapsedMs : elapsedMs };
+    return sendControlCommand(command);
+}
+
 /**
  * Send 'startLivePreview' command with HTTP request
+ *  (previewOptions: optional, e.g. { degradationPreference : 'maintain-resolution', contentHint : 'detail' })
  */
-function startLivePreview(videoSize) {
+function startLivePreview(videoSize, previewOptions) {
     let command = {};
-    let option = new Object();
+    let option = Object.assign({}, previewOptions);
     command.name = 'camera.startLivePreview';
     option.videoSize = videoSize;
     command.parameters = { options : option };
@@ -129,6 +229,10 @@ function getShootingStatus() {
     let command = {};
     command.name = GET_SHOOTING_STATUS;
     console.log(command.name);
+    let controlResponse = sendControlCommand(command);
+    if (controlResponse !== null) {
+        return controlResponse;
+    }
     return new Promise(function(resolve) {
         let xmlHttpRequest = new XMLHttpRequest();
         xmlHttpRequest.onreadystatechange = function() {
@@ -156,6 +260,10 @@ function setOptionsInternal(cameraParams) {
     command.name = SET_OPTIONS;
     command.parameters = { options : JSON.parse(JSON.stringify(cameraParams)) };
     console.log(command.name);
+    let controlResponse = sendControlCommand(command);
+    if (controlResponse !== null) {
+        return controlResponse;
+    }
     return new Promise(function(resolve) {
         let xmlHttpRequest = new XMLHttpRequest();
         xmlHttpRequest.onreadystatechange = function() {
@@ -183,6 +291,10 @@ function getOptionsInternal() {
     command.name = GET_OPTIONS;
     command.parameters = { optionNames : OPTION_NAME_LIST };
     console.log(command.name);
+    let controlResponse = sendControlCommand(command);
+    if (controlResponse !== null) {
+        return controlResponse;
+    }
     return new Promise(function(resolve) {
         let xmlHttpRequest = new XMLHttpRequest();
         xmlHttpRequest.onreadystatechange = function() {
@@ -210,6 +322,10 @@ function setSettings(settings) {
     command.name = SET_SETTINGS;
     command.parameters = { options : JSON.parse(JSON.stringify(settings)) };
     console.log(command.name);
+    let controlResponse = sendControlCommand(command);
+    if (controlResponse !== null) {
+        return controlResponse;
+    }
     return new Promise(function(resolve) {
         let xmlHttpRequest = new XMLHttpRequest();
         xmlHttpRequest.onreadystatechange = function() {
@@ -237,6 +353,10 @@ function getSettings() {
     command.name = GET_SETTINGS;
     command.parameters = { optionNames : SETTING_NAME_LIST };
     console.log(command.name);
+    let controlResponse = sendControlCommand(command);
+    if (controlResponse !== null) {
+        return controlResponse;
+    }
     return new Promise(function(resolve) {
         let xmlHttpRequest = new XMLHttpRequest();
         xmlHttpRequest.onreadystatechange = function() {
@@ -263,6 +383,10 @@ function getStatus() {
     let command = {};
     command.name = GET_STATUS;
     console.log(command.name);
+    let controlResponse = sendControlCommand(command);
+    if (controlResponse !== null) {
+        return controlResponse;
+    }
     return new Promise(function(resolve) {
         let xmlHttpRequest = new XMLHttpRequest();
         xmlHttpRequest.onreadystatechange = function() {
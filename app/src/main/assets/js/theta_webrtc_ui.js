@@ -1375,9 +1375,13 @@ function setOptions() {
 
     /*
      * Setting to camera.
+     *  (The options in effect are reflected to UI by the options event, if available.)
      */
     setOptionsInternal(options)
     .then(function() {
+        if (statusEventsAvailable) {
+            return Promise.reject('Wait for options event');
+        }
         return sleep(200);
     })
     .then(function() {
@@ -1387,6 +1391,9 @@ function setOptions() {
         let json = JSON.parse(responseText);
         options = json.results.options;
         setUIOptions(options, false);
+    })
+    .catch(function(reason) {
+        console.log(reason);
     });
 }
 
@@ -20,7 +20,9 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.hardware.Camera;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
 import android.view.WindowManager;
@@ -28,25 +30,42 @@ import android.view.KeyEvent;
 import android.widget.TextView;
 import android.widget.TextView.BufferType;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.net.URI;
 
 import org.java_websocket.WebSocket;
 
+import org.webrtc.IceCandidate;
+import org.webrtc.PeerConnection;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
-
+import com.theta360.pluginapplication.webrtc.sample.model.AudioOptions;
 import com.theta360.pluginapplication.webrtc.sample.model.CameraOption;
+import com.theta360.pluginapplication.webrtc.sample.model.VideoEncoderPolicy;
+import com.theta360.pluginapplication.webrtc.sample.model.VideoSenderOptions;
 import com.theta360.pluginapplication.webrtc.sample.network.model.commands.CommandsName;
 import com.theta360.pluginapplication.webrtc.sample.network.model.requests.CommandsRequest;
 import com.theta360.pluginapplication.webrtc.sample.network.model.responses.CommandsResponse;
@@ -80,12 +99,15 @@ public class MainActivity extends PluginActivity {
     }
 
     /*
-     * Video size
+     * Video size ("2K", "4K", or "<width>x<height>[@<fps>]", e.g. "1024x512@30")
      */
-    private enum VideoSize {
-        VideoSize2K,
-        VideoSize4K
-    }
+    private static final Pattern VIDEO_SIZE_PATTERN = Pattern.compile("^(\\d+)x(\\d+)(?:@(\\d+))?$");
+
+    /*
+     * RTP map of Opus in SDP (Group 1: payload type)
+     */
+    private static final Pattern OPUS_RTPMAP_PATTERN = Pattern.compile("(?m)^a=rtpmap:(\\d+) opus/48000");
+    private static final int DEFAULT_CAPTURE_FPS = 30;
 
     /*
      * Finish status
@@ -111,12 +133,38 @@ public class MainActivity extends PluginActivity {
     private boolean mWebRTCConnected = false;
     private Handler mWebRTCHandler = null;
 
-    // For WebSocket connection retry
-    private static final int MAX_WS_CONNECT_RETRY_CNT = 3;
-    private static final long WS_CONNECT_RETRY_WAITTIME = 5000;
-    private boolean mNeedRetry = false;
-    private int mRetryCounter = 0;
+    // For WebSocket connection retry (Exponential backoff with jitter, until connected)
+    private static final long WS_RECONNECT_BASE_WAITTIME = 500;
+    private static final long WS_RECONNECT_MAX_WAITTIME = 30000;
+    private final ReconnectPolicy mReconnectPolicy = new ReconnectPolicy(WS_RECONNECT_BASE_WAITTIME, WS_RECONNECT_MAX_WAITTIME);
+    private volatile boolean mNeedRetry = false;
     private Handler mHandler = null;
+    // Heartbeat of the signaling connections (Dead peers are disconnected.)
+    private volatile long mHeartbeatIntervalMs = HeartbeatMonitor.DEFAULT_INTERVAL_MS;
+    private volatile long mHeartbeatTimeoutMs = HeartbeatMonitor.DEFAULT_TIMEOUT_MS;
+    private final Runnable mRetryConnection = new Runnable() {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            if (!mNeedRetry) {
+                return;
+            }
+            mSignalingEndpoint = createSignalingEndpoint();
+            wsConnect();
+        }
+    };
+    // Forget the viewers of the hub, when the session on the hub is not resumed in time
+    private final Runnable mForgetHubViewers = new Runnable() {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            clearHubViewers();
+        }
+    };
 
     // Server address and port
     private static final String WIFI_INTERFACE_NAME = "wlan0";
@@ -130,25 +178,96 @@ public class MainActivity extends PluginActivity {
 
     // Send offer / Recv answer state
     private boolean mTypeOffer = false;
+    private volatile String mRemotePeerId = null;   // Peer ID of the browser on the signaling server
     private SigState mState = SigState.Disconnected;
 
     // HTTPD/WevSocketServer
     private WebServer mWebServer = null;
     private SignalingServer mSigServer = null;
 
-    // WebSocket client
-    private WebRTCSocketClient mWsClient = null;
+    // HTTP signaling (WHEP) for the viewers without the signaling server
+    private static final String WHEP_VIDEO_SIZE = "2K";
+    private WhepEndpoint mWhepEndpoint = null;
+    private volatile WhepEndpoint.AnswerSender mWhepAnswerSender = null;
+    private WhepEndpoint.AnswerSender mWhepSessionSender = null;    // Sender of the offer of the session (Kept after the answer)
+
+    // Endpoint of this plug-in on the signaling server
+    private volatile SignalingEndpoint mSignalingEndpoint = null;
+
+    // Signaling hub on a gateway, to which this plug-in is registered as a camera (null: the local server is used)
+    private static final String HUB_URI_PREFIX = "ws://";
+    private static final String HUB_SECURE_URI_PREFIX = "wss://";
+    private volatile String mHubUri = null;
+    private final Set<String> mHubViewers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     // RTP Session max bandwidth (Kbits/sec)
     private static final int MAX_RTP_SESSION_BANDWIDTH = 40000;
 
+    // Video encoder policy and sender options
+    private VideoEncoderPolicy mEncoderPolicy = new VideoEncoderPolicy();
+    private VideoSenderOptions mVideoSenderOptions = new VideoSenderOptions();
+    private AudioOptions mAudioOptions = new AudioOptions();
+
+    // Encoder benchmark default parameters
+    private static final int BENCHMARK_FRAMES_DEFAULT = 300;
+
+    // Pre-warm of peer connection (Created when a browser connects to the signaling server)
+    private boolean mPrewarmEnabled = true;
+    private boolean mPrewarmed = false;
+    private boolean mPreviewStarted = false;
+    private SignalingMessage mPendingLocalSdp = null;
+    private long mPrewarmStartTimeMs = 0;
+
+    // Time-to-first-frame trace of the last sessions
+    private final SessionTrace mSessionTrace = new SessionTrace();
+
+    // Recovery from connectivity loss (ICE restart within the grace period)
+    private ConnectionRecovery mConnectionRecovery = null;
+    private boolean mIceRestarting = false;
+
     // Camera and Parameters
     private Camera mCamera = null;
     CameraOption mCameraOptions = new CameraOption();
 
+    // Recording of the streamed video (Guarded by mRecorderLock)
+    private static final String RECORDING_DIRECTORY = "DCIM/100RICOH";
+    private final Object mRecorderLock = new Object();
+    private StreamRecorder mStreamRecorder = null;
+
+    // Rolling buffer of the streamed video for incident clips (null: disabled)
+    private static final int CLIP_BUFFER_BYTES_PER_SEC = 3 * 1024 * 1024;     // Up to 24 Mbps
+    private static final int MAX_CLIP_BUFFER_SEC = 60;
+    private static final int DEFAULT_CLIP_DURATION_SEC = 30;
+    private static final String CLIP_BUFFER_FILE_NAME = "clip_buffer.bin";
+    private volatile ClipBuffer mClipBuffer = null;
+    private int mClipBufferSec = 0;
+    private boolean mClipBufferMapped = false;
+
     // Shooting status
     private Status mShootingStatus = Status.IDLE;
 
+    // Status events pushed to the browsers (over the control channel and the signaling server)
+    private final StatusEventPublisher mStatusEvents = new StatusEventPublisher();
+    private final StatusEventPublisher.Sink mWsEventSink = new StatusEventPublisher.Sink() {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean sendEvent(String message) {
+            SignalingEndpoint endpoint = mSignalingEndpoint;
+            if (endpoint == null || !endpoint.isOpen()) {
+                return false;
+            }
+            try {
+                endpoint.send(SignalingMessageCodec.decode(message));
+            } catch (SignalingMessageCodec.MalformedMessageException e) {
+                Log.e(TAG, "JSON parsing error");
+                return false;
+            }
+            return true;
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -158,6 +277,11 @@ public class MainActivity extends PluginActivity {
 
         mWebRTCHandler = new Handler();
 
+        // Initial values of status events
+        mStatusEvents.publish(StatusEventPublisher.SHOOTING_STATUS, "status", mShootingStatus.toString());
+        mStatusEvents.publish(StatusEventPublisher.CAPTURE, "state", "stopped");
+        mStatusEvents.publish(StatusEventPublisher.RECORDING, "state", "stopped");
+
         /*
          * Get myself IP address
          */
@@ -190,15 +314,15 @@ public class MainActivity extends PluginActivity {
         setupView();
 
         /*
-         * Create WebSocket client
+         * Create the endpoint on the signaling server
          */
-        mWsClient = new WebRTCSocketClient(mWsServerUri);
+        mSignalingEndpoint = createSignalingEndpoint();
         mNeedRetry = true;
-        mRetryCounter = 0;
+        mReconnectPolicy.reset();
         mHandler = new Handler();
 
         /*
-         * Connect to WebSocket server on same host.
+         * Connect to the signaling server on same host.
          */
         wsConnect();
 
@@ -208,6 +332,9 @@ public class MainActivity extends PluginActivity {
         if (checkPermissions()) {
             // Create and Start WebRTC
             mWebRTC = new WebRTC(this);
+            mWebRTC.setSessionTrace(mSessionTrace);
+            mWebRTC.setEventPublisher(mStatusEvents);
+            mConnectionRecovery = new ConnectionRecovery(mRecoveryCallback);
         } else {
             // Not have the required permissions.
             mFinishStatus = FinishStatus.Failure;
@@ -306,9 +433,13 @@ public class MainActivity extends PluginActivity {
          * Connection with the signaling server terminated
          */
         mNeedRetry = false;
-        mRetryCounter = 0;
-        if (mWsClient != null) {
-            mWsClient.closeWebSocket();
+        mReconnectPolicy.reset();
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mRetryConnection);
+            mHandler.removeCallbacks(mForgetHubViewers);
+        }
+        if (mSignalingEndpoint != null) {
+            mSignalingEndpoint.close();
         }
 
         /*
@@ -355,6 +486,9 @@ public class MainActivity extends PluginActivity {
                 @Override
                 public void onConnected(WebSocket conn) {
                     Log.d(TAG, "SignalingServer onConnected");
+                    if (mHubUri == null && isBrowserConnection(conn)) {
+                        onBrowserConnected(mSigServer.getPeerId(conn));
+                    }
                 }
                 /**
                  * {@inheritDoc}
@@ -362,16 +496,9 @@ public class MainActivity extends PluginActivity {
                 @Override
                 public void onDisconnected(WebSocket conn) {
                     Log.d(TAG, "SignalingServer onDisconnected");
-                    mWebRTCHandler.post(new Runnable() {
-                        /**
-                         * {@inheritDoc}
-                         */
-                        @Override
-                        public void run() {
-                            stopWebRTC();
-                        }
-                    });
-                    changeState(SigState.Connected);
+                    if (mHubUri == null) {
+                        onBrowserDisconnected();
+                    }
                 }
                 /**
                  * {@inheritDoc}
@@ -387,6 +514,8 @@ public class MainActivity extends PluginActivity {
             sigServerResult = true;
             // Start HTTP server
             mWebServer = new WebServer(getApplicationContext(), null, mWebServerCallback);
+            mWhepEndpoint = new WhepEndpoint(mWhepCallback);
+            mWebServer.addWhepEndpoint(mWhepEndpoint);
             webServerResult = true;
         } catch (IllegalStateException e) {
             Log.e(TAG, "SignalingServer start error");
@@ -433,29 +562,53 @@ public class MainActivity extends PluginActivity {
         }
 
         mWebRTC.connect(new WebRTC.WebRTCCallbacks() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public String onModifyLocalSdp(String sdp) {
+                return setSDPSimulcast(sdp, mVideoSenderOptions.getSimulcastLayers());
+            }
+
             /**
              * {@inheritDoc}
              */
             @Override
             public void onCreateLocalSdp(String sdp) {
-                String description = preferCodec(sdp, "H264", false);
+                // Prefer codecs in the order of the encoder policy
+                String description = sdp;
+                List<String> codecs = mEncoderPolicy.getCodecs();
+                for (int i = codecs.size() - 1; i >= 0; i--) {
+                    description = preferCodec(description, codecs.get(i), false);
+                }
                 description = setSDPRTPSessionBandwidth(description, MAX_RTP_SESSION_BANDWIDTH);
+                description = setSDPOpusParameters(description, mAudioOptions);
                 description = setSDPRequestOnly(description);
 
-                String type = (mTypeOffer) ? "offer" : "answer";
-                Log.d(TAG, "WebRTCCallbacks.onCreateLocalSdp(" + type + ")");
-                JSONObject json = new JSONObject();
-                try {
-                    json.put("type", type);
-                    json.put("sdp", description);
-                } catch (JSONException e) {
-                    Log.e(TAG, "JSON exception");
-                    throw new RuntimeException(e);
+                WhepEndpoint.AnswerSender whepAnswerSender = mWhepAnswerSender;
+                if (whepAnswerSender != null && !mTypeOffer) {
+                    // Answer of HTTP signaling (Candidates are already gathered)
+                    Log.d(TAG, "WebRTCCallbacks.onCreateLocalSdp(WHEP answer)");
+                    mWhepAnswerSender = null;
+                    whepAnswerSender.sendAnswer(description);
+                    mSessionTrace.mark(SessionTrace.Event.LOCAL_SDP_SENT);
+                    return;
                 }
 
-                if (mWsClient != null) {
-                    // Send offer
-                    mWsClient.sendWebSocketMessage(json.toString());
+                SignalingMessage localSdp = (mTypeOffer) ? SignalingMessage.offer(description) : SignalingMessage.answer(description);
+                Log.d(TAG, "WebRTCCallbacks.onCreateLocalSdp(" + localSdp.getTypeName() + ")");
+                if (mIceRestarting) {
+                    // The browser applies it to the existing peer connection
+                    localSdp.setIceRestart(true);
+                    mIceRestarting = false;
+                }
+
+                if (mPrewarmed) {
+                    // Hold the offer until the live preview is started
+                    Log.d(TAG, "Prewarm: local SDP ready in " + (SystemClock.elapsedRealtime() - mPrewarmStartTimeMs) + "ms");
+                    mPendingLocalSdp = localSdp;
+                } else {
+                    sendLocalSdp(localSdp);
                 }
             }
 
@@ -467,7 +620,9 @@ public class MainActivity extends PluginActivity {
                 if (thetaCamera != null) {
                     mCamera = thetaCamera;
                     mCameraOptions.getCameraParameters(mCamera, false);
+                    mStatusEvents.publish(StatusEventPublisher.OPTIONS, createJSONFromJSON("options", mCameraOptions.getAllOptions()));
                 }
+                mStatusEvents.publish(StatusEventPublisher.CAPTURE, "state", "started");
             }
 
             /**
@@ -477,6 +632,33 @@ public class MainActivity extends PluginActivity {
             public void didReceiveRemoteStream() {
                 changeState(SigState.Done);
             }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onControlCommand(final ResponseSender sender, final JSONObject command, final long receivedTimeNs) {
+                // Dispatch on the HTTP server thread, in the same way as HTTP commands
+                WebServer webServer = mWebServer;
+                if (webServer != null) {
+                    webServer.postCommand(sender, command, receivedTimeNs);
+                }
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onIceConnectionChange(final PeerConnection.IceConnectionState state) {
+                mWebRTCHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mWebRTCConnected && mPreviewStarted) {
+                            mConnectionRecovery.onIceConnectionChange(state);
+                        }
+                    }
+                });
+            }
         });
 
         mWebRTCConnected = true;
@@ -493,22 +675,340 @@ public class MainActivity extends PluginActivity {
             return;
         }
 
-        stopPreview();
+        mConnectionRecovery.reset();
+        mIceRestarting = false;
+        WhepEndpoint.AnswerSender whepAnswerSender = mWhepAnswerSender;
+        mWhepAnswerSender = null;
+        mWhepSessionSender = null;
+        if (whepAnswerSender != null) {
+            whepAnswerSender.sendError(503);
+        }
+        if (mWhepEndpoint != null) {
+            mWhepEndpoint.closeSession();
+        }
+        if (mPreviewStarted) {
+            stopPreview();
+        }
         mWebRTC.disconnect();
 
+        mPrewarmed = false;
+        mPendingLocalSdp = null;
         mWebRTCConnected = false;
     }
 
+    /*
+     * Pre-warm WebRTC
+     * (Create the peer connection and the offer while a browser is still opening the preview,
+     *  so that ICE candidate gathering runs in parallel with camera open.)
+     */
+    private void prewarmWebRTC() {
+        if (!mPrewarmEnabled || mWebRTC == null || mWebRTCConnected || mState != SigState.Connected) {
+            return;
+        }
+        Log.d(TAG, "prewarmWebRTC");
+
+        mPrewarmStartTimeMs = SystemClock.elapsedRealtime();
+        startWebRTC();
+        mPrewarmed = true;
+        mPendingLocalSdp = null;
+        createOffer();
+    }
+
+    /*
+     * Callbacks of connection recovery (Called on the main thread)
+     */
+    private final ConnectionRecovery.Callback mRecoveryCallback = new ConnectionRecovery.Callback() {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean onRestartIce() {
+            if (!mWebRTCConnected || isWhepSession() || !isBrowserConnected()
+                    || mSignalingEndpoint == null || !mSignalingEndpoint.isOpen()) {
+                // An offer of HTTP signaling can not be sent to the viewer
+                return false;
+            }
+            changeState(SigState.Offering);
+            mTypeOffer = true;
+            mIceRestarting = true;
+            mWebRTC.restartIce();
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onRecoveryTimeout() {
+            stopWebRTC();
+            changeState(SigState.Connected);
+            mSessionTrace.end();
+            if (isBrowserConnected()) {
+                // Prepare for the next 'startLivePreview'
+                prewarmWebRTC();
+            }
+        }
+    };
+
+    /*
+     * Send the offer created by pre-warm, or create offer
+     */
+    private void releaseOffer() {
+        if (mPrewarmed) {
+            mPrewarmed = false;
+            mSessionTrace.setPrewarmed(true);
+            if (mPendingLocalSdp != null) {
+                sendLocalSdp(mPendingLocalSdp);
+                mPendingLocalSdp = null;
+            }
+            // Otherwise, sent when ICE candidate gathering is finished.
+        } else if (mState == SigState.Connected) {
+            // Create offer
+            createOffer();
+        }
+    }
+
+    /*
+     * Send local SDP to signaling server
+     */
+    private void sendLocalSdp(SignalingMessage message) {
+        SignalingEndpoint endpoint = mSignalingEndpoint;
+        if (endpoint != null) {
+            // Send offer to the browser (Broadcast if no browser is known)
+            message.setTo(mRemotePeerId);
+            endpoint.send(message);
+            mSessionTrace.mark(SessionTrace.Event.LOCAL_SDP_SENT);
+        }
+    }
+
+    /*
+     * A browser connected to the signaling server (or joined the group of this camera on the hub)
+     */
+    private void onBrowserConnected(String peerId) {
+        if (!mPreviewStarted) {
+            // The offer is sent to the browser connected last
+            mRemotePeerId = peerId;
+        }
+        mWebRTCHandler.post(new Runnable() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void run() {
+                if (mConnectionRecovery.isRecovering()) {
+                    mConnectionRecovery.onSignalingRestored();
+                } else {
+                    prewarmWebRTC();
+                }
+            }
+        });
+    }
+
+    /*
+     * A browser disconnected from the signaling server (or left the group of this camera on the hub)
+     */
+    private void onBrowserDisconnected() {
+        final boolean browserConnected = isBrowserConnected();
+        if (!browserConnected) {
+            mStatusEvents.unsubscribe(mWsEventSink);
+        }
+        mWebRTCHandler.post(new Runnable() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void run() {
+                if (isWhepSession()) {
+                    // The session is not signaled by the signaling server
+                    return;
+                }
+                if (mPreviewStarted && !browserConnected && mConnectionRecovery.getGracePeriodMs() > 0) {
+                    // Keep the session during the grace period. The browser may connect again.
+                    mConnectionRecovery.onSignalingLost();
+                    return;
+                }
+                stopWebRTC();
+                changeState(SigState.Connected);
+                mSessionTrace.end();
+            }
+        });
+    }
+
+    /*
+     * Forget the viewers of the hub
+     * (They are notified again when a new session on the hub is started. A resumed session keeps them.)
+     */
+    private void clearHubViewers() {
+        if (!mHubViewers.isEmpty()) {
+            mHubViewers.clear();
+            onBrowserDisconnected();
+        }
+    }
+
+    /*
+     * Return whether the connection to the signaling server is from a browser
+     * (The endpoint of this plug-in is registered with the camera peer ID.)
+     */
+    private boolean isBrowserConnection(WebSocket conn) {
+        SignalingServer sigServer = mSigServer;
+        String peerId = (sigServer == null) ? null : sigServer.getPeerId(conn);
+        return peerId != null && !SignalingServer.CAMERA_PEER_ID.equals(peerId);
+    }
+
+    /*
+     * Return whether any browser is connected to the signaling server
+     */
+    private boolean isBrowserConnected() {
+        if (mHubUri != null) {
+            return !mHubViewers.isEmpty();
+        }
+        if (mSigServer == null) {
+            return false;
+        }
+        for (WebSocket conn : mSigServer.getConnections()) {
+            if (conn.isOpen() && isBrowserConnection(conn)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Callbacks of WHEP endpoint (Called on the HTTP server thread)
+     */
+    private final WhepEndpoint.Callback mWhepCallback = new WhepEndpoint.Callback() {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onOffer(final String sdp, final WhepEndpoint.AnswerSender sender) {
+            final long receivedTimeNs = SessionTrace.now();
+            mWebRTCHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    startWhepSession(sdp, sender, receivedTimeNs);
+                }
+            });
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onCandidates(final List<IceCandidate> candidates) {
+            mWebRTCHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mWebRTCConnected) {
+                        return;
+                    }
+                    for (IceCandidate candidate : candidates) {
+                        mWebRTC.addRemoteIceCandidate(candidate);
+                    }
+                }
+            });
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onDelete() {
+            mWebRTCHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Log.d(TAG, "WHEP session deleted");
+                    stopWebRTC();
+                    changeState(SigState.Connected);
+                    mSessionTrace.end();
+                    if (isBrowserConnected()) {
+                        prewarmWebRTC();
+                    }
+                }
+            });
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onTimeout(final WhepEndpoint.AnswerSender sender) {
+            mWebRTCHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (sender != mWhepSessionSender) {
+                        // The session has already been stopped
+                        return;
+                    }
+                    // The viewer gave up. The camera must not keep the session, or the next offers get 409.
+                    Log.d(TAG, "WHEP answer timeout");
+                    stopWebRTC();
+                    changeState(SigState.Connected);
+                    mSessionTrace.end();
+                    if (isBrowserConnected()) {
+                        prewarmWebRTC();
+                    }
+                }
+            });
+        }
+    };
+
+    /*
+     * Start the session of HTTP signaling with the offer of the viewer
+     * (The answer is sent when ICE candidate gathering is finished.)
+     */
+    private void startWhepSession(String sdp, WhepEndpoint.AnswerSender sender, long receivedTimeNs) {
+        if (mPreviewStarted || mWhepAnswerSender != null) {
+            // Another viewer is served
+            sender.sendError(409);
+            return;
+        }
+        Log.d(TAG, "startWhepSession");
+        if (mWebRTCConnected) {
+            // The pre-warmed peer connection is an offerer. Start over as an answerer.
+            stopWebRTC();
+        }
+        mSessionTrace.begin(receivedTimeNs);
+        mWhepAnswerSender = sender;
+        mWhepSessionSender = sender;
+        mTypeOffer = false;
+        startWebRTC();
+        mWebRTC.setAutoQuality(false);
+        startPreview(WHEP_VIDEO_SIZE);
+        changeState(SigState.CreatingAnswer);
+        mWebRTC.receiveOffer(setSDPOpusParameters(sdp, mAudioOptions));
+    }
+
+    /*
+     * Return whether the session is signaled by HTTP signaling
+     */
+    private boolean isWhepSession() {
+        return mWhepAnswerSender != null || (mWhepEndpoint != null && mWhepEndpoint.hasSession());
+    }
+
     /*
      * Start preview
      */
-    private void startPreview(VideoSize videoSize) {
+    private void startPreview(String videoSize) {
         Log.d(TAG, "startPreview");
 
         notificationCameraClose();
         sleep(300);
-        mWebRTC.setFrameSize((videoSize == VideoSize.VideoSize2K) ? 1 : 2);
+        if (mClipBuffer != null) {
+            // Frames of the last preview are not continuous with the new one
+            mClipBuffer.clear();
+        }
+        Matcher matcher = VIDEO_SIZE_PATTERN.matcher(videoSize);
+        if (matcher.matches()) {
+            // The closest format supported by the camera is selected.
+            int fps = (matcher.group(3) == null) ? DEFAULT_CAPTURE_FPS : Integer.parseInt(matcher.group(3));
+            mWebRTC.setCaptureFormat(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)), fps);
+        } else {
+            // "auto" starts with 2K
+            mWebRTC.setFrameSize((videoSize.equals("2K") || videoSize.equals("auto")) ? 1 : 2);
+        }
         mWebRTC.startCapture();
+        mPreviewStarted = true;
     }
 
     /*
@@ -517,17 +1017,20 @@ public class MainActivity extends PluginActivity {
     private void stopPreview() {
         Log.d(TAG, "stopPreview");
 
+        stopRecording();
         mWebRTC.stopCapture();
         sleep(300);
         mCamera = null;
         notificationCameraOpen();
         sleep(600);
+        mPreviewStarted = false;
+        mStatusEvents.publish(StatusEventPublisher.CAPTURE, "state", "stopped");
     }
 
     /*
      * Execute still capture
      */
-    private void takePicture(AsyncHttpServerResponse response, CommandsRequest commandsRequest) {
+    private void takePicture(ResponseSender response, CommandsRequest commandsRequest) {
         new TakePictureTask(new TakePictureTask.Callback() {
             /**
              * {@inheritDoc}
@@ -535,13 +1038,13 @@ public class MainActivity extends PluginActivity {
             @Override
             public void onPreExecute() {
                 Log.d(TAG, "TakePictureTask.onPreExecute()");
-                mShootingStatus = Status.SHOOTING;
+                setShootingStatus(Status.SHOOTING);
             }
             /**
              * {@inheritDoc}
              */
             @Override
-            public void onSendCommand(AsyncHttpServerResponse response, CommandsRequest commandsRequest, Errors errors) {
+            public void onSendCommand(ResponseSender response, CommandsRequest commandsRequest, Errors errors) {
                 Log.d(TAG, "TakePictureTask.onSendCommand()");
                 CommandsName commandsName = commandsRequest.getCommandsName();
                 if (errors == null) {
@@ -557,7 +1060,7 @@ public class MainActivity extends PluginActivity {
             @Override
             public void onTakePicture(String fileUrl) {
                 Log.d(TAG, "TakePictureTask.onTakePicture(): " + fileUrl);
-                mShootingStatus = Status.IDLE;
+                setShootingStatus(Status.IDLE);
             }
             /**
              * {@inheritDoc}
@@ -579,7 +1082,7 @@ public class MainActivity extends PluginActivity {
     /*
      * Execute start live view
      */
-    private void startLiveView(AsyncHttpServerResponse response, CommandsRequest commandsRequest) {
+    private void startLiveView(ResponseSender response, CommandsRequest commandsRequest) {
         new LiveViewTask(new LiveViewTask.Callback() {
             /**
              * {@inheritDoc}
@@ -587,6 +1090,8 @@ public class MainActivity extends PluginActivity {
             @Override
             public void onPreExecute() {
                 Log.e(TAG, "LiveViewTask.onPreExecute()");
+                mSessionTrace.mark(SessionTrace.Event.LIVE_VIEW_TASK_STARTED);
+                setLivePreviewOptions(commandsRequest);
                 mWebRTCHandler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -598,7 +1103,7 @@ public class MainActivity extends PluginActivity {
              * {@inheritDoc}
              */
             @Override
-            public void onSendCommand(AsyncHttpServerResponse response, CommandsRequest commandsRequest, Errors errors) {
+            public void onSendCommand(ResponseSender response, CommandsRequest commandsRequest, Errors errors) {
                 Log.e(TAG, "LiveViewTask.onSendCommand()");
                 String videoSize = "2K";
                 JSONObject json;
@@ -608,11 +1113,10 @@ public class MainActivity extends PluginActivity {
                 } catch (JSONException e) {
                     e.printStackTrace();
                 } finally {
-                    startPreview(videoSize.equals("2K") ? VideoSize.VideoSize2K : VideoSize.VideoSize4K);
-                    if (mState == SigState.Connected) {
-                        // Create offer
-                        createOffer();
-                    }
+                    // "auto": start with 2K, and select the quality by the bandwidth probe
+                    mWebRTC.setAutoQuality(videoSize.equals("auto"));
+                    startPreview(videoSize);
+                    releaseOffer();
                     CommandsName commandsName = commandsRequest.getCommandsName();
                     if (errors == null) {
                         CommandsResponse commandsResponse = new CommandsResponse(commandsName, State.DONE);
@@ -625,10 +1129,117 @@ public class MainActivity extends PluginActivity {
         }, response, commandsRequest).execute();
     }
 
+    /*
+     * Apply options of 'startLivePreview' command.
+     * (The encoder policy takes effect when WebRTC is started, the sender options also on the running session.
+     *  Parsed on the calling thread, and applied to the peer connection on the main thread before startWebRTC().)
+     */
+    private void setLivePreviewOptions(CommandsRequest commandsRequest) {
+        JSONObject parameters = commandsRequest.getCommandsParameters();
+        final JSONObject options = (parameters == null) ? null : parameters.optJSONObject("options");
+        if (options == null) {
+            return;
+        }
+
+        JSONObject sendQueue = options.optJSONObject("signalingSendQueue");
+        SignalingServer sigServer = mSigServer;
+        if (sendQueue != null && sigServer != null) {
+            // Limit of the messages waiting for a slow browser
+            JSONObject limit = sigServer.getSendQueueLimit();
+            sigServer.setSendQueueLimit(sendQueue.optInt("maxMessages", limit.optInt("maxMessages")),
+                    sendQueue.optLong("maxBytes", limit.optLong("maxBytes")),
+                    sendQueue.optLong("evictAfterMs", limit.optLong("evictAfterMs")));
+        }
+        JSONObject heartbeat = options.optJSONObject("signalingHeartbeat");
+        if (heartbeat != null) {
+            // Detection of the browsers (and the server) which vanished without closing the connection
+            mHeartbeatIntervalMs = heartbeat.optLong("intervalMs", mHeartbeatIntervalMs);
+            mHeartbeatTimeoutMs = heartbeat.optLong("timeoutMs", mHeartbeatTimeoutMs);
+            if (sigServer != null) {
+                sigServer.setHeartbeat(mHeartbeatIntervalMs, mHeartbeatTimeoutMs);
+            }
+            SignalingEndpoint endpoint = mSignalingEndpoint;
+            if (endpoint instanceof WebRTCSocketClient) {
+                ((WebRTCSocketClient) endpoint).setHeartbeat(mHeartbeatIntervalMs, mHeartbeatTimeoutMs);
+            }
+        }
+        final VideoEncoderPolicy encoderPolicy = VideoEncoderPolicy.fromJSON(options.optJSONObject("encoderPolicy"));
+        final VideoSenderOptions videoSenderOptions = VideoSenderOptions.fromJSON(options);
+        final AudioOptions audioOptions = AudioOptions.fromJSON(options.optJSONObject("audio"));
+        mWebRTCHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPrewarmEnabled = options.optBoolean("prewarm", mPrewarmEnabled);
+                mConnectionRecovery.setGracePeriodMs(options.optLong("recoveryGracePeriodMs", mConnectionRecovery.getGracePeriodMs()));
+                setupClipBuffer(options.optInt("clipBufferSec", mClipBufferSec), options.optBoolean("clipBufferMapped", mClipBufferMapped));
+                if (mPrewarmed && !mPreviewStarted
+                        && (!encoderPolicy.toJSON().toString().equals(mEncoderPolicy.toJSON().toString())
+                        || !audioOptions.toJSON().toString().equals(mAudioOptions.toJSON().toString())
+                        || videoSenderOptions.getSimulcastLayers() != mVideoSenderOptions.getSimulcastLayers()
+                        || videoSenderOptions.isScreencast() != mVideoSenderOptions.isScreencast())) {
+                    // The pre-warmed peer connection was created with other options. Start over.
+                    Log.d(TAG, "Prewarm: options changed, discard the pre-warmed peer connection");
+                    stopWebRTC();
+                    changeState(SigState.Connected);
+                }
+
+                if (!mWebRTCConnected) {
+                    mEncoderPolicy = encoderPolicy;
+                    mWebRTC.setVideoEncoderPolicy(mEncoderPolicy);
+                    mAudioOptions = audioOptions;
+                    mWebRTC.setAudioOptions(mAudioOptions);
+                }
+                mVideoSenderOptions = videoSenderOptions;
+                mWebRTC.setVideoSenderOptions(mVideoSenderOptions);
+            }
+        });
+    }
+
+    /*
+     * Execute encoder benchmark
+     */
+    private void runEncoderBenchmark(final ResponseSender response, CommandsRequest commandsRequest) {
+        final CommandsName commandsName = commandsRequest.getCommandsName();
+        JSONObject parameters = commandsRequest.getCommandsParameters();
+        int frames = BENCHMARK_FRAMES_DEFAULT;
+        int bitrate = MAX_RTP_SESSION_BANDWIDTH;
+        List<VideoEncoderPolicy> policies = VideoEncoderPolicy.benchmarkPolicies();
+        if (parameters != null) {
+            frames = parameters.optInt("frames", frames);
+            bitrate = parameters.optInt("bitrate", bitrate);
+            JSONArray policyArray = parameters.optJSONArray("policies");
+            if (policyArray != null && policyArray.length() > 0) {
+                policies = new ArrayList<VideoEncoderPolicy>();
+                for (int i = 0; i < policyArray.length(); i++) {
+                    policies.add(VideoEncoderPolicy.fromJSON(policyArray.optJSONObject(i)));
+                }
+            }
+        }
+
+        boolean started = mWebRTCConnected && mWebRTC.runEncoderBenchmark(policies, frames, bitrate, new EncoderBenchmark.Callback() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onCompleted(final JSONObject result) {
+                mWebRTCHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mWebServer.sendGetOptionsResponse(response, result.toString());
+                    }
+                });
+            }
+        });
+        if (!started) {
+            // Live preview is not running
+            mWebServer.sendError(response, Errors.DISABLED_COMMAND, commandsName);
+        }
+    }
+
     /*
      * Execute stop live view
      */
-    private void stopLiveView(AsyncHttpServerResponse response, CommandsRequest commandsRequest) {
+    private void stopLiveView(ResponseSender response, CommandsRequest commandsRequest) {
         new LiveViewTask(new LiveViewTask.Callback() {
             /**
              * {@inheritDoc}
@@ -641,6 +1252,11 @@ public class MainActivity extends PluginActivity {
                     public void run() {
                         stopWebRTC();
                         changeState(SigState.Connected);
+                        mSessionTrace.end();
+                        if (isBrowserConnected()) {
+                            // Prepare for the next 'startLivePreview'
+                            prewarmWebRTC();
+                        }
                     }
                 });
             }
@@ -648,7 +1264,7 @@ public class MainActivity extends PluginActivity {
              * {@inheritDoc}
              */
             @Override
-            public void onSendCommand(AsyncHttpServerResponse response, CommandsRequest commandsRequest, Errors errors) {
+            public void onSendCommand(ResponseSender response, CommandsRequest commandsRequest, Errors errors) {
                 Log.e(TAG, "LiveViewTask.onSendCommand()");
                 CommandsName commandsName = commandsRequest.getCommandsName();
                 if (errors == null) {
@@ -662,40 +1278,79 @@ public class MainActivity extends PluginActivity {
     }
 
     /*
-     * Connect to WebSocket server
+     * Create the endpoint of this plug-in on the signaling server
+     * (The signaling server runs in this process, so that no socket is used, unless a hub is set.
+     *  A socket client resumes the session of the previous one, if the server still keeps it.)
      */
-    private void wsConnect() {
-        boolean result = false;
-
-        Log.d(TAG, "wsConnect");
-
-        result = mWsClient.openWebSocket(new WebRTCSocketClient.WebSocketCallbacks() {
+    private SignalingEndpoint createSignalingEndpoint() {
+        SignalingServer sigServer = mSigServer;
+        String hubUri = mHubUri;
+        if (sigServer != null && hubUri == null) {
+            return sigServer.createLocalEndpoint(SignalingServer.CAMERA_PEER_ID);
+        }
+        SignalingEndpoint previous = mSignalingEndpoint;
+        String resumeToken = (previous instanceof WebRTCSocketClient) ? ((WebRTCSocketClient) previous).getResumeToken() : null;
+        WebRTCSocketClient client = new WebRTCSocketClient((hubUri != null) ? hubUri : mWsServerUri, resumeToken);
+        client.setHeartbeat(mHeartbeatIntervalMs, mHeartbeatTimeoutMs);
+        client.setSessionListener(new WebRTCSocketClient.SessionListener() {
             /**
              * {@inheritDoc}
              */
             @Override
-            public void onConnected() {
-                wsConnected();
+            public void onSession(String peerId, boolean resumed) {
+                mHandler.removeCallbacks(mForgetHubViewers);
+                // Before the viewers of a new session are notified, on the same thread
+                if (!resumed) {
+                    clearHubViewers();
+                }
             }
-            /**
+        });
+        return client;
+    }
+
+    /*
+     * Connect to the signaling server
+     */
+    private void wsConnect() {
+        boolean result = false;
+
+        Log.d(TAG, "wsConnect");
+
+        // Connecting, before the endpoint may notify the connection
+        changeState(SigState.Connecting);
+        final SignalingEndpoint endpoint = mSignalingEndpoint;
+        result = endpoint.open(new SignalingEndpoint.Callbacks() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onConnected() {
+                // Ignored if the endpoint has been replaced (e.g. the hub was changed)
+                if (endpoint == mSignalingEndpoint) {
+                    wsConnected();
+                }
+            }
+            /**
              * {@inheritDoc}
              */
             @Override
             public void onDisconnected() {
-                wsDisonnected();
+                if (endpoint == mSignalingEndpoint) {
+                    wsDisonnected();
+                }
             }
             /**
              * {@inheritDoc}
              */
             @Override
-            public void onRecvMessage(String payload) {
-                wsRecvMessage(payload);
+            public void onRecvMessage(SignalingMessage message) {
+                wsRecvMessage(message);
             }
         });
-        if (result) {
-            changeState(SigState.Connecting);
-        } else {
-            Log.d(TAG, "WebSocket connect error.");
+        if (!result) {
+            Log.d(TAG, "Signaling server connect error.");
+            changeState(SigState.Disconnected);
+            scheduleReconnect();
         }
     }
 
@@ -705,7 +1360,7 @@ public class MainActivity extends PluginActivity {
     private void wsConnected() {
         Log.d(TAG, "wsConnected");
 
-        mNeedRetry = false;
+        mReconnectPolicy.onConnected();
         changeState(SigState.Connected);
     }
 
@@ -715,52 +1370,213 @@ public class MainActivity extends PluginActivity {
     private void wsDisonnected() {
         Log.d(TAG, "wsDisonnected");
 
-        // Retry at connection failure, after specified seconds
-        if (mNeedRetry) {
-            if (++mRetryCounter < MAX_WS_CONNECT_RETRY_CNT) {
-                final Runnable retryConnection = new Runnable() {
-                    public void run() {
-                        mWsClient = null;
-                        mWsClient = new WebRTCSocketClient(mWsServerUri);
-                        wsConnect();
-                    }
-                };
-                mHandler.postDelayed(retryConnection, WS_CONNECT_RETRY_WAITTIME);
-            }
+        // The hub keeps the viewers of this camera while the session may be resumed,
+        // and notifies them again if a new session is started
+        if (mHubUri != null) {
+            mHandler.removeCallbacks(mForgetHubViewers);
+            mHandler.postDelayed(mForgetHubViewers, SignalingServer.DEFAULT_RESUME_GRACE_MS);
+        }
+
+        // Retry at connection failure and at disconnection, until connected
+        scheduleReconnect();
+    }
+
+    /*
+     * Connect to the signaling server again, after the wait of the reconnect policy
+     */
+    private void scheduleReconnect() {
+        if (!mNeedRetry) {
+            return;
         }
+        mReconnectPolicy.onDisconnected();
+        long waitTime = mReconnectPolicy.nextDelayMs();
+        Log.d(TAG, "Reconnect after " + waitTime + "ms (attempt " + mReconnectPolicy.getAttempts() + ")");
+        mHandler.removeCallbacks(mRetryConnection);
+        mHandler.postDelayed(mRetryConnection, waitTime);
     }
 
     /*
      * Receiving and dispatching messages
      */
-    private void wsRecvMessage(String sdp) {
+    private void wsRecvMessage(SignalingMessage message) {
         Log.d(TAG, "wsRecvMessage");
 
-        try {
-            JSONObject json = new JSONObject(sdp);
-            String type = json.optString("type");
-            switch (type) {
-            case "offer":
-                // Receive offer SDP
-                if (mTypeOffer) {
-                    return;
-                }
-                receiveOffer(json);
+        SignalingMessage.Type type = message.getType();
+        String from = message.getFrom();
+        if ((type == SignalingMessage.Type.OFFER || type == SignalingMessage.Type.ANSWER) && message.getSdp() == null) {
+            Log.e(TAG, "No SDP in " + type + ". Ignore.");
+            return;
+        }
+        if (from != null && (type == SignalingMessage.Type.OFFER || type == SignalingMessage.Type.ANSWER)) {
+            // Reply to the browser which sent the message
+            mRemotePeerId = from;
+        }
+        switch (type) {
+        case OFFER:
+            // Receive offer SDP
+            if (mTypeOffer) {
+                return;
+            }
+            receiveOffer(message.getSdp());
+            break;
+        case ANSWER:
+            // Receive answer SDP
+            if (!mTypeOffer) {
+                return;
+            }
+            receiveAnswer(message.getSdp());
+            break;
+        case CONTROL:
+            wsRecvControlMessage(message);
+            break;
+        default:
+            Log.e(TAG, "Unknown resuest. Ignore.");
+            break;
+        }
+    }
+
+    /*
+     * Dispatching control messages (The members which are not typed are parsed here.)
+     */
+    private void wsRecvControlMessage(SignalingMessage message) {
+        String type = message.getTypeName();
+        if (type == null) {
+            Log.e(TAG, "Unknown resuest. Ignore.");
+            return;
+        }
+        switch (type) {
+        case "subscribe":
+            // Subscribe status events from a browser
+            String events = message.getRaw("events");
+            try {
+                subscribeEvents((events == null) ? null : new JSONArray(events));
+            } catch (JSONException e) {
+                Log.e(TAG, "JSON parsing error");
+            }
+            break;
+        case "event":
+            // Status event sent by myself
+            break;
+        case SignalingServer.TYPE_VIEWER:
+            // A viewer joined or left the group of this camera on the hub
+            String viewerPeerId = message.optString(SignalingServer.KEY_PEER_ID);
+            if (mHubUri == null || viewerPeerId == null) {
                 break;
-            case "answer":
-                // Receive answer SDP
-                if (!mTypeOffer) {
-                    return;
+            }
+            if (SignalingServer.STATE_JOINED.equals(message.optString(SignalingServer.KEY_STATE))) {
+                if (mHubViewers.add(viewerPeerId)) {
+                    onBrowserConnected(viewerPeerId);
                 }
-                receiveAnswer(json);
-                break;
-            default:
-                Log.e(TAG, "Unknown resuest. Ignore.");
-                break;
+            } else if (mHubViewers.remove(viewerPeerId)) {
+                onBrowserDisconnected();
+            }
+            break;
+        case "command":
+            // Command from a viewer which can not reach the HTTP server of the camera (e.g. through the hub)
+            executeSignaledCommand(message);
+            break;
+        default:
+            Log.e(TAG, "Unknown resuest. Ignore.");
+            break;
+        }
+    }
+
+    /*
+     * Execute the command received from the signaling server, in the same way as HTTP commands
+     * (The response is returned to the sender with the ID of the request.)
+     *
+     * Request:  {"type": "command", "id": 1, "name": "camera.startLivePreview", "parameters": {...}}
+     * Response: {"type": "response", "id": 1, "code": 200, "response": {...}}
+     */
+    private void executeSignaledCommand(SignalingMessage message) {
+        final String from = message.getFrom();
+        final String id = message.getRaw("id");
+        String name = message.optString("name");
+        String parameters = message.getRaw("parameters");
+        WebServer webServer = mWebServer;
+        if (name == null || webServer == null) {
+            Log.e(TAG, "Invalid command. Ignore.");
+            return;
+        }
+        JSONObject command = new JSONObject();
+        try {
+            command.put("name", name);
+            if (parameters != null) {
+                command.put("parameters", new JSONObject(parameters));
             }
         } catch (JSONException e) {
             Log.e(TAG, "JSON parsing error");
+            return;
+        }
+        if (from != null && !mPreviewStarted && CommandsName.START_LIVE_PREVIEW.toString().equals(name)) {
+            // The offer is sent to the viewer which started the preview
+            mRemotePeerId = from;
+        }
+        webServer.postCommand(new ResponseSender() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void sendJson(int statusCode, String json) {
+                SignalingEndpoint endpoint = mSignalingEndpoint;
+                if (endpoint == null || !endpoint.isOpen()) {
+                    Log.w(TAG, "Signaling server is not connected. Drop response.");
+                    return;
+                }
+                // The response is already JSON, so it is embedded without parsing again.
+                SignalingMessage response = new SignalingMessage("response");
+                response.setTo(from);
+                response.putRaw("id", (id == null) ? "null" : id);
+                response.putRaw("code", String.valueOf(statusCode));
+                response.putRaw("response", json);
+                endpoint.send(response);
+            }
+        }, command, SessionTrace.now());
+    }
+
+    /*
+     * Register this plug-in to the signaling hub, or go back to the signaling server of the camera
+     * (Called on the HTTP server thread. The endpoint is replaced on the main thread.)
+     */
+    private boolean setSignalingHub(JSONObject parameters) {
+        String url = (parameters == null) ? null : parameters.optString("url", null);
+        String hubUri = null;
+        if (url != null && !url.isEmpty()) {
+            String cameraId = parameters.optString("cameraId", null);
+            if (!(url.startsWith(HUB_URI_PREFIX) || url.startsWith(HUB_SECURE_URI_PREFIX))
+                    || !SignalingServer.isValidCameraId(cameraId)) {
+                return false;
+            }
+            try {
+                hubUri = url + ((URI.create(url).getQuery() == null) ? "?" : "&") + "publish=" + cameraId;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
         }
+        final String newHubUri = hubUri;
+        mHandler.post(new Runnable() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void run() {
+                Log.d(TAG, "Signaling hub: " + newHubUri);
+                mHubUri = newHubUri;
+                mHandler.removeCallbacks(mForgetHubViewers);
+                clearHubViewers();
+                // The session of the previous server is not resumed
+                SignalingEndpoint previous = mSignalingEndpoint;
+                mSignalingEndpoint = null;
+                mHandler.removeCallbacks(mRetryConnection);
+                mReconnectPolicy.reset();
+                if (previous != null) {
+                    previous.close();
+                }
+                mSignalingEndpoint = createSignalingEndpoint();
+                wsConnect();
+            }
+        });
+        return true;
     }
 
     /*
@@ -768,7 +1584,7 @@ public class MainActivity extends PluginActivity {
      */
     private WebServer.Callback mWebServerCallback = new WebServer.Callback() {
         @Override
-        public void commandsRequest(AsyncHttpServerResponse response, CommandsRequest commandsRequest) {
+        public void commandsRequest(ResponseSender response, CommandsRequest commandsRequest) {
             CommandsName commandsName = commandsRequest.getCommandsName();
             CommandsResponse commandsResponse;
             HttpConnector camera;
@@ -790,6 +1606,10 @@ public class MainActivity extends PluginActivity {
                     json = commandsRequest.getCommandsParameters().getJSONObject("options");
                     mCameraOptions.setOptions(json);
                     mCameraOptions.setCameraParameters(mCamera);
+                    if (mCamera != null) {
+                        // Push the options in effect, instead of being re-read by 'getOptions'
+                        mStatusEvents.publish(StatusEventPublisher.OPTIONS, createJSONFromJSON("options", mCameraOptions.getAllOptions()));
+                    }
                 } catch (JSONException e) {
                     e.printStackTrace();
                 }
@@ -814,6 +1634,12 @@ public class MainActivity extends PluginActivity {
                 break;
             case START_LIVE_PREVIEW:
                 // Execution and response of 'startLivePreview' command
+                if (isWhepSession()) {
+                    // The camera is streaming to a viewer of HTTP signaling
+                    mWebServer.sendError(response, Errors.SERVICE_UNAVAILABLE, commandsName);
+                    break;
+                }
+                mSessionTrace.begin((commandsRequest.getReceivedTimeNs() != 0) ? commandsRequest.getReceivedTimeNs() : SessionTrace.now());
                 startLiveView(response, commandsRequest);
                 break;
             case STOP_LIVE_PREVIEW:
@@ -850,6 +1676,149 @@ public class MainActivity extends PluginActivity {
                 responseData = camera.getState();
                 mWebServer.sendGetOptionsResponse(response, responseData);
                 break;
+            case ENCODER_BENCHMARK:
+                // Execution and response of 'encoderBenchmark' command (Response after measurement)
+                runEncoderBenchmark(response, commandsRequest);
+                break;
+            case GET_STREAM_STATS:
+                // Response of RTP statistics (bitrate of each simulcast layer)
+                json = mWebRTCConnected ? mWebRTC.getStreamStats() : null;
+                if (json == null) {
+                    mWebServer.sendError(response, Errors.DISABLED_COMMAND, commandsName);
+                } else {
+                    try {
+                        json.put("recovery", mConnectionRecovery.toJSON());
+                        synchronized (mRecorderLock) {
+                            if (mStreamRecorder != null) {
+                                json.put("recording", mStreamRecorder.toJSON());
+                            }
+                        }
+                        ClipBuffer clipBuffer = mClipBuffer;
+                        if (clipBuffer != null) {
+                            json.put("clipBuffer", clipBuffer.toJSON());
+                        }
+                    } catch (JSONException e) {
+                        Log.e(TAG, "JSON exception");
+                    }
+                    mWebServer.sendGetOptionsResponse(response, json.toString());
+                }
+                break;
+            case GET_SESSION_TRACES:
+                // Response of time-to-first-frame traces of the last sessions
+                JSONObject parameters = commandsRequest.getCommandsParameters();
+                int count = (parameters == null) ? Integer.MAX_VALUE : parameters.optInt("count", Integer.MAX_VALUE);
+                mWebServer.sendGetOptionsResponse(response, mSessionTrace.toJSON(count).toString());
+                break;
+            case GET_CAPTURE_FORMATS:
+                // Response of the capture formats supported by the camera (Known after the first live preview)
+                json = new JSONObject();
+                try {
+                    json.put("formats", mWebRTC.getSupportedFormats());
+                } catch (JSONException e) {
+                    Log.e(TAG, "JSON exception");
+                }
+                mWebServer.sendGetOptionsResponse(response, json.toString());
+                break;
+            case REQUEST_KEY_FRAME:
+                // Request a key frame (e.g. the viewer detected a broken picture)
+                if (!mWebRTCConnected) {
+                    mWebServer.sendError(response, Errors.DISABLED_COMMAND, commandsName);
+                    break;
+                }
+                mWebRTC.requestKeyFrame();
+                mWebServer.sendCommandsResponse(response, new CommandsResponse(commandsName, State.DONE));
+                break;
+            case REPORT_FIRST_FRAME:
+                // Time from the connection to the first decoded frame, measured by the viewer
+                JSONObject report = commandsRequest.getCommandsParameters();
+                if (!mWebRTCConnected || report == null || !report.has("elapsedMs")) {
+                    mWebServer.sendError(response, Errors.INVALID_PARAMETER_VALUE, commandsName);
+                    break;
+                }
+                mWebRTC.setViewerFirstFrameDecoded(report.optLong("elapsedMs"));
+                mWebServer.sendCommandsResponse(response, new CommandsResponse(commandsName, State.DONE));
+                break;
+            case START_RECORDING:
+                // Start recording of the streamed video (The encoded frames are written without a second encode)
+                // The frames of the native software encoders can not be observed, so recording is disabled
+                // with the "software" encoder policy, or when no hardware encoder is available for the codec.
+                if (!mWebRTCConnected || !mPreviewStarted || !mWebRTC.isEncodedFrameObservable()) {
+                    mWebServer.sendError(response, Errors.DISABLED_COMMAND, commandsName);
+                    break;
+                }
+                Errors error = startRecording();
+                if (error != null) {
+                    mWebServer.sendError(response, error, commandsName);
+                    break;
+                }
+                mWebServer.sendCommandsResponse(response, new CommandsResponse(commandsName, State.DONE));
+                break;
+            case GET_SIGNALING_STATS:
+                // Response of the message counters of each route of the signaling server,
+                // and the reconnection of this plug-in to the signaling server
+                SignalingServer sigServer = mSigServer;
+                JSONObject signalingStats = (sigServer == null) ? new JSONObject() : sigServer.getRouteStats();
+                SignalingEndpoint statsEndpoint = mSignalingEndpoint;
+                try {
+                    signalingStats.put("reconnect", mReconnectPolicy.toJSON());
+                    if (mHubUri != null) {
+                        JSONObject hub = new JSONObject();
+                        hub.put("url", mHubUri);
+                        hub.put("connected", statsEndpoint != null && statsEndpoint.isOpen());
+                        hub.put("viewers", mHubViewers.size());
+                        signalingStats.put("hub", hub);
+                    }
+                    if (statsEndpoint instanceof WebRTCSocketClient) {
+                        signalingStats.put("clientHeartbeat", ((WebRTCSocketClient) statsEndpoint).getHeartbeat());
+                    }
+                } catch (JSONException e) {
+                    mWebServer.sendError(response, Errors.UNEXPECTED, commandsName);
+                    break;
+                }
+                mWebServer.sendGetOptionsResponse(response, signalingStats.toString());
+                break;
+            case GET_SIGNALING_METRICS:
+                // Response of the live metrics of the signaling server (Cheap enough to be polled)
+                SignalingServer metricsServer = mSigServer;
+                if (metricsServer == null) {
+                    mWebServer.sendError(response, Errors.DISABLED_COMMAND, commandsName);
+                    break;
+                }
+                mWebServer.sendGetOptionsResponse(response, metricsServer.getMetrics().toString());
+                break;
+            case SET_SIGNALING_HUB:
+                // Register this plug-in to the signaling hub of the site (Empty "url": the signaling server of the camera)
+                if (mHandler == null || !setSignalingHub(commandsRequest.getCommandsParameters())) {
+                    mWebServer.sendError(response, Errors.INVALID_PARAMETER_VALUE, commandsName);
+                    break;
+                }
+                mWebServer.sendCommandsResponse(response, new CommandsResponse(commandsName, State.DONE));
+                break;
+            case EXPORT_CLIP:
+                // Export the past seconds of the streamed video (The live stream is not paused)
+                JSONObject clipParameters = commandsRequest.getCommandsParameters();
+                int duration = (clipParameters == null) ? DEFAULT_CLIP_DURATION_SEC
+                        : clipParameters.optInt("durationSec", DEFAULT_CLIP_DURATION_SEC);
+                if (duration <= 0) {
+                    mWebServer.sendError(response, Errors.INVALID_PARAMETER_VALUE, commandsName);
+                    break;
+                }
+                json = exportClip(duration);
+                if (json == null) {
+                    mWebServer.sendError(response, Errors.DISABLED_COMMAND, commandsName);
+                    break;
+                }
+                mWebServer.sendGetOptionsResponse(response, json.toString());
+                break;
+            case STOP_RECORDING:
+                // Stop recording (The file is closed in background, and notified by the 'recording' event)
+                json = stopRecording();
+                if (json == null) {
+                    mWebServer.sendError(response, Errors.DISABLED_COMMAND, commandsName);
+                    break;
+                }
+                mWebServer.sendGetOptionsResponse(response, json.toString());
+                break;
             default:
                 mWebServer.sendUnknownCommand(response);
                 break;
@@ -857,6 +1826,184 @@ public class MainActivity extends PluginActivity {
         }
     };
 
+    /*
+     * Start recording of the streamed video to the file of the camera storage
+     */
+    private Errors startRecording() {
+        synchronized (mRecorderLock) {
+            if (mStreamRecorder != null) {
+                return Errors.SERVICE_UNAVAILABLE;
+            }
+            try {
+                mStreamRecorder = new StreamRecorder(createRecordingPath("WRTC_"), mRecorderCallback);
+            } catch (IOException e) {
+                Log.e(TAG, "Recording file error: " + e.getMessage());
+                return Errors.UNEXPECTED;
+            }
+            mWebRTC.addEncodedFrameObserver(mStreamRecorder);
+            mStatusEvents.publish(StatusEventPublisher.RECORDING, "state", "started");
+        }
+        // Recording starts at a key frame, so that it is not delayed up to the key frame interval.
+        mWebRTC.requestKeyFrame();
+        notificationAudioMovStart();
+        return null;
+    }
+
+    /*
+     * Return the path of a new MP4 file of the camera storage
+     */
+    private String createRecordingPath(String prefix) {
+        File directory = new File(Environment.getExternalStorageDirectory(), RECORDING_DIRECTORY);
+        String fileName = prefix + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".MP4";
+        return new File(directory, fileName).getPath();
+    }
+
+    /*
+     * Allocate the clip buffer, or release it.
+     * (The buffer is kept over the sessions, and allocated again only when the size is changed.
+     *  Called on the main thread, which also adds and removes the other encoded frame observers.)
+     */
+    private void setupClipBuffer(int bufferSec, boolean memoryMapped) {
+        bufferSec = Math.max(0, Math.min(MAX_CLIP_BUFFER_SEC, bufferSec));
+        if (bufferSec == mClipBufferSec && memoryMapped == mClipBufferMapped) {
+            return;
+        }
+        if (mClipBuffer != null) {
+            mWebRTC.removeEncodedFrameObserver(mClipBuffer);
+            mClipBuffer = null;
+        }
+        mClipBufferSec = 0;
+        mClipBufferMapped = memoryMapped;
+        if (bufferSec == 0) {
+            return;
+        }
+        try {
+            mClipBuffer = new ClipBuffer(bufferSec * CLIP_BUFFER_BYTES_PER_SEC, bufferSec * 1000L,
+                    memoryMapped ? new File(getCacheDir(), CLIP_BUFFER_FILE_NAME) : null);
+        } catch (IOException | OutOfMemoryError e) {
+            Log.e(TAG, "Clip buffer allocation error: " + e.getMessage());
+            return;
+        }
+        mClipBufferSec = bufferSec;
+        mWebRTC.addEncodedFrameObserver(mClipBuffer);
+    }
+
+    /*
+     * Export a clip of the past seconds from the clip buffer (null: no buffered frame)
+     */
+    private JSONObject exportClip(int durationSec) {
+        ClipBuffer clipBuffer = mClipBuffer;
+        if (clipBuffer == null) {
+            return null;
+        }
+        return clipBuffer.exportClip(durationSec * 1000L, createRecordingPath("CLIP_"), new ClipBuffer.Callback() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onClipExported(String path, boolean success) {
+                if (success) {
+                    notificationDatabaseUpdate(new String[]{path});
+                }
+                JSONObject data = new JSONObject();
+                try {
+                    data.put("state", success ? "exported" : "failed");
+                    data.put("path", path);
+                } catch (JSONException e) {
+                    Log.e(TAG, "JSON exception");
+                }
+                mStatusEvents.publish(StatusEventPublisher.CLIP, data);
+            }
+        });
+    }
+
+    /*
+     * Stop recording, and return the statistics (null: not recording)
+     */
+    private JSONObject stopRecording() {
+        synchronized (mRecorderLock) {
+            if (mStreamRecorder == null) {
+                return null;
+            }
+            mWebRTC.removeEncodedFrameObserver(mStreamRecorder);
+            mStreamRecorder.stop();
+            JSONObject json = mStreamRecorder.toJSON();
+            mStreamRecorder = null;
+            return json;
+        }
+    }
+
+    /*
+     * Callbacks of stream recorder (Called on the writer thread)
+     */
+    private final StreamRecorder.Callback mRecorderCallback = new StreamRecorder.Callback() {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onSegmentFinished(String path) {
+            // The recording continues in a new file
+            notificationDatabaseUpdate(new String[]{path});
+            JSONObject data = new JSONObject();
+            try {
+                data.put("state", "segmented");
+                data.put("path", path);
+            } catch (JSONException e) {
+                Log.e(TAG, "JSON exception");
+            }
+            mStatusEvents.publish(StatusEventPublisher.RECORDING, data);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onRecordingFinished(String path, boolean success) {
+            synchronized (mRecorderLock) {
+                // Stopped by an error of the writer
+                if (mStreamRecorder != null && mStreamRecorder.getPath().equals(path)) {
+                    mWebRTC.removeEncodedFrameObserver(mStreamRecorder);
+                    mStreamRecorder = null;
+                }
+            }
+            notificationAudioMovStop();
+            if (success) {
+                notificationDatabaseUpdate(new String[]{path});
+            }
+            JSONObject data = new JSONObject();
+            try {
+                data.put("state", "stopped");
+                data.put("path", success ? path : JSONObject.NULL);
+            } catch (JSONException e) {
+                Log.e(TAG, "JSON exception");
+            }
+            mStatusEvents.publish(StatusEventPublisher.RECORDING, data);
+        }
+    };
+
+    /*
+     * Change shooting status, and push it to the subscribers
+     */
+    private void setShootingStatus(Status status) {
+        mShootingStatus = status;
+        mStatusEvents.publish(StatusEventPublisher.SHOOTING_STATUS, "status", status.toString());
+    }
+
+    /*
+     * Subscribe status events for the browsers connected to the signaling server
+     * (Events are broadcast by the signaling server, and also reach while the live preview is stopped.)
+     */
+    private void subscribeEvents(JSONArray events) {
+        if (events == null) {
+            return;
+        }
+        List<String> eventList = new ArrayList<String>();
+        for (int i = 0; i < events.length(); i++) {
+            eventList.add(events.optString(i));
+        }
+        mStatusEvents.subscribe(mWsEventSink, eventList);
+    }
+
     /*
      * Create offer SDP
      */
@@ -869,19 +2016,17 @@ public class MainActivity extends PluginActivity {
     /*
      * Receive offer SDP
      */
-    private void receiveOffer(JSONObject json) {
+    private void receiveOffer(String description) {
         changeState(SigState.CreatingAnswer);
-        String description = json.optString("sdp");
-        mWebRTC.receiveOffer(description);
+        mWebRTC.receiveOffer(setSDPOpusParameters(description, mAudioOptions));
     }
 
     /*
      * Receive answer SDP
      */
-    private void receiveAnswer(JSONObject json) {
+    private void receiveAnswer(String description) {
         changeState(SigState.ReceivedAnswer);
-        String description = json.optString("sdp");
-        mWebRTC.receiveAnswer(description);
+        mWebRTC.receiveAnswer(setSDPOpusParameters(description, mAudioOptions));
     }
 
     /*
@@ -965,6 +2110,115 @@ public class MainActivity extends PluginActivity {
         return joinString(newLineParts, " ", false /* delimiterAtEnd */);
     }
 
+    /*
+     * Add simulcast SSRCs (a=ssrc-group:SIM) to the video media description.
+     * Layers are encoded at full, half and quarter resolution by libwebrtc.
+     */
+    private static String setSDPSimulcast(String sdpDescription, int layers) {
+        if (layers <= 1) {
+            return sdpDescription;
+        }
+        if (sdpDescription.contains("a=ssrc-group:SIM ")) {
+            // Re-offer (e.g. ICE restart) keeps the SSRCs of the current layers
+            return sdpDescription;
+        }
+        final String[] lines = sdpDescription.split("\r\n");
+        final int mLineIndex = findMediaDescriptionLine(false, lines);
+        if (mLineIndex == -1) {
+            Log.w(TAG, "No video mediaDescription line, so can't set simulcast");
+            return sdpDescription;
+        }
+        int endIndex = lines.length;
+        for (int i = mLineIndex + 1; i < lines.length; i++) {
+            if (lines[i].startsWith("m=")) {
+                endIndex = i;
+                break;
+            }
+        }
+
+        // a=ssrc:<ssrc> <attribute>, a=ssrc-group:FID <ssrc> <rtx ssrc>
+        final Pattern ssrcPattern = Pattern.compile("^a=ssrc:(\\d+) (.*)$");
+        final Pattern fidPattern = Pattern.compile("^a=ssrc-group:FID (\\d+) (\\d+)$");
+        final Set<String> usedSsrcs = new HashSet<>();
+        final Map<String, List<String>> ssrcAttributes = new LinkedHashMap<>();
+        String primarySsrc = null;
+        String rtxSsrc = null;
+        for (int i = 0; i < lines.length; i++) {
+            Matcher ssrcMatcher = ssrcPattern.matcher(lines[i]);
+            if (!ssrcMatcher.matches()) {
+                continue;
+            }
+            usedSsrcs.add(ssrcMatcher.group(1));
+            if (i > mLineIndex && i < endIndex) {
+                if (!ssrcAttributes.containsKey(ssrcMatcher.group(1))) {
+                    ssrcAttributes.put(ssrcMatcher.group(1), new ArrayList<String>());
+                }
+                ssrcAttributes.get(ssrcMatcher.group(1)).add(ssrcMatcher.group(2));
+            }
+        }
+        for (int i = mLineIndex + 1; i < endIndex; i++) {
+            Matcher fidMatcher = fidPattern.matcher(lines[i]);
+            if (fidMatcher.matches()) {
+                primarySsrc = fidMatcher.group(1);
+                rtxSsrc = fidMatcher.group(2);
+                break;
+            }
+        }
+        if (primarySsrc == null) {
+            if (ssrcAttributes.isEmpty()) {
+                Log.w(TAG, "No video SSRC, so can't set simulcast");
+                return sdpDescription;
+            }
+            primarySsrc = ssrcAttributes.keySet().iterator().next();
+        }
+
+        // Generate SSRCs of the additional layers (and their RTX)
+        final Random random = new Random();
+        final List<String> simulcastSsrcs = new ArrayList<>();
+        final List<String> rtxSsrcs = new ArrayList<>();
+        simulcastSsrcs.add(primarySsrc);
+        rtxSsrcs.add(rtxSsrc);
+        for (int layer = 1; layer < layers; layer++) {
+            simulcastSsrcs.add(generateSsrc(random, usedSsrcs));
+            rtxSsrcs.add((rtxSsrc == null) ? null : generateSsrc(random, usedSsrcs));
+        }
+
+        // Rebuild the video media description
+        final List<String> newLines = new ArrayList<>();
+        for (int i = 0; i < endIndex; i++) {
+            if (i > mLineIndex && (lines[i].startsWith("a=ssrc:") || lines[i].startsWith("a=ssrc-group:"))) {
+                continue;
+            }
+            newLines.add(lines[i]);
+        }
+        newLines.add("a=ssrc-group:SIM " + joinString(simulcastSsrcs, " ", false));
+        for (int layer = 0; layer < layers; layer++) {
+            if (rtxSsrcs.get(layer) != null) {
+                newLines.add("a=ssrc-group:FID " + simulcastSsrcs.get(layer) + " " + rtxSsrcs.get(layer));
+            }
+        }
+        final List<String> primaryAttributes = ssrcAttributes.get(primarySsrc);
+        for (int layer = 0; layer < layers; layer++) {
+            for (String attribute : primaryAttributes) {
+                newLines.add("a=ssrc:" + simulcastSsrcs.get(layer) + " " + attribute);
+                if (rtxSsrcs.get(layer) != null) {
+                    newLines.add("a=ssrc:" + rtxSsrcs.get(layer) + " " + attribute);
+                }
+            }
+        }
+        newLines.addAll(Arrays.asList(lines).subList(endIndex, lines.length));
+        Log.d(TAG, "Set simulcast SSRCs: " + simulcastSsrcs);
+        return joinString(newLines, "\r\n", true /* delimiterAtEnd */);
+    }
+
+    private static String generateSsrc(Random random, Set<String> usedSsrcs) {
+        String ssrc;
+        do {
+            ssrc = String.valueOf(1 + random.nextInt(Integer.MAX_VALUE - 1));
+        } while (!usedSsrcs.add(ssrc));
+        return ssrc;
+    }
+
     private static String setSDPRequestOnly(String sdpDescription) {
         return sdpDescription.replace("sendrecv", "sendonly");
     }
@@ -973,6 +2227,76 @@ public class MainActivity extends PluginActivity {
         return sdpDescription.replace("a=mid:video\r\n", "a=mid:video\r\nb=AS:" + videoBitrate + "\r\n");
     }
 
+    /*
+     * Set Opus parameters to the fmtp line and the ptime of the audio media section.
+     * (The Opus encoder of libwebrtc follows the parameters of the remote SDP, so this is applied to
+     *  the remote SDP for the sender of this side, and to the local SDP to tell them to the browser.)
+     */
+    private static String setSDPOpusParameters(String sdpDescription, AudioOptions options) {
+        Matcher rtpmap = OPUS_RTPMAP_PATTERN.matcher(sdpDescription);
+        if (!rtpmap.find()) {
+            return sdpDescription;
+        }
+        final String fmtpPrefix = "a=fmtp:" + rtpmap.group(1) + " ";
+        final String rtpmapLine = "a=rtpmap:" + rtpmap.group(1) + " ";
+        final boolean hasFmtp = sdpDescription.contains(fmtpPrefix);
+
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        if (options.getBitrate() > 0) {
+            parameters.put("maxaveragebitrate", String.valueOf(options.getBitrate()));
+        }
+        parameters.put("stereo", options.isStereo() ? "1" : "0");
+        parameters.put("sprop-stereo", options.isStereo() ? "1" : "0");
+        parameters.put("usedtx", options.isDtx() ? "1" : "0");
+
+        StringBuilder newSdpDescription = new StringBuilder();
+        boolean isAudio = false;
+        for (String line : sdpDescription.split("\r\n")) {
+            if (line.startsWith("m=")) {
+                isAudio = line.startsWith("m=audio");
+            }
+            if (isAudio && options.getPtime() > 0 && line.startsWith("a=ptime:")) {
+                // Replaced after the fmtp line
+                continue;
+            }
+            if (line.startsWith(fmtpPrefix)) {
+                // Keep the other parameters (e.g. minptime, useinbandfec)
+                Map<String, String> merged = new LinkedHashMap<String, String>();
+                for (String parameter : line.substring(fmtpPrefix.length()).split(";")) {
+                    String[] keyValue = parameter.trim().split("=", 2);
+                    if (keyValue.length == 2) {
+                        merged.put(keyValue[0], keyValue[1]);
+                    }
+                }
+                merged.putAll(parameters);
+                line = fmtpPrefix + joinParameters(merged);
+            }
+            newSdpDescription.append(line).append("\r\n");
+            if (line.startsWith(rtpmapLine) && !hasFmtp) {
+                line = fmtpPrefix + joinParameters(parameters);
+                newSdpDescription.append(line).append("\r\n");
+            }
+            if (line.startsWith(fmtpPrefix) && options.getPtime() > 0) {
+                newSdpDescription.append("a=ptime:").append(options.getPtime()).append("\r\n");
+            }
+        }
+        return newSdpDescription.toString();
+    }
+
+    /*
+     * Join the parameters of fmtp line
+     */
+    private static String joinParameters(Map<String, String> parameters) {
+        StringBuilder joined = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (joined.length() > 0) {
+                joined.append(";");
+            }
+            joined.append(parameter.getKey()).append("=").append(parameter.getValue());
+        }
+        return joined.toString();
+    }
+
     /*
      * Obtain own IP address
      */
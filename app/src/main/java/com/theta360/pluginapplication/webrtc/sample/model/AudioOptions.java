@@ -0,0 +1,181 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Audio option class
+ * (Audio processing of the audio source, and Opus parameters.
+ *  The camera only sends audio and never plays it, so the processing for playback is disabled by default.)
+ */
+public class AudioOptions {
+    /*
+     * JSON key of each option
+     */
+    private static final String KEY_ENABLED = "enabled";
+    private static final String KEY_ECHO_CANCELLATION = "echoCancellation";
+    private static final String KEY_NOISE_SUPPRESSION = "noiseSuppression";
+    private static final String KEY_AUTO_GAIN_CONTROL = "autoGainControl";
+    private static final String KEY_HIGHPASS_FILTER = "highpassFilter";
+    private static final String KEY_BITRATE = "bitrate";
+    private static final String KEY_STEREO = "stereo";
+    private static final String KEY_PTIME = "ptime";
+    private static final String KEY_DTX = "dtx";
+
+    // Range of Opus parameters (RFC 7587)
+    private static final int MIN_BITRATE = 6000;
+    private static final int MAX_BITRATE = 510000;
+    private static final int[] PTIMES = {10, 20, 40, 60};
+
+    private final boolean mEnabled;
+    private final boolean mEchoCancellation;
+    private final boolean mNoiseSuppression;
+    private final boolean mAutoGainControl;
+    private final boolean mHighpassFilter;
+    private final int mBitrate;
+    private final boolean mStereo;
+    private final int mPtime;
+    private final boolean mDtx;
+
+    /**
+     * Constructor of audio option class (Audio enabled, no processing, Opus default)
+     */
+    public AudioOptions() {
+        this(true, false, false, false, false, 0, false, 0, false);
+    }
+
+    /**
+     * Constructor of audio option class
+     *
+     * @param enabled false: no audio track
+     * @param echoCancellation Echo cancellation
+     * @param noiseSuppression Noise suppression
+     * @param autoGainControl Automatic gain control
+     * @param highpassFilter Highpass filter
+     * @param bitrate Maximum average bitrate of Opus (bits/sec, 0: libwebrtc default)
+     * @param stereo true: stereo, false: mono
+     * @param ptime Packet time (milliseconds, 0: libwebrtc default)
+     * @param dtx Discontinuous transmission
+     */
+    public AudioOptions(boolean enabled, boolean echoCancellation, boolean noiseSuppression, boolean autoGainControl,
+                        boolean highpassFilter, int bitrate, boolean stereo, int ptime, boolean dtx) {
+        mEnabled = enabled;
+        mEchoCancellation = echoCancellation;
+        mNoiseSuppression = noiseSuppression;
+        mAutoGainControl = autoGainControl;
+        mHighpassFilter = highpassFilter;
+        mBitrate = (bitrate <= 0) ? 0 : Math.max(MIN_BITRATE, Math.min(MAX_BITRATE, bitrate));
+        mStereo = stereo;
+        mPtime = validPtime(ptime);
+        mDtx = dtx;
+    }
+
+    /**
+     * Create options from "audio" option of 'startLivePreview' of JSON object format
+     *
+     * @param options Options of JSON object format
+     * @return Audio options
+     */
+    public static AudioOptions fromJSON(JSONObject options) {
+        if (options == null) {
+            return new AudioOptions();
+        }
+        return new AudioOptions(
+                options.optBoolean(KEY_ENABLED, true),
+                options.optBoolean(KEY_ECHO_CANCELLATION, false),
+                options.optBoolean(KEY_NOISE_SUPPRESSION, false),
+                options.optBoolean(KEY_AUTO_GAIN_CONTROL, false),
+                options.optBoolean(KEY_HIGHPASS_FILTER, false),
+                options.optInt(KEY_BITRATE, 0),
+                options.optBoolean(KEY_STEREO, false),
+                options.optInt(KEY_PTIME, 0),
+                options.optBoolean(KEY_DTX, false));
+    }
+
+    /**
+     * Return options of JSON object format
+     *
+     * @return Options of JSON object format
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put(KEY_ENABLED, mEnabled);
+            json.put(KEY_ECHO_CANCELLATION, mEchoCancellation);
+            json.put(KEY_NOISE_SUPPRESSION, mNoiseSuppression);
+            json.put(KEY_AUTO_GAIN_CONTROL, mAutoGainControl);
+            json.put(KEY_HIGHPASS_FILTER, mHighpassFilter);
+            json.put(KEY_BITRATE, mBitrate);
+            json.put(KEY_STEREO, mStereo);
+            json.put(KEY_PTIME, mPtime);
+            json.put(KEY_DTX, mDtx);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public boolean isEchoCancellation() {
+        return mEchoCancellation;
+    }
+
+    public boolean isNoiseSuppression() {
+        return mNoiseSuppression;
+    }
+
+    public boolean isAutoGainControl() {
+        return mAutoGainControl;
+    }
+
+    public boolean isHighpassFilter() {
+        return mHighpassFilter;
+    }
+
+    public int getBitrate() {
+        return mBitrate;
+    }
+
+    public boolean isStereo() {
+        return mStereo;
+    }
+
+    public int getPtime() {
+        return mPtime;
+    }
+
+    public boolean isDtx() {
+        return mDtx;
+    }
+
+    /*
+     * Return the packet time supported by Opus (0: not specified)
+     */
+    private static int validPtime(int ptime) {
+        for (int valid : PTIMES) {
+            if (ptime == valid) {
+                return ptime;
+            }
+        }
+        return 0;
+    }
+}
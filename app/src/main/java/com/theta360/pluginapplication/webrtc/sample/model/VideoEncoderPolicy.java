@@ -0,0 +1,234 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.model;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Video encoder selection policy class
+ */
+public class VideoEncoderPolicy {
+    private static final String TAG = "VideoEncoderPolicy";
+
+    /*
+     * JSON key of each policy item
+     */
+    private static final String KEY_CODECS = "codecs";
+    private static final String KEY_H264_PROFILE = "h264Profile";
+    private static final String KEY_ENCODER_TYPE = "encoderType";
+    private static final String KEY_KEY_FRAME_INTERVAL = "keyFrameInterval";
+    private static final String KEY_MIN_KEY_FRAME_INTERVAL = "minKeyFrameIntervalMs";
+
+    /*
+     * Default value
+     */
+    private static final String CODEC_DEFAULT = "H264";
+    private static final H264Profile H264_PROFILE_DEFAULT = H264Profile.BASELINE;
+    private static final EncoderType ENCODER_TYPE_DEFAULT = EncoderType.AUTO;
+    private static final int KEY_FRAME_INTERVAL_DEFAULT = 0;
+    private static final int MIN_KEY_FRAME_INTERVAL_DEFAULT = 500;
+
+    // H.264 profile
+    public enum H264Profile {
+        BASELINE("baseline"),
+        HIGH("high");
+
+        private final String mProfile;
+
+        H264Profile(final String profile) {
+            mProfile = profile;
+        }
+
+        @Override
+        public String toString() {
+            return mProfile;
+        }
+
+        public static H264Profile getValue(final String profile) {
+            for (H264Profile h264Profile : H264Profile.values()) {
+                if (h264Profile.toString().equals(profile)) {
+                    return h264Profile;
+                }
+            }
+            return H264_PROFILE_DEFAULT;
+        }
+    }
+
+    // Encoder implementation
+    public enum EncoderType {
+        AUTO("auto"),           // Hardware, and fall back to software
+        HARDWARE("hardware"),   // MediaCodec only
+        SOFTWARE("software");   // libvpx / OpenH264 only
+
+        private final String mType;
+
+        EncoderType(final String type) {
+            mType = type;
+        }
+
+        @Override
+        public String toString() {
+            return mType;
+        }
+
+        public static EncoderType getValue(final String type) {
+            for (EncoderType encoderType : EncoderType.values()) {
+                if (encoderType.toString().equals(type)) {
+                    return encoderType;
+                }
+            }
+            return ENCODER_TYPE_DEFAULT;
+        }
+    }
+
+    private final List<String> mCodecs;
+    private final H264Profile mH264Profile;
+    private final EncoderType mEncoderType;
+    private final int mKeyFrameIntervalSec;
+    private final int mMinKeyFrameIntervalMs;
+
+    /**
+     * Constructor of video encoder policy class (default policy)
+     */
+    public VideoEncoderPolicy() {
+        this(Collections.singletonList(CODEC_DEFAULT), H264_PROFILE_DEFAULT, ENCODER_TYPE_DEFAULT, KEY_FRAME_INTERVAL_DEFAULT);
+    }
+
+    /**
+     * Constructor of video encoder policy class
+     *
+     * @param codecs Codec names in order of preference (e.g. "H264", "VP8")
+     * @param h264Profile H.264 profile to offer
+     * @param encoderType Encoder implementation
+     * @param keyFrameIntervalSec Maximum key frame interval in seconds (0: encoder default)
+     */
+    public VideoEncoderPolicy(List<String> codecs, H264Profile h264Profile, EncoderType encoderType, int keyFrameIntervalSec) {
+        this(codecs, h264Profile, encoderType, keyFrameIntervalSec, MIN_KEY_FRAME_INTERVAL_DEFAULT);
+    }
+
+    /**
+     * Constructor of video encoder policy class
+     *
+     * @param codecs Codec names in order of preference (e.g. "H264", "VP8")
+     * @param h264Profile H.264 profile to offer
+     * @param encoderType Encoder implementation
+     * @param keyFrameIntervalSec Maximum key frame interval in seconds (0: encoder default)
+     * @param minKeyFrameIntervalMs Minimum interval of key frames requested by PLI / FIR or on demand (0: not limited)
+     */
+    public VideoEncoderPolicy(List<String> codecs, H264Profile h264Profile, EncoderType encoderType,
+                              int keyFrameIntervalSec, int minKeyFrameIntervalMs) {
+        mCodecs = Collections.unmodifiableList(new ArrayList<String>(codecs));
+        mH264Profile = h264Profile;
+        mEncoderType = encoderType;
+        mKeyFrameIntervalSec = Math.max(0, keyFrameIntervalSec);
+        mMinKeyFrameIntervalMs = Math.max(0, minKeyFrameIntervalMs);
+    }
+
+    /**
+     * Create policy from JSON object. Omitted items take the default value.
+     *
+     * @param json Policy of JSON object format
+     * @return Video encoder policy
+     */
+    public static VideoEncoderPolicy fromJSON(JSONObject json) {
+        if (json == null) {
+            return new VideoEncoderPolicy();
+        }
+
+        List<String> codecs = new ArrayList<String>();
+        JSONArray codecArray = json.optJSONArray(KEY_CODECS);
+        if (codecArray != null) {
+            for (int i = 0; i < codecArray.length(); i++) {
+                String codec = codecArray.optString(i);
+                if (!codec.isEmpty()) {
+                    codecs.add(codec);
+                }
+            }
+        }
+        if (codecs.isEmpty()) {
+            codecs.add(CODEC_DEFAULT);
+        }
+
+        return new VideoEncoderPolicy(codecs,
+                H264Profile.getValue(json.optString(KEY_H264_PROFILE)),
+                EncoderType.getValue(json.optString(KEY_ENCODER_TYPE)),
+                json.optInt(KEY_KEY_FRAME_INTERVAL, KEY_FRAME_INTERVAL_DEFAULT),
+                json.optInt(KEY_MIN_KEY_FRAME_INTERVAL, MIN_KEY_FRAME_INTERVAL_DEFAULT));
+    }
+
+    /**
+     * Return policy of JSON object format
+     *
+     * @return Policy of JSON object format
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put(KEY_CODECS, new JSONArray(mCodecs));
+            json.put(KEY_H264_PROFILE, mH264Profile.toString());
+            json.put(KEY_ENCODER_TYPE, mEncoderType.toString());
+            json.put(KEY_KEY_FRAME_INTERVAL, mKeyFrameIntervalSec);
+            json.put(KEY_MIN_KEY_FRAME_INTERVAL, mMinKeyFrameIntervalMs);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    /**
+     * Return the list of policies measured by the encoder benchmark
+     *
+     * @return Policy list
+     */
+    public static List<VideoEncoderPolicy> benchmarkPolicies() {
+        List<VideoEncoderPolicy> policies = new ArrayList<VideoEncoderPolicy>();
+        policies.add(new VideoEncoderPolicy(Collections.singletonList("H264"), H264Profile.BASELINE, EncoderType.HARDWARE, KEY_FRAME_INTERVAL_DEFAULT));
+        policies.add(new VideoEncoderPolicy(Collections.singletonList("H264"), H264Profile.HIGH, EncoderType.HARDWARE, KEY_FRAME_INTERVAL_DEFAULT));
+        policies.add(new VideoEncoderPolicy(Collections.singletonList("VP8"), H264Profile.BASELINE, EncoderType.HARDWARE, KEY_FRAME_INTERVAL_DEFAULT));
+        return policies;
+    }
+
+    public List<String> getCodecs() {
+        return mCodecs;
+    }
+
+    public String getPreferredCodec() {
+        return mCodecs.get(0);
+    }
+
+    public H264Profile getH264Profile() {
+        return mH264Profile;
+    }
+
+    public EncoderType getEncoderType() {
+        return mEncoderType;
+    }
+
+    public int getKeyFrameIntervalSec() {
+        return mKeyFrameIntervalSec;
+    }
+
+    public int getMinKeyFrameIntervalMs() {
+        return mMinKeyFrameIntervalMs;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Video sender option class
+ * (Trade-off between resolution and framerate when the encoder is CPU or bandwidth limited, and simulcast)
+ */
+public class VideoSenderOptions {
+    private static final String TAG = "VideoSenderOptions";
+
+    /*
+     * JSON key of each option
+     */
+    private static final String KEY_DEGRADATION_PREFERENCE = "degradationPreference";
+    private static final String KEY_CONTENT_HINT = "contentHint";
+    private static final String KEY_SIMULCAST = "simulcast";
+
+    // Number of simulcast layers (full, half and quarter resolution)
+    private static final int MIN_SIMULCAST_LAYERS = 1;
+    private static final int MAX_SIMULCAST_LAYERS = 3;
+
+    // Degradation preference
+    public enum DegradationPreference {
+        MAINTAIN_FRAMERATE("maintain-framerate"),       // Telepresence
+        MAINTAIN_RESOLUTION("maintain-resolution"),     // 360 inspection
+        BALANCED("balanced");
+
+        private final String mPreference;
+
+        DegradationPreference(final String preference) {
+            mPreference = preference;
+        }
+
+        @Override
+        public String toString() {
+            return mPreference;
+        }
+
+        public static DegradationPreference getValue(final String preference) {
+            for (DegradationPreference degradationPreference : DegradationPreference.values()) {
+                if (degradationPreference.toString().equals(preference)) {
+                    return degradationPreference;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Content hint of video track (Same values as MediaStreamTrack.contentHint)
+    public enum ContentHint {
+        NONE(""),
+        MOTION("motion"),
+        DETAIL("detail"),
+        TEXT("text");
+
+        private final String mHint;
+
+        ContentHint(final String hint) {
+            mHint = hint;
+        }
+
+        @Override
+        public String toString() {
+            return mHint;
+        }
+
+        public static ContentHint getValue(final String hint) {
+            for (ContentHint contentHint : ContentHint.values()) {
+                if (contentHint.toString().equals(hint)) {
+                    return contentHint;
+                }
+            }
+            return NONE;
+        }
+    }
+
+    private final DegradationPreference mDegradationPreference;
+    private final ContentHint mContentHint;
+    private final int mSimulcastLayers;
+
+    /**
+     * Constructor of video sender option class (libwebrtc default)
+     */
+    public VideoSenderOptions() {
+        this(null, ContentHint.NONE, MIN_SIMULCAST_LAYERS);
+    }
+
+    /**
+     * Constructor of video sender option class
+     *
+     * @param degradationPreference Degradation preference (null: decided by content hint)
+     * @param contentHint Content hint
+     * @param simulcastLayers Number of simulcast layers (1: no simulcast)
+     */
+    public VideoSenderOptions(DegradationPreference degradationPreference, ContentHint contentHint, int simulcastLayers) {
+        mDegradationPreference = degradationPreference;
+        mContentHint = contentHint;
+        mSimulcastLayers = Math.max(MIN_SIMULCAST_LAYERS, Math.min(MAX_SIMULCAST_LAYERS, simulcastLayers));
+    }
+
+    /**
+     * Create options from 'startLivePreview' options of JSON object format
+     *
+     * @param options Options of JSON object format
+     * @return Video sender options
+     */
+    public static VideoSenderOptions fromJSON(JSONObject options) {
+        if (options == null) {
+            return new VideoSenderOptions();
+        }
+        return new VideoSenderOptions(
+                DegradationPreference.getValue(options.optString(KEY_DEGRADATION_PREFERENCE)),
+                ContentHint.getValue(options.optString(KEY_CONTENT_HINT)),
+                options.optInt(KEY_SIMULCAST, MIN_SIMULCAST_LAYERS));
+    }
+
+    /**
+     * Return options of JSON object format
+     *
+     * @return Options of JSON object format
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put(KEY_DEGRADATION_PREFERENCE, getDegradationPreference().toString());
+            json.put(KEY_CONTENT_HINT, mContentHint.toString());
+            json.put(KEY_SIMULCAST, mSimulcastLayers);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    /**
+     * Return the effective degradation preference.
+     * If not specified, it follows the content hint in the same way as the browser.
+     *
+     * @return Degradation preference
+     */
+    public DegradationPreference getDegradationPreference() {
+        if (mDegradationPreference != null) {
+            return mDegradationPreference;
+        }
+        switch (mContentHint) {
+        case DETAIL:
+        case TEXT:
+            return DegradationPreference.MAINTAIN_RESOLUTION;
+        case MOTION:
+        case NONE:
+        default:
+            return DegradationPreference.MAINTAIN_FRAMERATE;
+        }
+    }
+
+    public ContentHint getContentHint() {
+        return mContentHint;
+    }
+
+    public int getSimulcastLayers() {
+        return mSimulcastLayers;
+    }
+
+    /**
+     * Return whether the video source is treated as screencast.
+     * (libwebrtc keeps the resolution of screencast sources.)
+     *
+     * @return true: screencast, false: camera
+     */
+    public boolean isScreencast() {
+        return getDegradationPreference() == DegradationPreference.MAINTAIN_RESOLUTION;
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bandwidth probe class
+ * (Samples the outgoing bitrate estimated by libwebrtc for a short time after ICE connects,
+ *  and selects the initial quality from the quality ladder.
+ *  The estimate ramps up with the initial probing of libwebrtc (padding burst) and the encoder ramp-up.)
+ */
+public class BandwidthProbe {
+    private static final String TAG = "BandwidthProbe";
+
+    private static final long PROBE_DURATION_MS = 3000;
+    private static final long SAMPLING_INTERVAL_MS = 250;
+    // Use only this ratio of the estimate, for the headroom of audio, RTX and fluctuation
+    private static final double BANDWIDTH_HEADROOM = 0.8;
+
+    /**
+     * Quality level of the ladder
+     */
+    public enum Level {
+        // Name, capture format, required bitrate and bitrate ceiling (Kbits/sec)
+        LEVEL_4K_30FPS("4K", 3840, 1920, 30, 20000, 40000),
+        LEVEL_2K_30FPS("2K", 1920, 960, 30, 4000, 12000),
+        LEVEL_2K_15FPS("2K-15fps", 1920, 960, 15, 1500, 4000),
+        LEVEL_1K_15FPS("1K-15fps", 1024, 512, 15, 0, 1500);     // Very constrained links
+
+        private final String mName;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mFps;
+        private final int mRequiredKbps;
+        private final int mMaxBitrateKbps;
+
+        Level(final String name, final int width, final int height, final int fps,
+              final int requiredKbps, final int maxBitrateKbps) {
+            mName = name;
+            mWidth = width;
+            mHeight = height;
+            mFps = fps;
+            mRequiredKbps = requiredKbps;
+            mMaxBitrateKbps = maxBitrateKbps;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getFps() {
+            return mFps;
+        }
+
+        public int getMaxBitrateKbps() {
+            return mMaxBitrateKbps;
+        }
+
+        /**
+         * Return whether the camera lists the capture format of this level
+         *
+         * @param formats Supported formats of the camera
+         * @return true: listed
+         */
+        public boolean isSupported(List<CaptureFormat> formats) {
+            for (CaptureFormat format : formats) {
+                // framerate of CaptureFormat is fps * 1000
+                if (format.width == mWidth && format.height == mHeight && format.framerate.max / 1000 == mFps) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Return the highest level which the bandwidth can carry, among the levels the camera lists.
+         * (All levels are candidates if the supported formats are not known yet.)
+         *
+         * @param usableKbps Usable bandwidth (Kbits/sec)
+         * @param formats Supported formats of the camera
+         * @return Quality level
+         */
+        public static Level select(long usableKbps, List<CaptureFormat> formats) {
+            Level lowest = null;
+            for (Level level : Level.values()) {
+                if (!formats.isEmpty() && !level.isSupported(formats)) {
+                    continue;
+                }
+                if (usableKbps >= level.mRequiredKbps) {
+                    return level;
+                }
+                lowest = level;
+            }
+            if (lowest == null) {
+                // None of the levels is listed, the capturer selects the closest format
+                return select(usableKbps, Collections.<CaptureFormat>emptyList());
+            }
+            return lowest;
+        }
+    }
+
+    /**
+     * Interface of callback functions of bandwidth probe
+     * (Called on the thread which created the probe.)
+     */
+    public interface Callback {
+        long getAvailableBitrateKbps();
+        void onProbeFinished(Level level, long estimatedKbps);
+    }
+
+    private final Handler mHandler = new Handler();
+    private final List<CaptureFormat> mSupportedFormats;
+    private final Callback mCallback;
+    private long mStartTimeMs = 0;
+    // Read by toJSON() on other threads
+    private volatile boolean mRunning = false;
+    private volatile long mEstimatedKbps = 0;
+    private volatile Level mResult = null;
+
+    private final Runnable mSamplingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            // The estimate ramps up during the probe, so the highest sample is used.
+            mEstimatedKbps = Math.max(mEstimatedKbps, mCallback.getAvailableBitrateKbps());
+            if (SystemClock.elapsedRealtime() - mStartTimeMs < PROBE_DURATION_MS) {
+                mHandler.postDelayed(this, SAMPLING_INTERVAL_MS);
+                return;
+            }
+            mRunning = false;
+            mResult = Level.select((long)(mEstimatedKbps * BANDWIDTH_HEADROOM), mSupportedFormats);
+            Log.d(TAG, "Estimated " + mEstimatedKbps + "kbps, select " + mResult);
+            mCallback.onProbeFinished(mResult, mEstimatedKbps);
+        }
+    };
+
+    /**
+     * Constructor of bandwidth probe class
+     *
+     * @param supportedFormats Supported formats of the camera (The levels not listed are skipped.)
+     * @param callback Implementation object of callback functions
+     */
+    public BandwidthProbe(List<CaptureFormat> supportedFormats, Callback callback) {
+        mSupportedFormats = supportedFormats;
+        mCallback = callback;
+    }
+
+    /**
+     * Start probe (Only once)
+     */
+    public void start() {
+        if (mRunning || mResult != null) {
+            return;
+        }
+        Log.d(TAG, "start");
+        mRunning = true;
+        mStartTimeMs = SystemClock.elapsedRealtime();
+        mHandler.postDelayed(mSamplingRunnable, SAMPLING_INTERVAL_MS);
+    }
+
+    /**
+     * Stop probe
+     */
+    public void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mSamplingRunnable);
+    }
+
+    /**
+     * Return the result of JSON object format
+     *
+     * @return Result of JSON object format
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("probing", mRunning);
+            json.put("estimatedKbps", mEstimatedKbps);
+            json.put("level", (mResult == null) ? JSONObject.NULL : mResult.toString());
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+}
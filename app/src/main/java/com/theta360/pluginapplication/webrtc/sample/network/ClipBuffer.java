@@ -0,0 +1,372 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.theta360.pluginapplication.webrtc.sample.network.WebRTCLibExtends.ThetaVideoEncoder;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.webrtc.EncodedImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clip buffer class
+ * (Keeps the last seconds of the encoded H.264 frames in a preallocated ring buffer, which starts at the last
+ *  key frame at or before the retention time, and exports a clip of the past seconds to an MP4 file without a re-encode.
+ *  The live stream is not paused: the export takes a snapshot of the frame index, and reads the frames
+ *  from the ring buffer on an exporter thread while new frames are still written.)
+ */
+public class ClipBuffer implements ThetaVideoEncoder.Observer {
+    private static final String TAG = "ClipBuffer";
+
+    private static final String H264_CODEC_NAME = "H264";
+    // Another encoder is followed if the current one sent no frame for this time (e.g. the encoder was recreated)
+    private static final long SOURCE_ENCODER_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Interface of notification callback function for the end of export
+     * (Called on the exporter thread.)
+     */
+    public interface Callback {
+        void onClipExported(String path, boolean success);
+    }
+
+    /*
+     * Index of a frame in the ring buffer
+     */
+    private static class Frame {
+        final long position;        // Position in the total written bytes
+        final int length;
+        final long captureTimeNs;
+        final boolean keyFrame;
+        final int width;
+        final int height;
+
+        Frame(long position, int length, long captureTimeNs, boolean keyFrame, int width, int height) {
+            this.position = position;
+            this.length = length;
+            this.captureTimeNs = captureTimeNs;
+            this.keyFrame = keyFrame;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final long mRetentionNs;
+    private final boolean mMemoryMapped;
+
+    // Guarded by this
+    private final ArrayDeque<Frame> mFrames = new ArrayDeque<Frame>();
+    private final ArrayDeque<Frame> mKeyFrames = new ArrayDeque<Frame>();
+    private long mWritePosition = 0;
+    private ThetaVideoEncoder mSourceEncoder = null;
+    private long mLastFrameTimeNs = 0;
+    private long mFramesDropped = 0;
+    private boolean mExporting = false;
+    private long mClipsExported = 0;
+
+    /**
+     * Constructor of clip buffer class. The buffer is allocated at once.
+     *
+     * @param capacityBytes Size of the ring buffer
+     * @param retentionMs Time of the frames to keep
+     * @param mappedFile File to map the ring buffer to (null: direct buffer in memory)
+     * @throws IOException The file can not be mapped
+     */
+    public ClipBuffer(int capacityBytes, long retentionMs, @Nullable File mappedFile) throws IOException {
+        mCapacity = capacityBytes;
+        mRetentionNs = TimeUnit.MILLISECONDS.toNanos(retentionMs);
+        mMemoryMapped = (mappedFile != null);
+        if (mappedFile == null) {
+            mBuffer = ByteBuffer.allocateDirect(capacityBytes);
+        } else {
+            // The mapping stays valid after the file is closed.
+            RandomAccessFile file = new RandomAccessFile(mappedFile, "rw");
+            try {
+                file.setLength(capacityBytes);
+                mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+            } finally {
+                file.close();
+            }
+        }
+        Log.d(TAG, "Allocated " + capacityBytes + " bytes" + (mMemoryMapped ? " (memory mapped)" : ""));
+    }
+
+    /**
+     * Discard the buffered frames (e.g. at the start of a new session)
+     */
+    public synchronized void clear() {
+        mFrames.clear();
+        mKeyFrames.clear();
+        mSourceEncoder = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onEncodedFrame(ThetaVideoEncoder encoder, EncodedImage frame, long encodeTimeNs) {
+        if (!H264_CODEC_NAME.equalsIgnoreCase(encoder.getCodecName())) {
+            return;
+        }
+        final boolean keyFrame = (frame.frameType == EncodedImage.FrameType.VideoFrameKey);
+        final long now = System.nanoTime();
+        if (mSourceEncoder != encoder) {
+            if (!keyFrame || (mSourceEncoder != null && now - mLastFrameTimeNs < SOURCE_ENCODER_TIMEOUT_NS)) {
+                return;
+            }
+            // Follow the new encoder. The frames of the old one can not be decoded with the new SPS / PPS.
+            Log.d(TAG, "Source encoder changed");
+            mSourceEncoder = encoder;
+            mFrames.clear();
+            mKeyFrames.clear();
+        }
+        mLastFrameTimeNs = now;
+
+        final int size = frame.buffer.remaining();
+        if (size > mCapacity || (mFrames.isEmpty() && !keyFrame)) {
+            mFramesDropped++;
+            return;
+        }
+        // A frame is not split at the end of the ring buffer.
+        int offset = (int)(mWritePosition % mCapacity);
+        if (offset + size > mCapacity) {
+            mWritePosition += mCapacity - offset;
+            offset = 0;
+        }
+        ByteBuffer destination = mBuffer.duplicate();
+        destination.position(offset);
+        destination.put(frame.buffer.duplicate());
+        Frame added = new Frame(mWritePosition, size, frame.captureTimeNs, keyFrame,
+                frame.encodedWidth, frame.encodedHeight);
+        mFrames.addLast(added);
+        if (keyFrame) {
+            mKeyFrames.addLast(added);
+        }
+        mWritePosition += size;
+
+        // Discard overwritten frames, and keep the buffer starting at a key frame.
+        while (!mFrames.isEmpty() && !isValid(mFrames.peekFirst())) {
+            removeFirstGop();
+        }
+        // Discard the oldest GOP only when the next one also starts before the retention time,
+        // so that the buffer keeps the whole retention time even with a long key frame interval.
+        while (mKeyFrames.size() >= 2
+                && frame.captureTimeNs - getSecondKeyFrame().captureTimeNs >= mRetentionNs) {
+            removeFirstGop();
+        }
+    }
+
+    /*
+     * Remove the first frame, and the following frames up to the next key frame
+     */
+    private void removeFirstGop() {
+        Frame removed = mFrames.removeFirst();
+        if (removed.keyFrame) {
+            mKeyFrames.removeFirst();
+        }
+        while (!mFrames.isEmpty() && !mFrames.peekFirst().keyFrame) {
+            mFrames.removeFirst();
+        }
+    }
+
+    /*
+     * Return the second key frame of the buffer (Two key frames or more are buffered)
+     */
+    private Frame getSecondKeyFrame() {
+        Iterator<Frame> iterator = mKeyFrames.iterator();
+        iterator.next();
+        return iterator.next();
+    }
+
+    /**
+     * Export a clip of the past seconds to an MP4 file.
+     * (The clip starts at the key frame at or before the start time, and the file is written in background.)
+     *
+     * @param durationMs Time of the clip
+     * @param path Path of the MP4 file
+     * @param callback Implementation object of callback functions
+     * @return Information of the clip of JSON object format (null: no frame, or exporting another clip)
+     */
+    @Nullable
+    public synchronized JSONObject exportClip(long durationMs, final String path, final Callback callback) {
+        if (mFrames.isEmpty() || mExporting) {
+            return null;
+        }
+        final long startTimeNs = mFrames.peekLast().captureTimeNs - TimeUnit.MILLISECONDS.toNanos(durationMs);
+        final List<Frame> frames = new ArrayList<Frame>();
+        Iterator<Frame> iterator = mFrames.descendingIterator();
+        while (iterator.hasNext()) {
+            Frame frame = iterator.next();
+            frames.add(0, frame);
+            if (frame.keyFrame && frame.captureTimeNs <= startTimeNs) {
+                break;
+            }
+        }
+        // Drop frames before the first key frame (the oldest frames of the index are aligned)
+        while (!frames.get(0).keyFrame) {
+            frames.remove(0);
+        }
+        mExporting = true;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = writeClip(frames, path);
+                synchronized (ClipBuffer.this) {
+                    mExporting = false;
+                    if (success) {
+                        mClipsExported++;
+                    }
+                }
+                callback.onClipExported(path, success);
+            }
+        }, TAG).start();
+
+        JSONObject json = new JSONObject();
+        try {
+            json.put("path", path);
+            json.put("durationMs", TimeUnit.NANOSECONDS.toMillis(
+                    frames.get(frames.size() - 1).captureTimeNs - frames.get(0).captureTimeNs));
+            json.put("frames", frames.size());
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /**
+     * Return the state of the buffer of JSON object format
+     *
+     * @return State of JSON object format
+     */
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            long bufferedBytes = 0;
+            for (Frame frame : mFrames) {
+                bufferedBytes += frame.length;
+            }
+            json.put("capacityBytes", mCapacity);
+            json.put("memoryMapped", mMemoryMapped);
+            json.put("retentionMs", TimeUnit.NANOSECONDS.toMillis(mRetentionNs));
+            json.put("bufferedMs", mFrames.isEmpty() ? 0
+                    : TimeUnit.NANOSECONDS.toMillis(mFrames.peekLast().captureTimeNs - mFrames.peekFirst().captureTimeNs));
+            json.put("bufferedBytes", bufferedBytes);
+            json.put("bufferedFrames", mFrames.size());
+            json.put("framesDropped", mFramesDropped);
+            json.put("exporting", mExporting);
+            json.put("clipsExported", mClipsExported);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /*
+     * Return whether the frame is not overwritten yet
+     */
+    private boolean isValid(Frame frame) {
+        return frame.position >= mWritePosition - mCapacity;
+    }
+
+    /*
+     * Copy the frame from the ring buffer (false: already overwritten)
+     */
+    private synchronized boolean readFrame(Frame frame, byte[] data) {
+        if (!isValid(frame)) {
+            return false;
+        }
+        ByteBuffer source = mBuffer.duplicate();
+        source.position((int)(frame.position % mCapacity));
+        source.get(data, 0, frame.length);
+        return true;
+    }
+
+    /*
+     * Write the frames to the MP4 file (Exporter thread)
+     */
+    private boolean writeClip(List<Frame> frames, String path) {
+        Frame first = frames.get(0);
+        byte[] data = new byte[0];
+        MediaMuxer muxer = null;
+        int written = 0;
+        try {
+            muxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int trackIndex = -1;
+            for (Frame frame : frames) {
+                if (data.length < frame.length) {
+                    data = new byte[frame.length];
+                }
+                if (!readFrame(frame, data)) {
+                    // The exporter fell behind the live stream. The clip is truncated.
+                    Log.w(TAG, "Frames overwritten during export");
+                    break;
+                }
+                if (trackIndex < 0) {
+                    MediaFormat format = StreamRecorder.createFormat(data, frame.length, frame.width, frame.height);
+                    if (format == null) {
+                        Log.w(TAG, "No SPS / PPS in the key frame");
+                        break;
+                    }
+                    trackIndex = muxer.addTrack(format);
+                    muxer.start();
+                }
+                info.set(0, frame.length, TimeUnit.NANOSECONDS.toMicros(frame.captureTimeNs - first.captureTimeNs),
+                        frame.keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+                muxer.writeSampleData(trackIndex, ByteBuffer.wrap(data, 0, frame.length), info);
+                written++;
+            }
+            if (trackIndex >= 0) {
+                muxer.stop();
+            }
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            Log.e(TAG, "Export error: " + e.getMessage());
+            written = 0;
+        } finally {
+            if (muxer != null) {
+                muxer.release();
+            }
+        }
+        Log.d(TAG, "Exported " + written + " / " + frames.size() + " frames: " + path);
+        if (written == 0) {
+            new File(path).delete();
+            return false;
+        }
+        return true;
+    }
+}
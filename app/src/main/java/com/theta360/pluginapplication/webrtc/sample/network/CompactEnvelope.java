@@ -0,0 +1,160 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Compact envelope class of signaling messages
+ * (For constrained links. Requested by the query of the connection URL ("ws://host:8889/?enc=compact").
+ *  The keys are shortened, and each SDP is sent as an array of lines, in which a line repeated
+ *  in the SDP (e.g. "a=rtcp-fb:..." of each media section) is replaced by the index of its first occurrence.)
+ *
+ * Message:  {"to": "peer-1", "type": "offer", "sdp": "v=0\r\n...\r\na=rtcp-fb:96 nack\r\n...\r\na=rtcp-fb:96 nack\r\n"}
+ * Envelope: {"d": "peer-1", "t": "offer", "s": ["v=0", ..., "a=rtcp-fb:96 nack", ..., 12, ""]}
+ */
+public class CompactEnvelope {
+    private static final String LINE_SEPARATOR = "\r\n";
+    private static final String KEY_SDP = "sdp";
+    private static final String SHORT_KEY_SDP = "s";
+
+    // A line shorter than this is not replaced, since the index is not shorter
+    private static final int MIN_DEDUPLICATED_LENGTH = 4;
+
+    /*
+     * Keys and short keys
+     */
+    private static final String[][] KEYS = {
+            { "type", "t" },
+            { KEY_SDP, SHORT_KEY_SDP },
+            { "candidate", "c" },
+            { "sdpMid", "m" },
+            { "sdpMLineIndex", "i" },
+            { "from", "f" },
+            { "to", "d" },
+    };
+    private static final Map<String, String> SHORT_KEYS = new HashMap<String, String>();
+    private static final Map<String, String> LONG_KEYS = new HashMap<String, String>();
+
+    static {
+        for (String[] key : KEYS) {
+            SHORT_KEYS.put(key[0], key[1]);
+            LONG_KEYS.put(key[1], key[0]);
+        }
+    }
+
+    private CompactEnvelope() {
+    }
+
+    /**
+     * Encode the message into the compact envelope
+     *
+     * @param message Message
+     * @return Envelope
+     * @throws JSONException The message has a value which is not allowed in JSON
+     */
+    public static JSONObject encode(JSONObject message) throws JSONException {
+        JSONObject envelope = new JSONObject();
+        Iterator<String> keys = message.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = message.get(key);
+            if (KEY_SDP.equals(key) && value instanceof String) {
+                value = encodeSdp((String) value);
+            }
+            String shortKey = SHORT_KEYS.get(key);
+            envelope.put((shortKey == null) ? key : shortKey, value);
+        }
+        return envelope;
+    }
+
+    /**
+     * Decode the message from the compact envelope
+     *
+     * @param envelope Envelope
+     * @return Message
+     * @throws JSONException The SDP refers to a line which does not precede it
+     */
+    public static JSONObject decode(JSONObject envelope) throws JSONException {
+        JSONObject message = new JSONObject();
+        Iterator<String> keys = envelope.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = envelope.get(key);
+            if (SHORT_KEY_SDP.equals(key) && value instanceof JSONArray) {
+                value = decodeSdp((JSONArray) value);
+            }
+            String longKey = LONG_KEYS.get(key);
+            message.put((longKey == null) ? key : longKey, value);
+        }
+        return message;
+    }
+
+    /*
+     * Split the SDP into lines, and replace the repeated lines by the index of the first occurrence
+     */
+    private static JSONArray encodeSdp(String sdp) {
+        JSONArray lines = new JSONArray();
+        Map<String, Integer> firstIndexes = new HashMap<String, Integer>();
+        // The empty string after the last separator is kept
+        String[] sdpLines = sdp.split(LINE_SEPARATOR, -1);
+        for (int i = 0; i < sdpLines.length; i++) {
+            String line = sdpLines[i];
+            Integer firstIndex = firstIndexes.get(line);
+            if (firstIndex != null && line.length() >= MIN_DEDUPLICATED_LENGTH) {
+                lines.put(firstIndex.intValue());
+            } else {
+                lines.put(line);
+                if (firstIndex == null) {
+                    firstIndexes.put(line, i);
+                }
+            }
+        }
+        return lines;
+    }
+
+    /*
+     * Join the lines of the SDP, and restore the repeated lines
+     */
+    private static String decodeSdp(JSONArray lines) throws JSONException {
+        String[] sdpLines = new String[lines.length()];
+        StringBuilder sdp = new StringBuilder();
+        for (int i = 0; i < sdpLines.length; i++) {
+            Object line = lines.get(i);
+            if (line instanceof Number) {
+                int index = ((Number) line).intValue();
+                if (index < 0 || index >= i) {
+                    throw new JSONException("Invalid line index: " + index);
+                }
+                sdpLines[i] = sdpLines[index];
+            } else {
+                sdpLines[i] = line.toString();
+            }
+            if (i > 0) {
+                sdp.append(LINE_SEPARATOR);
+            }
+            sdp.append(sdpLines[i]);
+        }
+        return sdp.toString();
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.os.Handler;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.webrtc.PeerConnection;
+
+/**
+ * Connection recovery class
+ * (Keeps the session and the capture running on connectivity loss, and tries an ICE restart
+ *  over the signaling server. The session is torn down only if it does not recover within the grace period.)
+ *
+ * All methods must be called on the thread of the handler (main thread), except toJSON().
+ */
+public class ConnectionRecovery {
+    private static final String TAG = "ConnectionRecovery";
+
+    private static final long DEFAULT_GRACE_PERIOD_MS = 10000;
+    // ICE often recovers by itself from DISCONNECTED. Wait a little before the ICE restart.
+    private static final long ICE_RESTART_DELAY_MS = 2000;
+
+    /**
+     * Interface of notification callback function for recovery
+     */
+    public interface Callback {
+        /**
+         * Restart ICE (Send the offer for the ICE restart)
+         *
+         * @return true: started, false: signaling is not available now
+         */
+        boolean onRestartIce();
+
+        /**
+         * Not recovered within the grace period. Tear down the session.
+         */
+        void onRecoveryTimeout();
+    }
+
+    private final Handler mHandler = new Handler();
+    private final Callback mCallback;
+    private volatile long mGracePeriodMs = DEFAULT_GRACE_PERIOD_MS;
+
+    private volatile boolean mRecovering = false;
+    private boolean mIceConnected = false;
+    private boolean mIceRestartStarted = false;
+    private long mRecoveryStartNs = 0;
+
+    // Statistics (Read by toJSON() on other threads)
+    private volatile int mRecoveries = 0;
+    private volatile int mFailures = 0;
+    private volatile int mIceRestarts = 0;
+    private volatile long mLastRecoveryMs = -1;
+
+    private final Runnable mIceRestartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            restartIce();
+        }
+    };
+
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "Not recovered in " + mGracePeriodMs + "ms");
+            mFailures++;
+            reset();
+            mCallback.onRecoveryTimeout();
+        }
+    };
+
+    /**
+     * Constructor of connection recovery class
+     *
+     * @param callback Implementation object of callback functions
+     */
+    public ConnectionRecovery(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Set the grace period before the session is torn down
+     *
+     * @param gracePeriodMs Grace period (0: tear down at once)
+     */
+    public void setGracePeriodMs(long gracePeriodMs) {
+        mGracePeriodMs = Math.max(0, gracePeriodMs);
+    }
+
+    public long getGracePeriodMs() {
+        return mGracePeriodMs;
+    }
+
+    /**
+     * Return whether the session is recovering
+     *
+     * @return true: recovering
+     */
+    public boolean isRecovering() {
+        return mRecovering;
+    }
+
+    /**
+     * Notify the change of ICE connection state
+     *
+     * @param state ICE connection state
+     */
+    public void onIceConnectionChange(PeerConnection.IceConnectionState state) {
+        switch (state) {
+        case CONNECTED:
+        case COMPLETED:
+            mIceConnected = true;
+            if (mRecovering) {
+                recovered();
+            }
+            break;
+        case DISCONNECTED:
+            if (!mIceConnected) {
+                break;
+            }
+            mIceConnected = false;
+            startRecovery();
+            mHandler.removeCallbacks(mIceRestartRunnable);
+            mHandler.postDelayed(mIceRestartRunnable, ICE_RESTART_DELAY_MS);
+            break;
+        case FAILED:
+            mIceConnected = false;
+            startRecovery();
+            mHandler.removeCallbacks(mIceRestartRunnable);
+            restartIce();
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Notify that the browser has disconnected from the signaling server
+     */
+    public void onSignalingLost() {
+        startRecovery();
+    }
+
+    /**
+     * Notify that the browser has connected to the signaling server again
+     */
+    public void onSignalingRestored() {
+        if (!mRecovering) {
+            return;
+        }
+        if (mIceConnected) {
+            // Only the signaling was lost. Media kept flowing.
+            recovered();
+        } else {
+            // The offer sent before may have been lost with the previous connection.
+            mHandler.removeCallbacks(mIceRestartRunnable);
+            mIceRestartStarted = false;
+            restartIce();
+        }
+    }
+
+    /**
+     * Finish the recovery without notification (The session is stopped.)
+     */
+    public void reset() {
+        mHandler.removeCallbacks(mIceRestartRunnable);
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        mRecovering = false;
+        mIceConnected = false;
+        mIceRestartStarted = false;
+    }
+
+    /**
+     * Return the statistics of recovery of JSON object format
+     *
+     * @return Statistics of JSON object format
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("gracePeriodMs", mGracePeriodMs);
+            json.put("recovering", mRecovering);
+            json.put("recoveries", mRecoveries);
+            json.put("failures", mFailures);
+            json.put("iceRestarts", mIceRestarts);
+            json.put("lastRecoveryMs", (mLastRecoveryMs < 0) ? JSONObject.NULL : (Object)mLastRecoveryMs);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /*
+     * Start recovery, and the grace period
+     */
+    private void startRecovery() {
+        if (mRecovering) {
+            return;
+        }
+        Log.d(TAG, "startRecovery");
+        mRecovering = true;
+        mIceRestartStarted = false;
+        mRecoveryStartNs = SessionTrace.now();
+        mHandler.postDelayed(mTimeoutRunnable, mGracePeriodMs);
+    }
+
+    /*
+     * Restart ICE, once in a recovery
+     * (If the signaling is not available, it is restarted when the browser connects again.)
+     */
+    private void restartIce() {
+        if (!mRecovering || mIceConnected || mIceRestartStarted) {
+            return;
+        }
+        if (mCallback.onRestartIce()) {
+            Log.d(TAG, "ICE restart");
+            mIceRestartStarted = true;
+            mIceRestarts++;
+        }
+    }
+
+    /*
+     * Finish recovery successfully
+     */
+    private void recovered() {
+        mLastRecoveryMs = (SessionTrace.now() - mRecoveryStartNs) / 1000000;
+        mRecoveries++;
+        Log.d(TAG, "Recovered in " + mLastRecoveryMs + "ms");
+        mHandler.removeCallbacks(mIceRestartRunnable);
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        mRecovering = false;
+        mIceRestartStarted = false;
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.webrtc.DataChannel;
+import org.webrtc.PeerConnection;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Control channel class
+ * (Serves the commands of /webrtc/commands/execute over a negotiated, ordered data channel.
+ *  Each request carries an ID, and the response is returned with the same ID,
+ *  so that the client can send the next request without waiting for the response.)
+ *
+ * Request:  {"id": 1, "name": "camera.setOptions", "parameters": {...}}
+ * Response: {"id": 1, "code": 200, "response": {...}}
+ *
+ * Status events are pushed on the same channel after subscription.
+ * Request:  {"id": 2, "subscribe": ["shootingStatus", "options", "capture", "streamHealth"]}
+ * Response: {"id": 2, "code": 200, "response": {"subscribed": [...]}}
+ */
+public class ControlChannel implements DataChannel.Observer, StatusEventPublisher.Sink {
+    private static final String TAG = "ControlChannel";
+
+    // Negotiated out of band (The browser creates the channel with the same label and ID.)
+    public static final String LABEL = "control";
+    public static final int CHANNEL_ID = 0;
+
+    /**
+     * Interface of notification callback function for received commands
+     * (Called on the WebRTC signaling thread.)
+     */
+    public interface Callback {
+        void onCommand(ResponseSender sender, JSONObject command, long receivedTimeNs);
+    }
+
+    private final DataChannel mDataChannel;
+    private final Callback mCallback;
+    private final StatusEventPublisher mEventPublisher;
+    private boolean mClosed = false; /* Guarded by this */
+
+    /*
+     * Response sender of a request
+     */
+    private class DataChannelResponseSender implements ResponseSender {
+        private final Object mId;
+
+        DataChannelResponseSender(Object id) {
+            mId = id;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void sendJson(int statusCode, String json) {
+            // The response is already JSON, so it is embedded without parsing again.
+            String id = (mId instanceof String) ? JSONObject.quote((String)mId) : String.valueOf(mId);
+            send("{\"id\":" + id + ",\"code\":" + statusCode + ",\"response\":" + json + "}");
+        }
+    }
+
+    /**
+     * Create the control channel on the peer connection.
+     * (Must be called before creating offer / answer.)
+     *
+     * @param peerConnection Peer connection
+     * @param callback Implementation object of callback functions
+     * @param eventPublisher Publisher of status events (null: events are not supported)
+     * @return Control channel (null: failed to create the data channel)
+     */
+    public static ControlChannel create(PeerConnection peerConnection, Callback callback,
+                                        @Nullable StatusEventPublisher eventPublisher) {
+        DataChannel.Init init = new DataChannel.Init();
+        init.ordered = true;
+        init.negotiated = true;
+        init.id = CHANNEL_ID;
+        DataChannel dataChannel = peerConnection.createDataChannel(LABEL, init);
+        if (dataChannel == null) {
+            Log.e(TAG, "Create data channel error");
+            return null;
+        }
+        ControlChannel controlChannel = new ControlChannel(dataChannel, callback, eventPublisher);
+        dataChannel.registerObserver(controlChannel);
+        return controlChannel;
+    }
+
+    private ControlChannel(DataChannel dataChannel, Callback callback, StatusEventPublisher eventPublisher) {
+        mDataChannel = dataChannel;
+        mCallback = callback;
+        mEventPublisher = eventPublisher;
+    }
+
+    /**
+     * Return whether the channel is open
+     *
+     * @return true: open
+     */
+    public synchronized boolean isOpen() {
+        return !mClosed && mDataChannel.state() == DataChannel.State.OPEN;
+    }
+
+    /**
+     * Send a message of JSON format.
+     * (Dropped if the channel is not open.)
+     *
+     * @param message Message
+     * @return true: sent, false: dropped
+     */
+    public synchronized boolean send(String message) {
+        if (!isOpen()) {
+            Log.w(TAG, "Channel is not open. Drop message.");
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+        return mDataChannel.send(new DataChannel.Buffer(buffer, false));
+    }
+
+    /**
+     * Close the channel, and release it.
+     * (Responses of the requests still running are dropped.)
+     */
+    public void close() {
+        if (mEventPublisher != null) {
+            mEventPublisher.unsubscribe(this);
+        }
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mDataChannel.unregisterObserver();
+            mDataChannel.close();
+            mDataChannel.dispose();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean sendEvent(String message) {
+        return send(message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onBufferedAmountChange(long previousAmount) {}
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStateChange() {
+        Log.d(TAG, "onStateChange");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onMessage(DataChannel.Buffer buffer) {
+        final long receivedTimeNs = SessionTrace.now();
+        if (buffer.binary) {
+            Log.w(TAG, "Binary message is not supported");
+            return;
+        }
+        byte[] bytes = new byte[buffer.data.remaining()];
+        buffer.data.get(bytes);
+
+        JSONObject command;
+        try {
+            command = new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON parsing error");
+            return;
+        }
+        Object id = command.opt("id");
+        command.remove("id");
+        ResponseSender sender = new DataChannelResponseSender((id == null) ? JSONObject.NULL : id);
+
+        JSONArray events = command.optJSONArray("subscribe");
+        if (events != null) {
+            subscribe(sender, events);
+            return;
+        }
+        mCallback.onCommand(sender, command, receivedTimeNs);
+    }
+
+    /*
+     * Subscribe status events
+     */
+    private void subscribe(ResponseSender sender, JSONArray events) {
+        if (mEventPublisher == null) {
+            sender.sendJson(403, "{\"subscribed\":[]}");
+            return;
+        }
+        List<String> eventList = new ArrayList<String>();
+        for (int i = 0; i < events.length(); i++) {
+            eventList.add(events.optString(i));
+        }
+        // Respond first, so that the response precedes the latest values of the events.
+        JSONObject response = new JSONObject();
+        try {
+            response.put("subscribed", new JSONArray(eventList));
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        sender.sendJson(200, response.toString());
+        mEventPublisher.subscribe(this, eventList);
+    }
+}
@@ -0,0 +1,354 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.webrtc.EglBase;
+import org.webrtc.EncodedImage;
+import org.webrtc.VideoCodecInfo;
+import org.webrtc.VideoCodecStatus;
+import org.webrtc.VideoEncoder;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+import org.webrtc.VideoTrack;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.theta360.pluginapplication.webrtc.sample.model.VideoEncoderPolicy;
+import com.theta360.pluginapplication.webrtc.sample.network.WebRTCLibExtends.ThetaVideoEncoder;
+import com.theta360.pluginapplication.webrtc.sample.network.WebRTCLibExtends.ThetaVideoEncoderFactory;
+
+/**
+ * Encoder benchmark class
+ * (Encodes the captured stream under each encoder policy in turn, with the same target bitrate.)
+ */
+public class EncoderBenchmark implements VideoSink, ThetaVideoEncoder.Observer {
+    private static final String TAG = "EncoderBenchmark";
+
+    // Frames waiting for the encoder. Frames over this are dropped, and lower the measured fps.
+    private static final int MAX_QUEUED_FRAMES = 2;
+    // Give up a policy when its frames are not encoded within (expected time * this factor)
+    private static final int TIMEOUT_FACTOR = 3;
+
+    /**
+     * Interface of notification callback function
+     * (Called on the benchmark thread.)
+     */
+    public interface Callback {
+        void onCompleted(JSONObject result);
+    }
+
+    private final EglBase.Context mEglContext;
+    private final List<VideoEncoderPolicy> mPolicies;
+    private final int mFramesPerPolicy;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBitrateKbps;
+    private final int mFps;
+    private final Callback mCallback;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private VideoTrack mVideoTrack;
+    private final JSONArray mResults = new JSONArray();
+
+    // Measurement of the current policy (Guarded by this)
+    private int mPolicyIndex;
+    private ThetaVideoEncoder mEncoder;
+    private int mQueuedFrames;
+    private int mInputFrames;
+    private int mDroppedFrames;
+    private int mEncodedFrames;
+    private int mKeyFrames;
+    private long mEncodedBytes;
+    private long mQpSum;
+    private int mQpCount;
+    private long mEncodeTimeNsSum;
+    private long mStartTimeNs;
+    private long mEndTimeNs;
+
+    /**
+     * Constructor of encoder benchmark class
+     *
+     * @param eglContext EGL context shared with the capturer
+     * @param policies Encoder policies to measure
+     * @param framesPerPolicy Number of frames to encode with each policy
+     * @param width Frame width
+     * @param height Frame height
+     * @param bitrateKbps Target bitrate (Kbits/sec)
+     * @param fps Target framerate
+     * @param callback Implementation object of callback functions
+     */
+    public EncoderBenchmark(EglBase.Context eglContext, List<VideoEncoderPolicy> policies, int framesPerPolicy,
+                            int width, int height, int bitrateKbps, int fps, Callback callback) {
+        mEglContext = eglContext;
+        mPolicies = policies;
+        mFramesPerPolicy = framesPerPolicy;
+        mWidth = width;
+        mHeight = height;
+        mBitrateKbps = bitrateKbps;
+        mFps = fps;
+        mCallback = callback;
+    }
+
+    /**
+     * Start benchmark with the frames of the specified video track
+     *
+     * @param videoTrack Local video track
+     */
+    public void start(VideoTrack videoTrack) {
+        Log.d(TAG, "start");
+
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mVideoTrack = videoTrack;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                startPolicy(0);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onFrame(final VideoFrame frame) {
+        synchronized (this) {
+            if (mEncoder == null || mInputFrames >= mFramesPerPolicy) {
+                return;
+            }
+            mInputFrames++;
+            if (mQueuedFrames >= MAX_QUEUED_FRAMES) {
+                mDroppedFrames++;
+                return;
+            }
+            mQueuedFrames++;
+        }
+
+        frame.retain();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                encodeFrame(frame);
+                frame.release();
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEncodedFrame(ThetaVideoEncoder encoder, EncodedImage frame, long encodeTimeNs) {
+        boolean finished;
+        final int index;
+        synchronized (this) {
+            if (encoder != mEncoder) {
+                return;
+            }
+            mEncodedFrames++;
+            mEncodedBytes += frame.buffer.remaining();
+            mEncodeTimeNsSum += encodeTimeNs;
+            if (frame.frameType == EncodedImage.FrameType.VideoFrameKey) {
+                mKeyFrames++;
+            }
+            if (frame.qp != null) {
+                mQpSum += frame.qp;
+                mQpCount++;
+            }
+            mEndTimeNs = System.nanoTime();
+            finished = (mEncodedFrames + mDroppedFrames >= mFramesPerPolicy);
+            index = mPolicyIndex;
+        }
+        if (finished) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finishPolicy(index);
+                }
+            });
+        }
+    }
+
+    /*
+     * Create encoder of the policy, and start receiving frames
+     */
+    private void startPolicy(final int index) {
+        if (index >= mPolicies.size()) {
+            complete();
+            return;
+        }
+
+        VideoEncoderPolicy policy = mPolicies.get(index);
+        ThetaVideoEncoderFactory factory = new ThetaVideoEncoderFactory(mEglContext, policy);
+        factory.setEncoderObserver(this);
+
+        VideoEncoder encoder = null;
+        for (VideoCodecInfo codec : factory.getSupportedCodecs()) {
+            if (codec.name.equalsIgnoreCase(policy.getPreferredCodec())) {
+                encoder = factory.createEncoder(codec);
+                break;
+            }
+        }
+        if (!(encoder instanceof ThetaVideoEncoder)) {
+            // Native (software) encoders can not be driven from Java.
+            addResult(policy, null, "unsupported");
+            startPolicy(index + 1);
+            return;
+        }
+
+        VideoEncoder.Settings settings = new VideoEncoder.Settings(
+                Runtime.getRuntime().availableProcessors(), mWidth, mHeight, mBitrateKbps, mFps, false);
+        VideoCodecStatus status = encoder.initEncode(settings, new VideoEncoder.Callback() {
+            @Override
+            public void onEncodedFrame(EncodedImage frame, VideoEncoder.CodecSpecificInfo info) {
+                // Measured by the observer of the encoder
+            }
+        });
+        if (status != VideoCodecStatus.OK) {
+            addResult(policy, encoder.getImplementationName(), "initEncode " + status);
+            startPolicy(index + 1);
+            return;
+        }
+        encoder.setRateAllocation(new VideoEncoder.BitrateAllocation(new int[][] {{mBitrateKbps * 1000}}), mFps);
+
+        synchronized (this) {
+            mPolicyIndex = index;
+            mEncoder = (ThetaVideoEncoder)encoder;
+            mQueuedFrames = 0;
+            mInputFrames = 0;
+            mDroppedFrames = 0;
+            mEncodedFrames = 0;
+            mKeyFrames = 0;
+            mEncodedBytes = 0;
+            mQpSum = 0;
+            mQpCount = 0;
+            mEncodeTimeNsSum = 0;
+            mStartTimeNs = System.nanoTime();
+            mEndTimeNs = mStartTimeNs;
+        }
+        mVideoTrack.addSink(this);
+
+        long timeoutMs = TimeUnit.SECONDS.toMillis(TIMEOUT_FACTOR * mFramesPerPolicy / Math.max(1, mFps));
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                finishPolicy(index);
+            }
+        }, timeoutMs);
+    }
+
+    /*
+     * Encode a frame with the encoder of the current policy
+     */
+    private void encodeFrame(VideoFrame frame) {
+        ThetaVideoEncoder encoder;
+        synchronized (this) {
+            mQueuedFrames--;
+            encoder = mEncoder;
+        }
+        if (encoder != null) {
+            encoder.encode(frame, new VideoEncoder.EncodeInfo(new EncodedImage.FrameType[] {EncodedImage.FrameType.VideoFrameDelta}));
+        }
+    }
+
+    /*
+     * Record the result of the current policy, and go to next policy
+     */
+    private void finishPolicy(int index) {
+        ThetaVideoEncoder encoder;
+        JSONObject result = new JSONObject();
+        synchronized (this) {
+            if (mEncoder == null || mPolicyIndex != index) {
+                // Already finished
+                return;
+            }
+            encoder = mEncoder;
+            mEncoder = null;
+
+            double elapsedSec = Math.max(1, mEndTimeNs - mStartTimeNs) / (double)TimeUnit.SECONDS.toNanos(1);
+            try {
+                result.put("frames", mEncodedFrames);
+                result.put("droppedFrames", mDroppedFrames);
+                result.put("keyFrames", mKeyFrames);
+                result.put("fps", mEncodedFrames / elapsedSec);
+                result.put("bitrateKbps", (mEncodedBytes * 8 / 1000) / elapsedSec);
+                result.put("averageQp", (mQpCount == 0) ? JSONObject.NULL : (Object)(mQpSum / (double)mQpCount));
+                result.put("averageEncodeTimeMs", (mEncodedFrames == 0) ? 0 :
+                        mEncodeTimeNsSum / (double)mEncodedFrames / TimeUnit.MILLISECONDS.toNanos(1));
+            } catch (JSONException e) {
+                Log.e(TAG, "JSON exception");
+            }
+        }
+        mVideoTrack.removeSink(this);
+        encoder.release();
+
+        addResult(mPolicies.get(index), encoder.getImplementationName(), result);
+        startPolicy(index + 1);
+    }
+
+    /*
+     * Add the result of a policy
+     */
+    private void addResult(VideoEncoderPolicy policy, String implementation, Object result) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("policy", policy.toJSON());
+            json.put("implementation", (implementation == null) ? JSONObject.NULL : implementation);
+            if (result instanceof JSONObject) {
+                json.put("result", result);
+            } else {
+                json.put("error", result);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        Log.d(TAG, "result: " + json);
+        mResults.put(json);
+    }
+
+    /*
+     * Notify all results, and stop benchmark thread
+     */
+    private void complete() {
+        Log.d(TAG, "complete");
+
+        JSONObject json = new JSONObject();
+        try {
+            json.put("width", mWidth);
+            json.put("height", mHeight);
+            json.put("targetBitrateKbps", mBitrateKbps);
+            json.put("targetFps", mFps);
+            json.put("results", mResults);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        mCallback.onCompleted(json);
+        mThread.quitSafely();
+    }
+}
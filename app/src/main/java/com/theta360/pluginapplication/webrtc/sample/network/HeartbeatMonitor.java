@@ -0,0 +1,226 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.util.Log;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.channels.NotYetConnectedException;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heartbeat monitor class
+ * (Pings the WebSocket connections at the heartbeat interval, and closes a connection
+ *  from which nothing has been received within the timeout, e.g. a browser which vanished
+ *  without the close handshake. The close is notified by onClose() as usual.)
+ *
+ * A pong, a message or any other frame received from the peer counts as a sign of life (onAlive()).
+ * The dead peer is detected between the timeout and the timeout plus the interval.
+ */
+public class HeartbeatMonitor {
+    private static final String TAG = "HeartbeatMonitor";
+
+    public static final long DEFAULT_INTERVAL_MS = 10000;
+    public static final long DEFAULT_TIMEOUT_MS = 30000;
+
+    private final String mName;
+    private final Map<WebSocket, Long> mLastSeenNs = new ConcurrentHashMap<WebSocket, Long>();
+    private final AtomicLong mPings = new AtomicLong();
+    private final AtomicLong mDeadPeers = new AtomicLong();
+    private volatile long mIntervalMs = DEFAULT_INTERVAL_MS;
+    private volatile long mTimeoutMs = DEFAULT_TIMEOUT_MS;
+
+    // Guarded by this
+    private Timer mTimer = null;
+    private boolean mStarted = false;
+
+    /**
+     * Constructor of heartbeat monitor class
+     *
+     * @param name Name of the timer thread
+     */
+    public HeartbeatMonitor(String name) {
+        mName = name;
+    }
+
+    /**
+     * Set the heartbeat interval and the timeout.
+     * (Takes effect at once, if the monitor is running.)
+     *
+     * @param intervalMs Interval of the pings (milliseconds, 0: the heartbeat is disabled)
+     * @param timeoutMs Time without any frame from the peer until it is declared dead (milliseconds)
+     */
+    public synchronized void setHeartbeat(long intervalMs, long timeoutMs) {
+        mIntervalMs = Math.max(0, intervalMs);
+        // At least one ping must be answered in time
+        mTimeoutMs = Math.max(mIntervalMs, timeoutMs);
+        Log.d(TAG, mName + ": heartbeat " + mIntervalMs + "ms, timeout " + mTimeoutMs + "ms");
+        if (mStarted) {
+            schedule();
+        }
+    }
+
+    /**
+     * Start the heartbeat
+     */
+    public synchronized void start() {
+        mStarted = true;
+        schedule();
+    }
+
+    /**
+     * Stop the heartbeat
+     */
+    public synchronized void stop() {
+        mStarted = false;
+        cancel();
+        mLastSeenNs.clear();
+    }
+
+    /**
+     * Start monitoring the connection
+     *
+     * @param conn Connection
+     */
+    public void add(WebSocket conn) {
+        mLastSeenNs.put(conn, System.nanoTime());
+    }
+
+    /**
+     * Stop monitoring the connection
+     *
+     * @param conn Connection
+     */
+    public void remove(WebSocket conn) {
+        mLastSeenNs.remove(conn);
+    }
+
+    /**
+     * Notify that a frame is received from the peer
+     *
+     * @param conn Connection
+     */
+    public void onAlive(WebSocket conn) {
+        // Not added again after remove()
+        mLastSeenNs.replace(conn, System.nanoTime());
+    }
+
+    /**
+     * Return the number of the peers declared dead
+     *
+     * @return Number of dead peers
+     */
+    public long getDeadPeers() {
+        return mDeadPeers.get();
+    }
+
+    /**
+     * Return the settings and the counters of JSON object format
+     *
+     * @return Heartbeat of JSON object format
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("intervalMs", mIntervalMs);
+            json.put("timeoutMs", mTimeoutMs);
+            json.put("monitored", mLastSeenNs.size());
+            json.put("pings", mPings.get());
+            json.put("deadPeers", mDeadPeers.get());
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /*
+     * (Re)schedule the timer at the current interval
+     */
+    private void schedule() {
+        cancel();
+        long intervalMs = mIntervalMs;
+        if (intervalMs == 0) {
+            return;
+        }
+        mTimer = new Timer(mName + "-heartbeat", true);
+        mTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (RuntimeException e) {
+                    // An exception escaping the task cancels the timer, and the heartbeat would stop for good.
+                    Log.e(TAG, mName + ": heartbeat error: " + e);
+                }
+            }
+        }, intervalMs, intervalMs);
+    }
+
+    /*
+     * Cancel the timer
+     */
+    private void cancel() {
+        if (mTimer != null) {
+            mTimer.cancel();
+            mTimer = null;
+        }
+    }
+
+    /*
+     * Close the dead connections, and ping the others
+     */
+    private void check() {
+        long nowNs = System.nanoTime();
+        long timeoutMs = mTimeoutMs;
+        for (Map.Entry<WebSocket, Long> entry : mLastSeenNs.entrySet()) {
+            WebSocket conn = entry.getKey();
+            if (!conn.isOpen()) {
+                continue;
+            }
+            long silentMs = (nowNs - entry.getValue()) / 1000000;
+            if (silentMs >= timeoutMs) {
+                if (mLastSeenNs.remove(conn, entry.getValue())) {
+                    Log.w(TAG, mName + ": dead peer " + conn.getRemoteSocketAddress() + ", silent for " + silentMs + "ms");
+                    mDeadPeers.incrementAndGet();
+                    // Closed without the close handshake, since the peer does not respond
+                    conn.closeConnection(CloseFrame.ABNORMAL_CLOSE, "No response within " + timeoutMs + "ms");
+                }
+                continue;
+            }
+            try {
+                conn.sendPing();
+                mPings.incrementAndGet();
+            } catch (NotYetConnectedException e) {
+                Log.d(TAG, "NotYetConnectedException: " + e);
+            } catch (WebsocketNotConnectedException e) {
+                // Closed after isOpen(). Removed by the close callback.
+                Log.d(TAG, "WebsocketNotConnectedException: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.util.Log;
+
+/**
+ * Local signaling endpoint class
+ * (The peer of this plug-in registered directly in the signaling server of the same process.
+ *  Messages are routed by method call without serializing them, and only the messages
+ *  to or from the browsers go through the sockets.)
+ */
+public class LocalSignalingEndpoint implements SignalingEndpoint {
+    private static final String TAG = "LocalSignalingEndpoint";
+
+    private final SignalingServer mServer;
+    private final String mPeerId;
+    private volatile Callbacks mCallbacks = null;
+    private volatile boolean mOpen = false;
+
+    /**
+     * Constructor of local signaling endpoint class
+     * (Created by SignalingServer.createLocalEndpoint().)
+     *
+     * @param server Signaling server
+     * @param peerId Peer ID of the endpoint
+     */
+    LocalSignalingEndpoint(SignalingServer server, String peerId) {
+        mServer = server;
+        mPeerId = peerId;
+    }
+
+    /**
+     * Return the peer ID of the endpoint
+     *
+     * @return Peer ID
+     */
+    public String getPeerId() {
+        return mPeerId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean open(Callbacks callbacks) {
+        Log.d(TAG, "open: " + mPeerId);
+        mCallbacks = callbacks;
+        // Open before the registration, so that no message routed to the endpoint is dropped
+        mOpen = true;
+        if (!mServer.registerLocalEndpoint(this)) {
+            Log.e(TAG, "Peer ID is in use: " + mPeerId);
+            mOpen = false;
+            return false;
+        }
+        callbacks.onConnected();
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        if (!mOpen) {
+            return;
+        }
+        Log.d(TAG, "close: " + mPeerId);
+        mOpen = false;
+        mServer.unregisterLocalEndpoint(this);
+        Callbacks callbacks = mCallbacks;
+        if (callbacks != null) {
+            callbacks.onDisconnected();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void send(SignalingMessage message) {
+        if (!mOpen) {
+            Log.w(TAG, "Endpoint is not open. Drop message.");
+            return;
+        }
+        mServer.routeFromLocalEndpoint(this, message);
+    }
+
+    /*
+     * Receive the message routed by the signaling server
+     * (Called on the thread of the sender.)
+     */
+    void deliver(SignalingMessage message) {
+        Callbacks callbacks = mCallbacks;
+        if (mOpen && callbacks != null) {
+            callbacks.onRecvMessage(message);
+        }
+    }
+}
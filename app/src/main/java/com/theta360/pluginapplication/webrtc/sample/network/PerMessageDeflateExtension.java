@@ -0,0 +1,390 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.util.Log;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.InvalidFrameException;
+import org.java_websocket.extensions.DefaultExtension;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * WebSocket permessage-deflate extension class (RFC 7692)
+ * (SDP of 4K H.264 is several kilobytes of repetitive text, and is reduced to less than a third.
+ *  The compression context is kept between messages, unless the peer requests no context takeover.
+ *  Java-WebSocket 1.3.8 has the extension mechanism, but no implementation of the compression,
+ *  and does not write RSV1 of the frames. Use the draft of createDraft().)
+ */
+public class PerMessageDeflateExtension extends DefaultExtension {
+    private static final String TAG = "PerMessageDeflate";
+
+    private static final String EXTENSION_NAME = "permessage-deflate";
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+    private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+    private static final int MAX_WINDOW_BITS = 15;     // Window of java.util.zip
+
+    // RSV1 bit of the first byte of a frame
+    private static final byte RSV1 = 0x40;
+
+    // Tail of the sync flush, removed from each message (RFC 7692 7.2.1)
+    private static final byte[] TAIL = { 0x00, 0x00, (byte)0xff, (byte)0xff };
+
+    // Messages smaller than this are sent without compression
+    private static final int MIN_COMPRESS_BYTES = 64;
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Draft of RFC 6455 which writes RSV1 of the compressed frames
+     */
+    public static class DeflateDraft extends Draft_6455 {
+        public DeflateDraft(List<IExtension> extensions, List<IProtocol> protocols) {
+            super(extensions, protocols);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ByteBuffer createBinaryFrame(Framedata framedata) {
+            // The extension sets RSV1 of the frame in encodeFrame(), called by the super class
+            ByteBuffer frame = super.createBinaryFrame(framedata);
+            if (framedata.isRSV1()) {
+                frame.put(0, (byte) (frame.get(0) | RSV1));
+            }
+            return frame;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Draft copyInstance() {
+            List<IExtension> extensions = new ArrayList<IExtension>();
+            for (IExtension extension : getKnownExtensions()) {
+                extensions.add(extension.copyInstance());
+            }
+            List<IProtocol> protocols = new ArrayList<IProtocol>();
+            for (IProtocol protocol : getKnownProtocols()) {
+                protocols.add(protocol.copyInstance());
+            }
+            return new DeflateDraft(extensions, protocols);
+        }
+    }
+
+    private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater mInflater = new Inflater(true);
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private boolean mResetDeflater = false;         // No context takeover of the sending side
+    private String mResponse = EXTENSION_NAME;      // Negotiated parameters, as server
+    private boolean mInflating = false;             // Receiving the fragments of a compressed message
+
+    // Payload bytes before and after the compression
+    private final AtomicLong mSentBytes = new AtomicLong();
+    private final AtomicLong mSentWireBytes = new AtomicLong();
+    private final AtomicLong mReceivedBytes = new AtomicLong();
+    private final AtomicLong mReceivedWireBytes = new AtomicLong();
+
+    /**
+     * Create the draft which offers or accepts permessage-deflate
+     *
+     * @return Draft
+     */
+    public static Draft_6455 createDraft() {
+        return new DeflateDraft(Collections.<IExtension>singletonList(new PerMessageDeflateExtension()),
+                Collections.<IProtocol>singletonList(new Protocol("")));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean acceptProvidedExtensionAsServer(String inputExtensionHeader) {
+        if (inputExtensionHeader == null) {
+            return false;
+        }
+        // Offers in the order of preference ("permessage-deflate; client_max_window_bits, permessage-deflate")
+        for (String offer : inputExtensionHeader.split(",")) {
+            String[] parameters = offer.split(";");
+            if (!EXTENSION_NAME.equals(parameters[0].trim())) {
+                continue;
+            }
+            boolean acceptable = true;
+            boolean serverNoContextTakeover = false;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.equals(SERVER_NO_CONTEXT_TAKEOVER)) {
+                    serverNoContextTakeover = true;
+                } else if (parameter.startsWith(SERVER_MAX_WINDOW_BITS)) {
+                    // The window of the deflater can not be reduced
+                    acceptable = parameter.endsWith("=" + MAX_WINDOW_BITS);
+                } else if (!parameter.equals(CLIENT_NO_CONTEXT_TAKEOVER) && !parameter.startsWith(CLIENT_MAX_WINDOW_BITS)) {
+                    acceptable = false;
+                }
+            }
+            if (acceptable) {
+                mResetDeflater = serverNoContextTakeover;
+                mResponse = serverNoContextTakeover ? EXTENSION_NAME + "; " + SERVER_NO_CONTEXT_TAKEOVER : EXTENSION_NAME;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean acceptProvidedExtensionAsClient(String inputExtensionHeader) {
+        if (inputExtensionHeader == null) {
+            return false;
+        }
+        String[] parameters = inputExtensionHeader.split(";");
+        if (!EXTENSION_NAME.equals(parameters[0].trim())) {
+            return false;
+        }
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.equals(CLIENT_NO_CONTEXT_TAKEOVER)) {
+                mResetDeflater = true;
+            } else if (parameter.startsWith(CLIENT_MAX_WINDOW_BITS)) {
+                // Not offered
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getProvidedExtensionAsClient() {
+        return EXTENSION_NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getProvidedExtensionAsServer() {
+        return mResponse;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void isFrameValid(Framedata inputFrame) throws InvalidDataException {
+        // RSV1 is set on the first frame of a compressed message
+        boolean dataFrame = inputFrame.getOpcode() == Framedata.Opcode.TEXT || inputFrame.getOpcode() == Framedata.Opcode.BINARY;
+        if ((inputFrame.isRSV1() && !dataFrame) || inputFrame.isRSV2() || inputFrame.isRSV3()) {
+            throw new InvalidFrameException("bad rsv RSV1: " + inputFrame.isRSV1() + " RSV2: " + inputFrame.isRSV2() + " RSV3: " + inputFrame.isRSV3());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void encodeFrame(Framedata inputFrame) {
+        if (inputFrame.getOpcode() != Framedata.Opcode.TEXT && inputFrame.getOpcode() != Framedata.Opcode.BINARY) {
+            // Control frames and the fragments of sendFragmentedFrame() are sent as is
+            return;
+        }
+        if (!inputFrame.isFin() || !(inputFrame instanceof FramedataImpl1)) {
+            return;
+        }
+        ByteBuffer payload = inputFrame.getPayloadData();
+        int length = payload.remaining();
+        if (length < MIN_COMPRESS_BYTES) {
+            // Not compressed, so that the context is not changed
+            mSentBytes.addAndGet(length);
+            mSentWireBytes.addAndGet(length);
+            return;
+        }
+        byte[] input = new byte[length];
+        payload.duplicate().get(input);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2);
+        mDeflater.setInput(input);
+        int count;
+        do {
+            count = mDeflater.deflate(mBuffer, 0, mBuffer.length, Deflater.SYNC_FLUSH);
+            output.write(mBuffer, 0, count);
+        } while (count == mBuffer.length);
+        if (mResetDeflater) {
+            mDeflater.reset();
+        }
+
+        byte[] compressed = output.toByteArray();
+        int compressedLength = compressed.length;
+        if (endsWithTail(compressed)) {
+            compressedLength -= TAIL.length;
+        }
+        ((FramedataImpl1) inputFrame).setPayload(ByteBuffer.wrap(compressed, 0, compressedLength));
+        ((FramedataImpl1) inputFrame).setRSV1(true);
+        mSentBytes.addAndGet(length);
+        mSentWireBytes.addAndGet(compressedLength);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void decodeFrame(Framedata inputFrame) throws InvalidDataException {
+        Framedata.Opcode opcode = inputFrame.getOpcode();
+        if (opcode == Framedata.Opcode.TEXT || opcode == Framedata.Opcode.BINARY) {
+            mInflating = inputFrame.isRSV1();
+        } else if (opcode != Framedata.Opcode.CONTINUOUS) {
+            return;
+        }
+        ByteBuffer payload = inputFrame.getPayloadData();
+        int length = payload.remaining();
+        mReceivedWireBytes.addAndGet(length);
+        if (!mInflating) {
+            mReceivedBytes.addAndGet(length);
+            return;
+        }
+
+        byte[] input = new byte[length];
+        payload.duplicate().get(input);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length * 4);
+        try {
+            inflate(input, output);
+            if (inputFrame.isFin()) {
+                inflate(TAIL, output);
+                mInflating = false;
+            }
+        } catch (DataFormatException e) {
+            Log.e(TAG, "Inflate error: " + e);
+            throw new InvalidDataException(CloseFrame.POLICY_VALIDATION, e.getMessage());
+        }
+        byte[] decompressed = output.toByteArray();
+        ((FramedataImpl1) inputFrame).setPayload(ByteBuffer.wrap(decompressed));
+        ((FramedataImpl1) inputFrame).setRSV1(false);
+        mReceivedBytes.addAndGet(decompressed.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IExtension copyInstance() {
+        // An instance for each connection
+        return new PerMessageDeflateExtension();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset() {
+        mDeflater.reset();
+        mInflater.reset();
+        mInflating = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "PerMessageDeflateExtension";
+    }
+
+    /**
+     * Return the number of payload bytes sent, before the compression
+     *
+     * @return Number of bytes
+     */
+    public long getSentBytes() {
+        return mSentBytes.get();
+    }
+
+    /**
+     * Return the number of payload bytes sent, after the compression
+     *
+     * @return Number of bytes
+     */
+    public long getSentWireBytes() {
+        return mSentWireBytes.get();
+    }
+
+    /**
+     * Return the number of payload bytes received, after the decompression
+     *
+     * @return Number of bytes
+     */
+    public long getReceivedBytes() {
+        return mReceivedBytes.get();
+    }
+
+    /**
+     * Return the number of payload bytes received, before the decompression
+     *
+     * @return Number of bytes
+     */
+    public long getReceivedWireBytes() {
+        return mReceivedWireBytes.get();
+    }
+
+    /*
+     * Inflate the input with the context of the previous messages
+     */
+    private void inflate(byte[] input, ByteArrayOutputStream output) throws DataFormatException {
+        mInflater.setInput(input);
+        int count;
+        while ((count = mInflater.inflate(mBuffer)) > 0) {
+            output.write(mBuffer, 0, count);
+        }
+    }
+
+    /*
+     * Return whether the data ends with the tail of the sync flush
+     */
+    private static boolean endsWithTail(byte[] data) {
+        if (data.length < TAIL.length) {
+            return false;
+        }
+        for (int i = 0; i < TAIL.length; i++) {
+            if (data[data.length - TAIL.length + i] != TAIL[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
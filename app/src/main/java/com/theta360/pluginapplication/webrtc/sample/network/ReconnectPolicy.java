@@ -0,0 +1,158 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Reconnect policy class
+ * (Decides the wait before each attempt to connect again with exponential backoff and jitter,
+ *  without limiting the number of attempts, and records the time until the connection is restored.)
+ *
+ * The wait of the n-th attempt is a random value between half and all of min(max, base * 2^n),
+ * so that the clients disconnected at the same time do not connect again at the same time.
+ */
+public class ReconnectPolicy {
+    private static final String TAG = "ReconnectPolicy";
+
+    private static final long DEFAULT_BASE_DELAY_MS = 500;
+    private static final long DEFAULT_MAX_DELAY_MS = 30000;
+    private static final int MAX_RECENT_DURATIONS = 10;
+
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+    private final Random mRandom = new Random();
+
+    // Guarded by this
+    private int mAttempts = 0;
+    private long mDisconnectedTimeNs = 0;   // 0: connected, or never connected
+    private long mReconnects = 0;
+    private long mTotalAttempts = 0;
+    private long mTotalDurationMs = 0;
+    private long mMaxDurationMs = 0;
+    private final ArrayDeque<Long> mRecentDurationsMs = new ArrayDeque<Long>();
+
+    /**
+     * Constructor of reconnect policy class
+     */
+    public ReconnectPolicy() {
+        this(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * Constructor of reconnect policy class
+     *
+     * @param baseDelayMs Wait before the first attempt (milliseconds)
+     * @param maxDelayMs Upper limit of the wait (milliseconds)
+     */
+    public ReconnectPolicy(long baseDelayMs, long maxDelayMs) {
+        mBaseDelayMs = Math.max(1, baseDelayMs);
+        mMaxDelayMs = Math.max(mBaseDelayMs, maxDelayMs);
+    }
+
+    /**
+     * Notify the disconnection, or the failure of an attempt.
+     * (The time until the connection is restored is measured from the first notification.)
+     */
+    public synchronized void onDisconnected() {
+        if (mDisconnectedTimeNs == 0) {
+            mDisconnectedTimeNs = System.nanoTime();
+        }
+    }
+
+    /**
+     * Return the wait before the next attempt, and count the attempt
+     *
+     * @return Wait (milliseconds)
+     */
+    public synchronized long nextDelayMs() {
+        // The shift is limited, so that the ceiling does not overflow.
+        long ceiling = Math.min(mMaxDelayMs, mBaseDelayMs << Math.min(mAttempts, 20));
+        mAttempts++;
+        mTotalAttempts++;
+        long half = ceiling / 2;
+        return half + (long) (mRandom.nextDouble() * (ceiling - half + 1));
+    }
+
+    /**
+     * Notify the connection, and start the backoff over again.
+     */
+    public synchronized void onConnected() {
+        if (mDisconnectedTimeNs != 0) {
+            long durationMs = (System.nanoTime() - mDisconnectedTimeNs) / 1000000;
+            mReconnects++;
+            mTotalDurationMs += durationMs;
+            mMaxDurationMs = Math.max(mMaxDurationMs, durationMs);
+            mRecentDurationsMs.addLast(durationMs);
+            while (mRecentDurationsMs.size() > MAX_RECENT_DURATIONS) {
+                mRecentDurationsMs.removeFirst();
+            }
+            Log.d(TAG, "reconnected in " + durationMs + "ms after " + mAttempts + " attempts");
+        }
+        mAttempts = 0;
+        mDisconnectedTimeNs = 0;
+    }
+
+    /**
+     * Stop measuring, without recording the duration (e.g. disconnected on purpose)
+     */
+    public synchronized void reset() {
+        mAttempts = 0;
+        mDisconnectedTimeNs = 0;
+    }
+
+    /**
+     * Return the number of attempts since the disconnection
+     *
+     * @return Number of attempts
+     */
+    public synchronized int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * Return the statistics of reconnection of JSON object format
+     *
+     * @return Statistics of JSON object format
+     */
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("baseDelayMs", mBaseDelayMs);
+            json.put("maxDelayMs", mMaxDelayMs);
+            json.put("disconnected", mDisconnectedTimeNs != 0);
+            json.put("disconnectedMs", (mDisconnectedTimeNs == 0) ? 0 : (System.nanoTime() - mDisconnectedTimeNs) / 1000000);
+            json.put("attempts", mAttempts);
+            json.put("totalAttempts", mTotalAttempts);
+            json.put("reconnects", mReconnects);
+            json.put("averageDurationMs", (mReconnects == 0) ? 0 : mTotalDurationMs / mReconnects);
+            json.put("maxDurationMs", mMaxDurationMs);
+            json.put("recentDurationsMs", new JSONArray(mRecentDurationsMs));
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+}
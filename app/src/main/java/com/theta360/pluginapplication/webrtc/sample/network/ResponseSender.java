@@ -0,0 +1,31 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+/**
+ * Interface to send the response of a command
+ * (Implemented by the HTTP server and the control data channel.)
+ */
+public interface ResponseSender {
+    /**
+     * Send the response of JSON format
+     *
+     * @param statusCode Status code in HTTP manner (200: OK)
+     * @param json Response of JSON format
+     */
+    void sendJson(int statusCode, String json);
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.os.Handler;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.webrtc.PeerConnection;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsCollectorCallback;
+import org.webrtc.RTCStatsReport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * RTP statistics monitor class
+ * (Polls the statistics of the peer connection, and calculates the bitrate actually sent for each SSRC.)
+ */
+public class RtpStatsMonitor implements RTCStatsCollectorCallback {
+    private static final String TAG = "RtpStatsMonitor";
+
+    private static final long POLLING_INTERVAL_MS = 1000;
+    // Shorter interval until the first video RTP packet is sent, for the session trace
+    private static final long FIRST_RTP_POLLING_INTERVAL_MS = 100;
+    private static final String TYPE_OUTBOUND_RTP = "outbound-rtp";
+    private static final String TYPE_CANDIDATE_PAIR = "candidate-pair";
+    private static final Pattern SIMULCAST_GROUP_PATTERN = Pattern.compile("^a=ssrc-group:SIM ([\\d ]+)$", Pattern.MULTILINE);
+
+    private final PeerConnection mPeerConnection;
+    private final Handler mHandler = new Handler();
+    private boolean mRunning = false;
+    private SessionTrace mSessionTrace = null;
+    private StatusEventPublisher mEventPublisher = null;
+    private volatile boolean mFirstRtpSent = false;
+
+    // Guarded by this
+    private final List<Long> mSimulcastSsrcs = new ArrayList<Long>();
+    private final Map<Long, long[]> mLastBytesSent = new HashMap<Long, long[]>();   // SSRC -> {bytesSent, timestampUs, framesEncoded}
+    private JSONArray mOutboundStats = new JSONArray();
+    private long mTimestampUs = 0;
+    private long mAvailableOutgoingBitrateKbps = 0;
+
+    private final Runnable mPollingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mRunning) {
+                mPeerConnection.getStats(RtpStatsMonitor.this);
+                mHandler.postDelayed(this, mFirstRtpSent ? POLLING_INTERVAL_MS : FIRST_RTP_POLLING_INTERVAL_MS);
+            }
+        }
+    };
+
+    /**
+     * Constructor of RTP statistics monitor class
+     *
+     * @param peerConnection Peer connection to monitor
+     */
+    public RtpStatsMonitor(PeerConnection peerConnection) {
+        mPeerConnection = peerConnection;
+    }
+
+    /**
+     * Set the session trace to record the first RTP packet sent
+     *
+     * @param sessionTrace Session trace (null: not traced)
+     */
+    public void setSessionTrace(SessionTrace sessionTrace) {
+        mSessionTrace = sessionTrace;
+    }
+
+    /**
+     * Set the publisher of stream health events
+     *
+     * @param eventPublisher Publisher of status events (null: not published)
+     */
+    public void setEventPublisher(StatusEventPublisher eventPublisher) {
+        mEventPublisher = eventPublisher;
+    }
+
+    /**
+     * Start polling
+     */
+    public void start() {
+        Log.d(TAG, "start");
+        mRunning = true;
+        mHandler.post(mPollingRunnable);
+    }
+
+    /**
+     * Stop polling
+     */
+    public void stop() {
+        Log.d(TAG, "stop");
+        mRunning = false;
+        mHandler.removeCallbacks(mPollingRunnable);
+    }
+
+    /**
+     * Set local SDP, to know the order of the simulcast layers
+     *
+     * @param sdp Local session description
+     */
+    public synchronized void setLocalDescription(String sdp) {
+        mSimulcastSsrcs.clear();
+        Matcher matcher = SIMULCAST_GROUP_PATTERN.matcher(sdp.replace("\r\n", "\n"));
+        if (matcher.find()) {
+            for (String ssrc : matcher.group(1).trim().split(" ")) {
+                mSimulcastSsrcs.add(Long.parseLong(ssrc));
+            }
+        }
+    }
+
+    /**
+     * Return the latest statistics of JSON object format
+     *
+     * @return Statistics of JSON object format
+     */
+    public synchronized JSONObject getStatsJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("timestamp", mTimestampUs / 1000);
+            json.put("simulcastLayers", Math.max(1, mSimulcastSsrcs.size()));
+            json.put("availableOutgoingBitrateKbps", mAvailableOutgoingBitrateKbps);
+            json.put("outbound", mOutboundStats);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /**
+     * Return the outgoing bitrate estimated by the bandwidth estimator of the selected candidate pair
+     *
+     * @return Estimated bitrate (Kbits/sec, 0: not estimated yet)
+     */
+    public synchronized long getAvailableOutgoingBitrateKbps() {
+        return mAvailableOutgoingBitrateKbps;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStatsDelivered(RTCStatsReport report) {
+        JSONArray outboundStats = new JSONArray();
+        // Stream health (sum of all layers, and the framerate of the highest layer)
+        double videoBitrateKbps = 0;
+        double audioBitrateKbps = 0;
+        double fps = 0;
+        long pliCount = 0;
+        long nackCount = 0;
+
+        synchronized (this) {
+            long availableOutgoingBitrateKbps = 0;
+            for (RTCStats stats : report.getStatsMap().values()) {
+                if (TYPE_CANDIDATE_PAIR.equals(stats.getType())) {
+                    if (Boolean.TRUE.equals(stats.getMembers().get("nominated"))) {
+                        availableOutgoingBitrateKbps = Math.max(availableOutgoingBitrateKbps,
+                                getLong(stats.getMembers(), "availableOutgoingBitrate") / 1000);
+                    }
+                    continue;
+                }
+                if (!TYPE_OUTBOUND_RTP.equals(stats.getType())) {
+                    continue;
+                }
+                Map<String, Object> members = stats.getMembers();
+                long ssrc = getLong(members, "ssrc");
+                long bytesSent = getLong(members, "bytesSent");
+                long timestampUs = (long)stats.getTimestampUs();
+                Object kind = members.containsKey("kind") ? members.get("kind") : members.get("mediaType");
+
+                if (!mFirstRtpSent && "video".equals(kind) && getLong(members, "packetsSent") > 0) {
+                    mFirstRtpSent = true;
+                    if (mSessionTrace != null) {
+                        mSessionTrace.mark(SessionTrace.Event.FIRST_RTP_SENT);
+                    }
+                }
+
+                // Bitrate and framerate since the previous polling
+                long framesEncoded = getLong(members, "framesEncoded");
+                double bitrateKbps = 0;
+                long[] last = mLastBytesSent.get(ssrc);
+                if (last != null && timestampUs > last[1]) {
+                    bitrateKbps = (bytesSent - last[0]) * 8 * 1000.0 / (timestampUs - last[1]);
+                    if ("video".equals(kind)) {
+                        fps = Math.max(fps, (framesEncoded - last[2]) * 1000000.0 / (timestampUs - last[1]));
+                    }
+                }
+                mLastBytesSent.put(ssrc, new long[] {bytesSent, timestampUs, framesEncoded});
+                if ("video".equals(kind)) {
+                    videoBitrateKbps += bitrateKbps;
+                    pliCount += getLong(members, "pliCount");
+                    nackCount += getLong(members, "nackCount");
+                } else {
+                    audioBitrateKbps += bitrateKbps;
+                }
+
+                JSONObject json = new JSONObject();
+                try {
+                    json.put("ssrc", ssrc);
+                    json.put("kind", kind);
+                    json.put("layer", mSimulcastSsrcs.indexOf(ssrc));
+                    json.put("bitrateKbps", bitrateKbps);
+                    json.put("bytesSent", bytesSent);
+                    json.put("packetsSent", getLong(members, "packetsSent"));
+                    json.put("framesEncoded", framesEncoded);
+                    json.put("pliCount", getLong(members, "pliCount"));
+                    json.put("firCount", getLong(members, "firCount"));
+                    json.put("nackCount", getLong(members, "nackCount"));
+                } catch (JSONException e) {
+                    Log.e(TAG, "JSON exception");
+                }
+                outboundStats.put(json);
+            }
+            mOutboundStats = outboundStats;
+            mTimestampUs = (long)report.getTimestampUs();
+            mAvailableOutgoingBitrateKbps = availableOutgoingBitrateKbps;
+        }
+
+        StatusEventPublisher eventPublisher = mEventPublisher;
+        if (eventPublisher != null && mFirstRtpSent) {
+            JSONObject health = new JSONObject();
+            try {
+                health.put("videoBitrateKbps", Math.round(videoBitrateKbps));
+                health.put("audioBitrateKbps", Math.round(audioBitrateKbps));
+                health.put("fps", Math.round(fps));
+                health.put("pliCount", pliCount);
+                health.put("nackCount", nackCount);
+            } catch (JSONException e) {
+                Log.e(TAG, "JSON exception");
+            }
+            eventPublisher.publish(StatusEventPublisher.STREAM_HEALTH, health);
+        }
+    }
+
+    /*
+     * Return numeric member of statistics (uint64 is delivered as BigInteger)
+     */
+    private static long getLong(Map<String, Object> members, String name) {
+        Object value = members.get(name);
+        return (value instanceof Number) ? ((Number)value).longValue() : 0;
+    }
+}
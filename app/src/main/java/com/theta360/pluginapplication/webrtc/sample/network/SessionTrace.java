@@ -0,0 +1,246 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Session trace class
+ * (Records monotonic timestamps of the events from 'startLivePreview' to the first RTP packet,
+ *  and keeps the traces of the last sessions.)
+ */
+public class SessionTrace {
+    private static final String TAG = "SessionTrace";
+
+    private static final int DEFAULT_MAX_SESSIONS = 10;
+
+    /**
+     * Traced events, in the order of a usual session
+     */
+    public enum Event {
+        COMMAND_RECEIVED("commandReceived"),
+        LIVE_VIEW_TASK_STARTED("liveViewTaskStarted"),
+        CAMERA_OPENED("cameraOpened"),
+        FIRST_FRAME("firstFrame"),
+        LOCAL_SDP_CREATED("localSdpCreated"),
+        LOCAL_SDP_SENT("localSdpSent"),
+        REMOTE_SDP_APPLIED("remoteSdpApplied"),
+        ICE_CONNECTED("iceConnected"),
+        FIRST_RTP_SENT("firstRtpSent");
+
+        private final String mEvent;
+
+        Event(final String event) {
+            mEvent = event;
+        }
+
+        @Override
+        public String toString() {
+            return mEvent;
+        }
+    }
+
+    /*
+     * Trace of a session
+     */
+    private static class Session {
+        final int id;
+        final long startTimeMs;     // Wall clock, for display only
+        final long startTimeNs;     // SystemClock.elapsedRealtimeNanos()
+        final Map<Event, Long> events = new LinkedHashMap<Event, Long>();
+        boolean prewarmed = false;
+        boolean completed = false;
+
+        Session(int id, long startTimeNs) {
+            this.id = id;
+            this.startTimeNs = startTimeNs;
+            this.startTimeMs = System.currentTimeMillis() - (SystemClock.elapsedRealtimeNanos() - startTimeNs) / 1000000;
+        }
+    }
+
+    private final int mMaxSessions;
+
+    // Guarded by this
+    private final ArrayDeque<Session> mSessions = new ArrayDeque<Session>();
+    private final Map<Event, Long> mPendingEvents = new LinkedHashMap<Event, Long>();   // Recorded before the session starts (pre-warm)
+    private Session mCurrent = null;
+    private int mNextId = 1;
+
+    /**
+     * Constructor of session trace class
+     */
+    public SessionTrace() {
+        this(DEFAULT_MAX_SESSIONS);
+    }
+
+    /**
+     * Constructor of session trace class
+     *
+     * @param maxSessions Number of sessions to keep
+     */
+    public SessionTrace(int maxSessions) {
+        mMaxSessions = Math.max(1, maxSessions);
+    }
+
+    /**
+     * Return current monotonic time for the trace
+     *
+     * @return Time (nanoseconds)
+     */
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Start a new session trace.
+     * Events recorded before this call (by pre-warm) are taken into the session with negative offsets.
+     *
+     * @param startTimeNs Start time of the session (Time of now())
+     */
+    public synchronized void begin(long startTimeNs) {
+        end();
+        mCurrent = new Session(mNextId++, startTimeNs);
+        mCurrent.events.put(Event.COMMAND_RECEIVED, startTimeNs);
+        mCurrent.events.putAll(mPendingEvents);
+        mPendingEvents.clear();
+        mSessions.addLast(mCurrent);
+        while (mSessions.size() > mMaxSessions) {
+            mSessions.removeFirst();
+        }
+        Log.d(TAG, "begin session " + mCurrent.id);
+    }
+
+    /**
+     * Finish the current session trace, and discard events waiting for a session
+     */
+    public synchronized void end() {
+        mPendingEvents.clear();
+        if (mCurrent != null) {
+            mCurrent.completed = true;
+            mCurrent = null;
+        }
+    }
+
+    /**
+     * Record the event at now
+     *
+     * @param event Event
+     */
+    public void mark(Event event) {
+        mark(event, now());
+    }
+
+    /**
+     * Record the event.
+     * Only the first occurrence in a session is recorded. Occurrences before the session start
+     * are replaced, since they belong to a pre-warmed connection which may have been rebuilt.
+     *
+     * @param event Event
+     * @param timeNs Time of the event (Time of now())
+     */
+    public synchronized void mark(Event event, long timeNs) {
+        if (mCurrent == null) {
+            if (!mPendingEvents.containsKey(event)) {
+                mPendingEvents.put(event, timeNs);
+            }
+            return;
+        }
+        Long recorded = mCurrent.events.get(event);
+        if (recorded == null || recorded < mCurrent.startTimeNs) {
+            mCurrent.events.put(event, timeNs);
+            Log.d(TAG, "session " + mCurrent.id + ": " + event + " +" + toMs(timeNs - mCurrent.startTimeNs) + "ms");
+        }
+    }
+
+    /**
+     * Set whether the current session started with a pre-warmed peer connection
+     *
+     * @param prewarmed true: pre-warmed
+     */
+    public synchronized void setPrewarmed(boolean prewarmed) {
+        if (mCurrent != null) {
+            mCurrent.prewarmed = prewarmed;
+        }
+    }
+
+    /**
+     * Return the traces of the last sessions of JSON object format
+     *
+     * @param count Number of sessions (newest first)
+     * @return Traces of JSON object format
+     */
+    public synchronized JSONObject toJSON(int count) {
+        JSONArray sessions = new JSONArray();
+        Iterator<Session> iterator = mSessions.descendingIterator();
+        while (iterator.hasNext() && sessions.length() < count) {
+            sessions.put(toJSON(iterator.next()));
+        }
+
+        JSONObject json = new JSONObject();
+        try {
+            json.put("sessions", sessions);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /*
+     * Return the trace of a session of JSON object format
+     * (Offsets are milliseconds from the reception of 'startLivePreview'.)
+     */
+    private static JSONObject toJSON(Session session) {
+        JSONObject json = new JSONObject();
+        try {
+            JSONObject events = new JSONObject();
+            for (Event event : Event.values()) {
+                Long timeNs = session.events.get(event);
+                if (timeNs != null) {
+                    events.put(event.toString(), toMs(timeNs - session.startTimeNs));
+                }
+            }
+            Long firstRtpNs = session.events.get(Event.FIRST_RTP_SENT);
+
+            json.put("id", session.id);
+            json.put("startTime", session.startTimeMs);
+            json.put("prewarmed", session.prewarmed);
+            json.put("completed", session.completed);
+            json.put("events", events);
+            json.put("timeToFirstRtpMs", (firstRtpNs == null) ? JSONObject.NULL : (Object)toMs(firstRtpNs - session.startTimeNs));
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /*
+     * Convert nanoseconds to milliseconds (0.1ms resolution)
+     */
+    private static double toMs(long timeNs) {
+        return Math.round(timeNs / 100000.0) / 10.0;
+    }
+}
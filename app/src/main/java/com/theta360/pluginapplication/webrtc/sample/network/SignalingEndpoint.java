@@ -0,0 +1,61 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+/**
+ * Interface of the endpoint of this plug-in on the signaling server
+ * (Implemented by the WebSocket client, and by the local peer registered in the signaling server
+ *  of the same process, which exchanges the messages by method call without a socket.)
+ */
+public interface SignalingEndpoint {
+    /**
+     * Interface of notification callback function from the endpoint
+     */
+    interface Callbacks {
+        void onConnected();
+        void onDisconnected();
+        void onRecvMessage(SignalingMessage message);
+    }
+
+    /**
+     * Connect to the signaling server
+     *
+     * @param callbacks Implementation object of callback functions
+     * @return true: success, false: failed
+     */
+    boolean open(Callbacks callbacks);
+
+    /**
+     * Disconnect from the signaling server
+     */
+    void close();
+
+    /**
+     * Return whether the endpoint is connected
+     *
+     * @return true: connected
+     */
+    boolean isOpen();
+
+    /**
+     * Send a message to the signaling server.
+     * (The message must not be modified after the call.)
+     *
+     * @param message Message
+     */
+    void send(SignalingMessage message);
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Signaling message class
+ * (Typed model of the messages of the signaling server. The fields of the session description
+ *  and the ICE candidate are typed, and the other members (e.g. "data" of a status event)
+ *  are kept as raw JSON text, so that they are routed without parsing them.
+ *  Serialized by SignalingMessageCodec.)
+ *
+ * A message is not thread-safe. It must not be modified after it is sent.
+ */
+public class SignalingMessage {
+    /**
+     * Message type
+     */
+    public enum Type {
+        OFFER("offer"),
+        ANSWER("answer"),
+        CANDIDATE("candidate"),
+        BYE("bye"),
+        CONTROL(null);      // Any other type (e.g. "event", "subscribe", "welcome")
+
+        private final String mType;
+
+        Type(final String type) {
+            mType = type;
+        }
+
+        @Override
+        public String toString() {
+            return mType;
+        }
+
+        public static Type getValue(final String type) {
+            for (Type messageType : Type.values()) {
+                if (messageType.mType != null && messageType.mType.equals(type)) {
+                    return messageType;
+                }
+            }
+            return CONTROL;
+        }
+    }
+
+    private final Type mType;
+    private final String mTypeName;
+    private String mTo = null;
+    private String mFrom = null;
+    private String mSdp = null;
+    private boolean mIceRestart = false;
+    private String mCandidate = null;
+    private String mSdpMid = null;
+    private int mSdpMLineIndex = -1;
+    private Map<String, String> mRawMembers = null;    // Name -> raw JSON value (Created at the first member)
+
+    /**
+     * Constructor of signaling message class
+     *
+     * @param typeName Value of "type" (null: no type)
+     */
+    public SignalingMessage(String typeName) {
+        mType = Type.getValue(typeName);
+        mTypeName = typeName;
+    }
+
+    /**
+     * Create an offer
+     *
+     * @param sdp Session description
+     * @return Message
+     */
+    public static SignalingMessage offer(String sdp) {
+        SignalingMessage message = new SignalingMessage(Type.OFFER.toString());
+        message.mSdp = sdp;
+        return message;
+    }
+
+    /**
+     * Create an answer
+     *
+     * @param sdp Session description
+     * @return Message
+     */
+    public static SignalingMessage answer(String sdp) {
+        SignalingMessage message = new SignalingMessage(Type.ANSWER.toString());
+        message.mSdp = sdp;
+        return message;
+    }
+
+    /**
+     * Create an ICE candidate
+     *
+     * @param sdpMid Media stream identification
+     * @param sdpMLineIndex Index of the media description
+     * @param candidate Candidate attribute
+     * @return Message
+     */
+    public static SignalingMessage candidate(String sdpMid, int sdpMLineIndex, String candidate) {
+        SignalingMessage message = new SignalingMessage(Type.CANDIDATE.toString());
+        message.mSdpMid = sdpMid;
+        message.mSdpMLineIndex = sdpMLineIndex;
+        message.mCandidate = candidate;
+        return message;
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * Return the value of "type"
+     *
+     * @return Type name (null: no type)
+     */
+    public String getTypeName() {
+        return mTypeName;
+    }
+
+    public String getTo() {
+        return mTo;
+    }
+
+    public void setTo(String to) {
+        mTo = to;
+    }
+
+    public String getFrom() {
+        return mFrom;
+    }
+
+    public void setFrom(String from) {
+        mFrom = from;
+    }
+
+    public String getSdp() {
+        return mSdp;
+    }
+
+    public void setSdp(String sdp) {
+        mSdp = sdp;
+    }
+
+    /**
+     * Return whether the offer restarts ICE of the existing peer connection
+     *
+     * @return true: ICE restart
+     */
+    public boolean isIceRestart() {
+        return mIceRestart;
+    }
+
+    public void setIceRestart(boolean iceRestart) {
+        mIceRestart = iceRestart;
+    }
+
+    public String getCandidate() {
+        return mCandidate;
+    }
+
+    public void setCandidate(String candidate) {
+        mCandidate = candidate;
+    }
+
+    public String getSdpMid() {
+        return mSdpMid;
+    }
+
+    public void setSdpMid(String sdpMid) {
+        mSdpMid = sdpMid;
+    }
+
+    /**
+     * Return the index of the media description of the candidate
+     *
+     * @return Index (-1: not specified)
+     */
+    public int getSdpMLineIndex() {
+        return mSdpMLineIndex;
+    }
+
+    public void setSdpMLineIndex(int sdpMLineIndex) {
+        mSdpMLineIndex = sdpMLineIndex;
+    }
+
+    /**
+     * Set a member which is not typed
+     *
+     * @param name Name
+     * @param rawValue Value of JSON text (e.g. "12", "\"idle\"", "{\"status\":\"idle\"}")
+     */
+    public void putRaw(String name, String rawValue) {
+        if (mRawMembers == null) {
+            mRawMembers = new LinkedHashMap<String, String>();
+        }
+        mRawMembers.put(name, rawValue);
+    }
+
+    /**
+     * Set a member of string value which is not typed
+     *
+     * @param name Name
+     * @param value Value (null: JSON null)
+     */
+    public void putString(String name, String value) {
+        putRaw(name, (value == null) ? "null" : SignalingMessageCodec.quote(value));
+    }
+
+    /**
+     * Return a member which is not typed
+     *
+     * @param name Name
+     * @return Value of JSON text (null: no member)
+     */
+    public String getRaw(String name) {
+        return (mRawMembers == null) ? null : mRawMembers.get(name);
+    }
+
+    /**
+     * Return a member of string value which is not typed
+     *
+     * @param name Name
+     * @return Value (null: no member, or not a string)
+     */
+    public String optString(String name) {
+        String rawValue = getRaw(name);
+        if (rawValue == null || !rawValue.startsWith("\"")) {
+            return null;
+        }
+        try {
+            return SignalingMessageCodec.unquote(rawValue);
+        } catch (SignalingMessageCodec.MalformedMessageException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return a member of boolean value which is not typed
+     *
+     * @param name Name
+     * @return Value (false: no member, or not true)
+     */
+    public boolean optBoolean(String name) {
+        return "true".equals(getRaw(name));
+    }
+
+    /**
+     * Return the members which are not typed
+     *
+     * @return Name -> raw JSON value, in the order of the message
+     */
+    public Map<String, String> getRawMembers() {
+        return (mRawMembers == null) ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap(mRawMembers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return SignalingMessageCodec.encode(this);
+    }
+}
@@ -0,0 +1,623 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import java.util.Map;
+
+/**
+ * Signaling message codec class
+ * (Encodes a SignalingMessage into JSON text, and decodes it in one pass over the text,
+ *  without building a tree of JSON objects. A string without escapes is copied once,
+ *  and a member which is not typed is kept as the substring of its value.)
+ *
+ * Message: {"to": "peer-1", "type": "offer", "sdp": "v=0\r\n...", "iceRestart": true}
+ *          {"to": "camera", "type": "candidate", "candidate": "candidate:...", "sdpMid": "0", "sdpMLineIndex": 0}
+ *          {"type": "event", "event": "shootingStatus", "seq": 12, "data": {"status": "idle"}}
+ */
+public class SignalingMessageCodec {
+    /*
+     * Names of the typed members
+     */
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_TO = "to";
+    private static final String KEY_FROM = "from";
+    private static final String KEY_SDP = "sdp";
+    private static final String KEY_ICE_RESTART = "iceRestart";
+    private static final String KEY_CANDIDATE = "candidate";
+    private static final String KEY_SDP_MID = "sdpMid";
+    private static final String KEY_SDP_MLINE_INDEX = "sdpMLineIndex";
+
+    // Room for the names of a message, in addition to the values, and for the escapes ("\r\n" of each line)
+    private static final int ENCODE_MARGIN = 128;
+    private static final int ESCAPE_RATIO = 16;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Nesting of the values which are not typed
+    private static final int MAX_DEPTH = 32;
+
+    /**
+     * Exception of a message which is not a JSON object, or has a typed member of wrong format
+     */
+    public static class MalformedMessageException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedMessageException(String message) {
+            super(message);
+        }
+    }
+
+    private SignalingMessageCodec() {
+    }
+
+    /**
+     * Encode the message into JSON text
+     *
+     * @param message Message
+     * @return JSON text
+     */
+    public static String encode(SignalingMessage message) {
+        int sdpLength = length(message.getSdp());
+        int capacity = ENCODE_MARGIN + sdpLength + sdpLength / ESCAPE_RATIO + length(message.getCandidate());
+        for (Map.Entry<String, String> member : message.getRawMembers().entrySet()) {
+            capacity += member.getKey().length() + member.getValue().length() + 4;
+        }
+        StringBuilder out = new StringBuilder(capacity);
+        encode(message, out);
+        return out.toString();
+    }
+
+    /**
+     * Encode the message into JSON text
+     *
+     * @param message Message
+     * @param out Destination of the text
+     */
+    public static void encode(SignalingMessage message, StringBuilder out) {
+        out.append('{');
+        boolean first = true;
+        first = appendString(out, first, KEY_TO, message.getTo());
+        first = appendString(out, first, KEY_FROM, message.getFrom());
+        first = appendString(out, first, KEY_TYPE, message.getTypeName());
+        first = appendString(out, first, KEY_SDP, message.getSdp());
+        if (message.isIceRestart()) {
+            first = appendRaw(out, first, KEY_ICE_RESTART, "true");
+        }
+        first = appendString(out, first, KEY_CANDIDATE, message.getCandidate());
+        first = appendString(out, first, KEY_SDP_MID, message.getSdpMid());
+        if (message.getSdpMLineIndex() >= 0) {
+            first = appendRaw(out, first, KEY_SDP_MLINE_INDEX, Integer.toString(message.getSdpMLineIndex()));
+        }
+        for (Map.Entry<String, String> member : message.getRawMembers().entrySet()) {
+            first = appendRaw(out, first, member.getKey(), member.getValue());
+        }
+        out.append('}');
+    }
+
+    /**
+     * Decode the message from JSON text
+     *
+     * @param text JSON text
+     * @return Message
+     * @throws MalformedMessageException The text is not a JSON object, or a typed member has wrong format
+     */
+    public static SignalingMessage decode(String text) throws MalformedMessageException {
+        return new Parser(text).parseMessage();
+    }
+
+    /**
+     * Return the string literal of JSON
+     *
+     * @param value String
+     * @return String literal (quoted and escaped)
+     */
+    public static String quote(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2);
+        appendQuoted(out, value);
+        return out.toString();
+    }
+
+    /**
+     * Return the string of the string literal of JSON
+     *
+     * @param literal String literal
+     * @return String
+     * @throws MalformedMessageException The literal is not a string of JSON
+     */
+    public static String unquote(String literal) throws MalformedMessageException {
+        Parser parser = new Parser(literal);
+        String value = parser.readString();
+        parser.expectEnd();
+        return value;
+    }
+
+    /**
+     * Return the number of bytes of the text in UTF-8, without encoding it
+     *
+     * @param text Text
+     * @return Number of bytes
+     */
+    public static int utf8Length(CharSequence text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                // 4 bytes for 2 chars
+                bytes += 2;
+                i++;
+            } else {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /*
+     * Append a member of string value (Skipped if null)
+     */
+    private static boolean appendString(StringBuilder out, boolean first, String name, String value) {
+        if (value == null) {
+            return first;
+        }
+        appendName(out, first, name);
+        appendQuoted(out, value);
+        return false;
+    }
+
+    /*
+     * Append a member of raw JSON value
+     */
+    private static boolean appendRaw(StringBuilder out, boolean first, String name, String rawValue) {
+        appendName(out, first, name);
+        out.append(rawValue);
+        return false;
+    }
+
+    private static void appendName(StringBuilder out, boolean first, String name) {
+        if (!first) {
+            out.append(',');
+        }
+        appendQuoted(out, name);
+        out.append(':');
+    }
+
+    /*
+     * Append the string literal (The runs without escapes are appended at once.)
+     */
+    private static void appendQuoted(StringBuilder out, String value) {
+        out.append('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape;
+            switch (c) {
+            case '"':
+                escape = "\\\"";
+                break;
+            case '\\':
+                escape = "\\\\";
+                break;
+            case '\n':
+                escape = "\\n";
+                break;
+            case '\r':
+                escape = "\\r";
+                break;
+            case '\t':
+                escape = "\\t";
+                break;
+            default:
+                // Control characters, and the line separators which are not allowed in JavaScript strings
+                if (c >= 0x20 && c != '\u2028' && c != '\u2029') {
+                    continue;
+                }
+                escape = null;
+                break;
+            }
+            out.append(value, start, i);
+            if (escape != null) {
+                out.append(escape);
+            } else {
+                out.append("\\u").append(HEX_DIGITS[(c >> 12) & 0xf]).append(HEX_DIGITS[(c >> 8) & 0xf])
+                        .append(HEX_DIGITS[(c >> 4) & 0xf]).append(HEX_DIGITS[c & 0xf]);
+            }
+            start = i + 1;
+        }
+        out.append(value, start, length);
+        out.append('"');
+    }
+
+    private static int length(String value) {
+        return (value == null) ? 0 : value.length();
+    }
+
+    /*
+     * Parser of a message
+     */
+    private static class Parser {
+        private final String mText;
+        private final int mLength;
+        private int mPos = 0;
+
+        Parser(String text) {
+            mText = text;
+            mLength = text.length();
+        }
+
+        SignalingMessage parseMessage() throws MalformedMessageException {
+            String type = null;
+            String to = null;
+            String from = null;
+            String sdp = null;
+            boolean iceRestart = false;
+            String candidate = null;
+            String sdpMid = null;
+            int sdpMLineIndex = -1;
+            String[] rawMembers = null;     // Name and value pairs
+            int rawCount = 0;
+
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                mPos++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    String name = readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    // A typed member of other format (e.g. a candidate object) is kept as it is
+                    boolean stringValue = peek() == '"' || startsWith("null");
+                    if (stringValue && KEY_TYPE.equals(name)) {
+                        type = readStringOrNull();
+                    } else if (stringValue && KEY_TO.equals(name)) {
+                        to = readStringOrNull();
+                    } else if (stringValue && KEY_FROM.equals(name)) {
+                        from = readStringOrNull();
+                    } else if (stringValue && KEY_SDP.equals(name)) {
+                        sdp = readStringOrNull();
+                    } else if (stringValue && KEY_CANDIDATE.equals(name)) {
+                        candidate = readStringOrNull();
+                    } else if (stringValue && KEY_SDP_MID.equals(name)) {
+                        sdpMid = readStringOrNull();
+                    } else if (KEY_ICE_RESTART.equals(name)) {
+                        iceRestart = "true".equals(readRawValue());
+                    } else if (KEY_SDP_MLINE_INDEX.equals(name)) {
+                        sdpMLineIndex = readIndex();
+                    } else {
+                        if (rawMembers == null) {
+                            rawMembers = new String[8];
+                        } else if (rawCount * 2 == rawMembers.length) {
+                            String[] grown = new String[rawMembers.length * 2];
+                            System.arraycopy(rawMembers, 0, grown, 0, rawMembers.length);
+                            rawMembers = grown;
+                        }
+                        rawMembers[rawCount * 2] = name;
+                        rawMembers[rawCount * 2 + 1] = readRawValue();
+                        rawCount++;
+                    }
+                    skipWhitespace();
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw error("',' or '}' expected");
+                    }
+                }
+            }
+            expectEnd();
+
+            SignalingMessage message = new SignalingMessage(type);
+            message.setTo(to);
+            message.setFrom(from);
+            message.setSdp(sdp);
+            message.setIceRestart(iceRestart);
+            message.setCandidate(candidate);
+            message.setSdpMid(sdpMid);
+            message.setSdpMLineIndex(sdpMLineIndex);
+            for (int i = 0; i < rawCount; i++) {
+                message.putRaw(rawMembers[i * 2], rawMembers[i * 2 + 1]);
+            }
+            return message;
+        }
+
+        /*
+         * Read a string literal (The escapes are decoded.)
+         */
+        String readString() throws MalformedMessageException {
+            expect('"');
+            int start = mPos;
+            // Fast path: no escape
+            while (mPos < mLength) {
+                char c = mText.charAt(mPos);
+                if (c == '"') {
+                    return mText.substring(start, mPos++);
+                }
+                if (c == '\\') {
+                    break;
+                }
+                if (c < 0x20) {
+                    throw error("Control character in string");
+                }
+                mPos++;
+            }
+            // The decoded string is not longer than the literal
+            StringBuilder value = new StringBuilder(literalLength(start));
+            value.append(mText, start, mPos);
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c < 0x20) {
+                    throw error("Control character in string");
+                }
+                if (c != '\\') {
+                    // Append the run up to the next quote or escape
+                    int runStart = mPos - 1;
+                    while (mPos < mLength) {
+                        char d = mText.charAt(mPos);
+                        if (d == '"' || d == '\\' || d < 0x20) {
+                            break;
+                        }
+                        mPos++;
+                    }
+                    value.append(mText, runStart, mPos);
+                    continue;
+                }
+                char escape = next();
+                switch (escape) {
+                case '"':
+                case '\\':
+                case '/':
+                    value.append(escape);
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (mPos + 4 > mLength) {
+                        throw error("Unterminated escape");
+                    }
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(mText.charAt(mPos++), 16);
+                        if (digit < 0) {
+                            throw error("Invalid escape");
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    value.append((char) code);
+                    break;
+                default:
+                    throw error("Invalid escape");
+                }
+            }
+        }
+
+        /*
+         * Return the length of the string literal from the position, without decoding it
+         */
+        private int literalLength(int start) {
+            int pos = start;
+            while (pos < mLength) {
+                char c = mText.charAt(pos);
+                if (c == '"') {
+                    break;
+                }
+                pos += (c == '\\') ? 2 : 1;
+            }
+            return Math.min(pos, mLength) - start;
+        }
+
+        /*
+         * Read a string literal or null
+         */
+        String readStringOrNull() throws MalformedMessageException {
+            if (peek() == '"') {
+                return readString();
+            }
+            readLiteral();
+            return null;
+        }
+
+        /*
+         * Read the index of the media description (-1: null)
+         */
+        int readIndex() throws MalformedMessageException {
+            String rawValue = readRawValue();
+            if ("null".equals(rawValue)) {
+                return -1;
+            }
+            try {
+                return Integer.parseInt(rawValue);
+            } catch (NumberFormatException e) {
+                throw error("Invalid " + KEY_SDP_MLINE_INDEX + ": " + rawValue);
+            }
+        }
+
+        /*
+         * Read a value of any type, and return its text
+         */
+        String readRawValue() throws MalformedMessageException {
+            int start = mPos;
+            skipValue(0);
+            return mText.substring(start, mPos);
+        }
+
+        /*
+         * Skip a value, and check its syntax, so that no broken JSON is routed
+         */
+        void skipValue(int depth) throws MalformedMessageException {
+            if (depth > MAX_DEPTH) {
+                throw error("Too deep");
+            }
+            char c = peek();
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                boolean object = c == '{';
+                char close = object ? '}' : ']';
+                mPos++;
+                skipWhitespace();
+                if (peek() == close) {
+                    mPos++;
+                    return;
+                }
+                while (true) {
+                    skipWhitespace();
+                    if (object) {
+                        skipString();
+                        skipWhitespace();
+                        expect(':');
+                        skipWhitespace();
+                    }
+                    skipValue(depth + 1);
+                    skipWhitespace();
+                    c = next();
+                    if (c == close) {
+                        return;
+                    }
+                    if (c != ',') {
+                        throw error("',' or '" + close + "' expected");
+                    }
+                }
+            } else {
+                readLiteral();
+            }
+        }
+
+        /*
+         * Skip a string literal without decoding it
+         */
+        void skipString() throws MalformedMessageException {
+            expect('"');
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    next();
+                } else if (c < 0x20) {
+                    throw error("Control character in string");
+                }
+            }
+        }
+
+        /*
+         * Read a number, true, false or null
+         */
+        void readLiteral() throws MalformedMessageException {
+            int start = mPos;
+            while (mPos < mLength) {
+                char c = mText.charAt(mPos);
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                    break;
+                }
+                mPos++;
+            }
+            if (mPos == start) {
+                throw error("Value expected");
+            }
+            if (isKeyword(start, "true") || isKeyword(start, "false") || isKeyword(start, "null")) {
+                return;
+            }
+            char first = mText.charAt(start);
+            if (first != '-' && (first < '0' || first > '9')) {
+                throw error("Invalid value");
+            }
+            for (int i = start + 1; i < mPos; i++) {
+                char c = mText.charAt(i);
+                if ((c < '0' || c > '9') && c != '.' && c != 'e' && c != 'E' && c != '+' && c != '-') {
+                    throw error("Invalid number");
+                }
+            }
+        }
+
+        private boolean isKeyword(int start, String keyword) {
+            return mPos - start == keyword.length() && mText.startsWith(keyword, start);
+        }
+
+        void expectEnd() throws MalformedMessageException {
+            skipWhitespace();
+            if (mPos != mLength) {
+                throw error("End of text expected");
+            }
+        }
+
+        private boolean startsWith(String literal) {
+            return mText.startsWith(literal, mPos);
+        }
+
+        private void skipWhitespace() {
+            while (mPos < mLength) {
+                char c = mText.charAt(mPos);
+                if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                    return;
+                }
+                mPos++;
+            }
+        }
+
+        private void expect(char expected) throws MalformedMessageException {
+            if (next() != expected) {
+                throw error("'" + expected + "' expected");
+            }
+        }
+
+        private char peek() throws MalformedMessageException {
+            if (mPos >= mLength) {
+                throw error("Unexpected end of text");
+            }
+            return mText.charAt(mPos);
+        }
+
+        private char next() throws MalformedMessageException {
+            char c = peek();
+            mPos++;
+            return c;
+        }
+
+        private MalformedMessageException error(String message) {
+            return new MalformedMessageException(message + " at " + mPos);
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.util.Log;
+
+import org.java_websocket.framing.CloseFrame;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Signaling metrics class
+ * (Live counters of the WebSocket connections of the signaling server: open connections,
+ *  handshakes per second, messages and bytes in / out per message type, send failures,
+ *  and close codes. The counters are updated without locks on the I/O threads,
+ *  and read by toJSON() without stopping them.)
+ *
+ * The bytes are the UTF-8 bytes of the text messages, before permessage-deflate.
+ */
+public class SignalingMetrics {
+    private static final String TAG = "SignalingMetrics";
+
+    // Number of message types and close codes counted separately (The others are counted together.)
+    private static final int MAX_MESSAGE_TYPES = 32;
+    private static final int MAX_CLOSE_CODES = 32;
+    private static final String OTHER_TYPE = "other";
+    private static final int OTHER_CLOSE_CODE = 0;
+
+    // Window of the handshake rate (seconds)
+    private static final int RATE_WINDOW_SEC = 60;
+    private static final int SHORT_RATE_WINDOW_SEC = 10;
+
+    /*
+     * Counters of a message type
+     */
+    private static class TypeCounter {
+        final AtomicLong messagesIn = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong messagesOut = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+    }
+
+    /*
+     * Counters of a close code
+     */
+    private static class CloseCounter {
+        final AtomicLong byClient = new AtomicLong();
+        final AtomicLong byServer = new AtomicLong();
+    }
+
+    /*
+     * Events per second of the last seconds
+     * (Each slot holds the second in the upper bits and the count of the second in the lower bits,
+     *  so that a slot is moved to a new second and counted by a single compare-and-set.)
+     */
+    private static class RateCounter {
+        private static final int COUNT_BITS = 24;
+        private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+        private final AtomicLongArray mSlots;
+
+        RateCounter(int windowSec) {
+            mSlots = new AtomicLongArray(windowSec);
+        }
+
+        void increment(long second) {
+            int index = (int) (second % mSlots.length());
+            while (true) {
+                long slot = mSlots.get(index);
+                long next = ((slot >>> COUNT_BITS) == second)
+                        ? Math.min(slot + 1, (second << COUNT_BITS) | COUNT_MASK)
+                        : (second << COUNT_BITS) | 1;
+                if (mSlots.compareAndSet(index, slot, next)) {
+                    return;
+                }
+            }
+        }
+
+        // Return the number of the events in the seconds before the current second
+        long sum(long currentSecond, int seconds) {
+            long sum = 0;
+            for (long second = Math.max(0, currentSecond - seconds); second < currentSecond; second++) {
+                sum += count(second);
+            }
+            return sum;
+        }
+
+        // Return the largest number of the events in a second of the window
+        long peak(long currentSecond) {
+            long peak = 0;
+            for (long second = Math.max(0, currentSecond - mSlots.length() + 1); second <= currentSecond; second++) {
+                peak = Math.max(peak, count(second));
+            }
+            return peak;
+        }
+
+        private long count(long second) {
+            long slot = mSlots.get((int) (second % mSlots.length()));
+            return ((slot >>> COUNT_BITS) == second) ? (slot & COUNT_MASK) : 0;
+        }
+    }
+
+    private final long mStartTimeNs = System.nanoTime();
+    private final AtomicInteger mOpenConnections = new AtomicInteger();
+    private final AtomicInteger mPeakConnections = new AtomicInteger();
+    private final AtomicLong mHandshakes = new AtomicLong();
+    private final RateCounter mHandshakeRate = new RateCounter(RATE_WINDOW_SEC);
+    private final Map<String, TypeCounter> mTypeCounters = new ConcurrentHashMap<String, TypeCounter>();
+    private final AtomicLong mInvalidMessages = new AtomicLong();
+    private final AtomicLong mUndeliverable = new AtomicLong();
+    private final AtomicLong mQueueFull = new AtomicLong();
+    private final AtomicLong mNotConnected = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+    private final Map<Integer, CloseCounter> mCloseCounters = new ConcurrentHashMap<Integer, CloseCounter>();
+
+    /**
+     * Count an opened connection (Completed handshake)
+     */
+    public void onOpen() {
+        mHandshakes.incrementAndGet();
+        mHandshakeRate.increment(currentSecond());
+        int open = mOpenConnections.incrementAndGet();
+        int peak = mPeakConnections.get();
+        while (open > peak && !mPeakConnections.compareAndSet(peak, open)) {
+            peak = mPeakConnections.get();
+        }
+    }
+
+    /**
+     * Count a closed connection
+     *
+     * @param code Close code
+     * @param remote true: closed by the client
+     */
+    public void onClose(int code, boolean remote) {
+        mOpenConnections.decrementAndGet();
+        CloseCounter counter = mCloseCounters.get(code);
+        if (counter == null) {
+            counter = newCounter(mCloseCounters, (mCloseCounters.size() < MAX_CLOSE_CODES) ? code : OTHER_CLOSE_CODE, new CloseCounter());
+        }
+        (remote ? counter.byClient : counter.byServer).incrementAndGet();
+    }
+
+    /**
+     * Count a connection refused by the server after the handshake
+     * (Not counted as an open connection.)
+     *
+     * @param code Close code
+     */
+    public void onRejected(int code) {
+        CloseCounter counter = mCloseCounters.get(code);
+        if (counter == null) {
+            counter = newCounter(mCloseCounters, (mCloseCounters.size() < MAX_CLOSE_CODES) ? code : OTHER_CLOSE_CODE, new CloseCounter());
+        }
+        counter.byServer.incrementAndGet();
+    }
+
+    /**
+     * Count a message received from a connection
+     *
+     * @param message Decoded message
+     * @param bytes Bytes of the message
+     */
+    public void onReceived(SignalingMessage message, long bytes) {
+        TypeCounter counter = typeCounter(message);
+        counter.messagesIn.incrementAndGet();
+        counter.bytesIn.addAndGet(bytes);
+    }
+
+    /**
+     * Count a message sent to a connection
+     *
+     * @param message Message
+     * @param bytes Bytes of the message
+     */
+    public void onSent(SignalingMessage message, long bytes) {
+        TypeCounter counter = typeCounter(message);
+        counter.messagesOut.incrementAndGet();
+        counter.bytesOut.addAndGet(bytes);
+    }
+
+    /**
+     * Count a message which could not be parsed
+     */
+    public void onInvalidMessage() {
+        mInvalidMessages.incrementAndGet();
+    }
+
+    /**
+     * Count a message to a peer which does not exist or is closed
+     */
+    public void onUndeliverable() {
+        mUndeliverable.incrementAndGet();
+    }
+
+    /**
+     * Count a message dropped since the outgoing queue of the connection is full
+     */
+    public void onQueueFull() {
+        mQueueFull.incrementAndGet();
+    }
+
+    /**
+     * Count a message dropped since the connection was closed while sending it
+     */
+    public void onNotConnected() {
+        mNotConnected.incrementAndGet();
+    }
+
+    /**
+     * Count a client disconnected for not reading the messages
+     */
+    public void onEviction() {
+        mEvictions.incrementAndGet();
+    }
+
+    public int getOpenConnections() {
+        return mOpenConnections.get();
+    }
+
+    public long getInvalidMessages() {
+        return mInvalidMessages.get();
+    }
+
+    public long getEvictions() {
+        return mEvictions.get();
+    }
+
+    /**
+     * Return the metrics of JSON object format
+     *
+     * @return Metrics of JSON object format
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            long second = currentSecond();
+
+            JSONObject connections = new JSONObject();
+            connections.put("open", mOpenConnections.get());
+            connections.put("peak", mPeakConnections.get());
+            connections.put("handshakes", mHandshakes.get());
+
+            JSONObject handshakeRate = new JSONObject();
+            handshakeRate.put("lastSecond", mHandshakeRate.sum(second, 1));
+            handshakeRate.put("average" + SHORT_RATE_WINDOW_SEC + "s", (double) mHandshakeRate.sum(second, SHORT_RATE_WINDOW_SEC) / SHORT_RATE_WINDOW_SEC);
+            handshakeRate.put("average" + RATE_WINDOW_SEC + "s", (double) mHandshakeRate.sum(second, RATE_WINDOW_SEC) / RATE_WINDOW_SEC);
+            handshakeRate.put("peak" + RATE_WINDOW_SEC + "s", mHandshakeRate.peak(second));
+
+            JSONObject messages = new JSONObject();
+            long messagesIn = 0;
+            long bytesIn = 0;
+            long messagesOut = 0;
+            long bytesOut = 0;
+            for (Map.Entry<String, TypeCounter> type : mTypeCounters.entrySet()) {
+                TypeCounter counter = type.getValue();
+                JSONObject counters = new JSONObject();
+                counters.put("messagesIn", counter.messagesIn.get());
+                counters.put("bytesIn", counter.bytesIn.get());
+                counters.put("messagesOut", counter.messagesOut.get());
+                counters.put("bytesOut", counter.bytesOut.get());
+                messages.put(type.getKey(), counters);
+                messagesIn += counter.messagesIn.get();
+                bytesIn += counter.bytesIn.get();
+                messagesOut += counter.messagesOut.get();
+                bytesOut += counter.bytesOut.get();
+            }
+            JSONObject total = new JSONObject();
+            total.put("messagesIn", messagesIn);
+            total.put("bytesIn", bytesIn);
+            total.put("messagesOut", messagesOut);
+            total.put("bytesOut", bytesOut);
+
+            JSONObject sendFailures = new JSONObject();
+            sendFailures.put("undeliverable", mUndeliverable.get());
+            sendFailures.put("queueFull", mQueueFull.get());
+            sendFailures.put("notConnected", mNotConnected.get());
+            sendFailures.put("evictions", mEvictions.get());
+
+            JSONArray closeCodes = new JSONArray();
+            for (Map.Entry<Integer, CloseCounter> code : new TreeMap<Integer, CloseCounter>(mCloseCounters).entrySet()) {
+                JSONObject counters = new JSONObject();
+                counters.put("code", code.getKey());
+                counters.put("reason", closeReason(code.getKey()));
+                counters.put("byClient", code.getValue().byClient.get());
+                counters.put("byServer", code.getValue().byServer.get());
+                closeCodes.put(counters);
+            }
+
+            json.put("uptimeMs", (System.nanoTime() - mStartTimeNs) / 1000000);
+            json.put("connections", connections);
+            json.put("handshakesPerSecond", handshakeRate);
+            json.put("messages", messages);
+            json.put("total", total);
+            json.put("invalidMessages", mInvalidMessages.get());
+            json.put("sendFailures", sendFailures);
+            json.put("closeCodes", closeCodes);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /*
+     * Return the counters of the type of the message
+     */
+    private TypeCounter typeCounter(SignalingMessage message) {
+        String type = (message.getType() == SignalingMessage.Type.CONTROL) ? message.getTypeName() : message.getType().toString();
+        if (type == null) {
+            type = OTHER_TYPE;
+        }
+        TypeCounter counter = mTypeCounters.get(type);
+        if (counter == null) {
+            // The types are chosen by the clients, so that the number of the counters is bounded
+            counter = newCounter(mTypeCounters, (mTypeCounters.size() < MAX_MESSAGE_TYPES) ? type : OTHER_TYPE, new TypeCounter());
+        }
+        return counter;
+    }
+
+    /*
+     * Add the counter unless another thread has added one
+     */
+    private static <K, V> V newCounter(Map<K, V> counters, K key, V newCounter) {
+        V counter = counters.putIfAbsent(key, newCounter);
+        return (counter == null) ? newCounter : counter;
+    }
+
+    /*
+     * Return the second of the rate counter
+     */
+    private long currentSecond() {
+        return (System.nanoTime() - mStartTimeNs) / 1000000000;
+    }
+
+    /*
+     * Return the reason of the close code (RFC 6455 7.4.1)
+     */
+    private static String closeReason(int code) {
+        switch (code) {
+        case CloseFrame.NORMAL:
+            return "normal";
+        case CloseFrame.GOING_AWAY:
+            return "goingAway";
+        case CloseFrame.PROTOCOL_ERROR:
+            return "protocolError";
+        case CloseFrame.REFUSE:
+            return "unsupportedData";
+        case CloseFrame.NOCODE:
+            return "noStatus";
+        case CloseFrame.ABNORMAL_CLOSE:
+            return "abnormal";      // Incl. dead peers of the heartbeat
+        case CloseFrame.NO_UTF8:
+            return "invalidPayload";
+        case CloseFrame.POLICY_VALIDATION:
+            return "policyViolation";
+        case CloseFrame.TOOBIG:
+            return "messageTooBig";
+        case CloseFrame.EXTENSION:
+            return "missingExtension";
+        case CloseFrame.UNEXPECTED_CONDITION:
+            return "internalError";
+        case CloseFrame.TLS_ERROR:
+            return "tlsError";
+        case CloseFrame.NEVER_CONNECTED:
+            return "neverConnected";
+        case SignalingServer.CLOSE_UNKNOWN_CAMERA:
+            return "unknownCamera";
+        case SignalingServer.CLOSE_SLOW_CLIENT:
+            return "slowClient";
+        case SignalingServer.CLOSE_CAMERA_REJECTED:
+            return "cameraRejected";
+        case OTHER_CLOSE_CODE:
+            return OTHER_TYPE;
+        default:
+            return (code >= 4000) ? "application" : "unknown";
+        }
+    }
+}
@@ -16,20 +16,613 @@
 
 package com.theta360.pluginapplication.webrtc.sample.network;
 
+import android.support.annotation.Nullable;
 import android.util.Log;
-import java.util.Collection;
 import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.server.WebSocketServer;
 import org.java_websocket.handshake.ClientHandshake;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 /**
  * Signaling erver class
+ * (Routes each message to the peer of the destination ID, instead of broadcasting it.
+ *  A peer ID is requested by the query of the connection URL ("ws://host:8889/?peer=camera"),
+ *  or assigned by the server. The server adds the ID of the sender to each message as "from".)
+ *
+ * Message: {"to": "peer-1", "type": "offer", "sdp": "..."}
+ * A message without "to" is sent to the camera, or to all the other peers if sent by the camera.
+ * The messages are decoded by SignalingMessageCodec, so that only the typed members are parsed.
+ *
+ * The peer of this plug-in is registered as a local endpoint (createLocalEndpoint()),
+ * so that its messages are routed by method call, and serialized only for the sockets.
+ *
+ * permessage-deflate is negotiated with the clients which offer it, and the compact envelope
+ * (CompactEnvelope) is used for the clients which request it ("?enc=compact").
+ *
+ * The outgoing queue of each connection is bounded (setSendQueueLimit()). A message which
+ * does not fit is dropped, and a client which stays over the limit is disconnected, even if
+ * nothing more is sent to it. The messages held for a suspended session have the same limit.
+ *
+ * Each connection receives a resume token first: {"type": "welcome", "peer": "peer-1", "resume": "..."}
+ * A client which connects again with the token ("ws://host:8889/?resume=...") within the grace period
+ * (setResumeGracePeriod()) gets the same peer ID back, and the messages routed to it while
+ * disconnected, so that the peers do not have to negotiate again.
+ *
+ * Each connection is pinged at the heartbeat interval, and a client which does not respond
+ * within the timeout (setHeartbeat()) is disconnected in the same way as a closed one.
+ *
+ * In hub mode (setHubMode()), the server runs on a gateway for several cameras.
+ * A camera registers as the publisher of its camera ID ("ws://gateway:8889/?publish=theta-1"),
+ * and gets the peer ID "camera:theta-1". A viewer is attached to a registered camera ("?camera=theta-1").
+ * The messages are routed only within the group of a camera: a message without "to" from a viewer
+ * is sent to its camera, and one from a camera to all its viewers. The camera is notified of its viewers:
+ * {"type": "viewer", "peer": "peer-1", "state": "joined"} ("left" when disconnected)
+ * A viewer which disconnects has not left until its session expires, so that it can resume the session
+ * without the camera stopping its stream. The callbacks are notified in the same way (onDisconnected()
+ * at the expiry, and no onConnected() at the resumption).
+ * A viewer lists the cameras by {"type": "cameras"}, and receives {"type": "cameras", "cameras": [...]}
+ * (getCameras(), with the load counters of each camera). The publishers are not authenticated,
+ * so that the hub is for a trusted network.
+ *
+ * The connections and the messages are counted by SignalingMetrics (getMetrics()).
+ * The logs of each message are written only if enabled ("adb shell setprop log.tag.SignalingServer DEBUG",
+ * then restart the plug-in), since they cost string concatenation on the I/O threads.
  */
 public class SignalingServer extends WebSocketServer {
     private static final String TAG = "SignalingServer";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    /**
+     * Peer ID of this plug-in
+     */
+    public static final String CAMERA_PEER_ID = "camera";
+    private static final String PEER_QUERY = "peer=";
+    private static final String ENCODING_QUERY = "enc=";
+    private static final String COMPACT_ENCODING = "compact";
+    private static final String RESUME_QUERY = "resume=";
+    private static final String PEER_ID_PREFIX = "peer-";
+    private static final String BROADCAST = "*";
+
+    // Hub mode
+    private static final String PUBLISH_QUERY = "publish=";
+    private static final String CAMERA_QUERY = "camera=";
+    private static final String CAMERA_PEER_ID_SEPARATOR = ":";
+    private static final Pattern CAMERA_ID_PATTERN = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+    private static final int MAX_CAMERAS = 256;
+
+    /*
+     * Welcome message sent to each connection
+     */
+    static final String TYPE_WELCOME = "welcome";
+    static final String KEY_PEER = "peer";
+    static final String KEY_RESUME = "resume";
+    static final String KEY_RESUMED = "resumed";
+    static final String KEY_CAMERA = "camera";
+
+    /**
+     * Messages of hub mode
+     */
+    public static final String TYPE_VIEWER = "viewer";
+    public static final String TYPE_CAMERAS = "cameras";
+    public static final String KEY_PEER_ID = KEY_PEER;
+    public static final String KEY_STATE = "state";
+    public static final String KEY_CAMERAS = "cameras";
+    public static final String STATE_JOINED = "joined";
+    public static final String STATE_LEFT = "left";
+
+    /**
+     * Close code of the connection disconnected for not reading the messages
+     */
+    public static final int CLOSE_SLOW_CLIENT = 4008;
+
+    /**
+     * Close codes of hub mode (The camera ID of the viewer is not registered,
+     * or the camera ID of the publisher is invalid or in use.)
+     */
+    public static final int CLOSE_UNKNOWN_CAMERA = 4004;
+    public static final int CLOSE_CAMERA_REJECTED = 4009;
+
+    // Default limits of the outgoing queue of a connection
+    private static final int DEFAULT_MAX_QUEUE_MESSAGES = 256;
+    private static final long DEFAULT_MAX_QUEUE_BYTES = 2 * 1024 * 1024;
+    private static final long DEFAULT_EVICT_AFTER_MS = 10000;
+    // Interval of the check of the clients over the limit, which are not sent anything,
+    // and of the sessions to expire
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    // Default time to keep the session of a disconnected client
+    // (Also the time the clients keep the state of the session, which may be resumed.)
+    public static final long DEFAULT_RESUME_GRACE_MS = 30000;
+    private static final int RESUME_TOKEN_BYTES = 16;
+
+    /*
+     * Counters of a route (sender -> destination)
+     */
+    private static class RouteCounter {
+        final AtomicLong messages = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong undeliverable = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+    }
+
+    /*
+     * Group and load counters of a camera (Hub mode)
+     */
+    private static class CameraCounter {
+        final Set<String> viewerPeerIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger viewers = new AtomicInteger();
+        final AtomicInteger peakViewers = new AtomicInteger();
+        final AtomicLong viewerConnections = new AtomicLong();
+        // Resumed sessions of the viewers (Not counted as connections.)
+        final AtomicLong resumedViewers = new AtomicLong();
+        final AtomicLong registrations = new AtomicLong();
+        // Viewers -> camera (in), camera -> viewers (out)
+        final AtomicLong messagesIn = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong messagesOut = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+        final AtomicLong undeliverable = new AtomicLong();
+        volatile long registeredTimeMs = 0;
+
+        void onViewerOpen() {
+            viewerConnections.incrementAndGet();
+            int count = viewers.incrementAndGet();
+            int peak = peakViewers.get();
+            while (count > peak && !peakViewers.compareAndSet(peak, count)) {
+                peak = peakViewers.get();
+            }
+        }
+
+        // Count the message of the group (bytes < 0: not delivered)
+        void count(boolean fromCamera, long bytes) {
+            if (bytes < 0) {
+                undeliverable.incrementAndGet();
+            } else if (fromCamera) {
+                messagesOut.incrementAndGet();
+                bytesOut.addAndGet(bytes);
+            } else {
+                messagesIn.incrementAndGet();
+                bytesIn.addAndGet(bytes);
+            }
+        }
+    }
+
+    /*
+     * Message being routed (Serialized once for each encoding, when the first socket needs it)
+     */
+    private static class RoutedMessage {
+        final SignalingMessage message;
+        private String text = null;
+        private String compactText = null;
+
+        RoutedMessage(SignalingMessage message) {
+            this.message = message;
+        }
+
+        String text() {
+            if (text == null) {
+                text = SignalingMessageCodec.encode(message);
+            }
+            return text;
+        }
+
+        String compactText() {
+            if (compactText == null) {
+                try {
+                    compactText = CompactEnvelope.encode(new JSONObject(text())).toString();
+                } catch (JSONException e) {
+                    Log.e(TAG, "JSON exception");
+                    compactText = text();
+                }
+            }
+            return compactText;
+        }
+    }
+
+    /*
+     * Destination of routed messages
+     */
+    private interface Peer {
+        String getPeerId();
+        // Camera of the group (null: not in hub mode, or not attached)
+        String getCameraId();
+        boolean isPublisher();
+        boolean isOpen();
+        // Return the number of bytes sent on the wire (-1: dropped)
+        long send(RoutedMessage message);
+    }
+
+    /*
+     * Peer connected by WebSocket
+     * (The messages are queued by the connection until the socket is writable.)
+     */
+    private class SocketPeer implements Peer {
+        final String peerId;
+        final WebSocket conn;
+        final boolean compact;
+        final String resumeToken;
+        final String cameraId;
+        final boolean publisher;
+        final AtomicLong dropped = new AtomicLong();
+        // Bytes of the messages in the JSON of the signaling, and in the encoding of the connection
+        final AtomicLong jsonBytes = new AtomicLong();
+        final AtomicLong textBytes = new AtomicLong();
+
+        // Guarded by this
+        // (Bytes of the frames queued by send(), the oldest first. The frames leave the queue in order.)
+        private final ArrayDeque<Long> queuedFrameBytes = new ArrayDeque<Long>();
+        private int queuedMessages = 0;
+        private long queuedBytes = 0;
+        private int maxQueuedMessages = 0;
+        private long maxQueuedBytes = 0;
+        private long overLimitSinceNs = 0;  // 0: within the limit
+        private boolean evicted = false;
+
+        SocketPeer(String peerId, WebSocket conn, boolean compact, String resumeToken, String cameraId, boolean publisher) {
+            this.peerId = peerId;
+            this.conn = conn;
+            this.compact = compact;
+            this.resumeToken = resumeToken;
+            this.cameraId = cameraId;
+            this.publisher = publisher;
+        }
+
+        @Override
+        public String getPeerId() {
+            return peerId;
+        }
+
+        @Override
+        public String getCameraId() {
+            return cameraId;
+        }
+
+        @Override
+        public boolean isPublisher() {
+            return publisher;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return conn.isOpen();
+        }
+
+        @Override
+        public long send(RoutedMessage message) {
+            String text = compact ? message.compactText() : message.text();
+            long length = SignalingMessageCodec.utf8Length(text);
+            synchronized (this) {
+                if (evicted) {
+                    mMetrics.onNotConnected();
+                    return -1;
+                }
+                updateQueueDepth();
+                // A message larger than the limit is sent if nothing is waiting
+                if (queuedMessages > 0
+                        && (queuedMessages + 1 > mMaxQueueMessages || queuedBytes + length > mMaxQueueBytes)) {
+                    long nowNs = System.nanoTime();
+                    if (overLimitSinceNs == 0) {
+                        overLimitSinceNs = nowNs;
+                    } else if (nowNs - overLimitSinceNs >= mEvictAfterMs * 1000000) {
+                        evicted = true;
+                    }
+                    dropped.incrementAndGet();
+                    mMetrics.onQueueFull();
+                    if (!evicted) {
+                        return -1;
+                    }
+                } else {
+                    overLimitSinceNs = 0;
+                    PerMessageDeflateExtension deflate = deflateExtension();
+                    long deflatedBytes = (deflate == null) ? 0 : deflate.getSentWireBytes();
+                    try {
+                        // Queued in the order of the compression context (permessage-deflate)
+                        conn.send(text);
+                    } catch (WebsocketNotConnectedException e) {
+                        // Closed after the route was looked up (onClose() follows)
+                        mMetrics.onNotConnected();
+                        return -1;
+                    }
+                    // The extension compresses only the messages sent here, under this lock
+                    long payloadBytes = (deflate == null) ? length : deflate.getSentWireBytes() - deflatedBytes;
+                    long frameBytes = frameHeaderLength(payloadBytes) + payloadBytes;
+                    queuedFrameBytes.addLast(frameBytes);
+                    queuedBytes += frameBytes;
+                    maxQueuedBytes = Math.max(maxQueuedBytes, queuedBytes);
+                    mMetrics.onSent(message.message, length);
+                    textBytes.addAndGet(length);
+                    jsonBytes.addAndGet(compact ? SignalingMessageCodec.utf8Length(message.text()) : length);
+                    return length;
+                }
+            }
+            evict();
+            return -1;
+        }
+
+        /*
+         * Disconnect the client if it has stayed over the limit, without a message sent to it
+         * (Called by the timer)
+         */
+        void checkQueue(long nowNs) {
+            synchronized (this) {
+                if (evicted || overLimitSinceNs == 0) {
+                    return;
+                }
+                updateQueueDepth();
+                if (queuedMessages == 0) {
+                    // The client has read the messages
+                    overLimitSinceNs = 0;
+                    return;
+                }
+                if (nowNs - overLimitSinceNs < mEvictAfterMs * 1000000) {
+                    return;
+                }
+                evicted = true;
+            }
+            evict();
+        }
+
+        /*
+         * Close the connection of the client over the limit
+         */
+        private void evict() {
+            // Closed without the close handshake, since the client does not read
+            Log.w(TAG, "Evict slow client: " + peerId);
+            mMetrics.onEviction();
+            conn.closeConnection(CLOSE_SLOW_CLIENT, "Send queue overflow");
+        }
+
+        synchronized boolean isEvicted() {
+            return evicted;
+        }
+
+        synchronized JSONObject toJSON() throws JSONException {
+            updateQueueDepth();
+            JSONObject json = new JSONObject();
+            json.put("messages", queuedMessages);
+            json.put("bytes", queuedBytes);
+            json.put("maxMessages", maxQueuedMessages);
+            json.put("maxBytes", maxQueuedBytes);
+            json.put("dropped", dropped.get());
+            return json;
+        }
+
+        /*
+         * Count the received message
+         */
+        void countReceived(long length, String jsonText) {
+            textBytes.addAndGet(length);
+            jsonBytes.addAndGet(compact ? SignalingMessageCodec.utf8Length(jsonText) : length);
+        }
+
+        /*
+         * Return the bytes sent and received on the wire (after permessage-deflate)
+         */
+        long wireBytes() {
+            PerMessageDeflateExtension deflate = deflateExtension();
+            if (deflate == null) {
+                return textBytes.get();
+            }
+            return deflate.getSentWireBytes() + deflate.getReceivedWireBytes();
+        }
+
+        /*
+         * Return the permessage-deflate extension of the connection (null: not negotiated)
+         */
+        PerMessageDeflateExtension deflateExtension() {
+            if (!(conn instanceof WebSocketImpl)) {
+                return null;
+            }
+            Draft draft = ((WebSocketImpl) conn).getDraft();
+            if (!(draft instanceof Draft_6455)) {
+                return null;
+            }
+            IExtension extension = ((Draft_6455) draft).getExtension();
+            return (extension instanceof PerMessageDeflateExtension) ? (PerMessageDeflateExtension) extension : null;
+        }
+
+        JSONObject bytesToJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("compact", compact);
+            json.put("deflate", deflateExtension() != null);
+            json.put("jsonBytes", jsonBytes.get());
+            json.put("textBytes", textBytes.get());
+            json.put("wireBytes", wireBytes());
+            return json;
+        }
+
+        /*
+         * Update the frames waiting in the outgoing queue of the connection
+         * (The bytes of the frames already written are removed, without walking the queue.)
+         */
+        private void updateQueueDepth() {
+            // A text message is queued as a frame (Pings of the heartbeat are counted as messages only)
+            int messages = (conn instanceof WebSocketImpl) ? ((WebSocketImpl) conn).outQueue.size() : 0;
+            while (queuedFrameBytes.size() > messages) {
+                queuedBytes -= queuedFrameBytes.removeFirst();
+            }
+            queuedMessages = messages;
+            maxQueuedMessages = Math.max(maxQueuedMessages, messages);
+        }
+    }
+
+    /*
+     * Return the length of the header of a frame sent by the server (RFC 6455 5.2, not masked)
+     */
+    private static int frameHeaderLength(long payloadLength) {
+        if (payloadLength < 126) {
+            return 2;
+        }
+        return (payloadLength <= 0xffff) ? 4 : 10;
+    }
+
+    /*
+     * Session of a disconnected client, kept for the grace period
+     * (The messages routed to it are held, and sent when the client resumes the session.)
+     */
+    private class SuspendedPeer implements Peer {
+        final String peerId;
+        final WebSocket conn;       // Closed connection, notified to the callbacks at the expiry
+        final boolean compact;
+        final String resumeToken;
+        final String cameraId;
+        final boolean publisher;
+        final long expiryTimeNs;
+
+        // Guarded by this
+        private final ArrayDeque<RoutedMessage> pending = new ArrayDeque<RoutedMessage>();
+        private long pendingBytes = 0;
+        private SocketPeer resumedBy = null;
+
+        SuspendedPeer(SocketPeer peer, long expiryTimeNs) {
+            this.peerId = peer.peerId;
+            this.conn = peer.conn;
+            this.compact = peer.compact;
+            this.resumeToken = peer.resumeToken;
+            this.cameraId = peer.cameraId;
+            this.publisher = peer.publisher;
+            this.expiryTimeNs = expiryTimeNs;
+        }
+
+        @Override
+        public String getPeerId() {
+            return peerId;
+        }
+
+        @Override
+        public String getCameraId() {
+            return cameraId;
+        }
+
+        @Override
+        public boolean isPublisher() {
+            return publisher;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return System.nanoTime() - expiryTimeNs < 0;
+        }
+
+        @Override
+        public synchronized long send(RoutedMessage message) {
+            if (resumedBy != null) {
+                // Routed before the new connection took over the peer ID
+                return resumedBy.send(message);
+            }
+            // Held in the encoding of the connection, as SocketPeer counts the queue
+            long length = SignalingMessageCodec.utf8Length(compact ? message.compactText() : message.text());
+            if (!pending.isEmpty()
+                    && (pending.size() >= mMaxQueueMessages || pendingBytes + length > mMaxQueueBytes)) {
+                mMetrics.onQueueFull();
+                return -1;
+            }
+            pending.addLast(message);
+            pendingBytes += length;
+            return 0;
+        }
+
+        /*
+         * Hand the session over to the new connection, with the held messages
+         */
+        synchronized int resume(SocketPeer peer) {
+            int count = pending.size();
+            resumedBy = peer;
+            for (RoutedMessage message : pending) {
+                peer.send(message);
+            }
+            pending.clear();
+            pendingBytes = 0;
+            return count;
+        }
+    }
+
+    /*
+     * Peer registered in the same process
+     */
+    private static class LocalPeer implements Peer {
+        final LocalSignalingEndpoint endpoint;
+
+        LocalPeer(LocalSignalingEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public String getPeerId() {
+            return endpoint.getPeerId();
+        }
+
+        @Override
+        public String getCameraId() {
+            return null;
+        }
+
+        @Override
+        public boolean isPublisher() {
+            return false;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return endpoint.isOpen();
+        }
+
+        @Override
+        public long send(RoutedMessage message) {
+            endpoint.deliver(message.message);
+            return 0;
+        }
+    }
+
     private SignalingServerCallbacks mSigServerCallbacks = null;
+    private final Map<String, Peer> mPeers = new ConcurrentHashMap<String, Peer>();
+    private final Map<WebSocket, SocketPeer> mSocketPeers = new ConcurrentHashMap<WebSocket, SocketPeer>();
+    private final Map<LocalSignalingEndpoint, LocalPeer> mLocalPeers = new ConcurrentHashMap<LocalSignalingEndpoint, LocalPeer>();
+    private final Map<String, SuspendedPeer> mSuspendedPeers = new ConcurrentHashMap<String, SuspendedPeer>();   // Resume token -> session
+    private final SecureRandom mRandom = new SecureRandom();
+    private final AtomicInteger mNextPeerId = new AtomicInteger(1);
+    // Sender -> destination -> counters (Looked up without building the key of the route)
+    private final Map<String, Map<String, RouteCounter>> mRouteCounters = new ConcurrentHashMap<String, Map<String, RouteCounter>>();
+    private final SignalingMetrics mMetrics = new SignalingMetrics();
+    private final Map<String, CameraCounter> mCameras = new ConcurrentHashMap<String, CameraCounter>();    // Camera ID -> group (Hub mode)
+    private volatile boolean mHubMode = false;
+    private final AtomicLong mResumedSessions = new AtomicLong();
+    private final AtomicLong mExpiredSessions = new AtomicLong();
+    // Bytes of the closed sessions (See SocketPeer)
+    private final AtomicLong mClosedSessions = new AtomicLong();
+    private final AtomicLong mClosedJsonBytes = new AtomicLong();
+    private final AtomicLong mClosedTextBytes = new AtomicLong();
+    private final AtomicLong mClosedWireBytes = new AtomicLong();
+    private volatile int mMaxQueueMessages = DEFAULT_MAX_QUEUE_MESSAGES;
+    private volatile long mMaxQueueBytes = DEFAULT_MAX_QUEUE_BYTES;
+    private volatile long mEvictAfterMs = DEFAULT_EVICT_AFTER_MS;
+    private volatile long mResumeGraceMs = DEFAULT_RESUME_GRACE_MS;
+    private final HeartbeatMonitor mHeartbeat = new HeartbeatMonitor(TAG);
+    private Timer mCheckTimer = null;     // Guarded by this
 
     /**
      * Interface of notification callback function from signaling server
@@ -48,8 +641,10 @@ public class SignalingServer extends WebSocketServer {
      * @param port Port number of Signaling server
      */
     public SignalingServer(SignalingServerCallbacks sigServerCallbacks, String hostname, int port) {
-        super(new InetSocketAddress(hostname, port));
+        super(new InetSocketAddress(hostname, port), createDrafts());
         this.mSigServerCallbacks = sigServerCallbacks;
+        // Replaced by the heartbeat monitor, which has a timeout of its own
+        setConnectionLostTimeout(0);
     }
 
     /**
@@ -59,8 +654,10 @@ public class SignalingServer extends WebSocketServer {
      * @param port Port number of Signaling server
      */
     public SignalingServer(SignalingServerCallbacks sigServerCallbacks, int port) {
-        super(new InetSocketAddress(port));
+        super(new InetSocketAddress(port), createDrafts());
         this.mSigServerCallbacks = sigServerCallbacks;
+        // Replaced by the heartbeat monitor, which has a timeout of its own
+        setConnectionLostTimeout(0);
     }
 
     /**
@@ -68,8 +665,85 @@ public class SignalingServer extends WebSocketServer {
      */
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
-        Log.d(TAG, "session open");
-        if (mSigServerCallbacks != null) {
+        String resource = handshake.getResourceDescriptor();
+        expireSuspendedPeers();
+
+        String resumeToken = queryParameter(resource, RESUME_QUERY);
+        SuspendedPeer suspended = (resumeToken == null) ? null : mSuspendedPeers.remove(resumeToken);
+        if (suspended != null && !suspended.isOpen()) {
+            expire(suspended);
+            suspended = null;
+        }
+        String peerId = null;
+        String cameraId = null;
+        boolean publisher = false;
+        if (suspended != null) {
+            peerId = suspended.peerId;
+            cameraId = suspended.cameraId;
+            publisher = suspended.publisher;
+        } else {
+            if (mHubMode) {
+                String publishedId = queryParameter(resource, PUBLISH_QUERY);
+                publisher = publishedId != null;
+                cameraId = publisher ? publishedId : queryParameter(resource, CAMERA_QUERY);
+                if (publisher) {
+                    peerId = registerPublisher(conn, cameraId);
+                    if (peerId == null) {
+                        return;
+                    }
+                } else if (cameraId != null && !mCameras.containsKey(cameraId)) {
+                    rejectConnection(conn, CLOSE_UNKNOWN_CAMERA, "Unknown camera");
+                    return;
+                }
+            }
+            if (peerId == null) {
+                peerId = requestedPeerId(resource);
+                Peer current = (peerId == null) ? null : mPeers.get(peerId);
+                if (peerId == null || (current != null && current.isOpen())) {
+                    peerId = PEER_ID_PREFIX + mNextPeerId.getAndIncrement();
+                }
+            }
+            resumeToken = createResumeToken();
+        }
+        SocketPeer peer = new SocketPeer(peerId, conn, COMPACT_ENCODING.equals(queryParameter(resource, ENCODING_QUERY)),
+                resumeToken, cameraId, publisher);
+        mSocketPeers.put(conn, peer);
+        mMetrics.onOpen();
+        mHeartbeat.add(conn);
+        sendWelcome(peer, suspended != null);
+        if (suspended != null) {
+            // The held messages precede the ones routed to the new connection
+            int pending = suspended.resume(peer);
+            mResumedSessions.incrementAndGet();
+            Log.d(TAG, "session resume: " + peerId + " (" + pending + " held messages)");
+        } else {
+            Log.d(TAG, "session open: " + peerId);
+        }
+        mPeers.put(peerId, peer);
+        CameraCounter camera = (cameraId == null) ? null : mCameras.get(cameraId);
+        if (camera != null) {
+            if (publisher) {
+                // The viewers of the group, including the suspended ones (Also after resumption,
+                // since a new session of the camera does not know them. The camera ignores known viewers.)
+                for (String viewerPeerId : camera.viewerPeerIds) {
+                    Peer viewer = mPeers.get(viewerPeerId);
+                    if (viewer != null && viewer.isOpen()) {
+                        sendViewerState(peer, viewerPeerId, STATE_JOINED, false);
+                    }
+                }
+            } else {
+                if (suspended == null) {
+                    camera.viewerPeerIds.add(peerId);
+                    camera.onViewerOpen();
+                } else {
+                    camera.resumedViewers.incrementAndGet();
+                }
+                // A resumed viewer has not left the group. Notified again for a camera which lost it.
+                sendViewerState(mPeers.get(cameraPeerId(cameraId)), peerId, STATE_JOINED, suspended != null);
+            }
+        }
+        // A resumed session is the same session for the callbacks
+        if (mSigServerCallbacks != null && suspended == null) {
             this.mSigServerCallbacks.onConnected(conn);
         }
     }
@@ -80,7 +754,38 @@ public class SignalingServer extends WebSocketServer {
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
         Log.d(TAG, "session close to " + conn.getRemoteSocketAddress().getAddress());
-        if (mSigServerCallbacks != null) {
+        expireSuspendedPeers();
+        mHeartbeat.remove(conn);
+        SocketPeer peer = mSocketPeers.remove(conn);
+        // The viewer leaves, and the callbacks are notified, when the session expires
+        boolean suspendedSession = false;
+        if (peer != null) {
+            mMetrics.onClose(code, remote);
+            // The ID may be taken by a new connection already
+            long graceMs = mResumeGraceMs;
+            if (graceMs > 0 && !peer.isEvicted()) {
+                // The routes are kept, so that the client can resume the session
+                SuspendedPeer suspended = new SuspendedPeer(peer, System.nanoTime() + graceMs * 1000000);
+                if (mPeers.replace(peer.peerId, peer, suspended)) {
+                    mSuspendedPeers.put(peer.resumeToken, suspended);
+                    suspendedSession = true;
+                }
+            } else if (mPeers.remove(peer.peerId, peer)) {
+                forgetPeer(peer);
+            }
+            if (!suspendedSession) {
+                leaveCamera(peer.peerId, peer.cameraId, peer.publisher, true);
+            }
+
+            long wireBytes = peer.wireBytes();
+            mClosedSessions.incrementAndGet();
+            mClosedJsonBytes.addAndGet(peer.jsonBytes.get());
+            mClosedTextBytes.addAndGet(peer.textBytes.get());
+            mClosedWireBytes.addAndGet(wireBytes);
+            Log.d(TAG, "session bytes of " + peer.peerId + ": json=" + peer.jsonBytes.get()
+                    + ", text=" + peer.textBytes.get() + ", wire=" + wireBytes);
+        }
+        if (mSigServerCallbacks != null && !suspendedSession) {
             this.mSigServerCallbacks.onDisconnected(conn);
         }
     }
@@ -90,25 +795,229 @@ public class SignalingServer extends WebSocketServer {
      */
     @Override
     public void onMessage(WebSocket conn, String message) {
-        Log.d(TAG, "recv message: ");
+        if (DEBUG) {
+            Log.d(TAG, "recv message: " + message.length() + " chars");
+        }
+        mHeartbeat.onAlive(conn);
         if (mSigServerCallbacks != null) {
             this.mSigServerCallbacks.onRecvMessage(conn, message);
         }
 
-        /*
-         * Broadcast the received message to the connection destination excluding the sending host
-         */
-        Collection<WebSocket> connections = this.getConnections();
-        connections.forEach((WebSocket connection) -> {
-            if (connection.getRemoteSocketAddress().getAddress() != conn.getRemoteSocketAddress().getAddress()) {
-                if (connection.isOpen()) {
-                    connection.send(message);
-                    Log.d(TAG, "Send msg to " + connection.getRemoteSocketAddress().getAddress());
+        SocketPeer sender = mSocketPeers.get(conn);
+        if (sender == null) {
+            Log.w(TAG, "Message from unknown connection. Drop message.");
+            return;
+        }
+        String text;
+        SignalingMessage signalingMessage;
+        try {
+            text = sender.compact ? CompactEnvelope.decode(new JSONObject(message)).toString() : message;
+            signalingMessage = SignalingMessageCodec.decode(text);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON parsing error. Drop message.");
+            mMetrics.onInvalidMessage();
+            return;
+        } catch (SignalingMessageCodec.MalformedMessageException e) {
+            Log.e(TAG, "JSON parsing error. Drop message.");
+            mMetrics.onInvalidMessage();
+            return;
+        }
+        long length = SignalingMessageCodec.utf8Length(message);
+        sender.countReceived(length, text);
+        mMetrics.onReceived(signalingMessage, length);
+        if (mHubMode && TYPE_CAMERAS.equals(signalingMessage.getTypeName()) && signalingMessage.getTo() == null) {
+            // Discovery of the cameras, answered by the hub
+            SignalingMessage cameras = new SignalingMessage(TYPE_CAMERAS);
+            cameras.putRaw(KEY_CAMERAS, camerasToJSON().toString());
+            sender.send(new RoutedMessage(cameras));
+            return;
+        }
+        route(sender, signalingMessage);
+    }
+
+    /**
+     * Create the endpoint of a peer in this process.
+     * (The peer is registered when the endpoint is opened.)
+     *
+     * @param peerId Peer ID (e.g. CAMERA_PEER_ID)
+     * @return Local endpoint
+     */
+    public LocalSignalingEndpoint createLocalEndpoint(String peerId) {
+        return new LocalSignalingEndpoint(this, peerId);
+    }
+
+    /**
+     * Set the limit of the outgoing queue of each connection
+     *
+     * @param maxMessages Maximum number of messages waiting to be sent
+     * @param maxBytes Maximum number of bytes waiting to be sent
+     * @param evictAfterMs Time over the limit until the client is disconnected (milliseconds)
+     */
+    public void setSendQueueLimit(int maxMessages, long maxBytes, long evictAfterMs) {
+        mMaxQueueMessages = Math.max(1, maxMessages);
+        mMaxQueueBytes = Math.max(1, maxBytes);
+        mEvictAfterMs = Math.max(0, evictAfterMs);
+        Log.d(TAG, "send queue limit: " + mMaxQueueMessages + " messages, " + mMaxQueueBytes + " bytes, " + mEvictAfterMs + "ms");
+    }
+
+    /**
+     * Return the limit of the outgoing queue of JSON object format
+     *
+     * @return Limit of JSON object format
+     */
+    public JSONObject getSendQueueLimit() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("maxMessages", mMaxQueueMessages);
+            json.put("maxBytes", mMaxQueueBytes);
+            json.put("evictAfterMs", mEvictAfterMs);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /**
+     * Set the time to keep the session of a disconnected client for resumption
+     *
+     * @param graceMs Grace period (milliseconds, 0: the session is closed at once)
+     */
+    public void setResumeGracePeriod(long graceMs) {
+        mResumeGraceMs = Math.max(0, graceMs);
+        Log.d(TAG, "resume grace period: " + mResumeGraceMs + "ms");
+    }
+
+    /**
+     * Set hub mode, in which the server routes the messages of several cameras
+     * (Must be set before the server is started.)
+     *
+     * @param hubMode true: hub mode, false: the server of a camera
+     */
+    public void setHubMode(boolean hubMode) {
+        mHubMode = hubMode;
+        Log.d(TAG, "hub mode: " + hubMode);
+    }
+
+    /**
+     * Return whether the camera ID can be registered in hub mode
+     *
+     * @param cameraId Camera ID
+     * @return true: valid
+     */
+    public static boolean isValidCameraId(@Nullable String cameraId) {
+        return cameraId != null && CAMERA_ID_PATTERN.matcher(cameraId).matches();
+    }
+
+    /**
+     * Return the cameras registered in hub mode, with the load counters of each camera, of JSON object format
+     *
+     * @return Cameras of JSON object format
+     */
+    public JSONObject getCameras() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("hubMode", mHubMode);
+            json.put(KEY_CAMERAS, camerasToJSON());
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /**
+     * Set the heartbeat of the connections
+     *
+     * @param intervalMs Interval of the pings (milliseconds, 0: the heartbeat is disabled)
+     * @param timeoutMs Time without response until the client is declared dead (milliseconds)
+     */
+    public void setHeartbeat(long intervalMs, long timeoutMs) {
+        mHeartbeat.setHeartbeat(intervalMs, timeoutMs);
+    }
+
+    /**
+     * Return the heartbeat settings and the number of dead peers of JSON object format
+     *
+     * @return Heartbeat of JSON object format
+     */
+    public JSONObject getHeartbeat() {
+        return mHeartbeat.toJSON();
+    }
+
+    /**
+     * Return the peer ID of the connection
+     *
+     * @param conn Connection
+     * @return Peer ID (null: not connected)
+     */
+    @Nullable
+    public String getPeerId(WebSocket conn) {
+        SocketPeer peer = mSocketPeers.get(conn);
+        return (peer == null) ? null : peer.peerId;
+    }
+
+    /**
+     * Return the live metrics of the connections and the messages of JSON object format
+     *
+     * @return Metrics of JSON object format
+     */
+    public JSONObject getMetrics() {
+        return mMetrics.toJSON();
+    }
+
+    /**
+     * Return the counters of each route of JSON object format
+     *
+     * @return Counters of JSON object format
+     */
+    public JSONObject getRouteStats() {
+        JSONObject json = new JSONObject();
+        try {
+            JSONObject routes = new JSONObject();
+            for (Map.Entry<String, Map<String, RouteCounter>> from : mRouteCounters.entrySet()) {
+                for (Map.Entry<String, RouteCounter> to : from.getValue().entrySet()) {
+                    RouteCounter counter = to.getValue();
+                    JSONObject counters = new JSONObject();
+                    counters.put("messages", counter.messages.get());
+                    counters.put("bytes", counter.bytes.get());
+                    counters.put("undeliverable", counter.undeliverable.get());
+                    counters.put("dropped", counter.dropped.get());
+                    routes.put(from.getKey() + "->" + to.getKey(), counters);
                 }
-            } else {
-                Log.d(TAG, "skip sender");
             }
-        });
+            JSONObject queues = new JSONObject();
+            JSONObject sessions = new JSONObject();
+            for (SocketPeer peer : mSocketPeers.values()) {
+                queues.put(peer.peerId, peer.toJSON());
+                sessions.put(peer.peerId, peer.bytesToJSON());
+            }
+            JSONObject closedSessions = new JSONObject();
+            long closedCount = mClosedSessions.get();
+            closedSessions.put("sessions", closedCount);
+            closedSessions.put("jsonBytes", mClosedJsonBytes.get());
+            closedSessions.put("textBytes", mClosedTextBytes.get());
+            closedSessions.put("wireBytes", mClosedWireBytes.get());
+            closedSessions.put("jsonBytesPerSession", (closedCount == 0) ? 0 : mClosedJsonBytes.get() / closedCount);
+            closedSessions.put("wireBytesPerSession", (closedCount == 0) ? 0 : mClosedWireBytes.get() / closedCount);
+            json.put("peers", mPeers.size());
+            json.put("routes", routes);
+            json.put("sendQueues", queues);
+            json.put("sessionBytes", sessions);
+            json.put("closedSessionBytes", closedSessions);
+            json.put("sendQueueLimit", getSendQueueLimit());
+            json.put("evictions", mMetrics.getEvictions());
+            json.put("heartbeat", mHeartbeat.toJSON());
+            expireSuspendedPeers();
+            JSONObject resume = new JSONObject();
+            resume.put("graceMs", mResumeGraceMs);
+            resume.put("suspended", mSuspendedPeers.size());
+            resume.put("resumed", mResumedSessions.get());
+            resume.put("expired", mExpiredSessions.get());
+            json.put("resume", resume);
+            json.put("invalidMessages", mMetrics.getInvalidMessages());
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
     }
 
     /**
@@ -117,6 +1026,63 @@ public class SignalingServer extends WebSocketServer {
     @Override
     public void onStart() {
         Log.d(TAG, "server start");
+        mHeartbeat.start();
+        startChecks();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop(int timeout) throws InterruptedException {
+        mHeartbeat.stop();
+        stopChecks();
+        super.stop(timeout);
+    }
+
+    /*
+     * Start the timer which disconnects the clients staying over the limit of the outgoing queue,
+     * and expires the sessions not resumed in time (The viewers leave their cameras at the expiry.)
+     */
+    private synchronized void startChecks() {
+        if (mCheckTimer != null) {
+            return;
+        }
+        mCheckTimer = new Timer(TAG + "-check", true);
+        mCheckTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    long nowNs = System.nanoTime();
+                    for (SocketPeer peer : mSocketPeers.values()) {
+                        peer.checkQueue(nowNs);
+                    }
+                    expireSuspendedPeers();
+                } catch (RuntimeException e) {
+                    // An exception escaping the task cancels the timer
+                    Log.e(TAG, "Check error: " + e);
+                }
+            }
+        }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS);
+    }
+
+    /*
+     * Stop the timer of the checks
+     */
+    private synchronized void stopChecks() {
+        if (mCheckTimer != null) {
+            mCheckTimer.cancel();
+            mCheckTimer = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        mHeartbeat.onAlive(conn);
+        super.onWebsocketPong(conn, f);
     }
 
     /**
@@ -127,4 +1093,410 @@ public class SignalingServer extends WebSocketServer {
         Log.e(TAG, "error: " + ex);
         this.mSigServerCallbacks = null;
     }
+
+    /*
+     * Register the local endpoint (false: the peer ID is in use)
+     */
+    boolean registerLocalEndpoint(LocalSignalingEndpoint endpoint) {
+        LocalPeer peer = new LocalPeer(endpoint);
+        Peer current = mPeers.get(endpoint.getPeerId());
+        if (current != null && current.isOpen()) {
+            return false;
+        }
+        mPeers.put(endpoint.getPeerId(), peer);
+        mLocalPeers.put(endpoint, peer);
+        Log.d(TAG, "local peer open: " + endpoint.getPeerId());
+        return true;
+    }
+
+    /*
+     * Unregister the local endpoint
+     */
+    void unregisterLocalEndpoint(LocalSignalingEndpoint endpoint) {
+        LocalPeer peer = mLocalPeers.remove(endpoint);
+        if (peer != null) {
+            mPeers.remove(endpoint.getPeerId(), peer);
+            forgetPeer(peer);
+        }
+        Log.d(TAG, "local peer close: " + endpoint.getPeerId());
+    }
+
+    /*
+     * Route the message sent by the local endpoint
+     */
+    void routeFromLocalEndpoint(LocalSignalingEndpoint endpoint, SignalingMessage message) {
+        LocalPeer sender = mLocalPeers.get(endpoint);
+        if (sender == null) {
+            Log.w(TAG, "Local peer is not registered. Drop message.");
+            return;
+        }
+        route(sender, message);
+    }
+
+    /*
+     * Route the message to the destination peer, or to all the other peers
+     */
+    private void route(Peer sender, SignalingMessage signalingMessage) {
+        String from = sender.getPeerId();
+        String to = signalingMessage.getTo();
+        signalingMessage.setFrom(from);
+        RoutedMessage message = new RoutedMessage(signalingMessage);
+        if (mHubMode) {
+            routeInGroup(sender, to, message);
+            return;
+        }
+        if (to == null) {
+            to = CAMERA_PEER_ID.equals(from) ? BROADCAST : CAMERA_PEER_ID;
+        }
+
+        if (BROADCAST.equals(to)) {
+            // Broadcast to the other peers (e.g. status events of the camera)
+            for (Map.Entry<String, Peer> peer : mPeers.entrySet()) {
+                if (peer.getValue() != sender) {
+                    deliver(from, peer.getKey(), peer.getValue(), message);
+                }
+            }
+        } else {
+            Peer destination = mPeers.get(to);
+            deliver(from, to, (destination == sender) ? null : destination, message);
+        }
+    }
+
+    /*
+     * Route the message within the group of the camera (Hub mode)
+     * (The other cameras and their viewers are not reachable.)
+     */
+    private void routeInGroup(Peer sender, String to, RoutedMessage message) {
+        String from = sender.getPeerId();
+        String cameraId = sender.getCameraId();
+        CameraCounter camera = (cameraId == null) ? null : mCameras.get(cameraId);
+        if (sender.isPublisher()) {
+            if (camera == null) {
+                return;
+            }
+            if (to == null || BROADCAST.equals(to)) {
+                // Broadcast to the viewers of the camera (e.g. status events)
+                for (String viewerPeerId : camera.viewerPeerIds) {
+                    camera.count(true, deliver(from, viewerPeerId, mPeers.get(viewerPeerId), message));
+                }
+            } else {
+                Peer destination = mPeers.get(to);
+                camera.count(true, deliver(from, to, isInGroup(destination, cameraId) ? destination : null, message));
+            }
+            return;
+        }
+        if (to == null || CAMERA_PEER_ID.equals(to)) {
+            to = (cameraId == null) ? CAMERA_PEER_ID : cameraPeerId(cameraId);
+        }
+        Peer destination = mPeers.get(to);
+        long bytes = deliver(from, to, (destination != sender && isInGroup(destination, cameraId)) ? destination : null, message);
+        if (camera != null) {
+            camera.count(false, bytes);
+        }
+    }
+
+    /*
+     * Send the message to the peer, and count it on the route
+     * (Return the number of bytes sent on the wire, -1: not delivered)
+     */
+    private long deliver(String from, String to, @Nullable Peer destination, RoutedMessage message) {
+        RouteCounter counter = routeCounter(from, to);
+        if (destination == null || !destination.isOpen()) {
+            if (DEBUG) {
+                Log.d(TAG, "No peer to route: " + from + "->" + to);
+            }
+            counter.undeliverable.incrementAndGet();
+            mMetrics.onUndeliverable();
+            return -1;
+        }
+        long bytes = destination.send(message);
+        if (bytes < 0) {
+            // Counted by the peer (Queue full or closed)
+            if (DEBUG) {
+                Log.d(TAG, "Drop msg " + from + "->" + to);
+            }
+            counter.dropped.incrementAndGet();
+            return -1;
+        }
+        counter.messages.incrementAndGet();
+        counter.bytes.addAndGet(bytes);
+        if (DEBUG) {
+            Log.d(TAG, "Send msg " + from + "->" + to);
+        }
+        return bytes;
+    }
+
+    /*
+     * Register the connection as the publisher of the camera (Hub mode)
+     * (Return the peer ID of the camera, null: rejected and closed)
+     */
+    private String registerPublisher(WebSocket conn, String cameraId) {
+        if (!isValidCameraId(cameraId)) {
+            rejectConnection(conn, CLOSE_CAMERA_REJECTED, "Invalid camera ID");
+            return null;
+        }
+        String peerId = cameraPeerId(cameraId);
+        Peer current = mPeers.get(peerId);
+        if (current instanceof SuspendedPeer) {
+            // The camera restarted. The messages held for the previous process are dropped.
+            SuspendedPeer suspended = (SuspendedPeer) current;
+            if (mSuspendedPeers.remove(suspended.resumeToken, suspended)) {
+                mExpiredSessions.incrementAndGet();
+            }
+        } else if (current != null && current.isOpen()) {
+            rejectConnection(conn, CLOSE_CAMERA_REJECTED, "Camera ID in use");
+            return null;
+        }
+        CameraCounter camera = mCameras.get(cameraId);
+        if (camera == null) {
+            if (mCameras.size() >= MAX_CAMERAS) {
+                rejectConnection(conn, CLOSE_CAMERA_REJECTED, "Too many cameras");
+                return null;
+            }
+            CameraCounter newCamera = new CameraCounter();
+            camera = mCameras.putIfAbsent(cameraId, newCamera);
+            if (camera == null) {
+                camera = newCamera;
+            }
+        }
+        camera.registrations.incrementAndGet();
+        camera.registeredTimeMs = System.currentTimeMillis();
+        Log.d(TAG, "camera register: " + cameraId);
+        return peerId;
+    }
+
+    /*
+     * Close the connection refused in hub mode
+     */
+    private void rejectConnection(WebSocket conn, int code, String reason) {
+        Log.w(TAG, "Reject connection from " + conn.getRemoteSocketAddress() + ": " + reason);
+        mMetrics.onRejected(code);
+        conn.close(code, reason);
+    }
+
+    /*
+     * Notify the camera of the viewer which joined or left its group (Hub mode)
+     */
+    private void sendViewerState(@Nullable Peer camera, String viewerPeerId, String state, boolean resumed) {
+        if (camera == null || !camera.isOpen()) {
+            return;
+        }
+        SignalingMessage message = new SignalingMessage(TYPE_VIEWER);
+        message.putString(KEY_PEER_ID, viewerPeerId);
+        message.putString(KEY_STATE, state);
+        if (resumed) {
+            message.putRaw(KEY_RESUMED, "true");
+        }
+        camera.send(new RoutedMessage(message));
+    }
+
+    /*
+     * Return the cameras and their load counters of JSON array format
+     */
+    private JSONArray camerasToJSON() {
+        JSONArray cameras = new JSONArray();
+        try {
+            for (Map.Entry<String, CameraCounter> entry : new TreeMap<String, CameraCounter>(mCameras).entrySet()) {
+                CameraCounter counter = entry.getValue();
+                Peer publisher = mPeers.get(cameraPeerId(entry.getKey()));
+                String state = "offline";
+                if (publisher instanceof SuspendedPeer && publisher.isOpen()) {
+                    state = "suspended";
+                } else if (publisher != null && publisher.isOpen()) {
+                    state = "online";
+                }
+                JSONObject camera = new JSONObject();
+                camera.put("id", entry.getKey());
+                camera.put("peer", cameraPeerId(entry.getKey()));
+                camera.put("state", state);
+                camera.put("viewers", counter.viewers.get());
+                camera.put("peakViewers", counter.peakViewers.get());
+                camera.put("viewerConnections", counter.viewerConnections.get());
+                camera.put("resumedViewers", counter.resumedViewers.get());
+                camera.put("registrations", counter.registrations.get());
+                camera.put("registeredTime", counter.registeredTimeMs);
+                camera.put("messagesIn", counter.messagesIn.get());
+                camera.put("bytesIn", counter.bytesIn.get());
+                camera.put("messagesOut", counter.messagesOut.get());
+                camera.put("bytesOut", counter.bytesOut.get());
+                camera.put("undeliverable", counter.undeliverable.get());
+                cameras.put(camera);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return cameras;
+    }
+
+    /*
+     * Return whether the peer is in the group of the camera (Hub mode)
+     */
+    private static boolean isInGroup(@Nullable Peer peer, @Nullable String cameraId) {
+        return peer != null && cameraId != null && cameraId.equals(peer.getCameraId());
+    }
+
+    /*
+     * Return the peer ID of the publisher of the camera (Hub mode)
+     */
+    private static String cameraPeerId(String cameraId) {
+        return CAMERA_PEER_ID + CAMERA_PEER_ID_SEPARATOR + cameraId;
+    }
+
+    /*
+     * Return the counters of the route
+     */
+    private RouteCounter routeCounter(String from, String to) {
+        Map<String, RouteCounter> routes = mRouteCounters.get(from);
+        if (routes == null) {
+            Map<String, RouteCounter> newRoutes = new ConcurrentHashMap<String, RouteCounter>();
+            routes = mRouteCounters.putIfAbsent(from, newRoutes);
+            if (routes == null) {
+                routes = newRoutes;
+            }
+        }
+        RouteCounter counter = routes.get(to);
+        if (counter == null) {
+            RouteCounter newCounter = new RouteCounter();
+            counter = routes.putIfAbsent(to, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /*
+     * Send the peer ID and the resume token to the new connection
+     */
+    private void sendWelcome(SocketPeer peer, boolean resumed) {
+        SignalingMessage welcome = new SignalingMessage(TYPE_WELCOME);
+        welcome.putString(KEY_PEER, peer.peerId);
+        welcome.putString(KEY_RESUME, peer.resumeToken);
+        welcome.putRaw(KEY_RESUMED, String.valueOf(resumed));
+        if (peer.cameraId != null) {
+            welcome.putString(KEY_CAMERA, peer.cameraId);
+        }
+        peer.send(new RoutedMessage(welcome));
+    }
+
+    /*
+     * Create a resume token (Not guessable, since it takes over the peer ID.)
+     */
+    private String createResumeToken() {
+        byte[] bytes = new byte[RESUME_TOKEN_BYTES];
+        mRandom.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b & 0xff));
+        }
+        return token.toString();
+    }
+
+    /*
+     * Close the sessions not resumed within the grace period
+     */
+    private void expireSuspendedPeers() {
+        for (SuspendedPeer suspended : mSuspendedPeers.values()) {
+            if (!suspended.isOpen() && mSuspendedPeers.remove(suspended.resumeToken, suspended)) {
+                expire(suspended);
+            }
+        }
+    }
+
+    /*
+     * Close the session of the suspended peer
+     */
+    private void expire(SuspendedPeer suspended) {
+        Log.d(TAG, "session expire: " + suspended.peerId);
+        mExpiredSessions.incrementAndGet();
+        // The ID may be taken by a new connection already
+        boolean removed = mPeers.remove(suspended.peerId, suspended);
+        if (removed) {
+            forgetPeer(suspended);
+        }
+        leaveCamera(suspended.peerId, suspended.cameraId, suspended.publisher, removed);
+        if (mSigServerCallbacks != null) {
+            this.mSigServerCallbacks.onDisconnected(suspended.conn);
+        }
+    }
+
+    /*
+     * The viewer left the group of the camera for good (Hub mode)
+     */
+    private void leaveCamera(String peerId, String cameraId, boolean publisher, boolean notify) {
+        CameraCounter camera = (cameraId == null) ? null : mCameras.get(cameraId);
+        if (camera == null || publisher) {
+            return;
+        }
+        camera.viewers.decrementAndGet();
+        if (notify) {
+            // Not notified if a new connection has taken the peer ID
+            sendViewerState(mPeers.get(cameraPeerId(cameraId)), peerId, STATE_LEFT, false);
+        }
+    }
+
+    /*
+     * Return the drafts of the connections (RFC 6455 with permessage-deflate)
+     */
+    private static List<Draft> createDrafts() {
+        return Collections.<Draft>singletonList(PerMessageDeflateExtension.createDraft());
+    }
+
+    /*
+     * Return the peer ID requested by the query of the resource (null: not requested)
+     */
+    private static String requestedPeerId(String resourceDescriptor) {
+        String peerId = queryParameter(resourceDescriptor, PEER_QUERY);
+        if (peerId == null) {
+            return null;
+        }
+        // The IDs of the server are not requested. The camera is registered only by createLocalEndpoint()
+        // (or by "publish=" in hub mode), so that a browser can not take its ID while it is not registered.
+        if (peerId.startsWith(PEER_ID_PREFIX) || BROADCAST.equals(peerId)
+                || CAMERA_PEER_ID.equals(peerId) || peerId.startsWith(CAMERA_PEER_ID + CAMERA_PEER_ID_SEPARATOR)) {
+            return null;
+        }
+        return peerId;
+    }
+
+    /*
+     * Return the value of the query parameter of the resource (null: not specified)
+     */
+    private static String queryParameter(String resourceDescriptor, String name) {
+        if (resourceDescriptor == null) {
+            return null;
+        }
+        int queryIndex = resourceDescriptor.indexOf('?');
+        if (queryIndex < 0) {
+            return null;
+        }
+        for (String parameter : resourceDescriptor.substring(queryIndex + 1).split("&")) {
+            if (parameter.startsWith(name) && parameter.length() > name.length()) {
+                return parameter.substring(name.length());
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Forget the peer which left for good (Counters of the routes, and the group of the camera)
+     */
+    private void forgetPeer(Peer peer) {
+        removeRouteCounters(peer.getPeerId());
+        String cameraId = peer.getCameraId();
+        CameraCounter camera = (cameraId == null) ? null : mCameras.get(cameraId);
+        if (camera != null && !peer.isPublisher()) {
+            camera.viewerPeerIds.remove(peer.getPeerId());
+        }
+    }
+
+    /*
+     * Remove the counters of the routes from or to the peer
+     */
+    private void removeRouteCounters(String peerId) {
+        mRouteCounters.remove(peerId);
+        for (Map<String, RouteCounter> routes : mRouteCounters.values()) {
+            routes.remove(peerId);
+        }
+    }
 }
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Status event publisher class
+ * (Pushes state transitions of the camera to the subscribed clients, instead of being polled.
+ *  A new subscriber receives the latest value of each subscribed event at once.)
+ *
+ * Event: {"type": "event", "event": "shootingStatus", "seq": 12, "data": {"status": "idle"}}
+ */
+public class StatusEventPublisher {
+    private static final String TAG = "StatusEventPublisher";
+
+    /*
+     * Event names
+     */
+    public static final String SHOOTING_STATUS = "shootingStatus";
+    public static final String OPTIONS = "options";
+    public static final String CAPTURE = "capture";
+    public static final String STREAM_HEALTH = "streamHealth";
+    public static final String RECORDING = "recording";
+    public static final String CLIP = "clip";
+
+    /**
+     * Interface of event destination
+     */
+    public interface Sink {
+        boolean sendEvent(String message);
+    }
+
+    // Guarded by this
+    private final Map<Sink, Set<String>> mSubscriptions = new HashMap<Sink, Set<String>>();
+    private final Map<String, String> mLatestData = new LinkedHashMap<String, String>();
+    private long mSequence = 0;
+
+    /**
+     * Subscribe events. The latest values of the events are sent to the sink at once.
+     *
+     * @param sink Event destination
+     * @param events Event names to add to the subscription
+     * @return Event names subscribed by the sink
+     */
+    public synchronized JSONArray subscribe(Sink sink, Collection<String> events) {
+        Set<String> subscription = mSubscriptions.get(sink);
+        if (subscription == null) {
+            subscription = new HashSet<String>();
+            mSubscriptions.put(sink, subscription);
+        }
+        subscription.addAll(events);
+        Log.d(TAG, "subscribe: " + subscription);
+
+        for (Map.Entry<String, String> latest : mLatestData.entrySet()) {
+            if (events.contains(latest.getKey())) {
+                sink.sendEvent(createMessage(latest.getKey(), latest.getValue()));
+            }
+        }
+        return new JSONArray(subscription);
+    }
+
+    /**
+     * Cancel all subscriptions of the sink
+     *
+     * @param sink Event destination
+     */
+    public synchronized void unsubscribe(Sink sink) {
+        mSubscriptions.remove(sink);
+    }
+
+    /**
+     * Publish the event to the subscribers.
+     * (Not sent if the data is the same as the latest one.)
+     *
+     * @param event Event name
+     * @param data Event data
+     */
+    public synchronized void publish(String event, JSONObject data) {
+        String dataString = data.toString();
+        if (dataString.equals(mLatestData.get(event))) {
+            return;
+        }
+        mLatestData.put(event, dataString);
+
+        String message = null;
+        for (Map.Entry<Sink, Set<String>> subscription : mSubscriptions.entrySet()) {
+            if (!subscription.getValue().contains(event)) {
+                continue;
+            }
+            if (message == null) {
+                message = createMessage(event, dataString);
+            }
+            subscription.getKey().sendEvent(message);
+        }
+    }
+
+    /**
+     * Publish the event which has a single value
+     *
+     * @param event Event name
+     * @param name Name of the value
+     * @param value Value
+     */
+    public void publish(String event, String name, Object value) {
+        JSONObject data = new JSONObject();
+        try {
+            data.put(name, value);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+            return;
+        }
+        publish(event, data);
+    }
+
+    /*
+     * Create event message (Event data is already JSON.)
+     */
+    private String createMessage(String event, String data) {
+        return "{\"type\":\"event\",\"event\":" + JSONObject.quote(event)
+                + ",\"seq\":" + (++mSequence) + ",\"data\":" + data + "}";
+    }
+}
@@ -0,0 +1,408 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import com.theta360.pluginapplication.webrtc.sample.network.WebRTCLibExtends.ThetaVideoEncoder;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.webrtc.EncodedImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream recorder class
+ * (Tees the H.264 frames already encoded for the WebRTC send path to an MP4 file, without a second encode.
+ *  Frames are copied on the encoder output thread, and written by a writer thread through a bounded queue.
+ *  When the queue is full, frames are dropped until the next key frame, so the file never has a broken GOP.
+ *  When the source changes the resolution or the SPS (e.g. a wider simulcast layer, or the encoder recreated
+ *  at a format change), the file is closed and the recording continues in a new file, "<name>_2.MP4", ...)
+ */
+public class StreamRecorder implements ThetaVideoEncoder.Observer {
+    private static final String TAG = "StreamRecorder";
+
+    private static final String H264_CODEC_NAME = "H264";
+    // Upper limit of the write-behind queue (about 6 seconds of 4K preview)
+    private static final int MAX_QUEUE_BYTES = 32 * 1024 * 1024;
+    private static final long QUEUE_POLL_TIMEOUT_MS = 500;
+    // Silence of the source encoder until another one is followed (e.g. recreated at a format change)
+    private static final long SOURCE_ENCODER_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int NAL_TYPE_SPS = 7;
+    private static final int NAL_TYPE_PPS = 8;
+
+    /**
+     * Interface of notification callback functions for the files of recording
+     * (Called on the writer thread.)
+     */
+    public interface Callback {
+        void onSegmentFinished(String path);
+        void onRecordingFinished(String path, boolean success);
+    }
+
+    /*
+     * Encoded frame copied for the writer thread
+     */
+    private static class Sample {
+        final byte[] data;
+        final long presentationTimeUs;
+        final boolean keyFrame;
+        final int width;
+        final int height;
+
+        Sample(byte[] data, long presentationTimeUs, boolean keyFrame, int width, int height) {
+            this.data = data;
+            this.presentationTimeUs = presentationTimeUs;
+            this.keyFrame = keyFrame;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final String mPath;
+    private final Callback mCallback;
+    private final LinkedBlockingQueue<Sample> mQueue = new LinkedBlockingQueue<Sample>();
+    private final Thread mWriterThread;
+    // Muxer of the current file (Replaced on the writer thread at a format change)
+    private MediaMuxer mMuxer;
+    private volatile String mSegmentPath;
+    private volatile int mSegments = 1;
+    private volatile boolean mStopped = false;
+
+    // Guarded by this (The simulcast layers are encoded on the output threads of their encoders.)
+    private ThetaVideoEncoder mSourceEncoder = null;
+    private int mSourceWidth = 0;
+    private long mLastFrameTimeNs = 0;
+    private long mFirstCaptureTimeNs = -1;
+    private long mLastPresentationTimeUs = -1;
+    private boolean mWaitingKeyFrame = true;
+    private int mSourceChanges = 0;
+
+    // Statistics (Updated on the encoder output thread and the writer thread)
+    private volatile int mQueuedBytes = 0;
+    private volatile long mFramesWritten = 0;
+    private volatile long mBytesWritten = 0;
+    private volatile long mFramesDropped = 0;
+    private volatile long mDurationUs = 0;
+
+    /**
+     * Constructor of stream recorder class. Recording starts at the next key frame.
+     *
+     * @param path Path of the MP4 file
+     * @param callback Implementation object of callback functions
+     * @throws IOException The file can not be created
+     */
+    public StreamRecorder(String path, Callback callback) throws IOException {
+        mPath = path;
+        mSegmentPath = path;
+        mCallback = callback;
+        mMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeSamples();
+            }
+        }, TAG);
+        mWriterThread.start();
+    }
+
+    /**
+     * Return the path of the file being written
+     *
+     * @return Path of the MP4 file
+     */
+    public String getPath() {
+        return mSegmentPath;
+    }
+
+    /**
+     * Stop recording. Frames in the queue are written, and the file is closed on the writer thread.
+     */
+    public void stop() {
+        Log.d(TAG, "stop");
+        mStopped = true;
+    }
+
+    /**
+     * Return the statistics of recording of JSON object format
+     *
+     * @return Statistics of JSON object format
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("recording", !mStopped);
+            json.put("path", mSegmentPath);
+            json.put("segments", mSegments);
+            json.put("durationMs", mDurationUs / 1000);
+            json.put("framesWritten", mFramesWritten);
+            json.put("bytesWritten", mBytesWritten);
+            json.put("framesDropped", mFramesDropped);
+            json.put("queuedBytes", mQueuedBytes);
+            synchronized (this) {
+                json.put("sourceChanges", mSourceChanges);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onEncodedFrame(ThetaVideoEncoder encoder, EncodedImage frame, long encodeTimeNs) {
+        if (mStopped || !H264_CODEC_NAME.equalsIgnoreCase(encoder.getCodecName())) {
+            return;
+        }
+        final boolean keyFrame = (frame.frameType == EncodedImage.FrameType.VideoFrameKey);
+        final long now = System.nanoTime();
+        if (mSourceEncoder != encoder) {
+            // Record the largest simulcast layer, and follow a new encoder when the source went silent
+            // (e.g. recreated at a format change). The switch is made at a key frame, which carries the SPS / PPS.
+            if (!keyFrame || (mSourceEncoder != null && frame.encodedWidth <= mSourceWidth
+                    && now - mLastFrameTimeNs < SOURCE_ENCODER_TIMEOUT_NS)) {
+                return;
+            }
+            if (mSourceEncoder != null) {
+                Log.d(TAG, "Source encoder changed: " + mSourceWidth + " -> " + frame.encodedWidth);
+                mSourceChanges++;
+            }
+            mSourceEncoder = encoder;
+            mSourceWidth = frame.encodedWidth;
+        }
+        mLastFrameTimeNs = now;
+
+        if (mWaitingKeyFrame && !keyFrame) {
+            mFramesDropped++;
+            return;
+        }
+        final int size = frame.buffer.remaining();
+        if (mQueuedBytes + size > MAX_QUEUE_BYTES) {
+            // The storage can not keep up. Drop frames until the next key frame.
+            Log.w(TAG, "Queue full. Drop frames until the next key frame.");
+            mWaitingKeyFrame = true;
+            mFramesDropped++;
+            return;
+        }
+        mWaitingKeyFrame = false;
+
+        // The buffer is released after this callback, so it is copied.
+        byte[] data = new byte[size];
+        frame.buffer.duplicate().get(data);
+        if (mFirstCaptureTimeNs < 0) {
+            mFirstCaptureTimeNs = frame.captureTimeNs;
+        }
+        long presentationTimeUs = TimeUnit.NANOSECONDS.toMicros(frame.captureTimeNs - mFirstCaptureTimeNs);
+        // The new source may have sent the same capture already written from the previous one
+        presentationTimeUs = Math.max(presentationTimeUs, mLastPresentationTimeUs + 1);
+        mLastPresentationTimeUs = presentationTimeUs;
+        mQueuedBytes += size;
+        mQueue.offer(new Sample(data, presentationTimeUs, keyFrame, frame.encodedWidth, frame.encodedHeight));
+    }
+
+    /*
+     * Write the queued samples to the file (Writer thread)
+     */
+    private void writeSamples() {
+        MediaFormat trackFormat = null;
+        int trackIndex = -1;
+        long segmentStartUs = 0;
+        boolean success = false;
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        try {
+            while (!mStopped || !mQueue.isEmpty()) {
+                Sample sample = mQueue.poll(QUEUE_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (sample == null) {
+                    continue;
+                }
+                synchronized (this) {
+                    mQueuedBytes -= sample.data.length;
+                }
+                if (sample.keyFrame) {
+                    // A key frame carries SPS and PPS. The track format is fixed by the first one,
+                    // so a key frame of another format starts a new file.
+                    MediaFormat format = createFormat(sample.data, sample.data.length, sample.width, sample.height);
+                    if (format == null) {
+                        Log.w(TAG, "No SPS / PPS in the key frame");
+                        if (trackIndex < 0 || !isSameSize(trackFormat, sample)) {
+                            synchronized (this) {
+                                mFramesDropped++;
+                            }
+                            continue;
+                        }
+                    } else if (trackIndex < 0 || !isSameFormat(trackFormat, format)) {
+                        if (trackIndex >= 0) {
+                            trackIndex = -1;
+                            startNextSegment();
+                        }
+                        trackFormat = format;
+                        trackIndex = mMuxer.addTrack(format);
+                        mMuxer.start();
+                        segmentStartUs = sample.presentationTimeUs;
+                    }
+                } else if (trackIndex < 0 || !isSameSize(trackFormat, sample)) {
+                    // Not decodable with the SPS of the track
+                    synchronized (this) {
+                        mFramesDropped++;
+                    }
+                    continue;
+                }
+                info.set(0, sample.data.length, sample.presentationTimeUs - segmentStartUs,
+                        sample.keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+                mMuxer.writeSampleData(trackIndex, ByteBuffer.wrap(sample.data), info);
+                mFramesWritten++;
+                mBytesWritten += sample.data.length;
+                mDurationUs = sample.presentationTimeUs;
+            }
+            success = (trackIndex >= 0);
+        } catch (IllegalStateException | IllegalArgumentException | IOException e) {
+            Log.e(TAG, "Recording error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mStopped = true;
+            mQueue.clear();
+            if (mMuxer != null) {
+                try {
+                    if (trackIndex >= 0) {
+                        mMuxer.stop();
+                    }
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "Muxer stop error");
+                    success = false;
+                }
+                mMuxer.release();
+            }
+        }
+        final String path = mSegmentPath;
+        if (!success) {
+            // No playable file (e.g. stopped before the first key frame)
+            new File(path).delete();
+        }
+        Log.d(TAG, "Recording finished: " + path + " " + mFramesWritten + " frames");
+        mCallback.onRecordingFinished(path, success);
+    }
+
+    /*
+     * Close the current file, and open the next one (Writer thread)
+     */
+    private void startNextSegment() throws IOException {
+        final String path = mSegmentPath;
+        MediaMuxer muxer = mMuxer;
+        mMuxer = null;
+        try {
+            muxer.stop();
+        } finally {
+            muxer.release();
+        }
+        Log.d(TAG, "Segment finished: " + path);
+        mCallback.onSegmentFinished(path);
+
+        mSegments++;
+        mSegmentPath = createSegmentPath(mPath, mSegments);
+        mMuxer = new MediaMuxer(mSegmentPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    /*
+     * Return the path of the segment ("<name>_<segment>.<extension>")
+     */
+    private static String createSegmentPath(String path, int segment) {
+        int dot = path.lastIndexOf('.');
+        if (dot <= path.lastIndexOf(File.separatorChar)) {
+            return path + "_" + segment;
+        }
+        return path.substring(0, dot) + "_" + segment + path.substring(dot);
+    }
+
+    /*
+     * Return whether the sample has the resolution of the track
+     */
+    private static boolean isSameSize(MediaFormat format, Sample sample) {
+        return sample.width == format.getInteger(MediaFormat.KEY_WIDTH)
+                && sample.height == format.getInteger(MediaFormat.KEY_HEIGHT);
+    }
+
+    /*
+     * Return whether the frames of both formats can be written to the same track
+     */
+    private static boolean isSameFormat(MediaFormat format1, MediaFormat format2) {
+        return format1.getInteger(MediaFormat.KEY_WIDTH) == format2.getInteger(MediaFormat.KEY_WIDTH)
+                && format1.getInteger(MediaFormat.KEY_HEIGHT) == format2.getInteger(MediaFormat.KEY_HEIGHT)
+                && format1.getByteBuffer("csd-0").equals(format2.getByteBuffer("csd-0"))
+                && format1.getByteBuffer("csd-1").equals(format2.getByteBuffer("csd-1"));
+    }
+
+    /*
+     * Create the track format from SPS and PPS of the key frame (Annex B byte stream)
+     * (null: no SPS / PPS)
+     */
+    static MediaFormat createFormat(byte[] data, int length, int width, int height) {
+        ByteBuffer sps = null;
+        ByteBuffer pps = null;
+        int start = findStartCode(data, 0, length);
+        while (start >= 0) {
+            int next = findStartCode(data, start + 3, length);
+            int end = (next < 0) ? length : next;
+            int type = data[start + 3] & 0x1f;
+            if (type == NAL_TYPE_SPS || type == NAL_TYPE_PPS) {
+                // csd-0 / csd-1 include the start code
+                ByteBuffer nal = ByteBuffer.allocate(end - start + 1);
+                nal.put((byte)0).put(data, start, end - start);
+                nal.flip();
+                if (type == NAL_TYPE_SPS) {
+                    sps = nal;
+                } else {
+                    pps = nal;
+                }
+            }
+            start = next;
+        }
+        if (sps == null || pps == null) {
+            return null;
+        }
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
+        format.setByteBuffer("csd-0", sps);
+        format.setByteBuffer("csd-1", pps);
+        return format;
+    }
+
+    /*
+     * Return the index of the next 3 byte start code (0x000001), or -1
+     * (A 4 byte start code is found as a 3 byte one after a zero byte. The zero byte is left
+     *  at the end of the previous NAL unit, which is allowed as trailing zero.)
+     */
+    private static int findStartCode(byte[] data, int from, int length) {
+        for (int i = from; i + 3 < length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -24,12 +24,21 @@ import android.os.Handler;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.theta360.pluginapplication.webrtc.sample.model.AudioOptions;
+import com.theta360.pluginapplication.webrtc.sample.model.VideoEncoderPolicy;
+import com.theta360.pluginapplication.webrtc.sample.model.VideoSenderOptions;
 import com.theta360.pluginapplication.webrtc.sample.network.WebRTCLibExtends.*;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.webrtc.*;
+import org.webrtc.voiceengine.WebRtcAudioUtils;
 
+import java.lang.reflect.Field;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * WerRTC class
@@ -41,9 +50,12 @@ public class WebRTC implements PeerConnection.Observer {
      * Interface of notification callback function from WebRTC library
      */
     public static interface WebRTCCallbacks {
+        String onModifyLocalSdp(String sdp);
         void onCreateLocalSdp(String sdp);
         void onStartCapture(Camera thetaCamera);
         void didReceiveRemoteStream();
+        void onControlCommand(ResponseSender sender, JSONObject command, long receivedTimeNs);
+        void onIceConnectionChange(PeerConnection.IceConnectionState state);
     }
 
     /*
@@ -64,34 +76,72 @@ public class WebRTC implements PeerConnection.Observer {
     }
 
     private static final long WAITING_TIME_MS = 2000;
-    private Handler mHandler;
+    private volatile Handler mHandler;
+    private volatile Runnable mSendSdp = null;     // Pending send of the local SDP (Cancelled at disconnection)
 
     private static final int BASE_CAPTURE_WIDTH = 1920;
     private static final int BASE_CAPTURE_FPS = 30;
     private int mCaptureWidth;
     private int mCaptureHight;
     private int mCaptureFps;
+    // Format selected by the capturer from the supported formats, closest to the requested one
+    private volatile CameraEnumerationAndroid.CaptureFormat mSelectedFormat;
     private String mStunUri = "stun:192.168.1.1:8888";
 
+    // Field trial to balance resolution and framerate on degradation
+    private static final String FIELD_TRIAL_BALANCED_DEGRADATION = "WebRTC-Video-BalancedDegradation/Enabled/";
+
     private final Activity mActivity;
     private WebRTCCallbacks mCallbacks;
+    private EglBase mEglBase;
+    private VideoEncoderPolicy mEncoderPolicy = new VideoEncoderPolicy();
+    private VideoSenderOptions mVideoSenderOptions = new VideoSenderOptions();
+    private AudioOptions mAudioOptions = new AudioOptions();
     private PeerConnectionFactory mFactory;
     private PeerConnection mPeerConnection;
     private MediaStream mLocalStream;
+    private VideoTrack mLocalVideoTrack;
     private VideoCapturer mVideoCapturer;
+    private RtpStatsMonitor mRtpStatsMonitor;
+    private volatile ThetaVideoEncoderFactory mEncoderFactory;
+    private KeyFrameController mKeyFrameController;
+    private boolean mAutoQuality = false;
+    private BandwidthProbe mBandwidthProbe;
+    private int mMaxBitrateKbps = 0;
+    private SessionTrace mSessionTrace;
+    private ControlChannel mControlChannel;
+    private StatusEventPublisher mEventPublisher;
+    private final List<ThetaVideoEncoder.Observer> mEncodedFrameObservers = new CopyOnWriteArrayList<ThetaVideoEncoder.Observer>();
+
+    /**
+     * Observer of the encoded frames, which dispatches the frames to the added observers
+     * (Called on the encoder output thread.)
+     */
+    private final ThetaVideoEncoder.Observer mEncodedFrameDispatcher = new ThetaVideoEncoder.Observer() {
+        @Override
+        public void onEncodedFrame(ThetaVideoEncoder encoder, EncodedImage frame, long encodeTimeNs) {
+            for (ThetaVideoEncoder.Observer observer : mEncodedFrameObservers) {
+                observer.onEncodedFrame(encoder, frame, encodeTimeNs);
+            }
+        }
+    };
 
     /**
      * Event handler for camera event from WebRTC library
      */
-    private final CameraVideoCapturer.CameraEventsHandler mCameraEventHandler = new CameraVideoCapturer.CameraEventsHandler() {
+    private final ThetaCapturer.ThetaCameraEventsHandler mCameraEventHandler = new ThetaCapturer.ThetaCameraEventsHandler() {
         public void onCameraError(String errorDescription) {}
         public void onCameraDisconnected() {}
         public void onCameraFreezed(String errorDescription) {}
         public void onCameraOpening(String cameraName) {}
         public void onCameraOpened(Camera camera) {
-            // Don't use
+            traceEvent(SessionTrace.Event.CAMERA_OPENED);
+            mSelectedFormat = ((ThetaCapturer)mVideoCapturer).getThetaCaptureFormat();
+            Log.d(TAG, "Capture format: requested " + mCaptureWidth + "x" + mCaptureHight + "@" + mCaptureFps
+                    + ", selected " + mSelectedFormat);
         }
         public void onFirstFrameAvailable() {
+            traceEvent(SessionTrace.Event.FIRST_FRAME);
             if (mCallbacks != null) {
                 mCallbacks.onStartCapture(((ThetaCapturer)mVideoCapturer).getThetaCamera());
             }
@@ -114,28 +164,62 @@ public class WebRTC implements PeerConnection.Observer {
      * @param callbacks Implementation object of callback functions
      */
     public void connect(WebRTCCallbacks callbacks) {
-        EglBase eglBase = EglBase.create();
+        mEglBase = EglBase.create();
 
         this.mCallbacks = callbacks;
 
-        setupPeerConnection(eglBase);
-        setupLocalStream(eglBase);
+        setupPeerConnection(mEglBase);
+        setupLocalStream(mEglBase);
 
         mPeerConnection.addStream(mLocalStream);
+        applyDegradationPreference();
+        mControlChannel = ControlChannel.create(mPeerConnection, new ControlChannel.Callback() {
+            @Override
+            public void onCommand(ResponseSender sender, JSONObject command, long receivedTimeNs) {
+                WebRTCCallbacks callbacks = mCallbacks;
+                if (callbacks != null) {
+                    callbacks.onControlCommand(sender, command, receivedTimeNs);
+                }
+            }
+        }, mEventPublisher);
         mHandler = new Handler();
+
+        mRtpStatsMonitor = new RtpStatsMonitor(mPeerConnection);
+        mRtpStatsMonitor.setSessionTrace(mSessionTrace);
+        mRtpStatsMonitor.setEventPublisher(mEventPublisher);
+        mRtpStatsMonitor.start();
     }
 
     /**
      * Dispose local stream and peer connection
      */
     public void disconnect() {
+        if (mBandwidthProbe != null) {
+            mBandwidthProbe.stop();
+            mBandwidthProbe = null;
+        }
+        mMaxBitrateKbps = 0;
+        mRtpStatsMonitor.stop();
+        mRtpStatsMonitor = null;
+        Runnable sendSdp = mSendSdp;
+        mSendSdp = null;
+        if (sendSdp != null) {
+            mHandler.removeCallbacks(sendSdp);
+        }
         mHandler = null;
+        if (mControlChannel != null) {
+            mControlChannel.close();
+            mControlChannel = null;
+        }
         mPeerConnection.removeStream(mLocalStream);
         disposeLocalStream();
         mPeerConnection.dispose();
         mPeerConnection = null;
         mFactory.dispose();
         mFactory = null;
+        mEncoderFactory = null;
+        mEglBase.release();
+        mEglBase = null;
         this.mCallbacks = null;
     }
 
@@ -160,6 +244,26 @@ public class WebRTC implements PeerConnection.Observer {
         _createOffer();
     }
 
+    /**
+     * Create offer SDP with new ICE credentials, to restart ICE on the running session.
+     * (The capture and the media stream keep running.)
+     */
+    public void restartIce() {
+        if (mPeerConnection == null) {
+            return;
+        }
+        mPeerConnection.createOffer(new SkeletalSdpObserver() {
+            @Override
+            public void onCreateSuccess(SessionDescription sessionDescription) {
+                setLocalDescription(sessionDescription);
+            }
+            @Override
+            public void onCreateFailure(String s) {
+                Log.e(TAG, "Create offer for ICE restart failure: " + s);
+            }
+        }, WebRTCUtil.iceRestartConstraints());
+    }
+
     /**
      * Store the received offer SDP, and create answer SDP.
      *
@@ -178,15 +282,261 @@ public class WebRTC implements PeerConnection.Observer {
         _receiveAnswer(sdp);
     }
 
+    /**
+     * Add the ICE candidate sent by the remote peer (Trickle ICE).
+     *
+     * @param candidate ICE candidate
+     */
+    public void addRemoteIceCandidate(IceCandidate candidate) {
+        if (mPeerConnection != null && !mPeerConnection.addIceCandidate(candidate)) {
+            Log.w(TAG, "Add remote ICE candidate error: " + candidate.sdp);
+        }
+    }
+
     /**
      * Set the frame size of the video.
      *
      * @param size Video size (1: 2K, 2; 4K)
      */
     public void setFrameSize(int size) {
-        mCaptureWidth = BASE_CAPTURE_WIDTH * size;
-        mCaptureHight = mCaptureWidth / 2;
-        mCaptureFps = BASE_CAPTURE_FPS;
+        setCaptureFormat(BASE_CAPTURE_WIDTH * size, BASE_CAPTURE_WIDTH * size / 2, BASE_CAPTURE_FPS);
+    }
+
+    /**
+     * Set the capture format of the video.
+     * The closest format of getSupportedFormats() is selected when the capture starts.
+     *
+     * @param width Width
+     * @param height Height
+     * @param fps Framerate
+     */
+    public void setCaptureFormat(int width, int height, int fps) {
+        mCaptureWidth = width;
+        mCaptureHight = height;
+        mCaptureFps = fps;
+    }
+
+    /**
+     * Change the capture format of the running capture.
+     *
+     * @param width Width
+     * @param height Height
+     * @param fps Framerate
+     */
+    public void changeCaptureFormat(int width, int height, int fps) {
+        setCaptureFormat(width, height, fps);
+        if (mVideoCapturer != null) {
+            mVideoCapturer.changeCaptureFormat(mCaptureWidth, mCaptureHight, mCaptureFps);
+        }
+    }
+
+    /**
+     * Return the capture formats supported by the camera of JSON array format.
+     * (Known after the camera has been opened once.)
+     *
+     * @return Supported formats of JSON array format ([{"width": 1920, "height": 960, "fps": 30}, ...])
+     */
+    public JSONArray getSupportedFormats() {
+        JSONArray formats = new JSONArray();
+        for (CameraEnumerationAndroid.CaptureFormat format : ThetaEnumerator.getCachedSupportedFormats()) {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("width", format.width);
+                json.put("height", format.height);
+                json.put("fps", format.framerate.max / 1000);
+            } catch (JSONException e) {
+                Log.e(TAG, "JSON exception");
+            }
+            formats.put(json);
+        }
+        return formats;
+    }
+
+    /**
+     * Enable the automatic quality selection.
+     * The capture starts with the current frame size, and the frame size, framerate and bitrate ceiling
+     * are selected by the bandwidth probe after ICE connects.
+     *
+     * @param enabled true: select automatically, false: keep the frame size set by setFrameSize()
+     */
+    public void setAutoQuality(boolean enabled) {
+        mAutoQuality = enabled;
+    }
+
+    /**
+     * Set the video encoder policy.
+     * (Applied from the next connect.)
+     *
+     * @param policy Video encoder policy
+     */
+    public void setVideoEncoderPolicy(VideoEncoderPolicy policy) {
+        mEncoderPolicy = policy;
+    }
+
+    /**
+     * Set the degradation preference and content hint of the video sender.
+     * The degradation preference is applied to the running session through RtpSender parameters
+     * if the linked libwebrtc supports it, otherwise from the next connect.
+     *
+     * @param options Video sender options
+     */
+    public void setVideoSenderOptions(VideoSenderOptions options) {
+        mVideoSenderOptions = options;
+        if (mPeerConnection != null) {
+            applyDegradationPreference();
+        }
+    }
+
+    /**
+     * Set the audio options.
+     * (Applied from the next connect. Opus parameters are applied to SDP by the caller.)
+     *
+     * @param options Audio options
+     */
+    public void setAudioOptions(AudioOptions options) {
+        mAudioOptions = options;
+    }
+
+    /**
+     * Encode the captured stream under each policy, and report fps, bitrate, QP and encode time.
+     * (Capture must be started.)
+     *
+     * @param policies Encoder policies to measure
+     * @param framesPerPolicy Number of frames to encode with each policy
+     * @param bitrateKbps Target bitrate (Kbits/sec)
+     * @param callback Implementation object of callback functions
+     * @return true: started, false: not capturing
+     */
+    public boolean runEncoderBenchmark(List<VideoEncoderPolicy> policies, int framesPerPolicy, int bitrateKbps,
+                                       EncoderBenchmark.Callback callback) {
+        if (mEglBase == null || mLocalVideoTrack == null) {
+            return false;
+        }
+        CameraEnumerationAndroid.CaptureFormat format = mSelectedFormat;
+        EncoderBenchmark benchmark = (format != null)
+                ? new EncoderBenchmark(mEglBase.getEglBaseContext(), policies, framesPerPolicy,
+                        format.width, format.height, bitrateKbps, format.framerate.max / 1000, callback)
+                : new EncoderBenchmark(mEglBase.getEglBaseContext(), policies, framesPerPolicy,
+                        mCaptureWidth, mCaptureHight, bitrateKbps, mCaptureFps, callback);
+        benchmark.start(mLocalVideoTrack);
+        return true;
+    }
+
+    /**
+     * Return the latest RTP statistics, including the bitrate of each simulcast layer.
+     *
+     * @return Statistics of JSON object format (null: not connected)
+     */
+    @Nullable
+    public JSONObject getStreamStats() {
+        if (mRtpStatsMonitor == null) {
+            return null;
+        }
+        JSONObject json = mRtpStatsMonitor.getStatsJSON();
+        try {
+            JSONObject keyFrames = mKeyFrameController.toJSON();
+            keyFrames.put("maxKeyFrameIntervalSec", mEncoderPolicy.getKeyFrameIntervalSec());
+            // Key frames are controlled only for the encoders implemented in Java
+            keyFrames.put("controlled", isEncodedFrameObservable());
+            json.put("keyFrames", keyFrames);
+
+            JSONObject quality = new JSONObject();
+            quality.put("auto", mAutoQuality);
+            // The format actually captured, which may differ from the requested one
+            CameraEnumerationAndroid.CaptureFormat format = mSelectedFormat;
+            if (format != null) {
+                quality.put("width", format.width);
+                quality.put("height", format.height);
+                quality.put("fps", format.framerate.max / 1000);
+            } else {
+                quality.put("width", mCaptureWidth);
+                quality.put("height", mCaptureHight);
+                quality.put("fps", mCaptureFps);
+            }
+            JSONObject requested = new JSONObject();
+            requested.put("width", mCaptureWidth);
+            requested.put("height", mCaptureHight);
+            requested.put("fps", mCaptureFps);
+            quality.put("requested", requested);
+            quality.put("maxBitrateKbps", mMaxBitrateKbps);
+            BandwidthProbe bandwidthProbe = mBandwidthProbe;
+            if (bandwidthProbe != null) {
+                quality.put("probe", bandwidthProbe.toJSON());
+            }
+            json.put("quality", quality);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    /**
+     * Request a key frame from the encoders.
+     * (Rate limited by the minimum key frame interval of the encoder policy.)
+     */
+    public void requestKeyFrame() {
+        if (mKeyFrameController != null) {
+            mKeyFrameController.requestKeyFrame();
+        }
+    }
+
+    /**
+     * Record the time from the attach to the first decoded frame, reported by the viewer.
+     *
+     * @param elapsedMs Time (milliseconds)
+     */
+    public void setViewerFirstFrameDecoded(long elapsedMs) {
+        if (mKeyFrameController != null) {
+            mKeyFrameController.setAttachToFirstDecodedFrameMs(elapsedMs);
+        }
+    }
+
+    /**
+     * Return whether the encoded frames can be observed, without a second encode.
+     * (Only the encoders implemented in Java are observed.)
+     *
+     * @return true: available
+     */
+    public boolean isEncodedFrameObservable() {
+        ThetaVideoEncoderFactory encoderFactory = mEncoderFactory;
+        return encoderFactory != null && encoderFactory.isEncoderWrapped();
+    }
+
+    /**
+     * Add an observer of the encoded frames of the video track.
+     * (The frame buffer is valid only during the callback on the encoder output thread.)
+     *
+     * @param observer Observer of the encoded frames
+     */
+    public void addEncodedFrameObserver(ThetaVideoEncoder.Observer observer) {
+        mEncodedFrameObservers.add(observer);
+    }
+
+    /**
+     * Remove an observer of the encoded frames
+     *
+     * @param observer Observer of the encoded frames
+     */
+    public void removeEncodedFrameObserver(ThetaVideoEncoder.Observer observer) {
+        mEncodedFrameObservers.remove(observer);
+    }
+
+    /**
+     * Set the session trace to record the events of the peer connection and the camera.
+     *
+     * @param sessionTrace Session trace (null: not traced)
+     */
+    public void setSessionTrace(@Nullable SessionTrace sessionTrace) {
+        mSessionTrace = sessionTrace;
+    }
+
+    /**
+     * Set the publisher of status events, which are pushed on the control channel and include the stream health.
+     *
+     * @param eventPublisher Publisher of status events (null: events are not supported)
+     */
+    public void setEventPublisher(@Nullable StatusEventPublisher eventPublisher) {
+        mEventPublisher = eventPublisher;
     }
 
     /**
@@ -205,19 +555,31 @@ public class WebRTC implements PeerConnection.Observer {
     private void setupPeerConnection(EglBase eglBase) {
         // initialize Factory
         String fieldTraials = "";
+        if (mVideoSenderOptions.getDegradationPreference() == VideoSenderOptions.DegradationPreference.BALANCED) {
+            fieldTraials += FIELD_TRIAL_BALANCED_DEGRADATION;
+        }
         PeerConnectionFactory.initialize(PeerConnectionFactory.InitializationOptions.builder(this.mActivity.getApplicationContext())
                 .setFieldTrials(fieldTraials)
                 .setEnableInternalTracer(true)
                 .createInitializationOptions()
         );
 
+        // Platform audio effects are used only if the processing is requested
+        WebRtcAudioUtils.setWebRtcBasedAcousticEchoCanceler(!mAudioOptions.isEchoCancellation());
+        WebRtcAudioUtils.setWebRtcBasedNoiseSuppressor(!mAudioOptions.isNoiseSuppression());
+
         // create Factory
         PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
-        VideoEncoderFactory encoderFactory = new DefaultVideoEncoderFactory(
+        ThetaVideoEncoderFactory encoderFactory = new ThetaVideoEncoderFactory(
                 eglBase.getEglBaseContext(),
-                false,
-                false
+                mEncoderPolicy
         );
+        mEncoderFactory = encoderFactory;
+        mKeyFrameController = new KeyFrameController(mEncoderPolicy.getMinKeyFrameIntervalMs());
+        encoderFactory.setKeyFrameController(mKeyFrameController);
+        encoderFactory.setEncoderObserver(mEncodedFrameDispatcher);
+        encoderFactory.setScalingEnabled(mVideoSenderOptions.getDegradationPreference()
+                != VideoSenderOptions.DegradationPreference.MAINTAIN_RESOLUTION);
         mFactory = PeerConnectionFactory.builder()
                 .setOptions(options)
                 .setVideoEncoderFactory(encoderFactory)
@@ -235,7 +597,7 @@ public class WebRTC implements PeerConnection.Observer {
         mPeerConnection.createOffer(new SkeletalSdpObserver() {
             @Override
             public void onCreateSuccess(SessionDescription sessionDescription) {
-                mPeerConnection.setLocalDescription(new SkeletalSdpObserver() {}, sessionDescription);
+                setLocalDescription(sessionDescription);
             }
         }, WebRTCUtil.offerConnectionConstraints());
     }
@@ -249,12 +611,13 @@ public class WebRTC implements PeerConnection.Observer {
         mPeerConnection.setRemoteDescription(new SkeletalSdpObserver() {
             @Override
             public void onSetSuccess() {
+                traceEvent(SessionTrace.Event.REMOTE_SDP_APPLIED);
 
                 // createAnswer
                 mPeerConnection.createAnswer(new SkeletalSdpObserver() {
                     @Override
                     public void onCreateSuccess(SessionDescription sessionDescription) {
-                        mPeerConnection.setLocalDescription(new SkeletalSdpObserver() {}, sessionDescription);
+                        setLocalDescription(sessionDescription);
                     }
                 }, WebRTCUtil.answerConnectionConstraints());
 
@@ -262,6 +625,30 @@ public class WebRTC implements PeerConnection.Observer {
         }, remoteDescription);
     }
 
+    /*
+     * Modify the created SDP (e.g. simulcast), and set it as local description
+     */
+    private void setLocalDescription(SessionDescription sessionDescription) {
+        traceEvent(SessionTrace.Event.LOCAL_SDP_CREATED);
+        String description = sessionDescription.description;
+        if (mCallbacks != null) {
+            description = mCallbacks.onModifyLocalSdp(description);
+        }
+        final SessionDescription localDescription = new SessionDescription(sessionDescription.type, description);
+        mPeerConnection.setLocalDescription(new SkeletalSdpObserver() {
+            @Override
+            public void onSetSuccess() {
+                if (mRtpStatsMonitor != null) {
+                    mRtpStatsMonitor.setLocalDescription(localDescription.description);
+                }
+            }
+            @Override
+            public void onSetFailure(String s) {
+                Log.e(TAG, "Set Local Description Failure: " + s);
+            }
+        }, localDescription);
+    }
+
     /*
      * Store the received answer SDP.
      */
@@ -271,10 +658,56 @@ public class WebRTC implements PeerConnection.Observer {
             @Override
             public void onSetSuccess() {
                 Log.i(TAG, "Set Remote Description Success.");
+                traceEvent(SessionTrace.Event.REMOTE_SDP_APPLIED);
             }
         }, remoteDescription);
     }
 
+    /*
+     * Start the bandwidth probe, once in a connection (Called on the main thread)
+     */
+    private void startBandwidthProbe() {
+        if (mPeerConnection == null || mBandwidthProbe != null) {
+            return;
+        }
+        mBandwidthProbe = new BandwidthProbe(ThetaEnumerator.getCachedSupportedFormats(), new BandwidthProbe.Callback() {
+            @Override
+            public long getAvailableBitrateKbps() {
+                return (mRtpStatsMonitor == null) ? 0 : mRtpStatsMonitor.getAvailableOutgoingBitrateKbps();
+            }
+
+            @Override
+            public void onProbeFinished(BandwidthProbe.Level level, long estimatedKbps) {
+                if (mPeerConnection == null) {
+                    return;
+                }
+                if (level.getWidth() != mCaptureWidth || level.getHeight() != mCaptureHight || level.getFps() != mCaptureFps) {
+                    changeCaptureFormat(level.getWidth(), level.getHeight(), level.getFps());
+                }
+                setMaxBitrate(level.getMaxBitrateKbps());
+            }
+        });
+        mBandwidthProbe.start();
+    }
+
+    /*
+     * Set the bitrate ceiling of the video sender
+     */
+    private void setMaxBitrate(int maxBitrateKbps) {
+        mMaxBitrateKbps = maxBitrateKbps;
+        for (RtpSender sender : mPeerConnection.getSenders()) {
+            MediaStreamTrack track = sender.track();
+            if (track == null || !"video".equals(track.kind())) {
+                continue;
+            }
+            RtpParameters parameters = sender.getParameters();
+            for (RtpParameters.Encoding encoding : parameters.encodings) {
+                encoding.maxBitrateBps = maxBitrateKbps * 1000;
+            }
+            Log.d(TAG, "Set max bitrate: " + maxBitrateKbps + "kbps result=" + sender.setParameters(parameters));
+        }
+    }
+
     /*
      * Setup local video and audio stream
      */
@@ -284,23 +717,65 @@ public class WebRTC implements PeerConnection.Observer {
         mVideoCapturer = createCameraCapturer(new ThetaEnumerator(true));
         if (mVideoCapturer != null) {
             // videoTrack
-            VideoSource localVideoSource = mFactory.createVideoSource(mVideoCapturer.isScreencast());
+            // libwebrtc keeps the resolution of screencast source (Content hint "detail" / "text")
+            VideoSource localVideoSource = mFactory.createVideoSource(mVideoSenderOptions.isScreencast());
             SurfaceTextureHelper surfaceTextureHelper = SurfaceTextureHelper.create("VideoCapturerThread", eglBase.getEglBaseContext());
             mVideoCapturer.initialize(surfaceTextureHelper, this.mActivity.getApplicationContext(), localVideoSource.getCapturerObserver());
             VideoTrack localVideoTrack = mFactory.createVideoTrack("android_local_videotrack", localVideoSource);
+            mLocalVideoTrack = localVideoTrack;
             if (!mLocalStream.addTrack(localVideoTrack)) {
                 Log.e(TAG, "Add video track to stream error");
             }
 
-            // audioTrack
-            AudioSource localAudioSource = mFactory.createAudioSource(WebRTCUtil.mediaStreamConstraints());
-            AudioTrack localAudioTrack = mFactory.createAudioTrack("android_local_audiotrack", localAudioSource);
-            if (!mLocalStream.addTrack(localAudioTrack)) {
-                Log.e(TAG, "Add audio track to stream error");
+            // audioTrack (Not created in audio-off mode, so that no audio is captured nor encoded)
+            if (mAudioOptions.isEnabled()) {
+                AudioSource localAudioSource = mFactory.createAudioSource(WebRTCUtil.mediaStreamConstraints(mAudioOptions));
+                AudioTrack localAudioTrack = mFactory.createAudioTrack("android_local_audiotrack", localAudioSource);
+                if (!mLocalStream.addTrack(localAudioTrack)) {
+                    Log.e(TAG, "Add audio track to stream error");
+                }
             }
         }
     }
 
+    /*
+     * Set degradation preference to the parameters of video RtpSender (without renegotiation)
+     */
+    private void applyDegradationPreference() {
+        final String preference = mVideoSenderOptions.getDegradationPreference().name();
+        for (RtpSender sender : mPeerConnection.getSenders()) {
+            MediaStreamTrack track = sender.track();
+            if (track == null || !"video".equals(track.kind())) {
+                continue;
+            }
+
+            RtpParameters parameters = sender.getParameters();
+            try {
+                // RtpParameters.degradationPreference is not available in every libwebrtc version
+                Field field = RtpParameters.class.getField("degradationPreference");
+                for (Object value : field.getType().getEnumConstants()) {
+                    if (((Enum<?>)value).name().equals(preference)) {
+                        field.set(parameters, value);
+                        Log.d(TAG, "Set degradation preference: " + preference + " result=" + sender.setParameters(parameters));
+                        return;
+                    }
+                }
+            } catch (NoSuchFieldException | IllegalAccessException | NullPointerException e) {
+                Log.d(TAG, "RtpParameters has no degradation preference. Applied by video source and encoder.");
+            }
+        }
+    }
+
+    /*
+     * Record the event to the session trace
+     */
+    private void traceEvent(SessionTrace.Event event) {
+        SessionTrace sessionTrace = mSessionTrace;
+        if (sessionTrace != null) {
+            sessionTrace.mark(event);
+        }
+    }
+
     /*
      * Dispose local stream
      */
@@ -309,6 +784,8 @@ public class WebRTC implements PeerConnection.Observer {
             mVideoCapturer.dispose();
             mLocalStream.dispose();
         }
+        mLocalVideoTrack = null;
+        mSelectedFormat = null;
     }
 
     /*
@@ -357,7 +834,30 @@ public class WebRTC implements PeerConnection.Observer {
      * {@inheritDoc}
      */
     @Override
-    public void onIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {}
+    public void onIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {
+        Log.i(TAG, "onIceConnectionChange->" + iceConnectionState);
+        if (iceConnectionState == PeerConnection.IceConnectionState.CONNECTED) {
+            traceEvent(SessionTrace.Event.ICE_CONNECTED);
+            // The viewer (re)attached. Send a key frame at once, instead of waiting for the next periodic one.
+            KeyFrameController keyFrameController = mKeyFrameController;
+            if (keyFrameController != null) {
+                keyFrameController.onViewerAttached();
+            }
+            Handler handler = mHandler;
+            if (mAutoQuality && handler != null) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startBandwidthProbe();
+                    }
+                });
+            }
+        }
+        WebRTCCallbacks callbacks = mCallbacks;
+        if (callbacks != null) {
+            callbacks.onIceConnectionChange(iceConnectionState);
+        }
+    }
     /**
      * {@inheritDoc}
      */
@@ -372,7 +872,10 @@ public class WebRTC implements PeerConnection.Observer {
      * {@inheritDoc}
      */
     @Override
-    public void onDataChannel(DataChannel dataChannel) {}
+    public void onDataChannel(DataChannel dataChannel) {
+        // The control channel is negotiated out of band, and is not notified here.
+        Log.w(TAG, "Data channel from remote is not supported: " + dataChannel.label());
+    }
     /**
      * {@inheritDoc}
      */
@@ -403,17 +906,32 @@ public class WebRTC implements PeerConnection.Observer {
         Log.i(TAG, "onIceGatheringChange->" + iceGatheringState);
 
         // Since it takes time to wait until COMPLETE, SDP transmission processing is performed after specified seconds from the start of ICE collection.
-        if (iceGatheringState == PeerConnection.IceGatheringState.GATHERING) {
+        Handler handler = mHandler;
+        if (iceGatheringState == PeerConnection.IceGatheringState.GATHERING && handler != null) {
+            // Sent only for the peer connection which started gathering (It may be disposed or rebuilt within the wait.)
+            final PeerConnection peerConnection = mPeerConnection;
             final Runnable sendSDP = new Runnable() {
                 public void run() {
                     Log.d(TAG, "Passed " + (WAITING_TIME_MS / 1000) + " sec");
-                    SessionDescription localSdp = mPeerConnection.getLocalDescription();
-                    if (mCallbacks != null) {
-                        mCallbacks.onCreateLocalSdp(localSdp.description);
+                    if (mSendSdp == this) {
+                        mSendSdp = null;
+                    }
+                    if (peerConnection == null || peerConnection != mPeerConnection) {
+                        return;
+                    }
+                    SessionDescription localSdp = peerConnection.getLocalDescription();
+                    WebRTCCallbacks callbacks = mCallbacks;
+                    if (localSdp != null && callbacks != null) {
+                        callbacks.onCreateLocalSdp(localSdp.description);
                     }
                 }
             };
-            mHandler.postDelayed(sendSDP, WAITING_TIME_MS);
+            Runnable previous = mSendSdp;
+            if (previous != null) {
+                handler.removeCallbacks(previous);
+            }
+            mSendSdp = sendSDP;
+            handler.postDelayed(sendSDP, WAITING_TIME_MS);
         }
     }
     /**
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network.WebRTCLibExtends;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.Logging;
+
+/**
+ * Key frame controller shared by the encoders of a peer connection.
+ * It requests a key frame on demand (e.g. when a viewer attaches), limits the rate of key frames
+ * requested by the receivers (PLI / FIR) and counts the key frames for the statistics.
+ * (Applied to the encoders wrapped by ThetaVideoEncoder.)
+ */
+public class KeyFrameController {
+    private static final String TAG = "KeyFrameController";
+
+    private final long minKeyFrameIntervalNs;
+
+    // Incremented by each on demand request. Each encoder remembers the last value it handled.
+    private final AtomicLong requestSequence = new AtomicLong(0);
+
+    private final AtomicLong keyFramesEncoded = new AtomicLong(0);
+    private final AtomicLong receiverRequests = new AtomicLong(0);
+    private final AtomicLong onDemandRequests = new AtomicLong(0);
+    private final AtomicLong intervalKeyFrames = new AtomicLong(0);
+    private final AtomicLong deferredRequests = new AtomicLong(0);
+
+    // Time from the viewer attach to the first key frame, and to the first frame decoded by the viewer
+    private volatile long attachTimeNs = -1;
+    private volatile long attachToFirstKeyFrameNs = -1;
+    private volatile long attachToFirstDecodedFrameMs = -1;
+
+    /**
+     * @param minKeyFrameIntervalMs Minimum interval of key frames requested by the receivers or on demand
+     *                              (0: not limited)
+     */
+    public KeyFrameController(int minKeyFrameIntervalMs) {
+        this.minKeyFrameIntervalNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minKeyFrameIntervalMs));
+    }
+
+    /**
+     * Request a key frame from all encoders at the next frame.
+     * (Deferred if a key frame has been sent within the minimum interval.)
+     */
+    public void requestKeyFrame() {
+        requestSequence.incrementAndGet();
+    }
+
+    /**
+     * Notify that a viewer has attached to the stream, and request a key frame
+     * so that the viewer does not wait for the next periodic one.
+     */
+    public void onViewerAttached() {
+        Logging.d(TAG, "onViewerAttached");
+        attachToFirstKeyFrameNs = -1;
+        attachToFirstDecodedFrameMs = -1;
+        attachTimeNs = System.nanoTime();
+        requestKeyFrame();
+    }
+
+    /**
+     * Set the time from the attach to the first decoded frame, measured by the viewer.
+     *
+     * @param elapsedMs Time (milliseconds)
+     */
+    public void setAttachToFirstDecodedFrameMs(long elapsedMs) {
+        attachToFirstDecodedFrameMs = elapsedMs;
+    }
+
+    /**
+     * Return the statistics of key frames of JSON object format
+     *
+     * @return Statistics of JSON object format
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("minKeyFrameIntervalMs", TimeUnit.NANOSECONDS.toMillis(minKeyFrameIntervalNs));
+            json.put("keyFramesEncoded", keyFramesEncoded.get());
+            json.put("receiverRequests", receiverRequests.get());
+            json.put("onDemandRequests", onDemandRequests.get());
+            json.put("intervalKeyFrames", intervalKeyFrames.get());
+            json.put("deferredRequests", deferredRequests.get());
+            long firstKeyFrameNs = attachToFirstKeyFrameNs;
+            json.put("attachToFirstKeyFrameMs", (firstKeyFrameNs < 0) ? JSONObject.NULL
+                    : (Object)TimeUnit.NANOSECONDS.toMillis(firstKeyFrameNs));
+            long firstDecodedFrameMs = attachToFirstDecodedFrameMs;
+            json.put("attachToFirstDecodedFrameMs", (firstDecodedFrameMs < 0) ? JSONObject.NULL
+                    : (Object)firstDecodedFrameMs);
+        } catch (JSONException e) {
+            Logging.e(TAG, "JSON exception");
+        }
+        return json;
+    }
+
+    long getMinKeyFrameIntervalNs() {
+        return minKeyFrameIntervalNs;
+    }
+
+    long getRequestSequence() {
+        return requestSequence.get();
+    }
+
+    void onReceiverRequest() {
+        receiverRequests.incrementAndGet();
+    }
+
+    void onDemandRequest() {
+        onDemandRequests.incrementAndGet();
+    }
+
+    void onIntervalKeyFrame() {
+        intervalKeyFrames.incrementAndGet();
+    }
+
+    void onDeferred() {
+        deferredRequests.incrementAndGet();
+    }
+
+    void onKeyFrameEncoded(long nowNs) {
+        keyFramesEncoded.incrementAndGet();
+        long attachNs = attachTimeNs;
+        if (attachNs >= 0 && attachToFirstKeyFrameNs < 0) {
+            attachToFirstKeyFrameNs = nowNs - attachNs;
+        }
+    }
+}
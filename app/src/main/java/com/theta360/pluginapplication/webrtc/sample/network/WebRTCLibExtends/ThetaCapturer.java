@@ -22,6 +22,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.Nullable;
 
+import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
 import org.webrtc.CameraEnumerator;
 import org.webrtc.CameraVideoCapturer;
 import org.webrtc.Logging;
@@ -38,6 +39,11 @@ public class ThetaCapturer implements CameraVideoCapturer {
         IN_PROGRESS, // Waiting for new switched capture session to start.
     }
 
+    // <THETA> Camera events handler which is also notified of the opened camera
+    public interface ThetaCameraEventsHandler extends CameraEventsHandler {
+        void onCameraOpened(Camera camera);
+    }
+
     private static final String TAG = "ThetaCapturer";
     private final static int MAX_OPEN_CAMERA_ATTEMPTS = 3;
     private final static int OPEN_CAMERA_DELAY_MS = 500;
@@ -48,6 +54,8 @@ public class ThetaCapturer implements CameraVideoCapturer {
     private final Handler uiThreadHandler;
 
     private Camera thetaCamera = null;
+    @Nullable
+    private volatile CaptureFormat thetaCaptureFormat = null;
 
     @Nullable
     private final ThetaSession.CreateSessionCallback createSessionCallback = new ThetaSession.CreateSessionCallback() {
@@ -77,6 +85,10 @@ public class ThetaCapturer implements CameraVideoCapturer {
 
                 // <THETA> Holding camera object
                 thetaCamera = session.getCamera();
+                thetaCaptureFormat = session.getCaptureFormat();
+                if (eventsHandler instanceof ThetaCameraEventsHandler) {
+                    ((ThetaCameraEventsHandler)eventsHandler).onCameraOpened(thetaCamera);
+                }
             }
         }
 
@@ -381,6 +393,12 @@ public class ThetaCapturer implements CameraVideoCapturer {
         return this.thetaCamera;
     }
 
+    // <THETA> Return the capture format of the current session (null: not opened yet)
+    @Nullable
+    public CaptureFormat getThetaCaptureFormat() {
+        return this.thetaCaptureFormat;
+    }
+
     private void reportCameraSwitchError(
             String error, @Nullable CameraSwitchHandler switchEventsHandler) {
         Logging.e(TAG, error);
@@ -100,8 +100,13 @@ public class ThetaEnumerator implements CameraEnumerator {
     static synchronized List<CaptureFormat> getSupportedFormats(int cameraId) {
         if (cachedSupportedFormats == null) {
             cachedSupportedFormats = new ArrayList<List<CaptureFormat>>();
-            for (int i = 0; i < android.hardware.Camera.getNumberOfCameras(); ++i) {
-                cachedSupportedFormats.add(enumerateFormats(i));
+        }
+        for (int i = 0; i < android.hardware.Camera.getNumberOfCameras(); ++i) {
+            if (cachedSupportedFormats.size() <= i) {
+                cachedSupportedFormats.add(null);
+            }
+            if (cachedSupportedFormats.get(i) == null) {
+                cachedSupportedFormats.set(i, enumerateFormats(i));
             }
         }
         return cachedSupportedFormats.get(cameraId);
@@ -125,21 +130,9 @@ public class ThetaEnumerator implements CameraEnumerator {
             }
         }
 
-        final List<CaptureFormat> formatList = new ArrayList<CaptureFormat>();
+        List<CaptureFormat> formatList = new ArrayList<CaptureFormat>();
         try {
-            int minFps = 0;
-            int maxFps = 0;
-            final List<int[]> listFpsRange = parameters.getSupportedPreviewFpsRange();
-            if (listFpsRange != null) {
-                // getSupportedPreviewFpsRange() returns a sorted list. Take the fps range
-                // corresponding to the highest fps.
-                final int[] range = listFpsRange.get(listFpsRange.size() - 1);
-                minFps = range[android.hardware.Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
-                maxFps = range[android.hardware.Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
-            }
-            for (android.hardware.Camera.Size size : parameters.getSupportedPreviewSizes()) {
-                formatList.add(new CaptureFormat(size.width, size.height, minFps, maxFps));
-            }
+            formatList = convertFormats(parameters);
         } catch (Exception e) {
             Logging.e(TAG, "getSupportedFormats() failed on camera index " + cameraId, e);
         }
@@ -150,6 +143,88 @@ public class ThetaEnumerator implements CameraEnumerator {
         return formatList;
     }
 
+    // Returns the supported formats of the open camera, and caches them.
+    // (The camera is usually owned by the camera application, so the formats are
+    // taken from the parameters when the capture session opens the camera.)
+    static synchronized List<CaptureFormat> getSupportedFormats(int cameraId,
+                                                              android.hardware.Camera.Parameters parameters) {
+        if (cachedSupportedFormats == null) {
+            cachedSupportedFormats = new ArrayList<List<CaptureFormat>>();
+        }
+        while (cachedSupportedFormats.size() <= cameraId) {
+            cachedSupportedFormats.add(null);
+        }
+        if (cachedSupportedFormats.get(cameraId) == null) {
+            cachedSupportedFormats.set(cameraId, convertFormats(parameters));
+        }
+        return cachedSupportedFormats.get(cameraId);
+    }
+
+    // Returns the supported formats cached by a capture session, without opening the camera.
+    public static synchronized List<CaptureFormat> getCachedSupportedFormats() {
+        if (cachedSupportedFormats != null) {
+            for (List<CaptureFormat> formats : cachedSupportedFormats) {
+                if (formats != null) {
+                    return formats;
+                }
+            }
+        }
+        return new ArrayList<CaptureFormat>();
+    }
+
+    // Returns one format for each preview size and each maximum framerate.
+    // (THETA runs the preview at the maximum framerate of the range, see ThetaSession.)
+    private static List<CaptureFormat> convertFormats(android.hardware.Camera.Parameters parameters) {
+        final List<CaptureFormat> formatList = new ArrayList<CaptureFormat>();
+        final List<int[]> ranges = new ArrayList<int[]>();
+        final List<int[]> listFpsRange = parameters.getSupportedPreviewFpsRange();
+        if (listFpsRange != null) {
+            for (int[] range : listFpsRange) {
+                boolean duplicated = false;
+                for (int[] added : ranges) {
+                    if (added[android.hardware.Camera.Parameters.PREVIEW_FPS_MAX_INDEX]
+                            == range[android.hardware.Camera.Parameters.PREVIEW_FPS_MAX_INDEX]) {
+                        duplicated = true;
+                        break;
+                    }
+                }
+                if (!duplicated) {
+                    ranges.add(range);
+                }
+            }
+        }
+        if (ranges.isEmpty()) {
+            ranges.add(new int[] {0, 0});
+        }
+        for (android.hardware.Camera.Size size : parameters.getSupportedPreviewSizes()) {
+            for (int[] range : ranges) {
+                formatList.add(new CaptureFormat(size.width, size.height,
+                        range[android.hardware.Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                        range[android.hardware.Camera.Parameters.PREVIEW_FPS_MAX_INDEX]));
+            }
+        }
+        return formatList;
+    }
+
+    // Returns the supported format closest to |width| x |height| @ |framerate|.
+    // The size is matched first, and the framerate next. (null: no supported format)
+    public static @Nullable CaptureFormat findClosestFormat(List<CaptureFormat> formats, int width, int height, int framerate) {
+        CaptureFormat closest = null;
+        long closestSizeDiff = Long.MAX_VALUE;
+        int closestFramerateDiff = Integer.MAX_VALUE;
+        for (CaptureFormat format : formats) {
+            long sizeDiff = Math.abs(format.width - width) + Math.abs(format.height - height);
+            // framerate of CaptureFormat is fps * 1000
+            int framerateDiff = Math.abs(format.framerate.max / 1000 - framerate);
+            if (sizeDiff < closestSizeDiff || (sizeDiff == closestSizeDiff && framerateDiff < closestFramerateDiff)) {
+                closest = format;
+                closestSizeDiff = sizeDiff;
+                closestFramerateDiff = framerateDiff;
+            }
+        }
+        return closest;
+    }
+
     // Convert from android.hardware.Camera.Size to Size.
     static List<Size> convertSizes(List<android.hardware.Camera.Size> cameraSizes) {
         final List<Size> sizes = new ArrayList<Size>();
@@ -115,7 +115,8 @@ class ThetaSession {
         final CaptureFormat captureFormat;
         try {
             final android.hardware.Camera.Parameters parameters = camera.getParameters();
-            captureFormat = findClosestCaptureFormat(parameters, width, height, framerate);
+            captureFormat = findClosestCaptureFormat(
+                    ThetaEnumerator.getSupportedFormats(cameraId, parameters), width, height, framerate);
             final Size pictureSize = findClosestPictureSize(parameters, width, height);
             updateCameraParameters(camera, parameters, captureFormat, pictureSize, captureToTexture);
         } catch (RuntimeException e) {
@@ -166,19 +167,16 @@ class ThetaSession {
     }
 
     private static CaptureFormat findClosestCaptureFormat(
-            android.hardware.Camera.Parameters parameters, int width, int height, int framerate) {
+            List<CaptureFormat> supportedFormats, int width, int height, int framerate) {
         // Find closest supported format for |width| x |height| @ |framerate|.
-        final List<CaptureFormat.FramerateRange> supportedFramerates =
-                ThetaEnumerator.convertFramerates(parameters.getSupportedPreviewFpsRange());
-        Logging.d(TAG, "Available fps ranges: " + supportedFramerates);
-
-        final CaptureFormat.FramerateRange fpsRange =
-                CameraEnumerationAndroid.getClosestSupportedFramerateRange(supportedFramerates, framerate);
-
-        final Size previewSize = CameraEnumerationAndroid.getClosestSupportedSize(
-                ThetaEnumerator.convertSizes(parameters.getSupportedPreviewSizes()), width, height);
-
-        return new CaptureFormat(previewSize.width, previewSize.height, fpsRange);
+        // <THETA> Any preview size and framerate of the firmware (e.g. 1024x512, high framerate modes)
+        Logging.d(TAG, "Available formats: " + supportedFormats);
+        final CaptureFormat captureFormat = ThetaEnumerator.findClosestFormat(supportedFormats, width, height, framerate);
+        if (captureFormat == null) {
+            throw new RuntimeException("No supported preview format");
+        }
+        Logging.d(TAG, "Requested " + width + "x" + height + "@" + framerate + ", selected " + captureFormat);
+        return captureFormat;
     }
 
     private static Size findClosestPictureSize(
@@ -223,6 +221,11 @@ class ThetaSession {
         return this.camera;
     }
 
+    // <THETA> Return the capture format selected from the supported formats
+    public CaptureFormat getCaptureFormat() {
+        return this.captureFormat;
+    }
+
     private void startCapturing() {
         Logging.d(TAG, "Start capturing");
         checkIsOnCameraThread();
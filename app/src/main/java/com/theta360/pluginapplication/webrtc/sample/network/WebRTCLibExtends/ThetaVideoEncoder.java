@@ -0,0 +1,223 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network.WebRTCLibExtends;
+
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.webrtc.EncodedImage;
+import org.webrtc.Logging;
+import org.webrtc.VideoCodecStatus;
+import org.webrtc.VideoEncoder;
+import org.webrtc.VideoFrame;
+
+/**
+ * Video encoder wrapper which applies the key frame interval of the encoder policy
+ * and the key frame requests of the key frame controller, and reports every encoded frame to the observer.
+ * (Only Java implemented encoders, such as HardwareVideoEncoder, can be wrapped.)
+ */
+public class ThetaVideoEncoder implements VideoEncoder {
+    private static final String TAG = "ThetaVideoEncoder";
+
+    // Upper limit of frames waiting for encode completion (frames dropped by the encoder are never completed)
+    private static final int MAX_PENDING_FRAMES = 64;
+
+    /**
+     * Interface of notification callback function for encoded frames
+     * (Called on the encoder output thread.)
+     */
+    public interface Observer {
+        void onEncodedFrame(ThetaVideoEncoder encoder, EncodedImage frame, long encodeTimeNs);
+    }
+
+    private final VideoEncoder encoder;
+    private final String codecName;
+    private final long keyFrameIntervalNs;
+    @Nullable private final KeyFrameController keyFrameController;
+    @Nullable private volatile Observer observer;
+    private volatile boolean scalingEnabled = true;
+
+    // Encode start time for each capture time stamp
+    private final Map<Long, Long> encodeStartTimeNs = new ConcurrentHashMap<>();
+    /* Only used on the encode thread */
+    private long lastKeyFrameTimeNs = -1;
+    private long handledRequestSequence = 0;
+    private boolean keyFrameDeferred = false;
+
+    ThetaVideoEncoder(VideoEncoder encoder, String codecName, int keyFrameIntervalSec,
+                      @Nullable KeyFrameController keyFrameController, @Nullable Observer observer) {
+        this.encoder = encoder;
+        this.codecName = codecName;
+        this.keyFrameIntervalNs = TimeUnit.SECONDS.toNanos(keyFrameIntervalSec);
+        this.keyFrameController = keyFrameController;
+        this.handledRequestSequence = (keyFrameController == null) ? 0 : keyFrameController.getRequestSequence();
+        this.observer = observer;
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+
+    public void setObserver(@Nullable Observer observer) {
+        this.observer = observer;
+    }
+
+    // Disable the quality scaler, so that the encoder keeps the resolution.
+    // (Queried by libwebrtc when the encoder is initialized.)
+    public void setScalingEnabled(boolean enabled) {
+        this.scalingEnabled = enabled;
+    }
+
+    @Override
+    public VideoCodecStatus initEncode(Settings settings, final Callback encodeCallback) {
+        Logging.d(TAG, "initEncode: " + codecName + " " + settings.width + "x" + settings.height
+                + " " + settings.startBitrate + "kbps");
+        encodeStartTimeNs.clear();
+        lastKeyFrameTimeNs = -1;
+        keyFrameDeferred = false;
+        return encoder.initEncode(settings, new Callback() {
+            @Override
+            public void onEncodedFrame(EncodedImage frame, CodecSpecificInfo info) {
+                Long startTimeNs = encodeStartTimeNs.remove(frame.captureTimeNs);
+                final long nowNs = System.nanoTime();
+                long encodeTimeNs = (startTimeNs == null) ? 0 : nowNs - startTimeNs;
+                if (keyFrameController != null && frame.frameType == EncodedImage.FrameType.VideoFrameKey) {
+                    keyFrameController.onKeyFrameEncoded(nowNs);
+                }
+                Observer frameObserver = observer;
+                if (frameObserver != null) {
+                    frameObserver.onEncodedFrame(ThetaVideoEncoder.this, frame, encodeTimeNs);
+                }
+                encodeCallback.onEncodedFrame(frame, info);
+            }
+        });
+    }
+
+    @Override
+    public VideoCodecStatus release() {
+        encodeStartTimeNs.clear();
+        return encoder.release();
+    }
+
+    @Override
+    public VideoCodecStatus encode(VideoFrame frame, EncodeInfo info) {
+        final long nowNs = System.nanoTime();
+        final EncodeInfo encodeInfo = decideFrameType(info, nowNs);
+
+        if (encodeStartTimeNs.size() >= MAX_PENDING_FRAMES) {
+            encodeStartTimeNs.clear();
+        }
+        encodeStartTimeNs.put(frame.getTimestampNs(), nowNs);
+        return encoder.encode(frame, encodeInfo);
+    }
+
+    @Override
+    public VideoCodecStatus setChannelParameters(short packetLoss, long roundTripTimeMs) {
+        return encoder.setChannelParameters(packetLoss, roundTripTimeMs);
+    }
+
+    @Override
+    public VideoCodecStatus setRateAllocation(BitrateAllocation allocation, int framerate) {
+        return encoder.setRateAllocation(allocation, framerate);
+    }
+
+    @Override
+    public ScalingSettings getScalingSettings() {
+        if (!scalingEnabled) {
+            return ScalingSettings.OFF;
+        }
+        return encoder.getScalingSettings();
+    }
+
+    @Override
+    public String getImplementationName() {
+        return encoder.getImplementationName();
+    }
+
+    // Decide whether to encode a key frame.
+    // The first frame and the interval of the policy always produce a key frame. Requests of the receivers (PLI / FIR)
+    // and on demand requests are deferred until the minimum interval has passed since the last key frame,
+    // so that a burst of requests does not make a burst of key frames.
+    private EncodeInfo decideFrameType(EncodeInfo info, long nowNs) {
+        final boolean receiverRequested = isKeyFrameRequested(info);
+        boolean onDemandRequested = false;
+        if (keyFrameController != null) {
+            long requestSequence = keyFrameController.getRequestSequence();
+            onDemandRequested = (requestSequence != handledRequestSequence);
+            handledRequestSequence = requestSequence;
+            if (receiverRequested) {
+                keyFrameController.onReceiverRequest();
+            }
+            if (onDemandRequested) {
+                keyFrameController.onDemandRequest();
+            }
+        }
+
+        boolean keyFrame;
+        if (lastKeyFrameTimeNs < 0) {
+            keyFrame = true;
+        } else if (keyFrameIntervalNs > 0 && nowNs - lastKeyFrameTimeNs >= keyFrameIntervalNs) {
+            keyFrame = true;
+            if (keyFrameController != null && !receiverRequested && !onDemandRequested && !keyFrameDeferred) {
+                keyFrameController.onIntervalKeyFrame();
+            }
+        } else if (receiverRequested || onDemandRequested || keyFrameDeferred) {
+            long minIntervalNs = (keyFrameController == null) ? 0 : keyFrameController.getMinKeyFrameIntervalNs();
+            keyFrame = (nowNs - lastKeyFrameTimeNs >= minIntervalNs);
+            if (!keyFrame && !keyFrameDeferred && keyFrameController != null) {
+                keyFrameController.onDeferred();
+            }
+            keyFrameDeferred = !keyFrame;
+        } else {
+            keyFrame = false;
+        }
+
+        if (keyFrame) {
+            lastKeyFrameTimeNs = nowNs;
+            keyFrameDeferred = false;
+        }
+        if (keyFrame == receiverRequested) {
+            return info;
+        }
+        return createEncodeInfo(info, keyFrame ? EncodedImage.FrameType.VideoFrameKey : EncodedImage.FrameType.VideoFrameDelta);
+    }
+
+    // Same number of frame types as the requested one (one for each simulcast stream)
+    private static EncodeInfo createEncodeInfo(EncodeInfo info, EncodedImage.FrameType frameType) {
+        int count = (info == null || info.frameTypes == null || info.frameTypes.length == 0) ? 1 : info.frameTypes.length;
+        EncodedImage.FrameType[] frameTypes = new EncodedImage.FrameType[count];
+        for (int i = 0; i < count; i++) {
+            frameTypes[i] = frameType;
+        }
+        return new EncodeInfo(frameTypes);
+    }
+
+    private static boolean isKeyFrameRequested(EncodeInfo info) {
+        if (info == null || info.frameTypes == null) {
+            return false;
+        }
+        for (EncodedImage.FrameType frameType : info.frameTypes) {
+            if (frameType == EncodedImage.FrameType.VideoFrameKey) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network.WebRTCLibExtends;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.webrtc.EglBase;
+import org.webrtc.HardwareVideoEncoderFactory;
+import org.webrtc.Logging;
+import org.webrtc.SoftwareVideoEncoderFactory;
+import org.webrtc.VideoCodecInfo;
+import org.webrtc.VideoEncoder;
+import org.webrtc.VideoEncoderFactory;
+
+import com.theta360.pluginapplication.webrtc.sample.model.VideoEncoderPolicy;
+
+/**
+ * Video encoder factory which selects codecs and encoder implementation according to the encoder policy
+ */
+public class ThetaVideoEncoderFactory implements VideoEncoderFactory {
+    private static final String TAG = "ThetaVideoEncoderFactory";
+
+    private static final String H264_CODEC_NAME = "H264";
+    private static final String H264_PROFILE_LEVEL_ID = "profile-level-id";
+    private static final String H264_PROFILE_HIGH_PREFIX = "640c";
+
+    private final VideoEncoderPolicy policy;
+    @Nullable private final VideoEncoderFactory hardwareFactory;
+    @Nullable private final VideoEncoderFactory softwareFactory;
+    @Nullable private ThetaVideoEncoder.Observer encoderObserver;
+    @Nullable private KeyFrameController keyFrameController;
+    private boolean scalingEnabled = true;
+    private volatile boolean encoderWrapped;
+
+    public ThetaVideoEncoderFactory(EglBase.Context eglContext, VideoEncoderPolicy policy) {
+        this.policy = policy;
+
+        final boolean enableH264HighProfile = (policy.getH264Profile() == VideoEncoderPolicy.H264Profile.HIGH);
+        final boolean enableIntelVp8Encoder = policy.getCodecs().contains("VP8");
+        // AUTO is built from both factories here rather than DefaultVideoEncoderFactory,
+        // so that the hardware encoders are wrapped and only the fallback is left native.
+        switch (policy.getEncoderType()) {
+        case HARDWARE:
+            hardwareFactory = new HardwareVideoEncoderFactory(eglContext, enableIntelVp8Encoder, enableH264HighProfile);
+            softwareFactory = null;
+            break;
+        case SOFTWARE:
+            hardwareFactory = null;
+            softwareFactory = new SoftwareVideoEncoderFactory();
+            break;
+        case AUTO:
+        default:
+            hardwareFactory = new HardwareVideoEncoderFactory(eglContext, enableIntelVp8Encoder, enableH264HighProfile);
+            softwareFactory = new SoftwareVideoEncoderFactory();
+            break;
+        }
+        encoderWrapped = (hardwareFactory != null);
+        Logging.d(TAG, "Encoder policy: " + policy.toJSON());
+    }
+
+    /**
+     * Set observer of the encoded frames.
+     * (Applied to hardware encoders created after this call.)
+     *
+     * @param observer Observer of the encoded frames
+     */
+    public void setEncoderObserver(@Nullable ThetaVideoEncoder.Observer observer) {
+        this.encoderObserver = observer;
+    }
+
+    /**
+     * Set key frame controller shared by the encoders.
+     * (Applied to hardware encoders created after this call.)
+     *
+     * @param controller Key frame controller
+     */
+    public void setKeyFrameController(@Nullable KeyFrameController controller) {
+        this.keyFrameController = controller;
+    }
+
+    /**
+     * Enable or disable resolution scaling of the encoder.
+     * (Applied to hardware encoders created after this call.)
+     *
+     * @param enabled false: keep resolution
+     */
+    public void setScalingEnabled(boolean enabled) {
+        this.scalingEnabled = enabled;
+    }
+
+    /**
+     * Return whether the last created encoder is wrapped, so that its encoded frames are observed
+     * and its key frames are controlled.
+     * (Before the first encoder is created, whether the policy uses hardware encoders.)
+     *
+     * @return true: wrapped
+     */
+    public boolean isEncoderWrapped() {
+        return encoderWrapped;
+    }
+
+    @Nullable
+    @Override
+    public VideoEncoder createEncoder(VideoCodecInfo info) {
+        if (hardwareFactory != null) {
+            VideoEncoder encoder = hardwareFactory.createEncoder(info);
+            if (encoder != null) {
+                ThetaVideoEncoder thetaEncoder = new ThetaVideoEncoder(encoder, info.name,
+                        policy.getKeyFrameIntervalSec(), keyFrameController, encoderObserver);
+                thetaEncoder.setScalingEnabled(scalingEnabled);
+                encoderWrapped = true;
+                Logging.d(TAG, "Hardware encoder: " + info.name + " (key frame controller "
+                        + (keyFrameController != null ? "attached" : "not attached") + ")");
+                return thetaEncoder;
+            }
+        }
+        if (softwareFactory == null) {
+            return null;
+        }
+        // Software encoders are native encoders, and can not be wrapped in Java.
+        VideoEncoder encoder = softwareFactory.createEncoder(info);
+        if (encoder != null) {
+            encoderWrapped = false;
+            Logging.d(TAG, "Software encoder: " + info.name + " (key frame controller not attached)");
+        }
+        return encoder;
+    }
+
+    @Override
+    public VideoCodecInfo[] getSupportedCodecs() {
+        final List<VideoCodecInfo> supportedCodecs = new ArrayList<VideoCodecInfo>();
+        if (hardwareFactory != null) {
+            supportedCodecs.addAll(Arrays.asList(hardwareFactory.getSupportedCodecs()));
+        }
+        if (softwareFactory != null) {
+            for (VideoCodecInfo codec : softwareFactory.getSupportedCodecs()) {
+                if (!supportedCodecs.contains(codec)) {
+                    supportedCodecs.add(codec);
+                }
+            }
+        }
+        final List<VideoCodecInfo> codecs = new ArrayList<VideoCodecInfo>();
+
+        // Order by the policy, and the H.264 High profile ahead of the Baseline profile.
+        for (String codecName : policy.getCodecs()) {
+            final List<VideoCodecInfo> baselineCodecs = new ArrayList<VideoCodecInfo>();
+            for (VideoCodecInfo codec : supportedCodecs) {
+                if (!codec.name.equalsIgnoreCase(codecName)) {
+                    continue;
+                }
+                if (isH264HighProfile(codec)) {
+                    if (policy.getH264Profile() == VideoEncoderPolicy.H264Profile.HIGH) {
+                        codecs.add(codec);
+                    }
+                } else {
+                    baselineCodecs.add(codec);
+                }
+            }
+            codecs.addAll(baselineCodecs);
+        }
+
+        // The other codecs follow, so that the viewers without the codecs of the policy can still negotiate video.
+        for (VideoCodecInfo codec : supportedCodecs) {
+            if (codecs.contains(codec)) {
+                continue;
+            }
+            if (isH264HighProfile(codec) && policy.getH264Profile() != VideoEncoderPolicy.H264Profile.HIGH) {
+                continue;
+            }
+            codecs.add(codec);
+        }
+        return codecs.toArray(new VideoCodecInfo[codecs.size()]);
+    }
+
+    private static boolean isH264HighProfile(VideoCodecInfo codec) {
+        if (!H264_CODEC_NAME.equalsIgnoreCase(codec.name) || codec.params == null) {
+            return false;
+        }
+        String profileLevelId = codec.params.get(H264_PROFILE_LEVEL_ID);
+        return profileLevelId != null && profileLevelId.startsWith(H264_PROFILE_HIGH_PREFIX);
+    }
+}
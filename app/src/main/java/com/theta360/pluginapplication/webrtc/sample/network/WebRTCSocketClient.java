@@ -16,29 +16,52 @@
 
 package com.theta360.pluginapplication.webrtc.sample.network;
 
+import android.support.annotation.Nullable;
 import android.util.Log;
 
+import org.java_websocket.WebSocket;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.net.URI;
 import java.nio.channels.NotYetConnectedException;
 
 /**
  * Web Socket Client class for WebRTC
- * (Used to connect to the Signaling server on the same host.)
+ * (Used to connect to a Signaling server on another host.
+ *  The Signaling server in this process is reached by LocalSignalingEndpoint without a socket.
+ *  permessage-deflate is offered, and the compact envelope is used if requested by the URI ("?enc=compact").
+ *  The resume token sent by the server is kept, so that the next client can resume the session.
+ *  The server is pinged at the heartbeat interval, and the connection is closed if it does not respond.)
  */
-public class WebRTCSocketClient extends WebSocketClient {
+public class WebRTCSocketClient extends WebSocketClient implements SignalingEndpoint {
     private static final String TAG = "WebRTCSocketClient";
-    private WebSocketCallbacks mWebSocketCallbacks = null;
+    private static final String COMPACT_QUERY = "enc=compact";
+    private static final String RESUME_QUERY = "resume=";
+    private SignalingEndpoint.Callbacks mWebSocketCallbacks = null;
+    private volatile SessionListener mSessionListener = null;
+    private final boolean mCompact;
+    private volatile String mPeerId = null;
+    private volatile String mResumeToken = null;
+    private volatile boolean mResumed = false;
+    private final HeartbeatMonitor mHeartbeat = new HeartbeatMonitor(TAG);
 
     /**
-     * Interface of notification callback function from Web Socket client library
+     * Interface of notification callback function of the session assigned by the server
      */
-    public static interface WebSocketCallbacks {
-        public void onConnected();
-        public void onDisconnected();
-        public void onRecvMessage(String sdp);
+    public interface SessionListener {
+        /**
+         * Called when the welcome is received, before the messages of the session
+         *
+         * @param peerId Peer ID
+         * @param resumed true: the previous session was resumed, false: new session
+         */
+        void onSession(String peerId, boolean resumed);
     }
 
     /**
@@ -47,7 +70,78 @@ public class WebRTCSocketClient extends WebSocketClient {
      * @param serverUri Server URI
      */
     public WebRTCSocketClient(String serverUri) {
-        super(URI.create(serverUri));
+        this(serverUri, null);
+    }
+
+    /**
+     * Constructor of Web Socket client class
+     *
+     * @param serverUri Server URI
+     * @param resumeToken Resume token of the previous session (null: new session)
+     */
+    public WebRTCSocketClient(String serverUri, @Nullable String resumeToken) {
+        super(URI.create(withResumeToken(serverUri, resumeToken)), PerMessageDeflateExtension.createDraft());
+        String query = URI.create(serverUri).getQuery();
+        mCompact = query != null && query.contains(COMPACT_QUERY);
+        // Replaced by the heartbeat monitor, which has a timeout of its own
+        setConnectionLostTimeout(0);
+    }
+
+    /**
+     * Set the heartbeat of the connection
+     *
+     * @param intervalMs Interval of the pings (milliseconds, 0: the heartbeat is disabled)
+     * @param timeoutMs Time without response until the server is declared dead (milliseconds)
+     */
+    public void setHeartbeat(long intervalMs, long timeoutMs) {
+        mHeartbeat.setHeartbeat(intervalMs, timeoutMs);
+    }
+
+    /**
+     * Return the heartbeat settings and the number of dead peers of JSON object format
+     *
+     * @return Heartbeat of JSON object format
+     */
+    public JSONObject getHeartbeat() {
+        return mHeartbeat.toJSON();
+    }
+
+    /**
+     * Set the listener of the session assigned by the server
+     *
+     * @param listener Listener (null: not notified)
+     */
+    public void setSessionListener(@Nullable SessionListener listener) {
+        mSessionListener = listener;
+    }
+
+    /**
+     * Return the resume token of the session
+     *
+     * @return Resume token (null: not received from the server)
+     */
+    @Nullable
+    public String getResumeToken() {
+        return mResumeToken;
+    }
+
+    /**
+     * Return the peer ID assigned by the server
+     *
+     * @return Peer ID (null: not received from the server)
+     */
+    @Nullable
+    public String getPeerId() {
+        return mPeerId;
+    }
+
+    /**
+     * Return whether the server resumed the previous session
+     *
+     * @return true: resumed, false: new session
+     */
+    public boolean isResumed() {
+        return mResumed;
     }
 
     /**
@@ -56,6 +150,8 @@ public class WebRTCSocketClient extends WebSocketClient {
     @Override
     public void onOpen( ServerHandshake handshakedata ) {
         Log.d(TAG, "WS Connect: HttpStatus = " + handshakedata.getHttpStatus() + ", HttpStatusMessage = " + handshakedata.getHttpStatusMessage());
+        mHeartbeat.add(getConnection());
+        mHeartbeat.start();
         if (mWebSocketCallbacks != null) {
             mWebSocketCallbacks.onConnected();
         }
@@ -66,9 +162,34 @@ public class WebRTCSocketClient extends WebSocketClient {
     @Override
     public void onMessage( String message ) {
         Log.d(TAG, "WS Recv");
-        if (mWebSocketCallbacks != null) {
-            mWebSocketCallbacks.onRecvMessage(message);
+        mHeartbeat.onAlive(getConnection());
+        if (mWebSocketCallbacks == null) {
+            return;
         }
+        SignalingMessage signalingMessage;
+        try {
+            String text = mCompact ? CompactEnvelope.decode(new JSONObject(message)).toString() : message;
+            signalingMessage = SignalingMessageCodec.decode(text);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON parsing error");
+            return;
+        } catch (SignalingMessageCodec.MalformedMessageException e) {
+            Log.e(TAG, "JSON parsing error: " + e.getMessage());
+            return;
+        }
+        if (SignalingServer.TYPE_WELCOME.equals(signalingMessage.getTypeName())) {
+            // Consumed here. The peers do not need it.
+            mPeerId = signalingMessage.optString(SignalingServer.KEY_PEER);
+            mResumeToken = signalingMessage.optString(SignalingServer.KEY_RESUME);
+            mResumed = signalingMessage.optBoolean(SignalingServer.KEY_RESUMED);
+            Log.d(TAG, "WS Welcome: peer = " + mPeerId + ", resumed = " + mResumed);
+            SessionListener listener = mSessionListener;
+            if (listener != null) {
+                listener.onSession(mPeerId, mResumed);
+            }
+            return;
+        }
+        mWebSocketCallbacks.onRecvMessage(signalingMessage);
     }
     /**
      * {@inheritDoc}
@@ -76,6 +197,7 @@ public class WebRTCSocketClient extends WebSocketClient {
     @Override
     public void onClose( int code, String reason, boolean remote ) {
         Log.d(TAG, "WS Close");
+        mHeartbeat.stop();
         if (mWebSocketCallbacks != null) {
             mWebSocketCallbacks.onDisconnected();
         }
@@ -84,20 +206,26 @@ public class WebRTCSocketClient extends WebSocketClient {
      * {@inheritDoc}
      */
     @Override
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        mHeartbeat.onAlive(conn);
+        super.onWebsocketPong(conn, f);
+    }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
     public void onError( Exception ex ) {
         Log.e(TAG, "WS Error: " + ex);
     }
 
     /**
-     * Initiates the websocket connection
-     *
-     * @param webSocketCallbacks Implementation object of callback functions
-     * @return true: success, false: failed
+     * {@inheritDoc}
      */
-    public boolean openWebSocket(WebRTCSocketClient.WebSocketCallbacks webSocketCallbacks) {
+    @Override
+    public boolean open(SignalingEndpoint.Callbacks callbacks) {
         Log.d(TAG, "openWebSocket");
         boolean result = true;
-        this.mWebSocketCallbacks = webSocketCallbacks;
+        this.mWebSocketCallbacks = callbacks;
 
         try {
             connect();
@@ -110,24 +238,32 @@ public class WebRTCSocketClient extends WebSocketClient {
     }
 
     /**
-     * Initiates the websocket close handshake.
-     */
-    public void closeWebSocket() {
-        Log.d(TAG, "closeWebSocket");
-        close();
-    }
-
-    /**
-     * Sends message to the connected websocket server.
-     *
-     * @param message Message for send
+     * {@inheritDoc}
      */
-    public void sendWebSocketMessage(final String message) {
+    @Override
+    public synchronized void send(SignalingMessage message) {
         Log.d(TAG, "sendWebSocketMessage");
+        // Synchronized, so that the messages are queued in the order of the compression context
         try {
-            send(message);
+            String text = SignalingMessageCodec.encode(message);
+            send(mCompact ? CompactEnvelope.encode(new JSONObject(text)).toString() : text);
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON exception");
         } catch (NotYetConnectedException e) {
             Log.d(TAG, "NotYetConnectedException: " + e);
+        } catch (WebsocketNotConnectedException e) {
+            // Closed just before sending (e.g. the link to the hub dropped). The reconnection follows.
+            Log.w(TAG, "Not connected. Message dropped: " + message.getTypeName());
+        }
+    }
+
+    /*
+     * Add the resume token to the query of the URI
+     */
+    private static String withResumeToken(String serverUri, @Nullable String resumeToken) {
+        if (resumeToken == null) {
+            return serverUri;
         }
+        return serverUri + ((URI.create(serverUri).getQuery() == null) ? "?" : "&") + RESUME_QUERY + resumeToken;
     }
-}
\ No newline at end of file
+}
@@ -16,6 +16,8 @@
 
 package com.theta360.pluginapplication.webrtc.sample.network;
 
+import com.theta360.pluginapplication.webrtc.sample.model.AudioOptions;
+
 import org.webrtc.MediaConstraints;
 
 /**
@@ -41,6 +43,19 @@ public class WebRTCUtil {
         return audioVideoConstraints();
     }
 
+    /**
+     * Return MediaConstraints object to create offer SDP for ICE restart
+     *
+     * @return MediaConstraints object
+     */
+    static final MediaConstraints iceRestartConstraints() {
+        MediaConstraints constraints = audioVideoConstraints();
+        constraints.mandatory.add(
+                new MediaConstraints.KeyValuePair("IceRestart", "true"));
+
+        return constraints;
+    }
+
     /**
      * Return MediaConstraints object to create answer SDP
      *
@@ -51,12 +66,21 @@ public class WebRTCUtil {
     }
 
     /**
-     * Create MediaConstraints object
+     * Create MediaConstraints object of the audio source
      *
+     * @param options Audio options
      * @return MediaConstraints object
      */
-    static final MediaConstraints mediaStreamConstraints() {
+    static final MediaConstraints mediaStreamConstraints(AudioOptions options) {
         MediaConstraints constraints = new MediaConstraints();
+        constraints.mandatory.add(new MediaConstraints.KeyValuePair(
+                "googEchoCancellation", String.valueOf(options.isEchoCancellation())));
+        constraints.mandatory.add(new MediaConstraints.KeyValuePair(
+                "googNoiseSuppression", String.valueOf(options.isNoiseSuppression())));
+        constraints.mandatory.add(new MediaConstraints.KeyValuePair(
+                "googAutoGainControl", String.valueOf(options.isAutoGainControl())));
+        constraints.mandatory.add(new MediaConstraints.KeyValuePair(
+                "googHighpassFilter", String.valueOf(options.isHighpassFilter())));
 
         return constraints;
     }
@@ -104,28 +104,39 @@ public class WebServer {
     private HttpServerRequestCallback mCommandsRequestCallback = new HttpServerRequestCallback() {
         @Override
         public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+            final long receivedTimeNs = SessionTrace.now();
             mHost = request.getHeaders().get(HOST);
+            ResponseSender sender = new HttpResponseSender(response);
             if (request.getBody() instanceof JSONObjectBody) {
-                try {
-                    JSONObject json = ((JSONObjectBody) request.getBody()).get();
-                    CommandsRequest commandsRequest = new GsonBuilder().create().fromJson(
-                            json.toString(), CommandsRequest.class);
-
-                    CommandsName commandsName = commandsRequest.getCommandsName();
-                    if (commandsName != null) {
-                        mCallback.commandsRequest(response, commandsRequest);
-                    } else {
-                        sendMissingParameter(response, CommandsName.COMMANDS_EXECUTE);
-                    }
-                } catch (Exception e) {
-                    sendUnknownCommand(response);
-                }
+                JSONObject json = ((JSONObjectBody) request.getBody()).get();
+                executeCommand(sender, json, receivedTimeNs);
             } else {
-                sendUnknownCommand(response);
+                sendUnknownCommand(sender);
             }
         }
     };
 
+    /*
+     * Response sender of HTTP server
+     */
+    private static class HttpResponseSender implements ResponseSender {
+        private final AsyncHttpServerResponse mResponse;
+
+        HttpResponseSender(AsyncHttpServerResponse response) {
+            mResponse = response;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void sendJson(int statusCode, String json) {
+            AsyncHttpServerResponse res = mResponse.code(statusCode);
+            res.getHeaders().set(CONTENT_TYPE_OPTIONS, NOSNIFF);
+            res.send(APPLICATION_JSON, json);
+        }
+    }
+
     private AsyncHttpServerEx.Callback mHttpServerCallback = new AsyncHttpServerEx.Callback() {
         @Override
         public void isConnection(boolean isConnection, AsyncSocket socket) {
@@ -210,6 +221,15 @@ public class WebServer {
         mAsyncServer.listen(inetAddress, HTTP_PORT, mAsyncHttpServer.getListenCallback());
     }
 
+    /**
+     * Register the WHEP endpoint for HTTP signaling
+     *
+     * @param endpoint WHEP endpoint
+     */
+    public void addWhepEndpoint(@NonNull WhepEndpoint endpoint) {
+        endpoint.register(mAsyncHttpServer);
+    }
+
     /**
      * Stop Web server
      */
@@ -224,13 +244,59 @@ public class WebServer {
         }
     }
 
+    /**
+     * Parse the command request, and pass it to the command dispatcher.
+     * (Shared by the HTTP server and the control data channel.)
+     *
+     * @param sender Response sender of the command
+     * @param json Command request of JSON format
+     * @param receivedTimeNs Reception time of the request (Time of SessionTrace.now())
+     */
+    public void executeCommand(@NonNull ResponseSender sender, JSONObject json, long receivedTimeNs) {
+        try {
+            CommandsRequest commandsRequest = new GsonBuilder().create().fromJson(
+                    json.toString(), CommandsRequest.class);
+            commandsRequest.setReceivedTimeNs(receivedTimeNs);
+
+            CommandsName commandsName = commandsRequest.getCommandsName();
+            if (commandsName != null) {
+                mCallback.commandsRequest(sender, commandsRequest);
+            } else {
+                sendMissingParameter(sender, CommandsName.COMMANDS_EXECUTE);
+            }
+        } catch (Exception e) {
+            sendUnknownCommand(sender);
+        }
+    }
+
+    /**
+     * Execute the command on the HTTP server thread, in the same way as a HTTP command request.
+     * (For the commands received over the control data channel.)
+     *
+     * @param sender Response sender of the command
+     * @param json Command request of JSON format
+     * @param receivedTimeNs Reception time of the request (Time of SessionTrace.now())
+     */
+    public void postCommand(@NonNull final ResponseSender sender, final JSONObject json, final long receivedTimeNs) {
+        AsyncServer asyncServer = mAsyncServer;
+        if (asyncServer == null) {
+            return;
+        }
+        asyncServer.post(new Runnable() {
+            @Override
+            public void run() {
+                executeCommand(sender, json, receivedTimeNs);
+            }
+        });
+    }
+
     /**
      * Send command response
      *
-     * @param response HTTP server response object
+     * @param response Response sender of the command
      * @param commandsResponse command response object
      */
-    public void sendCommandsResponse(@NonNull AsyncHttpServerResponse response, @NonNull CommandsResponse commandsResponse) {
+    public void sendCommandsResponse(@NonNull ResponseSender response, @NonNull CommandsResponse commandsResponse) {
         String json = new GsonBuilder().create().toJson(commandsResponse);
 
         if (commandsResponse.getProgress() != null) {
@@ -239,136 +305,129 @@ public class WebServer {
             json = replaceCompletion(json, completion);
         }
 
-        sendJson(response, json);
+        sendJson(response, 200, json);
     }
 
     /**
      * Send 'getOptions' command response
      *
-     * @param response HTTP server response object
+     * @param response Response sender of the command
      * @param optionsResponse 'getOptions' command response string
      */
-    public void sendGetOptionsResponse(@NonNull AsyncHttpServerResponse response, @NonNull String optionsResponse) {
-        sendJson(response, optionsResponse);
+    public void sendGetOptionsResponse(@NonNull ResponseSender response, @NonNull String optionsResponse) {
+        sendJson(response, 200, optionsResponse);
     }
 
     /**
      * Send unknown command error response
      *
-     * @param response HTTP server response object
+     * @param response Response sender of the command
      */
-    public void sendUnknownCommand(@NonNull AsyncHttpServerResponse response) {
+    public void sendUnknownCommand(@NonNull ResponseSender response) {
         CommandsResponse commandsResponse = new CommandsResponse(CommandsName.UNKNOWN, State.ERROR);
         commandsResponse.setError(new ErrorObject(Errors.UNKNOWN_COMMAND));
         String json = new GsonBuilder().create().toJson(commandsResponse);
 
-        AsyncHttpServerResponse res = response.code(400);
-        sendJson(res, json);
+        sendJson(response, 400, json);
     }
 
     /**
      * Send disable command error response
      *
-     * @param response HTTP response object
+     * @param response Response sender of the command
      * @param commandsName Command name
      */
-    public void sendDisabledCommand(@NonNull AsyncHttpServerResponse response,
+    public void sendDisabledCommand(@NonNull ResponseSender response,
                                     CommandsName commandsName) {
         CommandsResponse commandsResponse = new CommandsResponse(commandsName, State.ERROR);
         commandsResponse.setError(new ErrorObject(Errors.DISABLED_COMMAND));
         String json = new GsonBuilder().create().toJson(commandsResponse);
 
-        AsyncHttpServerResponse res = response.code(403);
-        sendJson(res, json);
+        sendJson(response, 403, json);
     }
 
     /**
      * Send missing parameter error response
      *
-     * @param response HTTP response object
+     * @param response Response sender of the command
      * @param commandsName Command name
      */
-    public void sendMissingParameter(@NonNull AsyncHttpServerResponse response, CommandsName commandsName) {
+    public void sendMissingParameter(@NonNull ResponseSender response, CommandsName commandsName) {
         CommandsResponse commandsResponse = new CommandsResponse(commandsName, State.ERROR);
         commandsResponse.setError(new ErrorObject(Errors.MISSING_PARAMETER));
         String json = new GsonBuilder().create().toJson(commandsResponse);
 
-        AsyncHttpServerResponse res = response.code(400);
-        sendJson(res, json);
+        sendJson(response, 400, json);
     }
 
     /**
      * Send invalid parameter value error response
      *
-     * @param response HTTP response object
+     * @param response Response sender of the command
      * @param commandsName Command name
      */
-    public void sendInvalidParameterValue(@NonNull AsyncHttpServerResponse response,
+    public void sendInvalidParameterValue(@NonNull ResponseSender response,
                                           CommandsName commandsName) {
         CommandsResponse commandsResponse = new CommandsResponse(commandsName, State.ERROR);
         commandsResponse.setError(new ErrorObject(Errors.INVALID_PARAMETER_VALUE));
         String json = new GsonBuilder().create().toJson(commandsResponse);
 
-        AsyncHttpServerResponse res = response.code(400);
-        sendJson(res, json);
+        sendJson(response, 400, json);
     }
 
     /**
      * Send service unavailable error response
      *
-     * @param response HTTP response object
+     * @param response Response sender of the command
      * @param commandsName Command name
      */
-    public void sendServiceUnavailable(@NonNull AsyncHttpServerResponse response,
+    public void sendServiceUnavailable(@NonNull ResponseSender response,
                                        CommandsName commandsName) {
         CommandsResponse commandsResponse = new CommandsResponse(commandsName, State.ERROR);
         commandsResponse.setError(new ErrorObject(Errors.SERVICE_UNAVAILABLE));
         String json = new GsonBuilder().create().toJson(commandsResponse);
 
-        AsyncHttpServerResponse res = response.code(503);
-        sendJson(res, json);
+        sendJson(response, 503, json);
     }
 
     /**
      * Send no free space error response
      *
-     * @param response HTTP response object
+     * @param response Response sender of the command
      * @param commandsName Command name
      * */
-    public void sendNoFreeSpace(@NonNull AsyncHttpServerResponse response,
+    public void sendNoFreeSpace(@NonNull ResponseSender response,
                                 CommandsName commandsName) {
         CommandsResponse commandsResponse = new CommandsResponse(commandsName, State.ERROR);
         commandsResponse.setError(new ErrorObject(Errors.NO_FREE_SPACE));
         String json = new GsonBuilder().create().toJson(commandsResponse);
 
-        AsyncHttpServerResponse res = response.code(403);
-        sendJson(res, json);
+        sendJson(response, 403, json);
     }
 
     /**
      * Send unexpected error response
      *
-     * @param response HTTP response object
+     * @param response Response sender of the command
      * @param commandsName Command name
      */
-    private void sendUnexpected(@NonNull AsyncHttpServerResponse response,
+    private void sendUnexpected(@NonNull ResponseSender response,
                                 CommandsName commandsName) {
         CommandsResponse commandsResponse = new CommandsResponse(commandsName, State.ERROR);
         commandsResponse.setError(new ErrorObject(Errors.UNEXPECTED));
         String json = new GsonBuilder().create().toJson(commandsResponse);
 
-        AsyncHttpServerResponse res = response.code(503);
-        sendJson(res, json);
+        sendJson(response, 503, json);
     }
 
     /**
      * Send error response
      *
-     * @param response HTTP response object
+     * @param response Response sender of the command
      * @param errors Error object
      * @param commandsName Command name
      */
-    public void sendError(@NonNull AsyncHttpServerResponse response, Errors errors, CommandsName commandsName) {
+    public void sendError(@NonNull ResponseSender response, Errors errors, CommandsName commandsName) {
         switch (errors) {
             case DISABLED_COMMAND:
                 sendDisabledCommand(response, commandsName);
@@ -383,17 +442,18 @@ public class WebServer {
                 sendServiceUnavailable(response, commandsName);
                 break;
             case UNEXPECTED:
+            default:
+                // Any other error must still be answered, or the request never completes
                 sendUnexpected(response, commandsName);
                 break;
         }
     }
 
     /*
-     * Send HTTP response header
+     * Send response with status code
      */
-    private void sendJson(@NonNull AsyncHttpServerResponse response, String json) {
-        response.getHeaders().set(CONTENT_TYPE_OPTIONS, NOSNIFF);
-        response.send(APPLICATION_JSON, json);
+    private void sendJson(@NonNull ResponseSender response, int statusCode, String json) {
+        response.sendJson(statusCode, json);
     }
 
     private String replaceCompletion(String json, Number completion) {
@@ -414,6 +474,6 @@ public class WebServer {
      * Interface for callback when receiving HTTP command request
      */
     public interface Callback {
-        void commandsRequest(AsyncHttpServerResponse response, CommandsRequest commandsRequest);
+        void commandsRequest(ResponseSender response, CommandsRequest commandsRequest);
     }
 }
\ No newline at end of file
@@ -0,0 +1,291 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.koushikdutta.async.http.body.AsyncHttpRequestBody;
+import com.koushikdutta.async.http.body.StringBody;
+import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
+import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
+import com.koushikdutta.async.http.server.HttpServerRequestCallback;
+
+import com.theta360.pluginapplication.webrtc.sample.network.async.AsyncHttpServerEx;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * WHEP endpoint class
+ * (HTTP signaling in the manner of WHEP. A viewer sends the offer in a single POST, and receives the answer
+ *  which already includes the candidates of the camera. The candidates of the viewer can be added by PATCH,
+ *  and the session is closed by DELETE. Only one session is served at a time.)
+ *
+ * POST   /whep           application/sdp -> 201 Created, Location: /whep/{id}, application/sdp
+ * PATCH  /whep/{id}      application/trickle-ice-sdpfrag -> 204 No Content
+ * DELETE /whep/{id}      -> 200 OK
+ */
+public class WhepEndpoint {
+    private static final String TAG = "WhepEndpoint";
+
+    public static final String PATH = "/whep";
+    private static final String RESOURCE_PATH = PATH + "/([0-9a-f]+)";
+
+    // Time to wait for the answer (Camera open and candidate gathering)
+    private static final long ANSWER_TIMEOUT_MS = 15000;
+
+    /**
+     * Interface of notification callback function for requests
+     * (Called on the HTTP server thread.)
+     */
+    public interface Callback {
+        void onOffer(String sdp, AnswerSender sender);
+        void onCandidates(List<IceCandidate> candidates);
+        void onDelete();
+        // No answer was sent within the timeout (The viewer received 503.)
+        void onTimeout(AnswerSender sender);
+    }
+
+    /**
+     * Interface to send the answer of an offer
+     * (Only the first call of either method is effective.)
+     */
+    public interface AnswerSender {
+        void sendAnswer(String sdp);
+        void sendError(int statusCode);
+    }
+
+    private final Callback mCallback;
+    private String mSessionId = null; /* Guarded by this */
+
+    /*
+     * Answer sender of a POST request
+     */
+    private class HttpAnswerSender implements AnswerSender {
+        private final AsyncHttpServerResponse mResponse;
+        private final AtomicBoolean mSent = new AtomicBoolean(false);
+
+        HttpAnswerSender(AsyncHttpServerResponse response) {
+            mResponse = response;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void sendAnswer(String sdp) {
+            if (!mSent.compareAndSet(false, true)) {
+                return;
+            }
+            String sessionId = UUID.randomUUID().toString().replace("-", "");
+            synchronized (WhepEndpoint.this) {
+                mSessionId = sessionId;
+            }
+            Log.d(TAG, "Session created: " + sessionId);
+            mResponse.code(201);
+            setCorsHeaders(mResponse);
+            mResponse.getHeaders().set("Location", PATH + "/" + sessionId);
+            mResponse.send(AsyncHttpServerEx.CONTENT_TYPE_SDP, sdp);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void sendError(int statusCode) {
+            if (!mSent.compareAndSet(false, true)) {
+                return;
+            }
+            sendStatus(mResponse, statusCode);
+        }
+
+        /*
+         * Answer 503 if no answer has been sent (false: already answered)
+         */
+        boolean expire() {
+            if (!mSent.compareAndSet(false, true)) {
+                return false;
+            }
+            Log.w(TAG, "Answer timeout");
+            sendStatus(mResponse, 503);
+            return true;
+        }
+    }
+
+    private final HttpServerRequestCallback mOfferCallback = new HttpServerRequestCallback() {
+        @Override
+        public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+            String sdp = getSdpBody(request, AsyncHttpServerEx.CONTENT_TYPE_SDP);
+            if (sdp == null) {
+                sendStatus(response, 415);
+                return;
+            }
+            final HttpAnswerSender sender = new HttpAnswerSender(response);
+            response.getSocket().getServer().postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (sender.expire()) {
+                        mCallback.onTimeout(sender);
+                    }
+                }
+            }, ANSWER_TIMEOUT_MS);
+            mCallback.onOffer(sdp, sender);
+        }
+    };
+
+    private final HttpServerRequestCallback mTrickleCallback = new HttpServerRequestCallback() {
+        @Override
+        public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+            if (!isCurrentSession(request)) {
+                sendStatus(response, 404);
+                return;
+            }
+            String fragment = getSdpBody(request, AsyncHttpServerEx.CONTENT_TYPE_TRICKLE_ICE_SDPFRAG);
+            if (fragment == null) {
+                sendStatus(response, 415);
+                return;
+            }
+            mCallback.onCandidates(parseCandidates(fragment));
+            sendStatus(response, 204);
+        }
+    };
+
+    private final HttpServerRequestCallback mDeleteCallback = new HttpServerRequestCallback() {
+        @Override
+        public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+            if (!isCurrentSession(request)) {
+                sendStatus(response, 404);
+                return;
+            }
+            closeSession();
+            mCallback.onDelete();
+            sendStatus(response, 200);
+        }
+    };
+
+    private final HttpServerRequestCallback mPreflightCallback = new HttpServerRequestCallback() {
+        @Override
+        public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+            sendStatus(response, 204);
+        }
+    };
+
+    /**
+     * Constructor of WHEP endpoint class
+     *
+     * @param callback Implementation object of callback functions
+     */
+    public WhepEndpoint(@NonNull Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Register the endpoint on the HTTP server
+     *
+     * @param server HTTP server
+     */
+    public void register(AsyncHttpServerEx server) {
+        server.post(PATH + "$", mOfferCallback);
+        server.patch(RESOURCE_PATH + "$", mTrickleCallback);
+        server.delete(RESOURCE_PATH + "$", mDeleteCallback);
+        server.options(PATH + "(/[0-9a-f]+)?$", mPreflightCallback);
+    }
+
+    /**
+     * Return whether a session is served
+     *
+     * @return true: served
+     */
+    public synchronized boolean hasSession() {
+        return mSessionId != null;
+    }
+
+    /**
+     * Close the session (e.g. the peer connection is closed by the camera).
+     * Later requests to the session resource are answered with 404.
+     */
+    public synchronized void closeSession() {
+        if (mSessionId != null) {
+            Log.d(TAG, "Session closed: " + mSessionId);
+            mSessionId = null;
+        }
+    }
+
+    /*
+     * Return whether the request is to the resource of the current session
+     */
+    private synchronized boolean isCurrentSession(AsyncHttpServerRequest request) {
+        return mSessionId != null && request.getMatcher().matches() && mSessionId.equals(request.getMatcher().group(1));
+    }
+
+    /*
+     * Return the SDP of the request body (null: other content type)
+     */
+    private static String getSdpBody(AsyncHttpServerRequest request, String contentType) {
+        String requestType = request.getHeaders().get("Content-Type");
+        AsyncHttpRequestBody body = request.getBody();
+        if (requestType == null || !requestType.startsWith(contentType) || !(body instanceof StringBody)) {
+            return null;
+        }
+        return ((StringBody)body).get();
+    }
+
+    /*
+     * Parse the candidates of SDP fragment (RFC 8840)
+     * (The candidates follow the "a=mid" line of the media section. "a=end-of-candidates" is ignored.)
+     */
+    private static List<IceCandidate> parseCandidates(String fragment) {
+        List<IceCandidate> candidates = new ArrayList<IceCandidate>();
+        String mid = "";
+        int mLineIndex = -1;
+        for (String line : fragment.split("\r?\n")) {
+            if (line.startsWith("m=")) {
+                mLineIndex++;
+            } else if (line.startsWith("a=mid:")) {
+                mid = line.substring("a=mid:".length()).trim();
+            } else if (line.startsWith("a=candidate:")) {
+                // The media section is found by the mid, or by the index
+                candidates.add(new IceCandidate(mid, Math.max(0, mLineIndex), line.substring("a=".length()).trim()));
+            }
+        }
+        return candidates;
+    }
+
+    /*
+     * Send the response which has no body
+     */
+    private static void sendStatus(AsyncHttpServerResponse response, int statusCode) {
+        response.code(statusCode);
+        setCorsHeaders(response);
+        response.end();
+    }
+
+    /*
+     * Allow the players served from other origins
+     */
+    private static void setCorsHeaders(AsyncHttpServerResponse response) {
+        response.getHeaders().set("Access-Control-Allow-Origin", "*");
+        response.getHeaders().set("Access-Control-Allow-Methods", "POST, PATCH, DELETE, OPTIONS");
+        response.getHeaders().set("Access-Control-Allow-Headers", "Content-Type");
+        response.getHeaders().set("Access-Control-Expose-Headers", "Location");
+    }
+}
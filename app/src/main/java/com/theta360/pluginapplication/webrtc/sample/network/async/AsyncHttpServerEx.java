@@ -39,6 +39,7 @@ import com.koushikdutta.async.http.Protocol;
 import com.koushikdutta.async.http.WebSocket;
 import com.koushikdutta.async.http.WebSocketImpl;
 import com.koushikdutta.async.http.body.AsyncHttpRequestBody;
+import com.koushikdutta.async.http.body.StringBody;
 import com.koushikdutta.async.http.server.AsyncHttpServer;
 import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
 import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
@@ -62,6 +63,9 @@ import javax.net.ssl.SSLContext;
  * AsyncHttpServerEx
  */
 public class AsyncHttpServerEx extends AsyncHttpServer {
+    public static final String CONTENT_TYPE_SDP = "application/sdp";
+    public static final String CONTENT_TYPE_TRICKLE_ICE_SDPFRAG = "application/trickle-ice-sdpfrag";
+
     Callback mCallback;
     ArrayList<AsyncServerSocket> mListeners = new ArrayList<AsyncServerSocket>();
 
@@ -89,7 +93,13 @@ public class AsyncHttpServerEx extends AsyncHttpServer {
     }
 
     protected AsyncHttpRequestBody onUnknownBody(Headers headers) {
-        return new UnknownRequestBody(headers.get("Content-Type"));
+        String contentType = headers.get("Content-Type");
+        if (contentType != null && (contentType.startsWith(CONTENT_TYPE_SDP)
+                || contentType.startsWith(CONTENT_TYPE_TRICKLE_ICE_SDPFRAG))) {
+            // SDP of HTTP signaling is read as text
+            return new StringBody();
+        }
+        return new UnknownRequestBody(contentType);
     }
 
     ListenCallback mListenCallback = new ListenCallback() {
@@ -400,6 +410,18 @@ public class AsyncHttpServerEx extends AsyncHttpServer {
         addAction(AsyncHttpPost.METHOD, regex, callback);
     }
 
+    public void patch(String regex, HttpServerRequestCallback callback) {
+        addAction("PATCH", regex, callback);
+    }
+
+    public void delete(String regex, HttpServerRequestCallback callback) {
+        addAction("DELETE", regex, callback);
+    }
+
+    public void options(String regex, HttpServerRequestCallback callback) {
+        addAction("OPTIONS", regex, callback);
+    }
+
     public static android.util.Pair<Integer, InputStream> getAssetStream(final Context context,
             String asset) {
         AssetManager am = context.getAssets();
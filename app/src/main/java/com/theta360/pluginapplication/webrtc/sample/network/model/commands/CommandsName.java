@@ -14,6 +14,18 @@ public enum CommandsName {
     SET_SETTINGS("camera.setSettings"),
     GET_SETTINGS("camera.getSettings"),
     GET_STATUS("camera.getStatus"),
+    ENCODER_BENCHMARK("camera._encoderBenchmark"),
+    GET_STREAM_STATS("camera._getStreamStats"),
+    GET_SESSION_TRACES("camera._getSessionTraces"),
+    REQUEST_KEY_FRAME("camera._requestKeyFrame"),
+    REPORT_FIRST_FRAME("camera._reportFirstFrame"),
+    GET_CAPTURE_FORMATS("camera._getCaptureFormats"),
+    START_RECORDING("camera._startRecording"),
+    STOP_RECORDING("camera._stopRecording"),
+    EXPORT_CLIP("camera._exportClip"),
+    GET_SIGNALING_STATS("camera._getSignalingStats"),
+    GET_SIGNALING_METRICS("camera._getSignalingMetrics"),
+    SET_SIGNALING_HUB("camera._setSignalingHub"),
     UNKNOWN("unknown"),;
 
     private final String mCommands;
@@ -33,6 +33,9 @@ public class CommandsRequest {
     @SerializedName("parameters")
     Object mParameters;
 
+    // Reception time of the request (Not serialized)
+    private transient long mReceivedTimeNs;
+
     private CommandsRequest(CommandsName commandsName) {
         this.mName = commandsName.toString();
     }
@@ -42,6 +45,14 @@ public class CommandsRequest {
         this.mParameters = parameters;
     }
 
+    public long getReceivedTimeNs() {
+        return mReceivedTimeNs;
+    }
+
+    public void setReceivedTimeNs(long receivedTimeNs) {
+        this.mReceivedTimeNs = receivedTimeNs;
+    }
+
     public CommandsName getCommandsName() {
         return CommandsName.getValue(mName);
     }
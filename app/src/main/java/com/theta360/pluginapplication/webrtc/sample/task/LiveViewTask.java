@@ -18,8 +18,8 @@ package com.theta360.pluginapplication.webrtc.sample.task;
 
 import android.os.AsyncTask;
 
-import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
 import com.theta360.pluginapplication.webrtc.sample.network.HttpConnector;
+import com.theta360.pluginapplication.webrtc.sample.network.ResponseSender;
 import com.theta360.pluginapplication.webrtc.sample.network.model.requests.CommandsRequest;
 import com.theta360.pluginapplication.webrtc.sample.network.model.values.Errors;
 
@@ -31,7 +31,7 @@ import timber.log.Timber;
 public class LiveViewTask extends AsyncTask<Void, Void, HttpConnector.ShootResult> {
     private static final String TAG = "LiveViewTask";
     private Callback mCallback = null;
-    private AsyncHttpServerResponse mResponse;
+    private ResponseSender mResponse;
     private CommandsRequest mCommandRequest;
 
     /**
@@ -39,17 +39,17 @@ public class LiveViewTask extends AsyncTask<Void, Void, HttpConnector.ShootResul
      */
     public interface Callback {
         void onPreExecute();
-        void onSendCommand(AsyncHttpServerResponse response, CommandsRequest commandsRequest, Errors errors);
+        void onSendCommand(ResponseSender response, CommandsRequest commandsRequest, Errors errors);
     }
 
     /**
      * Constructor of Live view task class
      *
      * @param callback Implementation object of callback functions
-     * @param response HTTP response object
+     * @param response Response sender of the command
      * @param commandsRequest Command request object
      */
-    public LiveViewTask(Callback callback, AsyncHttpServerResponse response, CommandsRequest commandsRequest) {
+    public LiveViewTask(Callback callback, ResponseSender response, CommandsRequest commandsRequest) {
         this.mCallback = callback;
         this.mResponse = response;
         this.mCommandRequest = commandsRequest;
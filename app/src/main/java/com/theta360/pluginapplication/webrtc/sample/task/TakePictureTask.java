@@ -18,8 +18,8 @@ package com.theta360.pluginapplication.webrtc.sample.task;
 
 import android.os.AsyncTask;
 
-import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
 import com.theta360.pluginapplication.webrtc.sample.network.HttpConnector;
+import com.theta360.pluginapplication.webrtc.sample.network.ResponseSender;
 import com.theta360.pluginapplication.webrtc.sample.network.HttpEventListener;
 import com.theta360.pluginapplication.webrtc.sample.network.model.requests.CommandsRequest;
 import com.theta360.pluginapplication.webrtc.sample.network.model.values.Errors;
@@ -34,7 +34,7 @@ import timber.log.Timber;
 public class TakePictureTask extends AsyncTask<Void, Void, HttpConnector.ShootResult> {
     private static final String TAG = "TakePictureTask";
     private Callback mCallback = null;
-    private AsyncHttpServerResponse mResponse;
+    private ResponseSender mResponse;
     private CommandsRequest mCommandRequest;
 
     /**
@@ -42,7 +42,7 @@ public class TakePictureTask extends AsyncTask<Void, Void, HttpConnector.ShootRe
      */
     public interface Callback {
         void onPreExecute();
-        void onSendCommand(AsyncHttpServerResponse response, CommandsRequest commandsRequest, Errors errors);
+        void onSendCommand(ResponseSender response, CommandsRequest commandsRequest, Errors errors);
         void onTakePicture(String fileUrl);
         void onCompleted();
         void onError(String errorMessage);
@@ -52,10 +52,10 @@ public class TakePictureTask extends AsyncTask<Void, Void, HttpConnector.ShootRe
      * Constructor of take picture task class
      *
      * @param callback Implementation object of callback functions
-     * @param response HTTP response object
+     * @param response Response sender of the command
      * @param commandsRequest Command request object
      */
-    public TakePictureTask(Callback callback, AsyncHttpServerResponse response, CommandsRequest commandsRequest) {
+    public TakePictureTask(Callback callback, ResponseSender response, CommandsRequest commandsRequest) {
         this.mCallback = callback;
         this.mResponse = response;
         this.mCommandRequest = commandsRequest;
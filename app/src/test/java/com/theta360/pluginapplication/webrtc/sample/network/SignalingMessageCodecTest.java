@@ -0,0 +1,165 @@
+package com.theta360.pluginapplication.webrtc.sample.network;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test of SignalingMessageCodec (Runs on the host without Android.)
+ */
+public class SignalingMessageCodecTest {
+    private static final String SDP = "v=0\r\no=- 1 2 IN IP4 127.0.0.1\r\ns=-\r\na=rtcp-fb:96 nack\r\n";
+
+    @Test
+    public void decode_offer() throws Exception {
+        SignalingMessage message = SignalingMessageCodec.decode(
+                "{\"to\":\"peer-1\",\"type\":\"offer\",\"sdp\":\"v=0\\r\\ns=-\\r\\n\",\"iceRestart\":true}");
+        assertEquals(SignalingMessage.Type.OFFER, message.getType());
+        assertEquals("offer", message.getTypeName());
+        assertEquals("peer-1", message.getTo());
+        assertNull(message.getFrom());
+        assertEquals("v=0\r\ns=-\r\n", message.getSdp());
+        assertTrue(message.isIceRestart());
+        assertTrue(message.getRawMembers().isEmpty());
+    }
+
+    @Test
+    public void encode_decode_offer() throws Exception {
+        SignalingMessage offer = SignalingMessage.offer(SDP);
+        offer.setTo("peer-1");
+        offer.setFrom("camera");
+        offer.setIceRestart(true);
+        String text = SignalingMessageCodec.encode(offer);
+        assertEquals("{\"to\":\"peer-1\",\"from\":\"camera\",\"type\":\"offer\",\"sdp\":"
+                + "\"v=0\\r\\no=- 1 2 IN IP4 127.0.0.1\\r\\ns=-\\r\\na=rtcp-fb:96 nack\\r\\n\",\"iceRestart\":true}", text);
+
+        SignalingMessage decoded = SignalingMessageCodec.decode(text);
+        assertEquals(SignalingMessage.Type.OFFER, decoded.getType());
+        assertEquals(SDP, decoded.getSdp());
+        assertEquals("camera", decoded.getFrom());
+        assertTrue(decoded.isIceRestart());
+        assertEquals(text, SignalingMessageCodec.encode(decoded));
+    }
+
+    @Test
+    public void encode_decode_candidate() throws Exception {
+        SignalingMessage candidate = SignalingMessage.candidate("video", 1, "candidate:1 1 udp 2122260223 192.168.1.2 50000 typ host");
+        SignalingMessage decoded = SignalingMessageCodec.decode(SignalingMessageCodec.encode(candidate));
+        assertEquals(SignalingMessage.Type.CANDIDATE, decoded.getType());
+        assertEquals("video", decoded.getSdpMid());
+        assertEquals(1, decoded.getSdpMLineIndex());
+        assertEquals(candidate.getCandidate(), decoded.getCandidate());
+    }
+
+    @Test
+    public void decode_candidate_withoutIndex() throws Exception {
+        SignalingMessage decoded = SignalingMessageCodec.decode("{\"type\":\"candidate\",\"candidate\":\"c\",\"sdpMid\":null,\"sdpMLineIndex\":null}");
+        assertNull(decoded.getSdpMid());
+        assertEquals(-1, decoded.getSdpMLineIndex());
+        assertFalse(SignalingMessageCodec.encode(decoded).contains("sdpMLineIndex"));
+    }
+
+    @Test
+    public void decode_control_keepsRawMembers() throws Exception {
+        String text = "{\"type\":\"event\",\"event\":\"shootingStatus\",\"seq\":12,"
+                + "\"data\":{\"status\":\"idle\",\"list\":[1,-2.5e3,true,null,{\"a\":\"}\\\"]\"}]}}";
+        SignalingMessage message = SignalingMessageCodec.decode(text);
+        assertEquals(SignalingMessage.Type.CONTROL, message.getType());
+        assertEquals("event", message.getTypeName());
+        assertEquals("shootingStatus", message.optString("event"));
+        assertEquals("12", message.getRaw("seq"));
+        assertEquals("{\"status\":\"idle\",\"list\":[1,-2.5e3,true,null,{\"a\":\"}\\\"]\"}]}", message.getRaw("data"));
+        assertNull(message.optString("seq"));
+        // The members are routed as they are
+        assertEquals(text, SignalingMessageCodec.encode(message));
+    }
+
+    @Test
+    public void decode_bye() throws Exception {
+        assertEquals(SignalingMessage.Type.BYE, SignalingMessageCodec.decode("{\"type\":\"bye\"}").getType());
+    }
+
+    @Test
+    public void decode_whitespace() throws Exception {
+        SignalingMessage message = SignalingMessageCodec.decode(" {\n \"type\" : \"answer\" ,\r\n\t\"sdp\" : \"v=0\" , \"x\" : [ 1 , { } ] } ");
+        assertEquals(SignalingMessage.Type.ANSWER, message.getType());
+        assertEquals("v=0", message.getSdp());
+        assertEquals("[ 1 , { } ]", message.getRaw("x"));
+    }
+
+    @Test
+    public void decode_emptyObject() throws Exception {
+        SignalingMessage message = SignalingMessageCodec.decode("{}");
+        assertEquals(SignalingMessage.Type.CONTROL, message.getType());
+        assertNull(message.getTypeName());
+        assertEquals("{}", SignalingMessageCodec.encode(message));
+    }
+
+    @Test
+    public void decode_typedMemberOfOtherFormat_keptRaw() throws Exception {
+        // e.g. RTCIceCandidate serialized as an object
+        SignalingMessage message = SignalingMessageCodec.decode("{\"type\":\"candidate\",\"candidate\":{\"candidate\":\"c\",\"sdpMid\":\"0\"}}");
+        assertNull(message.getCandidate());
+        assertEquals("{\"candidate\":\"c\",\"sdpMid\":\"0\"}", message.getRaw("candidate"));
+    }
+
+    @Test
+    public void escapes() throws Exception {
+        String value = "quote\" backslash\\ slash/ tab\t nul\u0000 ls\u2028 non-ASCII \u00e9\u3042\ud83d\ude00";
+        SignalingMessage message = new SignalingMessage("event");
+        message.putString("text", value);
+        String text = SignalingMessageCodec.encode(message);
+        assertTrue(text.contains("\\u0000"));
+        assertTrue(text.contains("\\u2028"));
+        assertEquals(value, SignalingMessageCodec.decode(text).optString("text"));
+        assertEquals("\u00e9/\ud83d\ude00", SignalingMessageCodec.decode("{\"sdp\":\"\\u00E9\\/\\ud83d\\ude00\"}").getSdp());
+    }
+
+    @Test
+    public void optBoolean() throws Exception {
+        SignalingMessage message = SignalingMessageCodec.decode("{\"type\":\"welcome\",\"resumed\":true,\"other\":\"true\"}");
+        assertTrue(message.optBoolean("resumed"));
+        assertFalse(message.optBoolean("other"));
+        assertFalse(message.optBoolean("missing"));
+    }
+
+    @Test
+    public void utf8Length() {
+        String[] texts = { "", "ascii", "\u00e9\u07ff", "\u0800\u3042\uffff", "\ud83d\ude00" };
+        for (String text : texts) {
+            assertEquals(text, text.getBytes(StandardCharsets.UTF_8).length, SignalingMessageCodec.utf8Length(text));
+        }
+    }
+
+    @Test
+    public void decode_malformed() {
+        String[] texts = {
+                "",
+                "[]",
+                "{\"type\":\"offer\"",
+                "{\"type\":\"offer\"} x",
+                "{\"type\" \"offer\"}",
+                "{\"type\":\"offer\",}",
+                "{\"type\":\"off\ner\"}",
+                "{\"sdp\":\"\\x\"}",
+                "{\"sdp\":\"\\u12\"}",
+                "{\"seq\":abc}",
+                "{\"seq\":trueish}",
+                "{\"data\":{\"a\":1,}}",
+                "{\"data\":{\"a\" 1}}",
+                "{\"data\":[1 2]}",
+                "{\"sdpMLineIndex\":\"0\"}",
+                "{\"sdpMLineIndex\":1.5}",
+        };
+        for (String text : texts) {
+            try {
+                SignalingMessageCodec.decode(text);
+                fail("Decoded: " + text);
+            } catch (SignalingMessageCodec.MalformedMessageException e) {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.hub;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.theta360.pluginapplication.webrtc.sample.network.SignalingServer;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Signaling hub of the cameras of a site, on a plain JVM of a gateway
+ * (Runs SignalingServer in hub mode. The plug-ins are registered by 'camera._setSignalingHub',
+ *  and the viewers attach to a camera by "ws://gateway:8889/?camera=<camera ID>".)
+ *
+ * HTTP (read only, for the viewers and the monitoring):
+ *   GET /cameras   Registered cameras with the load counters of each camera
+ *   GET /metrics   Live metrics of the signaling server
+ *   GET /stats     Message counters of each route
+ *
+ * Options:
+ *   --host=ADDR       Address of the servers (default all interfaces)
+ *   --port=N          Port of the signaling server (default 8889)
+ *   --http-port=N     Port of the HTTP server (default 8890, 0: disabled)
+ *   --resume-grace=MS Period to keep the session of a disconnected peer (default of the server)
+ */
+public class SignalingHub {
+    private static final String CONTENT_TYPE_JSON = "application/json; charset=utf-8";
+
+    private String mHost = null;
+    private int mPort = 8889;
+    private int mHttpPort = 8890;
+    private long mResumeGraceMs = -1;
+
+    private SignalingServer mSigServer = null;
+    private HttpServer mHttpServer = null;
+
+    public static void main(String[] args) throws Exception {
+        final SignalingHub hub = new SignalingHub();
+        for (String arg : args) {
+            if (!hub.parse(arg)) {
+                System.err.println("Unknown option: " + arg);
+                System.exit(2);
+            }
+        }
+        hub.start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                hub.stop();
+            }
+        });
+    }
+
+    /*
+     * Parse an option
+     */
+    private boolean parse(String arg) {
+        String value = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : null;
+        if (arg.startsWith("--host=")) {
+            mHost = value;
+        } else if (arg.startsWith("--port=")) {
+            mPort = Integer.parseInt(value);
+        } else if (arg.startsWith("--http-port=")) {
+            mHttpPort = Integer.parseInt(value);
+        } else if (arg.startsWith("--resume-grace=")) {
+            mResumeGraceMs = Long.parseLong(value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Start the signaling server and the HTTP server
+     */
+    private void start() throws IOException {
+        mSigServer = (mHost == null) ? new SignalingServer(null, mPort) : new SignalingServer(null, mHost, mPort);
+        mSigServer.setHubMode(true);
+        if (mResumeGraceMs >= 0) {
+            mSigServer.setResumeGracePeriod(mResumeGraceMs);
+        }
+        mSigServer.setReuseAddr(true);
+        mSigServer.start();
+        System.out.println("signaling hub on port " + mPort);
+
+        if (mHttpPort > 0) {
+            InetSocketAddress address = (mHost == null) ? new InetSocketAddress(mHttpPort) : new InetSocketAddress(mHost, mHttpPort);
+            mHttpServer = HttpServer.create(address, 0);
+            mHttpServer.createContext("/cameras", new JsonHandler() {
+                @Override
+                JSONObject get() {
+                    return mSigServer.getCameras();
+                }
+            });
+            mHttpServer.createContext("/metrics", new JsonHandler() {
+                @Override
+                JSONObject get() {
+                    return mSigServer.getMetrics();
+                }
+            });
+            mHttpServer.createContext("/stats", new JsonHandler() {
+                @Override
+                JSONObject get() {
+                    return mSigServer.getRouteStats();
+                }
+            });
+            mHttpServer.start();
+            System.out.println("discovery on http port " + mHttpPort);
+        }
+    }
+
+    /*
+     * Stop the servers
+     */
+    private void stop() {
+        if (mHttpServer != null) {
+            mHttpServer.stop(0);
+            mHttpServer = null;
+        }
+        if (mSigServer != null) {
+            try {
+                mSigServer.stop(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mSigServer = null;
+        }
+    }
+
+    /*
+     * Handler of a read only resource of JSON format
+     * (The viewers are usually served from another origin.)
+     */
+    private abstract static class JsonHandler implements HttpHandler {
+        abstract JSONObject get();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = get().toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE_JSON);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
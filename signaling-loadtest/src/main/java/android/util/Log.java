@@ -0,0 +1,63 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+/**
+ * Log class for the plain JVM
+ * (Replaces android.util.Log of the signaling classes. Only warnings and errors are printed,
+ *  unless "-Dloadtest.verbose=true" is specified, since debug logs of hundreds of clients
+ *  would dominate the measurement.)
+ */
+public final class Log {
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private static final boolean VERBOSE = Boolean.getBoolean("loadtest.verbose");
+
+    private Log() {
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return VERBOSE || level >= WARN;
+    }
+
+    public static int d(String tag, String msg) {
+        return VERBOSE ? print("D", tag, msg) : 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return VERBOSE ? print("I", tag, msg) : 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return print("W", tag, msg);
+    }
+
+    public static int e(String tag, String msg) {
+        return print("E", tag, msg);
+    }
+
+    /*
+     * Print the log to the standard error
+     */
+    private static int print(String level, String tag, String msg) {
+        System.err.println(level + "/" + tag + ": " + msg);
+        return 0;
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.theta360.pluginapplication.webrtc.sample.loadtest;
+
+import com.theta360.pluginapplication.webrtc.sample.network.SignalingMessage;
+import com.theta360.pluginapplication.webrtc.sample.network.SignalingMessageCodec;
+
+import org.json.JSONObject;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Benchmark of SignalingMessageCodec against org.json
+ * (Decodes and encodes the messages of a session in the way of the signaling server and MainActivity:
+ *  parse the text, read the typed members, set "from" or "to", and serialize it again.
+ *  Reports the time and the heap allocated per message.)
+ *
+ * Options:
+ *   --iterations=N   Measured iterations of each case (default 200000)
+ */
+public class CodecBenchmark {
+    private static final String CAMERA_ADDRESS = "192.168.1.1";
+    private static final String VIEWER_ADDRESS = "192.168.1.2";
+
+    private int mIterations = 200000;
+    private long mSink = 0;     // Keeps the results alive
+
+    /*
+     * Case of the benchmark
+     */
+    private interface Case {
+        void run(String text) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        CodecBenchmark benchmark = new CodecBenchmark();
+        for (String arg : args) {
+            if (arg.startsWith("--iterations=")) {
+                benchmark.mIterations = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            } else {
+                System.err.println("Unknown option: " + arg);
+                System.exit(2);
+            }
+        }
+        benchmark.run();
+    }
+
+    /*
+     * Run the benchmark of each message
+     */
+    private void run() throws Exception {
+        SyntheticSdp sdp = new SyntheticSdp(0);
+        SignalingMessage offer = SignalingMessage.offer(sdp.createOffer(CAMERA_ADDRESS));
+        offer.setTo("peer-1");
+        SignalingMessage answer = SignalingMessage.answer(sdp.createAnswer(VIEWER_ADDRESS));
+        answer.setTo("camera");
+        SignalingMessage candidate = SignalingMessage.candidate("0", 0, sdp.createCandidate(VIEWER_ADDRESS));
+        candidate.setTo("camera");
+        String event = "{\"type\":\"event\",\"event\":\"shootingStatus\",\"seq\":12,\"data\":{\"status\":\"idle\"}}";
+
+        System.out.println("iterations=" + mIterations);
+        measure("offer", SignalingMessageCodec.encode(offer));
+        measure("answer", SignalingMessageCodec.encode(answer));
+        measure("candidate", SignalingMessageCodec.encode(candidate));
+        measure("event", event);
+        if (mSink == 42) {
+            System.out.println();
+        }
+    }
+
+    /*
+     * Measure both implementations with the message
+     */
+    private void measure(String name, String text) throws Exception {
+        Case orgJson = new Case() {
+            @Override
+            public void run(String text) throws Exception {
+                JSONObject json = new JSONObject(text);
+                String type = json.optString("type");
+                String sdp = json.optString("sdp");
+                json.put("from", "peer-1");
+                mSink += type.length() + sdp.length() + json.toString().length();
+            }
+        };
+        Case codec = new Case() {
+            @Override
+            public void run(String text) throws Exception {
+                SignalingMessage message = SignalingMessageCodec.decode(text);
+                String sdp = message.getSdp();
+                message.setFrom("peer-1");
+                mSink += message.getType().ordinal() + ((sdp == null) ? 0 : sdp.length())
+                        + SignalingMessageCodec.encode(message).length();
+            }
+        };
+        String jsonResult = run(orgJson, text);
+        String codecResult = run(codec, text);
+        System.out.println(String.format("%-10s %6d chars  org.json %s  codec %s", name, text.length(), jsonResult, codecResult));
+    }
+
+    /*
+     * Warm up, and measure the case (Time and allocation per message)
+     */
+    private String run(Case benchmarkCase, String text) throws Exception {
+        for (int i = 0; i < mIterations / 2; i++) {
+            benchmarkCase.run(text);
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threads);
+        long startNs = System.nanoTime();
+        for (int i = 0; i < mIterations; i++) {
+            benchmarkCase.run(text);
+        }
+        long elapsedNs = System.nanoTime() - startNs;
+        long allocated = allocatedBytes(threads) - allocatedBefore;
+        return String.format("%8.2f us %8d B", elapsedNs / 1000.0 / mIterations, allocated / mIterations);
+    }
+
+    /*
+     * Return the bytes allocated by this thread (HotSpot), or 0 if not supported
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency recorder class
+ * (Keeps every sample of a run, so that the percentiles are exact. A run of hundreds of clients
+ *  for a few minutes is a few million samples at most.)
+ */
+public class LatencyRecorder {
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final String mName;
+    private final AtomicLong mBytes = new AtomicLong();
+    // Guarded by this
+    private long[] mSamplesNs = new long[INITIAL_CAPACITY];
+    private int mCount = 0;
+
+    /**
+     * Constructor of latency recorder class
+     *
+     * @param name Name of the measured route
+     */
+    public LatencyRecorder(String name) {
+        mName = name;
+    }
+
+    /**
+     * Record a message
+     *
+     * @param sentTimeNs Time when the message was sent (System.nanoTime())
+     * @param bytes Bytes of the message
+     */
+    public void record(long sentTimeNs, long bytes) {
+        long latencyNs = System.nanoTime() - sentTimeNs;
+        mBytes.addAndGet(bytes);
+        synchronized (this) {
+            if (mCount == mSamplesNs.length) {
+                mSamplesNs = Arrays.copyOf(mSamplesNs, mCount * 2);
+            }
+            mSamplesNs[mCount++] = latencyNs;
+        }
+    }
+
+    /**
+     * Discard the recorded messages (e.g. at the end of a phase of the run)
+     */
+    public void reset() {
+        mBytes.set(0);
+        synchronized (this) {
+            mCount = 0;
+        }
+    }
+
+    /**
+     * Return the number of recorded messages
+     *
+     * @return Number of messages
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Return the bytes of the recorded messages
+     *
+     * @return Bytes
+     */
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    /**
+     * Return the report of the latencies
+     *
+     * @param durationSec Duration of the run (seconds)
+     * @return Report (One line)
+     */
+    public String report(double durationSec) {
+        long[] samples;
+        synchronized (this) {
+            samples = Arrays.copyOf(mSamplesNs, mCount);
+        }
+        if (samples.length == 0) {
+            return String.format("%-10s no messages", mName);
+        }
+        Arrays.sort(samples);
+        // Messages of a local endpoint have no bytes on the wire
+        String throughput = (mBytes.get() == 0) ? "" : String.format(" %9.1f KB/s", mBytes.get() / 1024.0 / durationSec);
+        return String.format("%-10s %8d msgs %9.1f msg/s%s  p50 %7.2f  p90 %7.2f  p99 %7.2f  p99.9 %7.2f  max %7.2f ms",
+                mName, samples.length, samples.length / durationSec, throughput,
+                percentileMs(samples, 50), percentileMs(samples, 90), percentileMs(samples, 99),
+                percentileMs(samples, 99.9), samples[samples.length - 1] / 1e6);
+    }
+
+    /*
+     * Return the percentile of the sorted samples (nearest rank)
+     */
+    private static double percentileMs(long[] sortedSamples, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sortedSamples.length);
+        return sortedSamples[Math.max(0, Math.min(sortedSamples.length - 1, rank - 1))] / 1e6;
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.loadtest;
+
+import com.theta360.pluginapplication.webrtc.sample.network.SignalingServer;
+
+import org.json.JSONObject;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the signaling server on a plain JVM
+ * (Starts SignalingServer in this process with the camera on its local endpoint, connects
+ *  synthetic viewers over loopback, and reports the latency percentiles of the messages,
+ *  the throughput and the heap per connection.)
+ *
+ * Options:
+ *   --clients=N      Number of viewers (default 200)
+ *   --duration=SEC   Duration of the steady state (default 30)
+ *   --rate=N         ICE candidates sent by each viewer per second (default 2)
+ *   --port=N         Port of the signaling server (default 18889)
+ *   --no-deflate     The viewers do not offer permessage-deflate
+ *   --compact        The viewers use the compact envelope
+ */
+public class SignalingLoadTest {
+    private static final String HOST = "127.0.0.1";
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+    private static final long EVENT_INTERVAL_MS = 1000;
+
+    private int mClients = 200;
+    private int mDurationSec = 30;
+    private int mRate = 2;
+    private int mPort = 18889;
+    private boolean mDeflate = true;
+    private boolean mCompact = false;
+
+    public static void main(String[] args) throws Exception {
+        SignalingLoadTest loadTest = new SignalingLoadTest();
+        for (String arg : args) {
+            if (!loadTest.parse(arg)) {
+                System.err.println("Unknown option: " + arg);
+                System.exit(2);
+            }
+        }
+        System.exit(loadTest.run() ? 0 : 1);
+    }
+
+    /*
+     * Parse an option
+     */
+    private boolean parse(String arg) {
+        String value = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : null;
+        if (arg.startsWith("--clients=")) {
+            mClients = Integer.parseInt(value);
+        } else if (arg.startsWith("--duration=")) {
+            mDurationSec = Integer.parseInt(value);
+        } else if (arg.startsWith("--rate=")) {
+            mRate = Integer.parseInt(value);
+        } else if (arg.startsWith("--port=")) {
+            mPort = Integer.parseInt(value);
+        } else if (arg.equals("--no-deflate")) {
+            mDeflate = false;
+        } else if (arg.equals("--compact")) {
+            mCompact = true;
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Run the load test (false: some viewers failed)
+     */
+    private boolean run() throws Exception {
+        System.out.println("clients=" + mClients + " duration=" + mDurationSec + "s rate=" + mRate
+                + "/s deflate=" + mDeflate + " compact=" + mCompact);
+
+        LatencyRecorder upstream = new LatencyRecorder("upstream");
+        LatencyRecorder downstream = new LatencyRecorder("downstream");
+        AtomicLong errors = new AtomicLong();
+
+        SignalingServer server = new SignalingServer(null, HOST, mPort);
+        server.setReuseAddr(true);
+        server.start();
+        SyntheticCamera camera = new SyntheticCamera(upstream);
+        camera.open(server.createLocalEndpoint(SignalingServer.CAMERA_PEER_ID));
+        long heapBefore = usedHeap();
+
+        // Connect the viewers, and wait for the answers of all the offers
+        List<SyntheticViewer> viewers = new ArrayList<SyntheticViewer>(mClients);
+        long connectStartNs = System.nanoTime();
+        for (int i = 0; i < mClients; i++) {
+            SyntheticViewer viewer = new SyntheticViewer("ws://" + HOST + ":" + mPort, i, mDeflate, mCompact, downstream, errors);
+            if (!connect(viewer)) {
+                errors.incrementAndGet();
+            }
+            viewers.add(viewer);
+        }
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (camera.getAnswers() < mClients && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        double connectSec = (System.nanoTime() - connectStartNs) / 1e9;
+        long heapAfter = usedHeap();
+        long unanswered = mClients - camera.getAnswers();
+        System.out.printf("connected %d viewers, %d answered in %.2f s (%.1f handshakes/s)%n",
+                countOpen(viewers), camera.getAnswers(), connectSec, mClients / connectSec);
+        System.out.printf("heap %.1f KB per connection (server and viewer of this process)%n",
+                (heapAfter - heapBefore) / 1024.0 / Math.max(1, mClients));
+        System.out.println(downstream.report(connectSec) + "  (signaling)");
+        System.out.println(upstream.report(connectSec) + "  (signaling)");
+
+        // Steady state: candidates of the viewers and status events of the camera
+        upstream.reset();
+        downstream.reset();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long periodUs = 1000000L / Math.max(1, mRate);
+        for (int i = 0; i < viewers.size(); i++) {
+            final SyntheticViewer viewer = viewers.get(i);
+            // Spread the viewers over the period
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    viewer.sendCandidate();
+                }
+            }, periodUs * i / viewers.size(), periodUs, TimeUnit.MICROSECONDS);
+        }
+        final SyntheticCamera eventSource = camera;
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                eventSource.broadcastEvent();
+            }
+        }, EVENT_INTERVAL_MS, EVENT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        Thread.sleep(mDurationSec * 1000L);
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+
+        System.out.println(downstream.report(mDurationSec) + "  (steady)");
+        System.out.println(upstream.report(mDurationSec) + "  (steady)");
+
+        JSONObject stats = server.getRouteStats();
+        printSessionBytes(stats.optJSONObject("sessionBytes"));
+        for (SyntheticViewer viewer : viewers) {
+            viewer.closeBlocking();
+        }
+        printMetrics(server.getMetrics());
+        server.stop(1000);
+        System.out.println("evictions=" + stats.optLong("evictions") + " invalidMessages=" + stats.optLong("invalidMessages")
+                + " unanswered=" + unanswered + " errors=" + errors.get());
+        return errors.get() == 0 && unanswered == 0;
+    }
+
+    /*
+     * Connect the viewer (false: failed)
+     */
+    private static boolean connect(SyntheticViewer viewer) {
+        try {
+            return viewer.connectBlocking();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /*
+     * Return the number of the open viewers
+     */
+    private static int countOpen(List<SyntheticViewer> viewers) {
+        int count = 0;
+        for (SyntheticViewer viewer : viewers) {
+            if (viewer.isOpen()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Print the average bytes of a session (JSON of the signaling, and on the wire)
+     */
+    private static void printSessionBytes(JSONObject sessions) {
+        if (sessions == null || sessions.length() == 0) {
+            return;
+        }
+        long jsonBytes = 0;
+        long wireBytes = 0;
+        for (String peerId : sessions.keySet()) {
+            JSONObject session = sessions.getJSONObject(peerId);
+            jsonBytes += session.optLong("jsonBytes");
+            wireBytes += session.optLong("wireBytes");
+        }
+        System.out.printf("bytes per session: json %d, wire %d (%.1f%%)%n", jsonBytes / sessions.length(),
+                wireBytes / sessions.length(), (jsonBytes == 0) ? 0.0 : 100.0 * wireBytes / jsonBytes);
+    }
+
+    /*
+     * Print the metrics of the server (messages per type, send failures and close codes)
+     */
+    private static void printMetrics(JSONObject metrics) {
+        JSONObject handshakes = metrics.getJSONObject("handshakesPerSecond");
+        System.out.println("server: handshakes=" + metrics.getJSONObject("connections").optLong("handshakes")
+                + " peak=" + handshakes.optLong("peak60s") + "/s open=" + metrics.getJSONObject("connections").optInt("open"));
+        JSONObject messages = metrics.getJSONObject("messages");
+        for (String type : new TreeSet<String>(messages.keySet())) {
+            JSONObject counters = messages.getJSONObject(type);
+            System.out.printf("  %-10s in %8d msgs %10d bytes, out %8d msgs %10d bytes%n", type,
+                    counters.optLong("messagesIn"), counters.optLong("bytesIn"),
+                    counters.optLong("messagesOut"), counters.optLong("bytesOut"));
+        }
+        System.out.println("  sendFailures " + metrics.getJSONObject("sendFailures") + " closeCodes " + metrics.getJSONArray("closeCodes"));
+    }
+
+    /*
+     * Return the used heap after garbage collection
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
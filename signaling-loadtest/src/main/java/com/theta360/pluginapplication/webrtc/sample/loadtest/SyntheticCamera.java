@@ -0,0 +1,130 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.loadtest;
+
+import com.theta360.pluginapplication.webrtc.sample.network.SignalingEndpoint;
+import com.theta360.pluginapplication.webrtc.sample.network.SignalingMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Synthetic camera class
+ * (Behaves as MainActivity on the local endpoint: sends an offer to each viewer which subscribes,
+ *  replies to each ICE candidate with its own, and broadcasts the status events.)
+ */
+public class SyntheticCamera implements SignalingEndpoint.Callbacks {
+    private static final String CAMERA_ADDRESS = "192.168.1.1";
+
+    private final SyntheticSdp mSdp = new SyntheticSdp(0);
+    private final LatencyRecorder mUpstream;
+    private final AtomicLong mAnswers = new AtomicLong();
+    private SignalingEndpoint mEndpoint = null;
+    private long mEventSequence = 0;
+
+    /**
+     * Constructor of synthetic camera class
+     *
+     * @param upstream Recorder of the messages from the viewers
+     */
+    public SyntheticCamera(LatencyRecorder upstream) {
+        mUpstream = upstream;
+    }
+
+    /**
+     * Connect to the signaling server
+     *
+     * @param endpoint Endpoint of the camera
+     * @return true: success, false: failed
+     */
+    public boolean open(SignalingEndpoint endpoint) {
+        mEndpoint = endpoint;
+        return endpoint.open(this);
+    }
+
+    /**
+     * Return the number of the answers received
+     *
+     * @return Number of answers
+     */
+    public long getAnswers() {
+        return mAnswers.get();
+    }
+
+    /**
+     * Broadcast a status event to all the viewers
+     */
+    public synchronized void broadcastEvent() {
+        SignalingMessage message = new SignalingMessage("event");
+        message.putString("event", "shootingStatus");
+        message.putRaw("seq", Long.toString(++mEventSequence));
+        message.putRaw("data", "{\"status\":\"" + ((mEventSequence % 2 == 0) ? "idle" : "shooting") + "\"}");
+        send(message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onConnected() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onDisconnected() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onRecvMessage(SignalingMessage message) {
+        String ts = message.getRaw("ts");
+        mUpstream.record((ts == null) ? 0 : Long.parseLong(ts), 0);
+        String from = message.getFrom();
+        switch (message.getType()) {
+        case CONTROL:
+            if ("subscribe".equals(message.getTypeName())) {
+                // Offer to the viewer (The camera is the offerer.)
+                SignalingMessage offer = SignalingMessage.offer(mSdp.createOffer(CAMERA_ADDRESS));
+                offer.setTo(from);
+                send(offer);
+            }
+            break;
+        case ANSWER:
+            mAnswers.incrementAndGet();
+            break;
+        case CANDIDATE:
+            SignalingMessage candidate = SignalingMessage.candidate(message.getSdpMid(), message.getSdpMLineIndex(),
+                    mSdp.createCandidate(CAMERA_ADDRESS));
+            candidate.setTo(from);
+            send(candidate);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /*
+     * Send the message with the time stamp of the latency measurement
+     */
+    private void send(SignalingMessage message) {
+        message.putRaw("ts", Long.toString(System.nanoTime()));
+        mEndpoint.send(message);
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.loadtest;
+
+import java.util.Random;
+
+/**
+ * Synthetic SDP class
+ * (Offers and answers of the same shape as the plug-in exchanges with a browser:
+ *  Plan B, audio, H.264 of several profiles with RTX, and a data channel.
+ *  The ICE credentials, fingerprint and SSRCs differ for each session, as the real ones do.)
+ */
+public class SyntheticSdp {
+    private static final String CRLF = "\r\n";
+    private static final String[] H264_PROFILES = { "42e01f", "42001f", "640032", "4d0032" };
+
+    private final Random mRandom;
+
+    /**
+     * Constructor of synthetic SDP class
+     *
+     * @param seed Seed of the random values
+     */
+    public SyntheticSdp(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Create an offer
+     *
+     * @param address Address of the host candidates
+     * @return SDP
+     */
+    public String createOffer(String address) {
+        return create("actpass", "sendonly", address);
+    }
+
+    /**
+     * Create an answer
+     *
+     * @param address Address of the host candidates
+     * @return SDP
+     */
+    public String createAnswer(String address) {
+        return create("active", "recvonly", address);
+    }
+
+    /**
+     * Create a candidate line
+     *
+     * @param address Address
+     * @return Candidate ("candidate:...")
+     */
+    public String createCandidate(String address) {
+        return "candidate:" + (1000000000L + mRandom.nextInt(1000000000)) + " 1 udp 2122260223 " + address
+                + " " + (49152 + mRandom.nextInt(16383)) + " typ host generation 0 network-id 1 network-cost 10";
+    }
+
+    /*
+     * Create SDP of the session
+     */
+    private String create(String setup, String direction, String address) {
+        String ufrag = token(4);
+        String pwd = token(24);
+        String fingerprint = fingerprint();
+        String cname = token(16);
+        StringBuilder sdp = new StringBuilder(6000);
+
+        line(sdp, "v=0");
+        line(sdp, "o=- " + Math.abs(mRandom.nextLong()) + " 2 IN IP4 127.0.0.1");
+        line(sdp, "s=-");
+        line(sdp, "t=0 0");
+        line(sdp, "a=group:BUNDLE audio video data");
+        line(sdp, "a=msid-semantic: WMS ARDAMS");
+
+        // Audio
+        line(sdp, "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 110 112 113 126");
+        transport(sdp, ufrag, pwd, fingerprint, setup, "audio");
+        line(sdp, "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level");
+        line(sdp, "a=" + direction);
+        line(sdp, "a=rtcp-mux");
+        line(sdp, "a=rtpmap:111 opus/48000/2");
+        line(sdp, "a=rtcp-fb:111 transport-cc");
+        line(sdp, "a=fmtp:111 minptime=10;useinbandfec=1");
+        for (String codec : new String[] { "103 ISAC/16000", "104 ISAC/32000", "9 G722/8000", "0 PCMU/8000", "8 PCMA/8000",
+                "106 CN/32000", "105 CN/16000", "13 CN/8000", "110 telephone-event/48000", "112 telephone-event/32000",
+                "113 telephone-event/16000", "126 telephone-event/8000" }) {
+            line(sdp, "a=rtpmap:" + codec);
+        }
+        ssrc(sdp, ssrc(), cname, "ARDAMSa0");
+        line(sdp, "a=" + createCandidate(address));
+
+        // Video
+        line(sdp, "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 102 103 104 105 106 107 108 109 110");
+        transport(sdp, ufrag, pwd, fingerprint, setup, "video");
+        line(sdp, "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset");
+        line(sdp, "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time");
+        line(sdp, "a=extmap:4 urn:3gpp:video-orientation");
+        line(sdp, "a=extmap:5 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01");
+        line(sdp, "a=" + direction);
+        line(sdp, "a=rtcp-mux");
+        line(sdp, "a=rtcp-rsize");
+        int payloadType = 96;
+        for (String profile : H264_PROFILES) {
+            videoCodec(sdp, payloadType, "H264/90000");
+            line(sdp, "a=fmtp:" + payloadType + " level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=" + profile);
+            rtx(sdp, payloadType);
+            payloadType += 2;
+        }
+        for (String codec : new String[] { "VP8/90000", "VP9/90000" }) {
+            videoCodec(sdp, payloadType, codec);
+            rtx(sdp, payloadType);
+            payloadType += 2;
+        }
+        line(sdp, "a=rtpmap:108 red/90000");
+        rtx(sdp, 108);
+        line(sdp, "a=rtpmap:110 ulpfec/90000");
+        long videoSsrc = ssrc();
+        long rtxSsrc = ssrc();
+        line(sdp, "a=ssrc-group:FID " + videoSsrc + " " + rtxSsrc);
+        ssrc(sdp, videoSsrc, cname, "ARDAMSv0");
+        ssrc(sdp, rtxSsrc, cname, "ARDAMSv0");
+        line(sdp, "a=" + createCandidate(address));
+
+        // Data channel
+        line(sdp, "m=application 9 DTLS/SCTP 5000");
+        transport(sdp, ufrag, pwd, fingerprint, setup, "data");
+        line(sdp, "a=sctpmap:5000 webrtc-datachannel 1024");
+        line(sdp, "a=" + createCandidate(address));
+        return sdp.toString();
+    }
+
+    /*
+     * Transport attributes of a media section (bundled, so the same in all sections)
+     */
+    private void transport(StringBuilder sdp, String ufrag, String pwd, String fingerprint, String setup, String mid) {
+        line(sdp, "c=IN IP4 0.0.0.0");
+        line(sdp, "a=rtcp:9 IN IP4 0.0.0.0");
+        line(sdp, "a=ice-ufrag:" + ufrag);
+        line(sdp, "a=ice-pwd:" + pwd);
+        line(sdp, "a=ice-options:trickle");
+        line(sdp, "a=fingerprint:sha-256 " + fingerprint);
+        line(sdp, "a=setup:" + setup);
+        line(sdp, "a=mid:" + mid);
+    }
+
+    /*
+     * Video codec and its feedback messages
+     */
+    private void videoCodec(StringBuilder sdp, int payloadType, String codec) {
+        line(sdp, "a=rtpmap:" + payloadType + " " + codec);
+        for (String feedback : new String[] { "goog-remb", "transport-cc", "ccm fir", "nack", "nack pli" }) {
+            line(sdp, "a=rtcp-fb:" + payloadType + " " + feedback);
+        }
+    }
+
+    /*
+     * RTX of the codec
+     */
+    private void rtx(StringBuilder sdp, int payloadType) {
+        line(sdp, "a=rtpmap:" + (payloadType + 1) + " rtx/90000");
+        line(sdp, "a=fmtp:" + (payloadType + 1) + " apt=" + payloadType);
+    }
+
+    /*
+     * Attributes of the SSRC (Plan B)
+     */
+    private void ssrc(StringBuilder sdp, long ssrc, String cname, String label) {
+        line(sdp, "a=ssrc:" + ssrc + " cname:" + cname);
+        line(sdp, "a=ssrc:" + ssrc + " msid:ARDAMS " + label);
+        line(sdp, "a=ssrc:" + ssrc + " mslabel:ARDAMS");
+        line(sdp, "a=ssrc:" + ssrc + " label:" + label);
+    }
+
+    /*
+     * Random SSRC
+     */
+    private long ssrc() {
+        return mRandom.nextInt() & 0xffffffffL;
+    }
+
+    /*
+     * Random DTLS fingerprint (SHA-256)
+     */
+    private String fingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        for (int i = 0; i < 32; i++) {
+            if (i > 0) {
+                fingerprint.append(':');
+            }
+            fingerprint.append(String.format("%02X", mRandom.nextInt(256)));
+        }
+        return fingerprint.toString();
+    }
+
+    /*
+     * Random ICE token
+     */
+    private String token(int length) {
+        final String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder token = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            token.append(chars.charAt(mRandom.nextInt(chars.length())));
+        }
+        return token.toString();
+    }
+
+    /*
+     * Append a line of SDP
+     */
+    private static void line(StringBuilder sdp, String line) {
+        sdp.append(line).append(CRLF);
+    }
+}
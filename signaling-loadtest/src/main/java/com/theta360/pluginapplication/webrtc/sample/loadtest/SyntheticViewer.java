@@ -0,0 +1,169 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.webrtc.sample.loadtest;
+
+import android.util.Log;
+
+import com.theta360.pluginapplication.webrtc.sample.network.CompactEnvelope;
+import com.theta360.pluginapplication.webrtc.sample.network.PerMessageDeflateExtension;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ServerHandshake;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Synthetic viewer class
+ * (Behaves as theta_webrtc.js: subscribes the status events, answers the offer of the camera,
+ *  and then sends ICE candidates at the rate of the run.)
+ */
+public class SyntheticViewer extends WebSocketClient {
+    private static final String TAG = "SyntheticViewer";
+
+    private final SyntheticSdp mSdp;
+    private final String mAddress;
+    private final boolean mCompact;
+    private final LatencyRecorder mDownstream;
+    private final AtomicLong mErrors;
+    private volatile String mCameraPeerId = null;
+
+    /**
+     * Constructor of synthetic viewer class
+     *
+     * @param serverUri URI of the signaling server
+     * @param index Index of the viewer
+     * @param deflate true: offer permessage-deflate
+     * @param compact true: use the compact envelope
+     * @param downstream Recorder of the messages from the camera
+     * @param errors Counter of the errors
+     */
+    public SyntheticViewer(String serverUri, int index, boolean deflate, boolean compact,
+                           LatencyRecorder downstream, AtomicLong errors) {
+        super(URI.create(serverUri + (compact ? "/?enc=compact" : "/")),
+                deflate ? PerMessageDeflateExtension.createDraft() : new Draft_6455());
+        mSdp = new SyntheticSdp(index);
+        mAddress = "192.168." + (index / 250 + 1) + "." + (index % 250 + 2);
+        mCompact = compact;
+        mDownstream = downstream;
+        mErrors = errors;
+    }
+
+    /**
+     * Return whether the offer of the camera is answered
+     *
+     * @return true: answered
+     */
+    public boolean isAnswered() {
+        return mCameraPeerId != null;
+    }
+
+    /**
+     * Send an ICE candidate to the camera
+     */
+    public void sendCandidate() {
+        if (mCameraPeerId == null || !isOpen()) {
+            return;
+        }
+        JSONObject message = new JSONObject();
+        message.put("to", mCameraPeerId);
+        message.put("type", "candidate");
+        message.put("candidate", mSdp.createCandidate(mAddress));
+        message.put("sdpMid", "video");
+        message.put("sdpMLineIndex", 1);
+        sendMessage(message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onOpen(ServerHandshake handshakedata) {
+        JSONObject message = new JSONObject();
+        message.put("type", "subscribe");
+        message.put("events", Collections.singletonList("shootingStatus"));
+        sendMessage(message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onMessage(String message) {
+        JSONObject json;
+        try {
+            json = new JSONObject(message);
+            if (mCompact) {
+                json = CompactEnvelope.decode(json);
+            }
+        } catch (JSONException e) {
+            mErrors.incrementAndGet();
+            return;
+        }
+        if ("welcome".equals(json.optString("type"))) {
+            // Sent by the server, not by the camera
+            return;
+        }
+        mDownstream.record(json.optLong("ts"), message.getBytes(StandardCharsets.UTF_8).length);
+
+        if ("offer".equals(json.optString("type"))) {
+            JSONObject answer = new JSONObject();
+            answer.put("to", json.optString("from"));
+            answer.put("type", "answer");
+            answer.put("sdp", mSdp.createAnswer(mAddress));
+            sendMessage(answer);
+            mCameraPeerId = json.optString("from");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+        if (remote) {
+            Log.w(TAG, "Closed by the server: " + code + " " + reason);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(Exception ex) {
+        Log.e(TAG, "Error: " + ex);
+        mErrors.incrementAndGet();
+    }
+
+    /*
+     * Send the message with the time stamp of the latency measurement
+     */
+    private synchronized void sendMessage(JSONObject message) {
+        message.put("ts", System.nanoTime());
+        try {
+            send(mCompact ? CompactEnvelope.encode(message).toString() : message.toString());
+        } catch (RuntimeException e) {
+            mErrors.incrementAndGet();
+        }
+    }
+}